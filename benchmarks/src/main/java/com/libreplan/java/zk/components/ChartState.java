@@ -0,0 +1,133 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.ChartModel;
+import org.zkoss.zul.SimpleCategoryModel;
+import org.zkoss.zul.SimplePieModel;
+import org.zkoss.zul.SimpleXYModel;
+
+/**
+ * A chart of the given type and number of points, with tooltips so that its areas are drawn.
+ * The data is random, with a fixed seed.
+ */
+@State(Scope.Thread)
+public class ChartState {
+
+    static final int WIDTH = 800;
+
+    static final int HEIGHT = 500;
+
+    /**
+     * time_series, bar, bar3d, xy_bar (a bar chart of an XY model), pie or pie3d.
+     */
+    @Param({"time_series", "bar", "bar3d", "xy_bar", "pie", "pie3d"})
+    public String type;
+
+    /**
+     * Points of the time series and XY bar charts, values of the bar charts, sections of the pies.
+     */
+    @Param({"10", "1000", "100000", "1000000"})
+    public int points;
+
+    final JFreeChartEngine engine = new JFreeChartEngine();
+
+    Chart chart;
+
+    @Setup
+    public void setupChart() {
+        chart = new BenchmarkChart();
+        chart.setWidth(WIDTH + "px");
+        chart.setHeight(HEIGHT + "px");
+        chart.setTitle("Benchmark");
+        chart.setShowTooltiptext(true);
+
+        switch (type) {
+            case "time_series":
+                chart.setType(Chart.TIME_SERIES);
+                break;
+            case "bar":
+            case "xy_bar":
+                chart.setType(Chart.BAR);
+                break;
+            case "bar3d":
+                chart.setType(Chart.BAR);
+                chart.setThreeD(true);
+                break;
+            case "pie":
+                chart.setType(Chart.PIE);
+                break;
+            case "pie3d":
+                chart.setType(Chart.PIE);
+                chart.setThreeD(true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown chart type: " + type);
+        }
+        chart.setModel(newModel());
+
+        // A draw converts the whole model, as a first draw does
+        chart.setAttribute("incremental-dataset", Boolean.FALSE);
+    }
+
+    private ChartModel newModel() {
+        final Random random = new Random(42);
+
+        if ("time_series".equals(type) || "xy_bar".equals(type)) {
+            final SimpleXYModel model = new SimpleXYModel();
+            final long start = 1500000000000L;
+            double value = 100;
+            for (int i = 0; i < points; i++) {
+                value += random.nextGaussian();
+                model.addValue("series", "time_series".equals(type) ? start + i * 60000L : i, value);
+            }
+            return model;
+        }
+
+        if (type.startsWith("pie")) {
+            final SimplePieModel model = new SimplePieModel();
+            for (int i = 0; i < points; i++) {
+                model.setValue("section " + i, 1 + random.nextInt(100));
+            }
+            return model;
+        }
+
+        // Two series, as bar charts usually compare
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        for (int i = 0; i < points; i++) {
+            model.setValue("series " + (i % 2), "category " + (i / 2), random.nextInt(100));
+        }
+        return model;
+    }
+
+    /**
+     * Chart drawn by the benchmarks only, outside of any execution.
+     */
+    static final class BenchmarkChart extends Chart {
+
+        @Override
+        protected void smartDrawChart() {
+            // Drawn by the benchmarks
+        }
+    }
+}
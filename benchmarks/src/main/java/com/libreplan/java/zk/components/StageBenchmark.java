@@ -0,0 +1,119 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.entity.ChartEntity;
+import org.jfree.data.general.Dataset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.zkoss.zul.Area;
+
+/**
+ * Each stage of a draw on its own, with the output of the previous stages prepared once:
+ * model to dataset, chart creation, rasterization, entities to areas and PNG encoding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class StageBenchmark {
+
+    /**
+     * Chart whose dataset is converted once, so creating the chart takes it as it is.
+     */
+    public static class SyncedState extends ChartState {
+
+        Dataset dataset;
+
+        @Setup
+        public void setupDataset() {
+            dataset = engine.getChartImpl(chart).getDataset(chart);
+        }
+    }
+
+    /**
+     * The JFreeChart of the chart, its entities and its image.
+     */
+    public static class DrawnState extends ChartState {
+
+        JFreeChart jfchart;
+
+        ChartRenderingInfo info;
+
+        BufferedImage image;
+
+        @Setup
+        public void setupDrawing() {
+            final JFreeChartEngine.ChartImpl impl = engine.getChartImpl(chart);
+            jfchart = impl.createChart(chart, impl.getDataset(chart));
+            engine.setupChart(chart, jfchart);
+            info = new ChartRenderingInfo();
+            image = RasterPool.draw(jfchart, WIDTH, HEIGHT, info); // Not given back, kept for encode
+        }
+    }
+
+    @Benchmark
+    public Dataset dataset(ChartState state) {
+        return state.engine.getChartImpl(state.chart).getDataset(state.chart);
+    }
+
+    @Benchmark
+    public JFreeChart createChart(SyncedState state) {
+        final JFreeChart jfchart = state.engine.getChartImpl(state.chart).createChart(state.chart, state.dataset);
+        state.engine.setupChart(state.chart, jfchart);
+        return jfchart;
+    }
+
+    @Benchmark
+    public ChartRenderingInfo rasterize(DrawnState state) {
+        final ChartRenderingInfo info = new ChartRenderingInfo();
+        RasterPool.release(RasterPool.draw(state.jfchart, ChartState.WIDTH, ChartState.HEIGHT, info));
+        return info;
+    }
+
+    @Benchmark
+    public void areas(DrawnState state, Blackhole blackhole) {
+        final List<ChartEntity> entities = new ArrayList<>();
+        final List<AreaInfo> areas = new ArrayList<>();
+        state.engine.collectAreas(state.chart, state.engine.getChartImpl(state.chart), state.info, true,
+                entities, new int[state.info.getEntityCollection().getEntityCount()], areas);
+
+        for (int i = 0; i < areas.size(); i++) {
+            final Area area = areas.get(i).newArea("area_" + i);
+            blackhole.consume(area);
+        }
+    }
+
+    @Benchmark
+    public byte[] encode(DrawnState state) {
+        return PngEncoder.encode(state.image, PngEncoder.toLevel(null), true);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.zkoss.zul.Area;
+
+/**
+ * Detached description of one hot region of a rendered chart.
+ * It keeps what an {@link Area} needs (shape, coords, tooltip and attributes)
+ * without holding on to the JFreeChart entity, so it can be stored and replayed.
+ */
+final class AreaInfo implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String _shape;
+
+    private final String _coords;
+
+    private String _tooltiptext;
+
+    private final Map<String, Object> _attrs = new LinkedHashMap<>(8);
+
+    AreaInfo(String shape, String coords) {
+        _shape = shape;
+        _coords = coords;
+    }
+
+    String getShape() {
+        return _shape;
+    }
+
+    String getCoords() {
+        return _coords;
+    }
+
+    String getTooltiptext() {
+        return _tooltiptext;
+    }
+
+    void setTooltiptext(String tooltiptext) {
+        _tooltiptext = tooltiptext;
+    }
+
+    Object getAttribute(String name) {
+        return _attrs.get(name);
+    }
+
+    void setAttribute(String name, Object value) {
+        _attrs.put(name, value);
+    }
+
+    Map<String, Object> getAttributes() {
+        return _attrs;
+    }
+
+    /**
+     * Creates a new {@link Area} with this region's properties.
+     * The caller is responsible for attaching it to the chart.
+     */
+    Area newArea(String id) {
+        Area area = new Area();
+        area.setCoords(_coords);
+        area.setShape(_shape);
+        area.setId(id);
+
+        if (_tooltiptext != null) {
+            area.setTooltiptext(_tooltiptext);
+        }
+
+        for (Map.Entry<String, Object> attr : _attrs.entrySet()) {
+            area.setAttribute(attr.getKey(), attr.getValue());
+        }
+
+        return area;
+    }
+
+    /**
+     * Takes the tooltip and attributes of an area created with {@link #newArea(String)},
+     * after an area listener changed them.
+     */
+    void update(Area area) {
+        _tooltiptext = area.getTooltiptext();
+        _attrs.clear();
+        _attrs.putAll(area.getAttributes());
+    }
+
+    /**
+     * Rough number of bytes retained by this region, used for cache budgets.
+     */
+    int estimateSize() {
+        int size = 48 + 2 * (_coords != null ? _coords.length() : 0);
+        if (_tooltiptext != null) {
+            size += 2 * _tooltiptext.length();
+        }
+        return size + 32 * _attrs.size();
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.zkoss.image.AImage;
+import org.zkoss.lang.Library;
+import org.zkoss.zk.ui.Desktop;
+import org.zkoss.zk.ui.DesktopUnavailableException;
+import org.zkoss.zk.ui.Executions;
+import org.zkoss.zk.ui.UiException;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zul.Chart;
+
+/**
+ * Render of a chart off the event thread.
+ *
+ * The draw returns at once the image of the previous render of the chart, or an empty
+ * placeholder, and the render runs on an executor shared by all the engines.
+ * Its image and areas are put on the chart through server push, unless the chart was drawn
+ * again in the meantime: a newer draw cancels the pending render.
+ *
+ * The executor runs at most {@link #THREADS_PROPERTY} renders at a time, the number of
+ * processors by default. It uses virtual threads on the JDKs that have them.
+ */
+final class AsyncRender {
+
+    public static final String THREADS_PROPERTY = "com.libreplan.java.zk.components.JFreeChartEngine.async.threads";
+
+    private static final String ASYNC_RENDER_ATTR = "jfreechart-async-render";
+
+    private static final String ON_RENDERED = "onJFreeChartRendered";
+
+    private static volatile ExecutorService _executor;
+
+    private static volatile byte[] _placeholder;
+
+    /**
+     * Incremented by each draw of the chart, so a render can tell whether it is still the latest.
+     */
+    private int _generation;
+
+    private Future<?> _future;
+
+    private byte[] _image;
+
+    /**
+     * The two phases of an asynchronous render.
+     */
+    interface Job {
+
+        /**
+         * Renders the chart, off the event thread, and returns its image.
+         */
+        byte[] draw();
+
+        /**
+         * Puts the areas of the render on the chart, in the event thread.
+         */
+        void apply();
+    }
+
+    /**
+     * Whether the chart can be rendered asynchronously: it must be drawn in an execution
+     * of its desktop, where server push can be enabled.
+     */
+    static boolean isAvailable(Chart chart) {
+        return Executions.getCurrent() != null && chart.getDesktop() != null;
+    }
+
+    /**
+     * Starts the render of a chart and returns the image to show until it is done.
+     */
+    static byte[] submit(Chart chart, Job job) {
+        final Desktop desktop = chart.getDesktop();
+        ServerPush.enable(chart);
+
+        AsyncRender state = (AsyncRender) chart.getAttribute(ASYNC_RENDER_ATTR);
+        if (state == null) {
+            state = new AsyncRender();
+            chart.setAttribute(ASYNC_RENDER_ATTR, state);
+        }
+
+        final AsyncRender current = state;
+        final int generation = ++state._generation;
+        state._future = getExecutor().submit(() -> {
+            byte[] image = null;
+            RuntimeException failure = null;
+            try {
+                image = job.draw();
+            } catch (RuntimeException ex) {
+                failure = ex;
+            }
+
+            final byte[] rendered = image;
+            final RuntimeException error = failure;
+            try {
+                Executions.schedule(desktop, event -> {
+                    if (current._generation != generation || chart.getAttribute(ASYNC_RENDER_ATTR) != current) {
+                        return; // Stale
+                    }
+                    current._future = null;
+                    if (error != null) {
+                        throw error;
+                    }
+
+                    current._image = rendered;
+                    chart.setContent(newImage(rendered));
+                    job.apply();
+                }, new Event(ON_RENDERED, chart));
+            } catch (DesktopUnavailableException | IllegalStateException ex) {
+                // The desktop is gone or the chart was detached, nobody waits for the chart
+            }
+        });
+
+        return state._image != null ? state._image : getPlaceholder();
+    }
+
+    /**
+     * Cancels the pending render of a chart, if any.
+     */
+    static void cancel(Chart chart) {
+        final AsyncRender state = (AsyncRender) chart.getAttribute(ASYNC_RENDER_ATTR);
+        if (state != null) {
+            state._generation++;
+            if (state._future != null) {
+                state._future.cancel(true);
+                state._future = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the image to set on a chart, named as the charts name their images.
+     */
+    static AImage newImage(byte[] image) {
+        try {
+            return new AImage("chart" + new Date().getTime(), image);
+        } catch (IOException ex) {
+            throw UiException.Aide.wrap(ex);
+        }
+    }
+
+    /**
+     * Returns a transparent image of one pixel, stretched to the size of the chart.
+     */
+    static byte[] getPlaceholder() {
+        if (_placeholder == null) {
+            _placeholder = PngEncoder.encode(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB),
+                    PngEncoder.toLevel(null), true);
+        }
+        return _placeholder;
+    }
+
+    private static ExecutorService getExecutor() {
+        if (_executor == null) {
+            synchronized (AsyncRender.class) {
+                if (_executor == null) {
+                    _executor = newExecutor(Math.max(Library.getIntProperty(THREADS_PROPERTY,
+                            Runtime.getRuntime().availableProcessors()), 1));
+                }
+            }
+        }
+        return _executor;
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        try {
+            final ExecutorService virtual = (ExecutorService)
+                    Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new BoundedExecutor(virtual, threads);
+        } catch (ReflectiveOperationException ex) {
+            // No virtual threads before Java 21
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadFactory factory = task -> {
+            final Thread thread = new Thread(task, "jfreechart-render-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Virtual thread executor running at most a number of tasks at a time.
+     */
+    private static final class BoundedExecutor extends AbstractExecutorService {
+
+        private final ExecutorService _delegate;
+
+        private final Semaphore _permits;
+
+        BoundedExecutor(ExecutorService delegate, int permits) {
+            _delegate = delegate;
+            _permits = new Semaphore(permits);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            _delegate.execute(() -> {
+                try {
+                    _permits.acquire();
+                } catch (InterruptedException ex) {
+                    return; // Shut down while waiting
+                }
+                try {
+                    command.run();
+                } finally {
+                    _permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            _delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return _delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return _delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return _delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return _delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
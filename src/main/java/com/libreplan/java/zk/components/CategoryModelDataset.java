@@ -0,0 +1,247 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.UnknownKeyException;
+import org.jfree.data.category.CategoryDataset;
+import org.jfree.data.general.AbstractDataset;
+import org.zkoss.zul.CategoryModel;
+
+/**
+ * CategoryDataset over a dense matrix of values, copied once from a {@link CategoryModel}.
+ * It replaces DefaultCategoryDataset, whose keys are looked up linearly on each setValue:
+ * here the row (series) and column (category) keys are hashed, so the copy is linear in the
+ * number of cells.
+ *
+ * The keys are in the order they first appear in the model; a removal from the model rebuilds
+ * the dataset, see {@link DatasetSync.CategorySync}.
+ * A null value is stored as NaN and returned as null. The values that are not Doubles, such as
+ * the Integers of most models, and NaN Doubles are also kept as they are, to be returned unchanged.
+ */
+final class CategoryModelDataset extends AbstractDataset implements CategoryDataset, RangeInfo {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Comparable<?>> _rowKeys = new ArrayList<>();
+
+    private final List<Comparable<?>> _columnKeys = new ArrayList<>();
+
+    private final Map<Comparable<?>, Integer> _rowIndexes = new HashMap<>();
+
+    private final Map<Comparable<?>, Integer> _columnIndexes = new HashMap<>();
+
+    /**
+     * The values by row then column; each row has room for the same number of columns.
+     */
+    private double[][] _values = new double[4][];
+
+    /**
+     * The values that are not Doubles, by row then column; null for a row with none.
+     */
+    private Number[][] _numbers = new Number[4][];
+
+    private int _columnCapacity = 4;
+
+    /**
+     * Transfer a CategoryModel into a dataset, in one pass over its keys.
+     */
+    static CategoryModelDataset of(CategoryModel model) {
+        final CategoryModelDataset dataset = new CategoryModelDataset();
+        for (final List<Comparable<?>> key : model.getKeys()) {
+            final Comparable<?> series = key.get(0);
+            final Comparable<?> category = key.get(1);
+            dataset.put(model.getValue(series, category), series, category);
+        }
+        return dataset;
+    }
+
+    /**
+     * Sets a value, adding its row and column if they are new.
+     */
+    void setValue(Number value, Comparable<?> rowKey, Comparable<?> columnKey) {
+        put(value, rowKey, columnKey);
+        fireDatasetChanged();
+    }
+
+    private void put(Number value, Comparable<?> rowKey, Comparable<?> columnKey) {
+        if (rowKey == null || columnKey == null) {
+            throw new IllegalArgumentException("Null key");
+        }
+
+        Integer column = _columnIndexes.get(columnKey);
+        if (column == null) {
+            column = addColumn(columnKey);
+        }
+        Integer row = _rowIndexes.get(rowKey);
+        if (row == null) {
+            row = addRow(rowKey);
+        }
+        _values[row][column] = value != null ? value.doubleValue() : Double.NaN;
+
+        if (value != null && (!(value instanceof Double) || Double.isNaN(value.doubleValue()))) {
+            if (_numbers[row] == null) {
+                _numbers[row] = new Number[_columnCapacity];
+            }
+            _numbers[row][column] = value;
+        } else if (_numbers[row] != null) {
+            _numbers[row][column] = null;
+        }
+    }
+
+    private int addRow(Comparable<?> key) {
+        final int row = _rowKeys.size();
+        if (row == _values.length) {
+            _values = Arrays.copyOf(_values, row * 2);
+            _numbers = Arrays.copyOf(_numbers, row * 2);
+        }
+        final double[] values = new double[_columnCapacity];
+        Arrays.fill(values, Double.NaN);
+        _values[row] = values;
+
+        _rowKeys.add(key);
+        _rowIndexes.put(key, row);
+        return row;
+    }
+
+    private int addColumn(Comparable<?> key) {
+        final int column = _columnKeys.size();
+        if (column == _columnCapacity) {
+            _columnCapacity *= 2;
+            for (int row = 0; row < _rowKeys.size(); row++) {
+                final double[] values = Arrays.copyOf(_values[row], _columnCapacity);
+                Arrays.fill(values, column, _columnCapacity, Double.NaN);
+                _values[row] = values;
+                if (_numbers[row] != null) {
+                    _numbers[row] = Arrays.copyOf(_numbers[row], _columnCapacity);
+                }
+            }
+        }
+
+        _columnKeys.add(key);
+        _columnIndexes.put(key, column);
+        return column;
+    }
+
+    @Override
+    public Comparable<?> getRowKey(int row) {
+        return _rowKeys.get(row);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int getRowIndex(Comparable key) {
+        final Integer row = _rowIndexes.get(key);
+        return row != null ? row : -1;
+    }
+
+    @Override
+    public List<Comparable<?>> getRowKeys() {
+        return Collections.unmodifiableList(_rowKeys);
+    }
+
+    @Override
+    public Comparable<?> getColumnKey(int column) {
+        return _columnKeys.get(column);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int getColumnIndex(Comparable key) {
+        final Integer column = _columnIndexes.get(key);
+        return column != null ? column : -1;
+    }
+
+    @Override
+    public List<Comparable<?>> getColumnKeys() {
+        return Collections.unmodifiableList(_columnKeys);
+    }
+
+    @Override
+    public int getRowCount() {
+        return _rowKeys.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return _columnKeys.size();
+    }
+
+    @Override
+    public Number getValue(int row, int column) {
+        if (row >= _rowKeys.size() || column >= _columnKeys.size()) {
+            throw new IndexOutOfBoundsException("Cell: (" + row + ", " + column + ")");
+        }
+        final Number[] numbers = _numbers[row];
+        if (numbers != null && numbers[column] != null) {
+            return numbers[column];
+        }
+        final double value = _values[row][column];
+        return Double.isNaN(value) ? null : (Number) value;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Number getValue(Comparable rowKey, Comparable columnKey) {
+        final int row = getRowIndex(rowKey);
+        if (row < 0) {
+            throw new UnknownKeyException("Unrecognised rowKey: " + rowKey);
+        }
+        final int column = getColumnIndex(columnKey);
+        if (column < 0) {
+            throw new UnknownKeyException("Unrecognised columnKey: " + columnKey);
+        }
+        return getValue(row, column);
+    }
+
+    @Override
+    public double getRangeLowerBound(boolean includeInterval) {
+        final Range range = getRangeBounds(includeInterval);
+        return range != null ? range.getLowerBound() : Double.NaN;
+    }
+
+    @Override
+    public double getRangeUpperBound(boolean includeInterval) {
+        final Range range = getRangeBounds(includeInterval);
+        return range != null ? range.getUpperBound() : Double.NaN;
+    }
+
+    @Override
+    public Range getRangeBounds(boolean includeInterval) {
+        double lower = Double.POSITIVE_INFINITY;
+        double upper = Double.NEGATIVE_INFINITY;
+
+        for (int row = 0; row < _rowKeys.size(); row++) {
+            final double[] values = _values[row];
+            for (int column = 0; column < _columnKeys.size(); column++) {
+                final double value = values[column];
+                if (!Double.isNaN(value)) {
+                    lower = Math.min(lower, value);
+                    upper = Math.max(upper, value);
+                }
+            }
+        }
+        return lower <= upper ? new Range(lower, upper) : null;
+    }
+}
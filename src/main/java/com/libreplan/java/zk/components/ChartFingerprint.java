@@ -0,0 +1,307 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.zkoss.util.Locales;
+import org.zkoss.util.TimeZones;
+import org.zkoss.zk.ui.UiException;
+import org.zkoss.zul.CategoryModel;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.ChartModel;
+import org.zkoss.zul.PieModel;
+import org.zkoss.zul.XYModel;
+import org.zkoss.zul.event.ChartDataEvent;
+import org.zkoss.zul.event.ChartDataListener;
+
+/**
+ * Computes a content hash of everything {@link JFreeChartEngine#drawChart(Object)} reads
+ * from a {@link Chart}: its properties, the attributes the engine understands and the model data.
+ * Two charts with the same fingerprint render to the same image and areas.
+ *
+ * The hash of the model data is kept on the chart until the model changes,
+ * so a chart drawn several times with the same data hashes it once.
+ */
+final class ChartFingerprint {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final String MODEL_DIGEST_ATTR = "jfreechart-model-digest";
+
+    private final MessageDigest _digest;
+
+    private final byte[] _buffer = new byte[8];
+
+    private ChartFingerprint() {
+        try {
+            _digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw UiException.Aide.wrap(ex);
+        }
+    }
+
+    /**
+     * Returns the fingerprint of the chart, or null if its model cannot be fingerprinted.
+     *
+     * @param withAreas whether the render will also produce the image map areas
+     */
+    static String of(Chart chart, boolean withAreas) {
+        final ChartModel model = chart.getModel();
+        if (!(model instanceof XYModel || model instanceof CategoryModel || model instanceof PieModel)) {
+            return null;
+        }
+
+        ChartFingerprint fp = new ChartFingerprint();
+
+        fp.add(chart.getType());
+        fp.add(chart.isThreeD());
+        fp.add(chart.getIntWidth());
+        fp.add(chart.getIntHeight());
+        fp.add(chart.getTitle());
+        fp.add(chart.getXAxis());
+        fp.add(chart.getYAxis());
+        fp.add(chart.isShowLegend());
+        fp.add(chart.isShowTooltiptext());
+        fp.add(withAreas);
+
+        fp.add(chart.getFgAlpha());
+        fp.add(chart.getBgAlpha());
+        fp.add(chart.getPaneAlpha());
+        fp.add(chart.getBgRGB());
+        fp.add(chart.getPaneRGB());
+
+        fp.add(chart.getTitleFont());
+        fp.add(chart.getLegendFont());
+        fp.add(chart.getXAxisFont());
+        fp.add(chart.getXAxisTickFont());
+        fp.add(chart.getYAxisFont());
+        fp.add(chart.getYAxisTickFont());
+
+        fp.add(chart.getOrient());
+        fp.add(chart.getPeriod());
+        fp.add(chart.getDateFormat());
+        fp.add(chart.getDateFormat() != null ? Locales.getCurrent().toString() : null);
+
+        final TimeZone zone = chart.getTimeZone();
+        fp.add(zone != null ? zone.getID() : null);
+        fp.add(TimeZones.getCurrent().getID());
+
+        Color[] colorMappings = (Color[]) chart.getAttribute("series-color-mappings");
+        fp.add(colorMappings != null ? colorMappings.length : -1);
+        if (colorMappings != null) {
+            for (Color color : colorMappings) {
+                fp.add(color != null ? color.getRGB() : 0);
+            }
+        }
+
+        fp.add((Number) chart.getAttribute("range-axis-lower-bound"));
+        fp.add((Number) chart.getAttribute("range-axis-upper-bound"));
+
+        final Object aggregation = chart.getAttribute("period-aggregation");
+        fp.add(aggregation != null ? aggregation.toString() : null);
+        final Object downsampling = chart.getAttribute("downsampling");
+        fp.add(downsampling != null ? downsampling.toString() : null);
+        fp.add((Number) chart.getAttribute("downsampling-points"));
+        fp.add(toNumber(chart.getAttribute("domain-axis-lower-bound")));
+        fp.add(toNumber(chart.getAttribute("domain-axis-upper-bound")));
+        final Object pyramid = chart.getAttribute("resolution-pyramid");
+        fp.add(pyramid != null ? pyramid.toString() : null);
+        fp.add(PngEncoder.toLevel(chart.getAttribute("png-compression")));
+        fp.add(!Boolean.FALSE.equals(chart.getAttribute("png-palette")));
+        final Object format = chart.getAttribute("image-format");
+        fp.add(format != null ? format.toString() : null);
+        fp.add(!Boolean.FALSE.equals(chart.getAttribute("data-areas")));
+        for (String name : new String[] {"pie-top-sections", "pie-min-percent", "pie-other-label",
+                "gantt-first-task", "gantt-visible-tasks"}) {
+            final Object value = chart.getAttribute(name);
+            fp.add(value != null ? value.toString() : null);
+        }
+
+        fp.add(model.getClass().getName());
+        fp._digest.update(ModelDigest.of(chart, model));
+
+        return fp.toHex();
+    }
+
+    /**
+     * The hash of the data of a model, valid until the model fires a change.
+     */
+    private static final class ModelDigest implements ChartDataListener {
+
+        private final ChartModel _model;
+
+        private byte[] _digest;
+
+        private volatile boolean _changed = true;
+
+        private ModelDigest(ChartModel model) {
+            _model = model;
+        }
+
+        static byte[] of(Chart chart, ChartModel model) {
+            ModelDigest digest = (ModelDigest) chart.getAttribute(MODEL_DIGEST_ATTR);
+            if (digest == null || digest._model != model) {
+                if (digest != null) {
+                    digest._model.removeChartDataListener(digest);
+                }
+                digest = new ModelDigest(model);
+                model.addChartDataListener(digest);
+                chart.setAttribute(MODEL_DIGEST_ATTR, digest);
+            }
+
+            if (digest._changed) {
+                digest._changed = false; // Before reading the model, so a change meanwhile is not missed
+                final ChartFingerprint fp = new ChartFingerprint();
+                if (model instanceof XYModel) {
+                    fp.addXYModel((XYModel) model);
+                } else if (model instanceof CategoryModel) {
+                    fp.addCategoryModel((CategoryModel) model);
+                } else {
+                    fp.addPieModel((PieModel) model);
+                }
+                digest._digest = fp._digest.digest();
+            }
+            return digest._digest;
+        }
+
+        @Override
+        public void onChange(ChartDataEvent event) {
+            _changed = true;
+        }
+    }
+
+    private static Number toNumber(Object value) {
+        return value instanceof Date ? (Number) ((Date) value).getTime() : (Number) value;
+    }
+
+    private void addXYModel(XYModel model) {
+        add(model.isAutoSort());
+        for (Comparable<?> series : model.getSeries()) {
+            addKey(series);
+            final int size = model.getDataCount(series);
+            add(size);
+
+            for (int j = 0; j < size; ++j) {
+                add(model.getX(series, j));
+                add(model.getY(series, j));
+            }
+        }
+    }
+
+    private void addCategoryModel(CategoryModel model) {
+        for (List<Comparable<?>> key : model.getKeys()) {
+            final Comparable<?> series = key.get(0);
+            final Comparable<?> category = key.get(1);
+            addKey(series);
+            addKey(category);
+            add(model.getValue(series, category));
+        }
+    }
+
+    private void addPieModel(PieModel model) {
+        for (Comparable<?> category : model.getCategories()) {
+            addKey(category);
+            add(model.getValue(category));
+        }
+    }
+
+    private void addKey(Object key) {
+        add(key != null ? key.getClass().getName() : null);
+        add(key != null ? key.toString() : null);
+    }
+
+    private void add(String value) {
+        if (value == null) {
+            add(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            add(bytes.length);
+            _digest.update(bytes);
+        }
+    }
+
+    private void add(boolean value) {
+        _digest.update((byte) (value ? 1 : 0));
+    }
+
+    private void add(int value) {
+        _buffer[0] = (byte) (value >>> 24);
+        _buffer[1] = (byte) (value >>> 16);
+        _buffer[2] = (byte) (value >>> 8);
+        _buffer[3] = (byte) value;
+        _digest.update(_buffer, 0, 4);
+    }
+
+    private void add(long value) {
+        for (int i = 7; i >= 0; i--) {
+            _buffer[i] = (byte) value;
+            value >>>= 8;
+        }
+        _digest.update(_buffer, 0, 8);
+    }
+
+    private void add(Number value) {
+        if (value == null) {
+            _digest.update((byte) 0);
+        } else if (value instanceof Long || value instanceof Integer ||
+                value instanceof Short || value instanceof Byte) {
+            _digest.update((byte) 1);
+            add(value.longValue());
+        } else {
+            _digest.update((byte) 2);
+            add(Double.doubleToLongBits(value.doubleValue()));
+        }
+    }
+
+    private void add(int[] rgb) {
+        if (rgb == null) {
+            add(-1);
+        } else {
+            add(rgb.length);
+            for (int c : rgb) {
+                add(c);
+            }
+        }
+    }
+
+    private void add(Font font) {
+        if (font == null) {
+            add((String) null);
+        } else {
+            add(font.getName());
+            add(font.getStyle());
+            add(Float.floatToIntBits(font.getSize2D()));
+        }
+    }
+
+    private String toHex() {
+        final byte[] hash = _digest.digest();
+        final char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.function.Supplier;
+
+import org.jfree.data.general.Dataset;
+import org.zkoss.util.Locales;
+import org.zkoss.util.TimeZones;
+import org.zkoss.zul.CategoryModel;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.ChartModel;
+import org.zkoss.zul.GanttModel;
+import org.zkoss.zul.XYModel;
+
+/**
+ * Copy of a chart taken in the event thread for a render off it, see {@link AsyncRender}.
+ * It has the properties and attributes of the chart, the dataset of its model, and the series
+ * and categories its legend and tick labels are decoded with, so the render reads neither
+ * the chart nor its model while the event thread changes them.
+ * It has no model and no page, and nothing changes it once taken.
+ */
+final class ChartSnapshot extends Chart {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The attributes of the engine, which keep its state for the chart itself. */
+    private static final String ENGINE_ATTR_PREFIX = "jfreechart-";
+
+    private final Dataset _dataset;
+
+    private final List<Comparable<?>> _series;
+
+    private final List<Comparable<?>> _categories;
+
+    private final Locale _locale;
+
+    private final TimeZone _timeZone;
+
+    ChartSnapshot(Chart chart, Dataset dataset) {
+        setId(chart.getId());
+        setType(chart.getType());
+        setThreeD(chart.isThreeD());
+        setWidth(chart.getIntWidth() + "px");
+        setHeight(chart.getIntHeight() + "px");
+        setTitle(chart.getTitle());
+        setXAxis(chart.getXAxis());
+        setYAxis(chart.getYAxis());
+        setShowLegend(chart.isShowLegend());
+        setShowTooltiptext(chart.isShowTooltiptext());
+        setOrient(chart.getOrient());
+        setPeriod(chart.getPeriod());
+        setTimeZone(chart.getTimeZone());
+        setDateFormat(chart.getDateFormat());
+        setFgAlpha(chart.getFgAlpha());
+        setBgAlpha(chart.getBgAlpha());
+        setBgColor(chart.getBgColor());
+        setPaneAlpha(chart.getPaneAlpha());
+        setPaneColor(chart.getPaneColor());
+        setTitleFont(chart.getTitleFont());
+        setLegendFont(chart.getLegendFont());
+        setXAxisFont(chart.getXAxisFont());
+        setXAxisTickFont(chart.getXAxisTickFont());
+        setYAxisFont(chart.getYAxisFont());
+        setYAxisTickFont(chart.getYAxisTickFont());
+
+        for (Map.Entry<String, Object> attribute : chart.getAttributes().entrySet()) {
+            if (!attribute.getKey().startsWith(ENGINE_ATTR_PREFIX)) {
+                setAttribute(attribute.getKey(), attribute.getValue());
+            }
+        }
+
+        _dataset = dataset;
+        _series = seriesOf(chart.getModel());
+        _categories = categoriesOf(chart.getModel());
+        _locale = Locales.getCurrent();
+        _timeZone = TimeZones.getCurrent();
+    }
+
+    @Override
+    protected void smartDrawChart() {
+        // Never drawn as a component
+    }
+
+    Dataset getDataset() {
+        return _dataset;
+    }
+
+    /**
+     * Runs a render of the snapshot with the locale and time zone of the execution it was taken in.
+     */
+    <T> T render(Supplier<T> render) {
+        final Locale locale = Locales.setThreadLocal(_locale);
+        final TimeZone timeZone = TimeZones.setThreadLocal(_timeZone);
+        try {
+            return render.get();
+        } finally {
+            Locales.setThreadLocal(locale);
+            TimeZones.setThreadLocal(timeZone);
+        }
+    }
+
+    /**
+     * Returns the series at an index of the model of a chart, or of the chart it is a snapshot of,
+     * as the legend lists them; null for a model without series.
+     */
+    static Comparable<?> getSeries(Chart chart, int index) {
+        if (chart instanceof ChartSnapshot) {
+            final List<Comparable<?>> series = ((ChartSnapshot) chart)._series;
+            return series != null ? series.get(index) : null;
+        }
+
+        final ChartModel model = chart.getModel();
+        if (model instanceof CategoryModel) {
+            return ((CategoryModel) model).getSeries(index);
+        } else if (model instanceof XYModel) {
+            return ((XYModel) model).getSeries(index);
+        } else if (model instanceof GanttModel) {
+            return ((GanttModel) model).getAllSeries()[index];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the category at an index of the category model of a chart, or of the chart
+     * it is a snapshot of; null for another model.
+     */
+    static Comparable<?> getCategory(Chart chart, int index) {
+        if (chart instanceof ChartSnapshot) {
+            final List<Comparable<?>> categories = ((ChartSnapshot) chart)._categories;
+            return categories != null ? categories.get(index) : null;
+        }
+
+        final ChartModel model = chart.getModel();
+        return model instanceof CategoryModel ? ((CategoryModel) model).getCategory(index) : null;
+    }
+
+    private static List<Comparable<?>> seriesOf(ChartModel model) {
+        if (model instanceof CategoryModel) {
+            final CategoryModel categoryModel = (CategoryModel) model;
+            final List<Comparable<?>> series = new ArrayList<>();
+            final int size = categoryModel.getSeries().size();
+            for (int i = 0; i < size; i++) {
+                series.add(categoryModel.getSeries(i));
+            }
+            return series;
+        } else if (model instanceof XYModel) {
+            final XYModel xyModel = (XYModel) model;
+            final List<Comparable<?>> series = new ArrayList<>();
+            final int size = xyModel.getSeries().size();
+            for (int i = 0; i < size; i++) {
+                series.add(xyModel.getSeries(i));
+            }
+            return series;
+        } else if (model instanceof GanttModel) {
+            return new ArrayList<>(Arrays.asList(((GanttModel) model).getAllSeries()));
+        }
+        return null;
+    }
+
+    private static List<Comparable<?>> categoriesOf(ChartModel model) {
+        if (!(model instanceof CategoryModel)) {
+            return null;
+        }
+
+        final CategoryModel categoryModel = (CategoryModel) model;
+        final List<Comparable<?>> categories = new ArrayList<>();
+        final int size = categoryModel.getCategories().size();
+        for (int i = 0; i < size; i++) {
+            categories.add(categoryModel.getCategory(i));
+        }
+        return categories;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.zkoss.json.JSONValue;
+import org.zkoss.zk.au.out.AuInvoke;
+import org.zkoss.zk.ui.Executions;
+import org.zkoss.zk.ui.util.Clients;
+import org.zkoss.zul.Chart;
+
+/**
+ * Image map of a chart sent to the client as a single payload,
+ * instead of one {@link org.zkoss.zul.Area} component per region.
+ *
+ * The payload holds the shapes, the coordinates as one flat array and a table of the
+ * distinct tooltips; a widget override of the chart builds the HTML map from it.
+ * A click on a region is sent as the usual onClick event of the chart, with the id
+ * the area component would have had, and resolved with {@link #lookup(Chart, String)}.
+ */
+final class ClientAreaMap {
+
+    private static final String AREA_MAP_ATTR = "jfreechart-area-map";
+
+    private static final String DATA_OVERRIDE = "_jfcMap";
+
+    private static final String BUILD_OVERRIDE = "jfcMap";
+
+    /**
+     * Rebuilds the client side of the chart when its widget is rendered again,
+     * for the image map and for the SVG of {@link SvgChart}.
+     */
+    static final String BIND_LISTENER = "if (this.jfcMap) this.jfcMap(); if (this.jfcSvg) this.jfcSvg();";
+
+    private static final String BUILD_SCRIPT =
+            "function () {\n" +
+            "  var d = this._jfcMap, map = this.$n('map'), img = this.getImageNode();\n" +
+            "  if (!map || !img) return;\n" +
+            "  jq(map).children('area[data-jfc]').remove();\n" +
+            "  if (!d) return;\n" +
+            "  var html = [], k = 0;\n" +
+            "  for (var i = 0; i < d.s.length; i++) {\n" +
+            "    var tip = d.i[i] >= 0 ? d.t[d.i[i]] : null;\n" +
+            "    html.push('<area href=\"javascript:;\" data-jfc=\"', i, '\" shape=\"', d.h[d.s[i]],\n" +
+            "      '\" coords=\"', d.c.slice(k, d.o[i]).join(','), '\"',\n" +
+            "      tip != null ? ' title=\"' + zUtl.encodeXML(tip) + '\"' : '', '/>');\n" +
+            "    k = d.o[i];\n" +
+            "  }\n" +
+            "  jq(map).append(html.join(''));\n" +
+            "  img.useMap = '#' + this.uuid + '-map';\n" +
+            "  img.isMap = false;\n" +
+            "  if (!map._jfc) {\n" +
+            "    var wgt = this;\n" +
+            "    map._jfc = true;\n" +
+            "    jq(map).on('click', 'area[data-jfc]', function (evt) {\n" +
+            "      if (zul.wgt.Imagemap._toofast()) return;\n" +
+            "      wgt.fire('onClick', {area: wgt._jfcMap.p + this.getAttribute('data-jfc')}, {ctl: true});\n" +
+            "      evt.preventDefault();\n" +
+            "      evt.stopPropagation();\n" +
+            "    });\n" +
+            "  }\n" +
+            "}";
+
+    private final String _idPrefix;
+
+    private final List<AreaInfo> _areas;
+
+    private ClientAreaMap(String idPrefix, List<AreaInfo> areas) {
+        _idPrefix = idPrefix;
+        _areas = areas;
+    }
+
+    /**
+     * Keeps the regions of the last draw on the chart and sends them to the client.
+     *
+     * @param idPrefix the prefix of the area ids, followed by the index of the region
+     */
+    static void publish(Chart chart, String idPrefix, List<AreaInfo> areas) {
+        keep(chart, idPrefix, areas);
+
+        if (chart.getWidgetOverride(BUILD_OVERRIDE) == null) {
+            chart.setWidgetOverride(BUILD_OVERRIDE, BUILD_SCRIPT);
+            chart.setWidgetListener("onBind", BIND_LISTENER);
+        }
+        chart.setWidgetOverride(DATA_OVERRIDE, toPayload(idPrefix, areas));
+        invokeBuild(chart);
+    }
+
+    /**
+     * Keeps the regions of the last draw on the chart, to resolve the clicks,
+     * without sending them to the client.
+     */
+    static void keep(Chart chart, String idPrefix, List<AreaInfo> areas) {
+        chart.setAttribute(AREA_MAP_ATTR, new ClientAreaMap(idPrefix, Collections.unmodifiableList(areas)));
+    }
+
+    /**
+     * Removes the regions of a previous draw, if any.
+     */
+    static void release(Chart chart) {
+        if (chart.getAttribute(AREA_MAP_ATTR) == null) {
+            return;
+        }
+
+        chart.removeAttribute(AREA_MAP_ATTR);
+        if (chart.getWidgetOverride(BUILD_OVERRIDE) != null) {
+            chart.setWidgetOverride(DATA_OVERRIDE, "null"); // A null override cannot be sent
+            invokeBuild(chart);
+        }
+    }
+
+    private static void invokeBuild(Chart chart) {
+        // The build runs after the payload override is updated on the client
+        if (Executions.getCurrent() != null && chart.getDesktop() != null) {
+            Clients.response(new AuInvoke(chart, BUILD_OVERRIDE));
+        }
+    }
+
+    /**
+     * Returns the region with the given area id of the last draw of the chart, or null.
+     */
+    static AreaInfo lookup(Chart chart, String areaId) {
+        final ClientAreaMap map = (ClientAreaMap) chart.getAttribute(AREA_MAP_ATTR);
+        if (map == null || areaId == null || !areaId.startsWith(map._idPrefix)) {
+            return null;
+        }
+
+        try {
+            final int index = Integer.parseInt(areaId.substring(map._idPrefix.length()));
+            return index >= 0 && index < map._areas.size() ? map._areas.get(index) : null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Encodes the regions as a JavaScript object:
+     * p the id prefix, h the shape names, s the shape of each region,
+     * c all the coordinates, o the end of the coordinates of each region in c,
+     * t the distinct tooltips and i the tooltip of each region in t (-1 for none).
+     */
+    private static String toPayload(String idPrefix, List<AreaInfo> areas) {
+        final List<String> shapes = new ArrayList<>(2);
+        final List<String> tooltips = new ArrayList<>();
+        final Map<String, Integer> tooltipIndex = new HashMap<>();
+
+        final StringBuilder s = new StringBuilder(areas.size() * 2);
+        final StringBuilder c = new StringBuilder(areas.size() * 16);
+        final StringBuilder o = new StringBuilder(areas.size() * 4);
+        final StringBuilder i = new StringBuilder(areas.size() * 2);
+        int offset = 0;
+
+        for (AreaInfo area : areas) {
+            int shape = shapes.indexOf(area.getShape());
+            if (shape < 0) {
+                shape = shapes.size();
+                shapes.add(area.getShape());
+            }
+            append(s, shape);
+
+            final String coords = area.getCoords();
+            if (coords != null && !coords.isEmpty()) {
+                for (String coord : coords.split(",")) {
+                    append(c, toInt(coord));
+                    offset++;
+                }
+            }
+            append(o, offset);
+
+            final String tooltip = area.getTooltiptext();
+            int tip = -1;
+            if (tooltip != null) {
+                Integer index = tooltipIndex.get(tooltip);
+                if (index == null) {
+                    index = tooltips.size();
+                    tooltips.add(tooltip);
+                    tooltipIndex.put(tooltip, index);
+                }
+                tip = index;
+            }
+            append(i, tip);
+        }
+
+        return "{p:" + JSONValue.toJSONString(idPrefix) +
+                ",h:" + JSONValue.toJSONString(shapes) +
+                ",s:[" + s + "],c:[" + c + "],o:[" + o +
+                "],t:" + JSONValue.toJSONString(tooltips) +
+                ",i:[" + i + "]}";
+    }
+
+    private static void append(StringBuilder sb, int value) {
+        if (sb.length() > 0) {
+            sb.append(',');
+        }
+        sb.append(value);
+    }
+
+    private static int toInt(String coord) {
+        try {
+            return Integer.parseInt(coord.trim());
+        } catch (NumberFormatException ex) {
+            return (int) Math.round(Double.parseDouble(coord.trim()));
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.jfree.data.general.Dataset;
+import org.jfree.data.general.DefaultPieDataset;
+import org.zkoss.zul.CategoryModel;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.ChartModel;
+import org.zkoss.zul.GanttModel;
+import org.zkoss.zul.PieModel;
+import org.zkoss.zul.XYModel;
+import org.zkoss.zul.event.ChartDataEvent;
+import org.zkoss.zul.event.ChartDataListener;
+
+/**
+ * Keeps a JFreeChart dataset in sync with a ZK chart model.
+ * The dataset is built once; afterwards the model's {@link ChartDataEvent}s are applied
+ * to it one by one, so a redraw after a small change does not copy the whole model again.
+ * Changes that cannot be applied exactly only mark the affected series (or the whole dataset)
+ * to be rebuilt on the next {@link #getDataset()}.
+ *
+ * One instance is kept per {@link Chart}, see {@link #attach(Chart, DatasetSync)}.
+ */
+abstract class DatasetSync<D extends Dataset> implements ChartDataListener {
+
+    private static final String SYNC_ATTR = "jfreechart-dataset-sync";
+
+    protected final ChartModel _model;
+
+    private final String _key;
+
+    private D _dataset;
+
+    private boolean _stale = true;
+
+    private final Set<Comparable<?>> _dirtySeries = new LinkedHashSet<>();
+
+    DatasetSync(ChartModel model, String key) {
+        _model = model;
+        _key = key;
+    }
+
+    /**
+     * Returns the synchronizer of the chart if it is still valid for the chart model and key,
+     * or null. A synchronizer that is no longer valid is detached from its model.
+     */
+    static DatasetSync<?> lookup(Chart chart, String key) {
+        DatasetSync<?> sync = (DatasetSync<?>) chart.getAttribute(SYNC_ATTR);
+        if (sync == null) {
+            return null;
+        }
+
+        if (sync._model == chart.getModel() && sync._key.equals(key)) {
+            return sync;
+        }
+
+        sync.detach();
+        chart.removeAttribute(SYNC_ATTR);
+        return null;
+    }
+
+    /**
+     * Makes the synchronizer the one of the chart and starts listening to the model.
+     */
+    static <S extends DatasetSync<?>> S attach(Chart chart, S sync) {
+        final DatasetSync<?> self = sync;
+        DatasetSync<?> old = lookup(chart, self._key);
+        if (old != null) {
+            old.detach();
+        }
+        self._model.addChartDataListener(self);
+        chart.setAttribute(SYNC_ATTR, self);
+        return sync;
+    }
+
+    void detach() {
+        _model.removeChartDataListener(this);
+    }
+
+    /**
+     * Returns the dataset, applying first the pending rebuilds.
+     */
+    synchronized D getDataset() {
+        if (!_stale) {
+            for (Comparable<?> series : _dirtySeries) {
+                if (!rebuildSeries(_dataset, series)) {
+                    _stale = true;
+                    break;
+                }
+            }
+        }
+        if (_stale) {
+            _dataset = build();
+            _stale = false;
+        }
+        _dirtySeries.clear();
+        return _dataset;
+    }
+
+    @Override
+    public synchronized void onChange(ChartDataEvent event) {
+        if (_stale) {
+            return; // Everything is rebuilt anyway
+        }
+
+        if (!apply(_dataset, event)) {
+            _dirtySeries.clear();
+            _stale = true;
+        }
+    }
+
+    void markDirty(Comparable<?> series) {
+        _dirtySeries.add(series);
+    }
+
+    /**
+     * Builds the whole dataset from the model.
+     */
+    abstract D build();
+
+    /**
+     * Applies one model change to the dataset.
+     *
+     * @return false if the change cannot be applied and the dataset must be rebuilt
+     */
+    abstract boolean apply(D dataset, ChartDataEvent event);
+
+    /**
+     * Rebuilds one series marked with {@link #markDirty(Comparable)}.
+     *
+     * @return false if the series cannot be rebuilt alone and the dataset must be rebuilt, the default
+     */
+    boolean rebuildSeries(D dataset, Comparable<?> series) {
+        return false;
+    }
+
+    /**
+     * Whether an event was fired for the last item of its series, i.e. an append.
+     */
+    static boolean isAppend(XYModel model, ChartDataEvent event) {
+        return event.getType() == ChartDataEvent.ADDED &&
+                event.getCategoryIndex() >= 0 &&
+                event.getCategoryIndex() == model.getDataCount(event.getSeries()) - 1;
+    }
+
+    /**
+     * Synchronizes a XYModel with a XYModelDataset of time periods.
+     */
+    static class TimeSeriesSync extends DatasetSync<XYModelDataset> {
+
+        private final String _period;
+
+        private final TimeZone _zone;
+
+        private final PeriodBuckets.Aggregation _aggregation;
+
+        private PeriodBuckets _buckets;
+
+        TimeSeriesSync(XYModel model, String key, String period, TimeZone zone,
+                PeriodBuckets.Aggregation aggregation) {
+            super(model, key);
+            _period = period;
+            _zone = zone;
+            _aggregation = aggregation;
+        }
+
+        private PeriodBuckets getBuckets() {
+            if (_buckets == null) {
+                _buckets = new PeriodBuckets(_period, _zone);
+            }
+            return _buckets;
+        }
+
+        @Override
+        XYModelDataset build() {
+            return XYModelDataset.ofPeriods((XYModel) _model, getBuckets(), _aggregation);
+        }
+
+        @Override
+        boolean apply(XYModelDataset dataset, ChartDataEvent event) {
+            final XYModel model = (XYModel) _model;
+            final Comparable<?> series = event.getSeries();
+            if (series == null) {
+                return false;
+            }
+
+            final int index = dataset.indexOf(series);
+            final boolean inModel = model.getSeries().contains(series);
+
+            if (index < 0) {
+                // A new series is always appended at the end of the model
+                if (!inModel || model.getSeries().size() != dataset.getSeriesCount() + 1) {
+                    return false;
+                }
+                dataset.addSeries(series, XYModelDataset.Series.ofPeriods(model, series, getBuckets(), _aggregation));
+
+            } else if (!inModel) {
+                dataset.removeSeries(index);
+
+            } else if (isAppend(model, event)) {
+                /*
+                 * A full rebuild aggregates the values of a period in model order,
+                 * so the appended one comes last as well.
+                 */
+                final int j = event.getCategoryIndex();
+                final long millis = model.getX(series, j).longValue();
+                final Number y = model.getY(series, j);
+                final PeriodBuckets buckets = getBuckets();
+                dataset.addOrUpdate(index, buckets.start(millis), buckets.end(millis), y);
+
+            } else {
+                markDirty(series);
+            }
+            return true;
+        }
+
+        @Override
+        boolean rebuildSeries(XYModelDataset dataset, Comparable<?> series) {
+            final int index = dataset.indexOf(series);
+            if (index >= 0) {
+                dataset.setSeries(index, XYModelDataset.Series.ofPeriods((XYModel) _model, series, getBuckets(), _aggregation));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Synchronizes a XYModel with a XYModelDataset of plain values.
+     */
+    static class XYSeriesSync extends DatasetSync<XYModelDataset> {
+
+        XYSeriesSync(XYModel model, String key) {
+            super(model, key);
+        }
+
+        @Override
+        XYModelDataset build() {
+            return XYModelDataset.ofValues((XYModel) _model);
+        }
+
+        @Override
+        boolean apply(XYModelDataset dataset, ChartDataEvent event) {
+            final XYModel model = (XYModel) _model;
+            final Comparable<?> series = event.getSeries();
+            if (series == null) {
+                return false;
+            }
+
+            final int index = dataset.indexOf(series);
+            final boolean inModel = model.getSeries().contains(series);
+
+            if (index < 0) {
+                if (!inModel || model.getSeries().size() != dataset.getSeriesCount() + 1) {
+                    return false;
+                }
+                dataset.addSeries(series, XYModelDataset.Series.ofValues(model, series));
+
+            } else if (!inModel) {
+                dataset.removeSeries(index);
+
+            } else if (isAppend(model, event)) {
+                final int j = event.getCategoryIndex();
+                final Number x = model.getX(series, j);
+                final Number y = model.getY(series, j);
+                dataset.addValue(index, x, y);
+
+            } else {
+                markDirty(series);
+            }
+            return true;
+        }
+
+        @Override
+        boolean rebuildSeries(XYModelDataset dataset, Comparable<?> series) {
+            final int index = dataset.indexOf(series);
+            if (index >= 0) {
+                dataset.setSeries(index, XYModelDataset.Series.ofValues((XYModel) _model, series));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Synchronizes a CategoryModel with a CategoryModelDataset.
+     */
+    static class CategorySync extends DatasetSync<CategoryModelDataset> {
+
+        CategorySync(CategoryModel model, String key) {
+            super(model, key);
+        }
+
+        @Override
+        CategoryModelDataset build() {
+            return CategoryModelDataset.of((CategoryModel) _model);
+        }
+
+        @Override
+        boolean apply(CategoryModelDataset dataset, ChartDataEvent event) {
+            final CategoryModel model = (CategoryModel) _model;
+            final Comparable<?> series = event.getSeries();
+            final Comparable<?> category = event.getCategory();
+            if (series == null || category == null) {
+                return false;
+            }
+
+            if (event.getType() == ChartDataEvent.REMOVED) {
+                /*
+                 * The keys of a full conversion are in the order they first appear in the model,
+                 * and a removed cell can move its row or column after the others.
+                 */
+                return false;
+            }
+
+            // A new cell is the last key of the model, a new row or column comes last as well
+            dataset.setValue(model.getValue(series, category), series, category);
+            return true;
+        }
+    }
+
+    /**
+     * Synchronizes a GanttModel with a GanttModelDataset.
+     * A change to a task can move it to another row, so any change rebuilds the task index;
+     * the index is still laid out once for all the windows drawn in between.
+     */
+    static class GanttSync extends DatasetSync<GanttModelDataset> {
+
+        GanttSync(GanttModel model, String key) {
+            super(model, key);
+        }
+
+        @Override
+        GanttModelDataset build() {
+            return GanttModelDataset.of((GanttModel) _model);
+        }
+
+        @Override
+        boolean apply(GanttModelDataset dataset, ChartDataEvent event) {
+            return false;
+        }
+    }
+
+    /**
+     * Synchronizes a PieModel with a JFreeChart DefaultPieDataset.
+     */
+    static class PieSync extends DatasetSync<DefaultPieDataset> {
+
+        PieSync(PieModel model, String key) {
+            super(model, key);
+        }
+
+        /**
+         * Transfer a PieModel into JFreeChart PieDataset.
+         */
+        @Override
+        DefaultPieDataset build() {
+            final PieModel model = (PieModel) _model;
+            final DefaultPieDataset dataset = new DefaultPieDataset();
+
+            for (final Comparable<?> category : model.getCategories()) {
+                Number value = model.getValue(category);
+                dataset.setValue(category, value);
+            }
+
+            return dataset;
+        }
+
+        @Override
+        boolean apply(DefaultPieDataset dataset, ChartDataEvent event) {
+            final PieModel model = (PieModel) _model;
+            final Comparable<?> category = event.getCategory();
+            if (category == null) {
+                return false;
+            }
+
+            if (event.getType() == ChartDataEvent.REMOVED) {
+                if (dataset.getIndex(category) >= 0) {
+                    dataset.remove(category);
+                }
+            } else {
+                dataset.setValue(category, model.getValue(category));
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,527 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.jfree.chart.JFreeChart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The on-disk tier of the {@link RenderCache}, kept across restarts and shared by the JVMs
+ * that use the same directory.
+ *
+ * Renders are appended to segment files, memory-mapped, and their keys to an index file per
+ * segment, append-only as well. A render is visible to the other JVMs once its index record is
+ * written, and they read the new records of the index on a miss. The writers take a lock on the
+ * directory, so only one appends at a time. Once the segments exceed the size of the cache,
+ * the oldest one is deleted with its index.
+ *
+ * A segment is written by one version of the engine, of JFreeChart and of the JDK: a segment
+ * written by another version is not read, since its images may differ, and ages out with the others.
+ * The areas are stored with Java serialization and read back with only the classes of their regions:
+ * {@link AreaInfo}, its attribute map, and String and Number values. A render with other attribute
+ * values is written but never read, it is rendered again instead. The directory must only be
+ * writable by the application.
+ *
+ * A segment deleted while mapped, by this JVM or another one, cannot be deleted on Windows
+ * until it is unmapped: its file is then deleted by a later eviction.
+ */
+final class DiskCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskCache.class);
+
+    private static final int MAGIC = 0x4a464344; // JFCD
+
+    private static final int FORMAT = 1;
+
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * The key (a SHA-1), the offset, length and CRC of the render in the segment.
+     */
+    private static final int INDEX_RECORD_SIZE = 32;
+
+    private static final int KEY_SIZE = 20;
+
+    private static final long MIN_SEGMENT_SIZE = 1L << 20;
+
+    private static final long MAX_SEGMENT_SIZE = 64L << 20;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * The classes of the areas of a render, read back from a segment.
+     */
+    private static final Set<String> AREA_CLASSES = new HashSet<>(Arrays.asList(
+            ArrayList.class.getName(), HashMap.class.getName(), LinkedHashMap.class.getName(),
+            AreaInfo.class.getName(), String.class.getName(), Number.class.getName(),
+            Integer.class.getName(), Long.class.getName(), Double.class.getName(), Float.class.getName(),
+            Short.class.getName(), Byte.class.getName(), BigDecimal.class.getName(), BigInteger.class.getName(),
+            byte[].class.getName()));
+
+    private final Path _dir;
+
+    private final int _segmentSize;
+
+    private final int _maxSegments;
+
+    private final int _version = version();
+
+    private final FileChannel _lockChannel;
+
+    /**
+     * The segments on disk, by number, the oldest first.
+     */
+    private final TreeMap<Long, Segment> _segments = new TreeMap<>();
+
+    private final Map<String, Location> _index = new HashMap<>();
+
+    /**
+     * A segment file and its index.
+     */
+    private static final class Segment {
+
+        private final long _id;
+
+        /**
+         * Whether the segment was written by this version, null until its header is read.
+         */
+        private Boolean _readable;
+
+        private MappedByteBuffer _buffer;
+
+        /**
+         * The bytes of the index read so far.
+         */
+        private long _indexPosition;
+
+        /**
+         * The end of the last render of the segment.
+         */
+        private int _end = HEADER_SIZE;
+
+        Segment(long id) {
+            _id = id;
+        }
+    }
+
+    /**
+     * Where a render is in a segment.
+     */
+    private static final class Location {
+
+        private final Segment _segment;
+
+        private final int _offset;
+
+        private final int _length;
+
+        private final int _crc;
+
+        Location(Segment segment, int offset, int length, int crc) {
+            _segment = segment;
+            _offset = offset;
+            _length = length;
+            _crc = crc;
+        }
+    }
+
+    /**
+     * @param maxSize the bytes of all the segments, split into at least two segments
+     */
+    DiskCache(Path dir, long maxSize) throws IOException {
+        _dir = dir;
+        _segmentSize = (int) Math.min(Math.max(maxSize / 8, MIN_SEGMENT_SIZE), MAX_SEGMENT_SIZE);
+        _maxSegments = (int) Math.max(maxSize / _segmentSize, 2);
+        Files.createDirectories(dir);
+        _lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Returns the render of a key, or null if it is not on disk.
+     */
+    synchronized RenderResult get(String key) {
+        if (key.length() != 2 * KEY_SIZE) {
+            return null;
+        }
+        try {
+            Location location = _index.get(key);
+            if (location == null || !isLive(location._segment)) {
+                refresh();
+                location = _index.get(key);
+                if (location == null) {
+                    return null;
+                }
+            }
+
+            final byte[] data = new byte[location._length];
+            final ByteBuffer buffer = map(location._segment).duplicate();
+            buffer.position(location._offset);
+            buffer.get(data);
+            if (crc(data) != location._crc) {
+                _index.remove(key); // Torn by a crash
+                return null;
+            }
+            return decode(data);
+        } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+            log.debug("Cannot read the render {} from {}", key, _dir, ex);
+            _index.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Appends a render, unless its areas cannot be serialized or it does not fit in a segment.
+     */
+    void put(String key, RenderResult result) {
+        final byte[] data;
+        try {
+            data = encode(result);
+        } catch (IOException ex) {
+            return; // An attribute of an area is not serializable
+        }
+        if (data.length > _segmentSize - HEADER_SIZE || key.length() != 2 * KEY_SIZE) {
+            return;
+        }
+
+        synchronized (this) {
+            FileLock lock = null;
+            try {
+                lock = _lockChannel.lock();
+                refresh();
+                if (_index.containsKey(key)) {
+                    return; // Rendered by another JVM meanwhile
+                }
+
+                Segment segment = _segments.isEmpty() ? null : _segments.lastEntry().getValue();
+                if (segment == null || !segment._readable || segment._end + data.length > _segmentSize) {
+                    segment = newSegment(segment == null ? 0 : segment._id + 1);
+                }
+
+                final ByteBuffer buffer = map(segment).duplicate();
+                buffer.position(segment._end);
+                buffer.put(data);
+
+                final int crc = crc(data);
+                final ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+                record.put(toBytes(key)).putInt(segment._end).putInt(data.length).putInt(crc).flip();
+                try (FileChannel index = FileChannel.open(indexPath(segment._id), StandardOpenOption.WRITE)) {
+                    index.write(record, segment._indexPosition);
+                }
+                segment._indexPosition += INDEX_RECORD_SIZE;
+
+                _index.put(key, new Location(segment, segment._end, data.length, crc));
+                segment._end += data.length;
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Cannot write the render {} to {}", key, _dir, ex);
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    private void release(FileLock lock) {
+        if (lock != null) {
+            try {
+                lock.release();
+            } catch (IOException ex) {
+                log.debug("Cannot release the lock of {}", _dir, ex);
+            }
+        }
+    }
+
+    /**
+     * Reads the segments and the index records written since the last refresh,
+     * and forgets the segments deleted.
+     */
+    private void refresh() throws IOException {
+        final List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(_dir, "*" + INDEX_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - INDEX_SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    // Not a segment index
+                }
+            }
+        }
+
+        final boolean deleted = _segments.keySet().retainAll(ids);
+        if (deleted) {
+            _index.values().removeIf(location -> !isLive(location._segment));
+        }
+
+        for (long id : ids) {
+            Segment segment = _segments.get(id);
+            if (segment == null) {
+                segment = new Segment(id);
+                _segments.put(id, segment);
+            }
+            try {
+                readIndex(segment);
+            } catch (NoSuchFileException ex) {
+                _segments.remove(id); // Deleted meanwhile
+            }
+        }
+    }
+
+    private void readIndex(Segment segment) throws IOException {
+        if (segment._readable == null) {
+            segment._readable = readHeader(segment._id);
+        }
+
+        try (FileChannel index = FileChannel.open(indexPath(segment._id), StandardOpenOption.READ)) {
+            final long end = index.size() / INDEX_RECORD_SIZE * INDEX_RECORD_SIZE; // Without a record being written
+            if (end <= segment._indexPosition) {
+                return;
+            }
+
+            final ByteBuffer records = ByteBuffer.allocate((int) (end - segment._indexPosition));
+            while (records.hasRemaining() && index.read(records, segment._indexPosition + records.position()) >= 0) {
+                // Read the new records
+            }
+            records.flip();
+
+            final byte[] key = new byte[KEY_SIZE];
+            while (records.remaining() >= INDEX_RECORD_SIZE) {
+                records.get(key);
+                final int offset = records.getInt();
+                final int length = records.getInt();
+                final int crc = records.getInt();
+                if (segment._readable && offset >= HEADER_SIZE && length > 0 && offset + length <= _segmentSize) {
+                    _index.put(toHex(key), new Location(segment, offset, length, crc));
+                }
+                segment._end = Math.max(segment._end, offset + length);
+            }
+            segment._indexPosition = end;
+        }
+    }
+
+    private boolean readHeader(long id) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // Read the header
+            }
+            header.flip();
+            return header.remaining() == HEADER_SIZE && header.getInt() == MAGIC && header.getInt() == FORMAT &&
+                    header.getInt() == _version && header.getInt() == _segmentSize && channel.size() == _segmentSize;
+        }
+    }
+
+    /**
+     * Creates a segment and deletes the oldest ones beyond the size of the cache.
+     */
+    private Segment newSegment(long id) throws IOException {
+        Files.deleteIfExists(segmentPath(id)); // Left by a crash, without its index
+        try (FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).putInt(_version).putInt(_segmentSize).flip();
+            channel.write(header, 0);
+            channel.write(ByteBuffer.allocate(1), _segmentSize - 1); // Sparse up to its size
+        }
+        // The index last, as it makes the segment visible
+        Files.createFile(indexPath(id));
+
+        final Segment segment = new Segment(id);
+        segment._readable = true;
+        _segments.put(id, segment);
+
+        boolean evicted = false;
+        for (Iterator<Segment> it = _segments.values().iterator(); _segments.size() > _maxSegments; ) {
+            final Segment oldest = it.next();
+            it.remove();
+            // The index first, so no other JVM reads the segment anymore
+            Files.deleteIfExists(indexPath(oldest._id));
+            oldest._buffer = null;
+            evicted = true;
+        }
+        _index.values().removeIf(location -> !isLive(location._segment));
+        if (evicted) {
+            deleteEvictedSegments();
+        }
+        return segment;
+    }
+
+    /**
+     * Deletes the segment files older than the oldest segment, the mapped ones failing on Windows
+     * until they are unmapped.
+     */
+    private void deleteEvictedSegments() throws IOException {
+        final long oldest = _segments.firstKey();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(_dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    if (Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) < oldest) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NumberFormatException ex) {
+                    // Not a segment
+                } catch (IOException ex) {
+                    log.debug("Cannot delete the segment {} yet", file, ex);
+                }
+            }
+        }
+    }
+
+    private boolean isLive(Segment segment) {
+        return _segments.get(segment._id) == segment;
+    }
+
+    private MappedByteBuffer map(Segment segment) throws IOException {
+        if (segment._buffer == null) {
+            try (FileChannel channel = FileChannel.open(segmentPath(segment._id),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment._buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, _segmentSize);
+            }
+        }
+        return segment._buffer;
+    }
+
+    private Path segmentPath(long id) {
+        return _dir.resolve(id + SEGMENT_SUFFIX);
+    }
+
+    private Path indexPath(long id) {
+        return _dir.resolve(id + INDEX_SUFFIX);
+    }
+
+    private static byte[] encode(RenderResult result) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(result.getImage().length + 256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(result.getImage().length);
+        out.write(result.getImage());
+        // The attributes of the areas repeat, they compress well
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (ObjectOutputStream areas = new ObjectOutputStream(new DeflaterOutputStream(out, deflater, 8192))) {
+            areas.writeObject(new ArrayList<>(result.getAreas()));
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RenderResult decode(byte[] data) throws IOException, ClassNotFoundException {
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final byte[] image = new byte[buffer.getInt()];
+        buffer.get(image);
+        final Inflater inflater = new Inflater();
+        try (ObjectInputStream areas = new AreaInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(data, buffer.position(), buffer.remaining()), inflater, 8192))) {
+            return new RenderResult(image, (List<AreaInfo>) areas.readObject());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads the areas of a render, refusing any other class.
+     */
+    private static final class AreaInputStream extends ObjectInputStream {
+
+        AreaInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!AREA_CLASSES.contains(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Not a class of the areas of a render");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy", "Not a class of the areas of a render");
+        }
+    }
+
+    private static int crc(byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] toBytes(String key) {
+        final byte[] bytes = new byte[KEY_SIZE];
+        for (int i = 0; i < KEY_SIZE; i++) {
+            bytes[i] = (byte) Integer.parseInt(key.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a hash of what the images depend on besides the charts: the engine, JFreeChart and the JDK.
+     */
+    private static int version() {
+        final String engine = DiskCache.class.getPackage() != null
+                ? DiskCache.class.getPackage().getImplementationVersion() : null;
+        final String version = engine + '/' + JFreeChart.INFO.getVersion() + '/' + System.getProperty("java.version");
+        return crc(version.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.zkoss.zk.ui.UiException;
+
+/**
+ * Reduces a series sorted by x to about as many points as the chart can show.
+ * Null values are NaN: a bucket with null values keeps one of them,
+ * so the gaps of a line are still drawn.
+ */
+enum Downsampling {
+
+    /**
+     * Largest triangle three buckets: one point per bucket, the one forming the largest
+     * triangle with the point kept in the previous bucket and the average of the next one.
+     */
+    LTTB {
+        @Override
+        int getDefaultPoints(int width) {
+            return width;
+        }
+
+        @Override
+        int[] select(double[] x, double[] y, int size, int points) {
+            if (points < 3 || size <= points) {
+                return null;
+            }
+
+            final Indices selected = new Indices(points + 16);
+            final double bucketSize = (double) (size - 2) / (points - 2);
+
+            int previous = 0;
+            selected.add(0);
+
+            for (int b = 0; b < points - 2; b++) {
+                final int from = (int) (b * bucketSize) + 1;
+                final int to = Math.min((int) ((b + 1) * bucketSize) + 1, size - 1);
+
+                // Average of the next bucket, the last point for the last bucket
+                final int nextFrom = to;
+                final int nextTo = Math.min((int) ((b + 2) * bucketSize) + 1, size);
+                double avgX = 0;
+                double avgY = 0;
+                int count = 0;
+                for (int i = nextFrom; i < nextTo; i++) {
+                    if (!Double.isNaN(y[i])) {
+                        avgX += x[i];
+                        avgY += y[i];
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    avgX /= count;
+                    avgY /= count;
+                } else {
+                    avgX = x[nextFrom];
+                    avgY = Double.isNaN(y[previous]) ? 0 : y[previous];
+                }
+
+                int best = -1;
+                int firstNull = -1;
+                double bestArea = -1;
+                final double px = x[previous];
+                final double py = Double.isNaN(y[previous]) ? avgY : y[previous];
+
+                for (int i = from; i < to; i++) {
+                    if (Double.isNaN(y[i])) {
+                        if (firstNull < 0) {
+                            firstNull = i;
+                        }
+                        continue;
+                    }
+
+                    final double area = Math.abs((px - avgX) * (y[i] - py) - (px - x[i]) * (avgY - py));
+                    if (area > bestArea) {
+                        bestArea = area;
+                        best = i;
+                    }
+                }
+
+                selected.addSorted(best, firstNull);
+                if (best >= 0) {
+                    previous = best;
+                }
+            }
+
+            selected.add(size - 1);
+            return selected.toArray();
+        }
+    },
+
+    /**
+     * The minimum and the maximum of each pixel column, which keeps every peak.
+     */
+    MINMAX {
+        @Override
+        int getDefaultPoints(int width) {
+            return width * 2;
+        }
+
+        @Override
+        int[] select(double[] x, double[] y, int size, int points) {
+            final int columns = points / 2;
+            if (columns < 1 || size <= points) {
+                return null;
+            }
+
+            final double first = x[0];
+            final double width = x[size - 1] - first;
+            final Indices selected = new Indices(points + 16);
+
+            int column = -1;
+            int min = -1;
+            int max = -1;
+            int firstNull = -1;
+
+            for (int i = 0; i < size; i++) {
+                final int c = width > 0 ? Math.min((int) ((x[i] - first) / width * columns), columns - 1) : 0;
+                if (c != column) {
+                    addColumn(selected, min, max, firstNull);
+                    column = c;
+                    min = -1;
+                    max = -1;
+                    firstNull = -1;
+                }
+
+                if (Double.isNaN(y[i])) {
+                    if (firstNull < 0) {
+                        firstNull = i;
+                    }
+                } else {
+                    if (min < 0 || y[i] < y[min]) {
+                        min = i;
+                    }
+                    if (max < 0 || y[i] > y[max]) {
+                        max = i;
+                    }
+                }
+            }
+            addColumn(selected, min, max, firstNull);
+
+            return selected.toArray();
+        }
+
+        private void addColumn(Indices selected, int min, int max, int firstNull) {
+            final int[] column = { min, max, firstNull };
+            Arrays.sort(column);
+            for (int index : column) {
+                selected.add(index);
+            }
+        }
+    };
+
+    /**
+     * Returns the downsampling named by the "downsampling" attribute of a chart, null if there is none.
+     */
+    static Downsampling of(Object name) {
+        if (name == null) {
+            return null;
+        }
+
+        try {
+            return valueOf(name.toString().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException ex) {
+            throw new UiException("Unsupported downsampling: " + name);
+        }
+    }
+
+    /**
+     * Returns the number of points kept for a chart of the given width in pixels.
+     */
+    abstract int getDefaultPoints(int width);
+
+    /**
+     * Returns the indexes of the points kept, ascending,
+     * or null if the series has no more points than the target.
+     */
+    abstract int[] select(double[] x, double[] y, int size, int points);
+
+    /**
+     * Growable list of ascending indexes.
+     */
+    private static final class Indices {
+
+        private int[] _values;
+
+        private int _size;
+
+        Indices(int capacity) {
+            _values = new int[capacity];
+        }
+
+        void add(int index) {
+            if (index < 0 || (_size > 0 && _values[_size - 1] >= index)) {
+                return;
+            }
+            if (_size == _values.length) {
+                _values = Arrays.copyOf(_values, _size * 2);
+            }
+            _values[_size++] = index;
+        }
+
+        /**
+         * Adds two indexes, any of them may be -1 for none.
+         */
+        void addSorted(int a, int b) {
+            add(Math.min(a, b) >= 0 ? Math.min(a, b) : Math.max(a, b));
+            add(Math.max(a, b));
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(_values, _size);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jfree.chart.entity.CategoryItemEntity;
+import org.jfree.chart.entity.CategoryLabelEntity;
+import org.jfree.chart.entity.ChartEntity;
+import org.jfree.chart.entity.LegendItemEntity;
+import org.jfree.chart.entity.PieSectionEntity;
+import org.jfree.chart.entity.TickLabelEntity;
+import org.jfree.chart.entity.XYItemEntity;
+import org.zkoss.zul.Area;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.ChartModel;
+import org.zkoss.zul.event.ChartDataEvent;
+import org.zkoss.zul.event.ChartDataListener;
+
+/**
+ * Uniform grid of the hot regions of the last draw of a chart, so a click can be resolved
+ * to its region without an image map: only the entity under the click is decoded.
+ *
+ * Each cell lists, in drawing order, the entities whose bounds overlap it.
+ * As in an HTML image map, the first entity containing the point wins.
+ * The entities of the draw are kept with their shapes, tooltips, URLs and data indexes,
+ * but not the JFreeChart: an entity that is not decoded from its data is kept as a plain entity.
+ * Their data is read from the datasets of the draw, so once the model changes
+ * the index is stale and resolves no click until the chart is drawn again.
+ */
+final class EntityIndex {
+
+    private static final String ENTITY_INDEX_ATTR = "jfreechart-entity-index";
+
+    private static final int CELL_SIZE = 32;
+
+    /**
+     * Turns an entity of the index into the area it would have been drawn as.
+     */
+    interface Decoder {
+
+        /**
+         * @param index the position of the entity in the index, used for the area id
+         * @param seq the position of the entity among the entities of its kind
+         */
+        Area decode(ChartEntity entity, int index, int seq);
+    }
+
+    /**
+     * The bounds of each entity: x, y, width and height.
+     */
+    private final int[] _bounds;
+
+    private final ChartEntity[] _entities;
+
+    private final int[] _seqs;
+
+    private final Decoder _decoder;
+
+    /**
+     * The model of the draw, listened to until the index is released.
+     */
+    private final ChartModel _model;
+
+    private final ChartDataListener _listener = this::onChange;
+
+    private volatile boolean _stale;
+
+    private final int _columns;
+
+    private final int _rows;
+
+    /**
+     * The entities of cell c are _cellEntities[_cellStart[c]] to _cellEntities[_cellStart[c + 1] - 1].
+     */
+    private final int[] _cellStart;
+
+    private final int[] _cellEntities;
+
+    private EntityIndex(List<ChartEntity> entities, int[] seqs, int width, int height,
+            ChartModel model, Decoder decoder) {
+        final int size = entities.size();
+        _bounds = new int[size * 4];
+        _entities = new ChartEntity[size];
+        _seqs = Arrays.copyOf(seqs, size);
+        _model = model;
+        _decoder = decoder;
+        _columns = Math.max((width + CELL_SIZE - 1) / CELL_SIZE, 1);
+        _rows = Math.max((height + CELL_SIZE - 1) / CELL_SIZE, 1);
+
+        // Cells covered by each entity: first column, first row, last column, last row
+        final int[] cover = new int[size * 4];
+        final int[] counts = new int[_columns * _rows + 1];
+        for (int i = 0; i < size; i++) {
+            _entities[i] = detach(entities.get(i));
+            final Rectangle bounds = _entities[i].getArea().getBounds();
+            final int k = i * 4;
+            _bounds[k] = bounds.x;
+            _bounds[k + 1] = bounds.y;
+            _bounds[k + 2] = bounds.width;
+            _bounds[k + 3] = bounds.height;
+            cover[k] = column(bounds.x);
+            cover[k + 1] = row(bounds.y);
+            cover[k + 2] = column(bounds.x + bounds.width);
+            cover[k + 3] = row(bounds.y + bounds.height);
+
+            for (int r = cover[k + 1]; r <= cover[k + 3]; r++) {
+                for (int c = cover[k]; c <= cover[k + 2]; c++) {
+                    counts[r * _columns + c + 1]++;
+                }
+            }
+        }
+
+        for (int c = 1; c < counts.length; c++) {
+            counts[c] += counts[c - 1];
+        }
+        _cellStart = counts;
+        _cellEntities = new int[counts[counts.length - 1]];
+
+        final int[] next = Arrays.copyOf(counts, counts.length - 1);
+        for (int i = 0; i < size; i++) {
+            final int k = i * 4;
+            for (int r = cover[k + 1]; r <= cover[k + 3]; r++) {
+                for (int c = cover[k]; c <= cover[k + 2]; c++) {
+                    _cellEntities[next[r * _columns + c]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an entity that the decoder reads as the given one, without what only the draw needs:
+     * a title or axis entity refers to its title or axis, which refer to the JFreeChart.
+     */
+    private static ChartEntity detach(ChartEntity entity) {
+        if (entity instanceof XYItemEntity || entity instanceof CategoryItemEntity
+                || entity instanceof PieSectionEntity || entity instanceof LegendItemEntity
+                || entity instanceof TickLabelEntity || entity instanceof CategoryLabelEntity) {
+            return entity;
+        }
+        return new ChartEntity(entity.getArea(), entity.getToolTipText(), entity.getURLText());
+    }
+
+    /**
+     * Keeps the entities of the last draw on the chart, in place of those of a previous draw.
+     *
+     * @param seqs the position of each entity among the entities of its kind
+     */
+    static void publish(Chart chart, List<ChartEntity> entities, int[] seqs, Decoder decoder) {
+        release(chart);
+        final ChartModel model = chart.getModel();
+        final EntityIndex index = new EntityIndex(entities, seqs, chart.getIntWidth(), chart.getIntHeight(),
+                model, decoder);
+        if (model != null) {
+            model.addChartDataListener(index._listener);
+        }
+        chart.setAttribute(ENTITY_INDEX_ATTR, index);
+    }
+
+    /**
+     * Removes the entities of a previous draw, if any.
+     */
+    static void release(Chart chart) {
+        final EntityIndex index = (EntityIndex) chart.removeAttribute(ENTITY_INDEX_ATTR);
+        if (index != null && index._model != null) {
+            index._model.removeChartDataListener(index._listener);
+        }
+    }
+
+    private void onChange(ChartDataEvent event) {
+        _stale = true;
+    }
+
+    /**
+     * Returns the area at the given point of the last draw of the chart, or null.
+     * The area is not attached to the chart.
+     */
+    static Area lookup(Chart chart, int x, int y) {
+        final EntityIndex index = (EntityIndex) chart.getAttribute(ENTITY_INDEX_ATTR);
+        if (index == null || index._stale || index._model != chart.getModel() || x < 0 || y < 0) {
+            return null;
+        }
+
+        final int cell = index.row(y) * index._columns + index.column(x);
+        for (int k = index._cellStart[cell]; k < index._cellStart[cell + 1]; k++) {
+            final int i = index._cellEntities[k];
+            if (index.inBounds(i, x, y) && index._entities[i].getArea().contains(x, y)) {
+                return index._decoder.decode(index._entities[i], i, index._seqs[i]);
+            }
+        }
+        return null;
+    }
+
+    private boolean inBounds(int i, int x, int y) {
+        final int k = i * 4;
+        return x >= _bounds[k] && x <= _bounds[k] + _bounds[k + 2]
+                && y >= _bounds[k + 1] && y <= _bounds[k + 1] + _bounds[k + 3];
+    }
+
+    private int column(int x) {
+        return Math.min(Math.max(x / CELL_SIZE, 0), _columns - 1);
+    }
+
+    private int row(int y) {
+        return Math.min(Math.max(y / CELL_SIZE, 0), _rows - 1);
+    }
+}
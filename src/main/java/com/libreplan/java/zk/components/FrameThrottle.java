@@ -0,0 +1,209 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.zkoss.lang.Library;
+import org.zkoss.zk.ui.Desktop;
+import org.zkoss.zk.ui.DesktopUnavailableException;
+import org.zkoss.zk.ui.Executions;
+import org.zkoss.zk.ui.UiException;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.Chart;
+
+/**
+ * Limit of the draws of a chart to a number of frames per second.
+ *
+ * A smart draw that comes sooner than the frame interval after the previous frame is held back,
+ * so the chart keeps its image and the client does not load it again, and the chart is drawn
+ * at the end of the interval, through server push: all the draws requested in an interval
+ * are coalesced into that one.
+ *
+ * The charts of a {@link StreamingXYModel} are limited to {@link #RATE_PROPERTY} frames per
+ * second, 10 by default, and the others are not limited.
+ */
+final class FrameThrottle implements EventListener<Event> {
+
+    public static final String RATE_PROPERTY = "com.libreplan.java.zk.components.JFreeChartEngine.stream.maxFrameRate";
+
+    private static final int DEFAULT_RATE = 10;
+
+    private static final String FRAME_THROTTLE_ATTR = "jfreechart-frame-throttle";
+
+    private static final String ON_FRAME = "onJFreeChartFrame";
+
+    private static final String ON_SMART_DRAW = "onSmartDrawChart";
+
+    /**
+     * Above the default priority of the listener of the chart, which draws it.
+     */
+    private static final int PRIORITY = 1000;
+
+    private static volatile ScheduledExecutorService _timer;
+
+    private final Chart _chart;
+
+    /**
+     * When the last frame was drawn, from System.nanoTime.
+     */
+    private long _last;
+
+    private long _interval;
+
+    private ScheduledFuture<?> _pending;
+
+    private FrameThrottle(Chart chart) {
+        _chart = chart;
+    }
+
+    /**
+     * Draws a chart as a new frame.
+     * The chart must be drawn in an execution of its desktop, see {@link AsyncRender#isAvailable(Chart)}.
+     *
+     * If the draw was not requested by a smart draw, which is held back while the last frame
+     * is too recent, it returns the image the chart shows and the chart is drawn again later.
+     *
+     * @param rate the maximum number of frames per second
+     * @param draw draws the chart and returns its image
+     */
+    static byte[] draw(Chart chart, double rate, Supplier<byte[]> draw) {
+        FrameThrottle state = (FrameThrottle) chart.getAttribute(FRAME_THROTTLE_ATTR);
+        if (state == null) {
+            state = new FrameThrottle(chart);
+            chart.setAttribute(FRAME_THROTTLE_ATTR, state);
+            chart.addEventListener(PRIORITY, ON_SMART_DRAW, state);
+            state._last = Long.MIN_VALUE;
+        }
+        state._interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+
+        final long now = System.nanoTime();
+        if (!state.isTooSoon(now)) {
+            state.cancelPending();
+            state._last = now;
+            return draw.get();
+        }
+
+        state.schedule(now);
+        // Not the image of the last frame, which an async render may have replaced since
+        return chart.getContent().getByteData();
+    }
+
+    /**
+     * Holds back the smart draw of the chart while the last frame is too recent.
+     */
+    @Override
+    public void onEvent(Event event) {
+        final long now = System.nanoTime();
+        if (_chart.getPage() != null && isTooSoon(now)) {
+            event.stopPropagation();
+            schedule(now);
+        }
+    }
+
+    private boolean isTooSoon(long now) {
+        return _last != Long.MIN_VALUE && _chart.getContent() != null && now - _last < _interval;
+    }
+
+    /**
+     * Draws the chart at the end of the frame interval, unless it is already planned.
+     */
+    private void schedule(long now) {
+        if (_pending != null) {
+            return;
+        }
+
+        final Desktop desktop = _chart.getDesktop();
+        ServerPush.enable(_chart);
+        _pending = getTimer().schedule(() -> {
+            try {
+                Executions.schedule(desktop, event -> {
+                    if (_chart.getAttribute(FRAME_THROTTLE_ATTR) == this && _pending != null) {
+                        _pending = null;
+                        _last = Long.MIN_VALUE;
+                        Events.sendEvent(new Event(ON_SMART_DRAW, _chart));
+                    }
+                }, new Event(ON_FRAME, _chart));
+            } catch (DesktopUnavailableException | IllegalStateException ex) {
+                // The desktop is gone or the chart was detached, nobody waits for the chart
+            }
+        }, _last + _interval - now, TimeUnit.NANOSECONDS);
+    }
+
+    private void cancelPending() {
+        if (_pending != null) {
+            _pending.cancel(false);
+            _pending = null;
+        }
+    }
+
+    /**
+     * Drops the planned draw of a detached chart. A held back smart draw is let through,
+     * so the chart draws again when it is changed.
+     */
+    static void cancel(Chart chart) {
+        final FrameThrottle state = (FrameThrottle) chart.getAttribute(FRAME_THROTTLE_ATTR);
+        if (state != null && state._pending != null) {
+            state.cancelPending();
+            Events.postEvent(ON_SMART_DRAW, chart, null);
+        }
+    }
+
+    /**
+     * Returns the maximum number of frames per second of a chart from its attribute,
+     * a number or a string, or 0 for no limit.
+     */
+    static double toRate(Object value, Chart chart) {
+        if (value == null) {
+            return chart.getModel() instanceof StreamingXYModel
+                    ? Math.max(Library.getIntProperty(RATE_PROPERTY, DEFAULT_RATE), 0) : 0;
+        }
+
+        final double rate;
+        try {
+            rate = value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString().trim());
+        } catch (NumberFormatException ex) {
+            throw new UiException("Unsupported max frame rate: " + value);
+        }
+        if (!(rate >= 0) || Double.isInfinite(rate)) {
+            throw new UiException("Unsupported max frame rate: " + value);
+        }
+        return rate;
+    }
+
+    private static ScheduledExecutorService getTimer() {
+        if (_timer == null) {
+            synchronized (FrameThrottle.class) {
+                if (_timer == null) {
+                    final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+                        final Thread thread = new Thread(task, "jfreechart-frame-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    timer.setRemoveOnCancelPolicy(true);
+                    _timer = timer;
+                }
+            }
+        }
+        return _timer;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jfree.data.gantt.GanttCategoryDataset;
+import org.jfree.data.general.AbstractDataset;
+import org.zkoss.zul.GanttModel;
+import org.zkoss.zul.GanttModel.GanttTask;
+
+/**
+ * GanttCategoryDataset of a {@link GanttModel}, laid out once into a task index that is then
+ * shared by the windows drawn, see {@link #window(int, int, long, long)}.
+ *
+ * The rows are the series of the model and the columns its task descriptions, in the order they
+ * first appear, as in the TaskSeriesCollection the model used to be copied into: a series has at
+ * most one task per description, the first one. A task without start or end is left out.
+ *
+ * A window has only the columns of a range of tasks, and returns no value for the tasks that end
+ * before or start after its date range, so that they are neither drawn nor given an area.
+ */
+final class GanttModelDataset extends AbstractDataset implements GanttCategoryDataset {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Index _index;
+
+    private final int _first;
+
+    private final int _count;
+
+    private final long _lower;
+
+    private final long _upper;
+
+    private GanttModelDataset(Index index, int first, int count, long lower, long upper) {
+        _index = index;
+        _first = first;
+        _count = count;
+        _lower = lower;
+        _upper = upper;
+    }
+
+    /**
+     * Lays out the tasks of a GanttModel, in one pass over its series.
+     */
+    static GanttModelDataset of(GanttModel model) {
+        final Index index = new Index(model);
+        return new GanttModelDataset(index, 0, index._columnKeys.size(), Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the window of the tasks from first, a number of them, between two dates.
+     * The window reads the index of this dataset, it costs nothing to make.
+     */
+    GanttModelDataset window(int first, int count, long lower, long upper) {
+        if (first < 0 || count < 0 || first + count > _index._columnKeys.size()) {
+            throw new IndexOutOfBoundsException("Tasks: " + first + " to " + (first + count));
+        }
+        return new GanttModelDataset(_index, first, count, lower, upper);
+    }
+
+    /**
+     * Returns the number of tasks of the whole model, the columns of the dataset it was made of.
+     */
+    int getTaskCount() {
+        return _index._columnKeys.size();
+    }
+
+    /**
+     * Returns the earliest start of a task of the whole model, or Long.MAX_VALUE if it has none.
+     */
+    long getStart() {
+        return _index._start;
+    }
+
+    /**
+     * Returns the latest end of a task of the whole model, or Long.MIN_VALUE if it has none.
+     */
+    long getEnd() {
+        return _index._end;
+    }
+
+    long getLowerBound() {
+        return _lower;
+    }
+
+    long getUpperBound() {
+        return _upper;
+    }
+
+    /**
+     * Returns the task of a cell if it is in the date range of the window, or null.
+     */
+    private Task getTask(int row, int column) {
+        if (column < 0 || column >= _count) {
+            throw new IndexOutOfBoundsException("Column: " + column);
+        }
+        final Task task = _index._tasks[row][_first + column];
+        return task != null && task._end >= _lower && task._start <= _upper ? task : null;
+    }
+
+    private Task getTask(Comparable<?> rowKey, Comparable<?> columnKey) {
+        final int row = getRowIndex(rowKey);
+        final int column = getColumnIndex(columnKey);
+        return row >= 0 && column >= 0 ? getTask(row, column) : null;
+    }
+
+    private static Task getSubtask(Task task, int subinterval) {
+        return task != null && subinterval < task._subtasks.length ? task._subtasks[subinterval] : null;
+    }
+
+    @Override
+    public Comparable<?> getRowKey(int row) {
+        return _index._rowKeys.get(row);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int getRowIndex(Comparable key) {
+        final Integer row = _index._rowIndexes.get(key);
+        return row != null ? row : -1;
+    }
+
+    @Override
+    public List<Comparable<?>> getRowKeys() {
+        return Collections.unmodifiableList(_index._rowKeys);
+    }
+
+    @Override
+    public Comparable<?> getColumnKey(int column) {
+        if (column < 0 || column >= _count) {
+            throw new IndexOutOfBoundsException("Column: " + column);
+        }
+        return _index._columnKeys.get(_first + column);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int getColumnIndex(Comparable key) {
+        final Integer column = _index._columnIndexes.get(key);
+        return column != null && column >= _first && column < _first + _count ? column - _first : -1;
+    }
+
+    @Override
+    public List<Comparable<?>> getColumnKeys() {
+        return Collections.unmodifiableList(_index._columnKeys.subList(_first, _first + _count));
+    }
+
+    @Override
+    public int getRowCount() {
+        return _index._rowKeys.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return _count;
+    }
+
+    @Override
+    public Number getValue(int row, int column) {
+        return getStartValue(row, column);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Number getValue(Comparable rowKey, Comparable columnKey) {
+        return getStartValue(rowKey, columnKey);
+    }
+
+    @Override
+    public Number getStartValue(int row, int column) {
+        final Task task = getTask(row, column);
+        return task != null ? (Number) task._start : null;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Number getStartValue(Comparable rowKey, Comparable columnKey) {
+        final Task task = getTask(rowKey, columnKey);
+        return task != null ? (Number) task._start : null;
+    }
+
+    @Override
+    public Number getEndValue(int row, int column) {
+        final Task task = getTask(row, column);
+        return task != null ? (Number) task._end : null;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Number getEndValue(Comparable rowKey, Comparable columnKey) {
+        final Task task = getTask(rowKey, columnKey);
+        return task != null ? (Number) task._end : null;
+    }
+
+    @Override
+    public Number getPercentComplete(int row, int column) {
+        final Task task = getTask(row, column);
+        return task != null ? task._percent : null;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Number getPercentComplete(Comparable rowKey, Comparable columnKey) {
+        final Task task = getTask(rowKey, columnKey);
+        return task != null ? task._percent : null;
+    }
+
+    @Override
+    public int getSubIntervalCount(int row, int column) {
+        final Task task = getTask(row, column);
+        return task != null ? task._subtasks.length : 0;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int getSubIntervalCount(Comparable rowKey, Comparable columnKey) {
+        final Task task = getTask(rowKey, columnKey);
+        return task != null ? task._subtasks.length : 0;
+    }
+
+    @Override
+    public Number getStartValue(int row, int column, int subinterval) {
+        final Task subtask = getSubtask(getTask(row, column), subinterval);
+        return subtask != null ? (Number) subtask._start : null;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Number getStartValue(Comparable rowKey, Comparable columnKey, int subinterval) {
+        final Task subtask = getSubtask(getTask(rowKey, columnKey), subinterval);
+        return subtask != null ? (Number) subtask._start : null;
+    }
+
+    @Override
+    public Number getEndValue(int row, int column, int subinterval) {
+        final Task subtask = getSubtask(getTask(row, column), subinterval);
+        return subtask != null ? (Number) subtask._end : null;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Number getEndValue(Comparable rowKey, Comparable columnKey, int subinterval) {
+        final Task subtask = getSubtask(getTask(rowKey, columnKey), subinterval);
+        return subtask != null ? (Number) subtask._end : null;
+    }
+
+    @Override
+    public Number getPercentComplete(int row, int column, int subinterval) {
+        final Task subtask = getSubtask(getTask(row, column), subinterval);
+        return subtask != null ? subtask._percent : null;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Number getPercentComplete(Comparable rowKey, Comparable columnKey, int subinterval) {
+        final Task subtask = getSubtask(getTask(rowKey, columnKey), subinterval);
+        return subtask != null ? subtask._percent : null;
+    }
+
+    /**
+     * The tasks of a model by series then description, with the dates of the whole plan.
+     */
+    private static final class Index {
+
+        private final List<Comparable<?>> _rowKeys = new ArrayList<>();
+
+        private final List<Comparable<?>> _columnKeys = new ArrayList<>();
+
+        private final Map<Comparable<?>, Integer> _rowIndexes = new HashMap<>();
+
+        private final Map<Comparable<?>, Integer> _columnIndexes = new HashMap<>();
+
+        private final Task[][] _tasks;
+
+        private long _start = Long.MAX_VALUE;
+
+        private long _end = Long.MIN_VALUE;
+
+        Index(GanttModel model) {
+            final Comparable<?>[] series = model.getAllSeries();
+            final GanttTask[][] tasks = new GanttTask[series.length][];
+            for (int row = 0; row < series.length; row++) {
+                _rowKeys.add(series[row]);
+                _rowIndexes.put(series[row], row);
+
+                tasks[row] = model.getTasks(series[row]);
+                for (GanttTask task : tasks[row]) {
+                    final String description = task.getDescription();
+                    if (!_columnIndexes.containsKey(description)) {
+                        _columnIndexes.put(description, _columnKeys.size());
+                        _columnKeys.add(description);
+                    }
+                }
+            }
+
+            _tasks = new Task[series.length][_columnKeys.size()];
+            for (int row = 0; row < series.length; row++) {
+                for (GanttTask task : tasks[row]) {
+                    final int column = _columnIndexes.get(task.getDescription());
+                    if (_tasks[row][column] == null && task.getStart() != null && task.getEnd() != null) {
+                        final Task laid = new Task(task);
+                        _tasks[row][column] = laid;
+                        _start = Math.min(_start, laid._start);
+                        _end = Math.max(_end, laid._end);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A task of the model, with its subtasks.
+     */
+    private static final class Task {
+
+        private static final Task[] NONE = new Task[0];
+
+        private final long _start;
+
+        private final long _end;
+
+        private final Double _percent;
+
+        private final Task[] _subtasks;
+
+        Task(GanttTask task) {
+            _start = task.getStart().getTime();
+            _end = task.getEnd().getTime();
+            _percent = task.getPercent();
+
+            final GanttTask[] subtasks = task.getSubtasks();
+            if (subtasks.length == 0) {
+                _subtasks = NONE;
+            } else {
+                final List<Task> laid = new ArrayList<>(subtasks.length);
+                for (GanttTask subtask : subtasks) {
+                    if (subtask.getStart() != null && subtask.getEnd() != null) {
+                        laid.add(new Task(subtask));
+                    }
+                }
+                _subtasks = laid.toArray(NONE);
+            }
+        }
+    }
+}
@@ -17,23 +17,35 @@ package com.libreplan.java.zk.components;
 
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.Transparency;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartRenderingInfo;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.Axis;
 import org.jfree.chart.axis.DateAxis;
-import org.jfree.chart.encoders.EncoderUtil;
-import org.jfree.chart.encoders.ImageFormat;
 import org.jfree.chart.entity.CategoryItemEntity;
+import org.jfree.chart.entity.CategoryLabelEntity;
 import org.jfree.chart.entity.ChartEntity;
 import org.jfree.chart.entity.JFreeChartEntity;
 import org.jfree.chart.entity.LegendItemEntity;
@@ -47,28 +59,30 @@ import org.jfree.chart.plot.PiePlot;
 import org.jfree.chart.plot.Plot;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.AbstractRenderer;
+import org.jfree.chart.renderer.xy.XYItemRenderer;
 import org.jfree.chart.title.LegendTitle;
 import org.jfree.data.category.CategoryDataset;
-import org.jfree.data.category.DefaultCategoryDataset;
+import org.jfree.data.category.IntervalCategoryDataset;
 import org.jfree.data.gantt.GanttCategoryDataset;
+import org.jfree.data.general.Dataset;
 import org.jfree.data.general.DefaultPieDataset;
 import org.jfree.data.general.PieDataset;
-import org.jfree.data.time.RegularTimePeriod;
-import org.jfree.data.time.TimeSeries;
-import org.jfree.data.time.TimeSeriesCollection;
 import org.jfree.data.xy.IntervalXYDataset;
+import org.jfree.data.xy.TableXYDataset;
 import org.jfree.data.xy.XYDataset;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 import org.jfree.data.xy.XYZDataset;
-import org.zkoss.lang.Objects;
+import org.zkoss.util.Locales;
 import org.zkoss.util.TimeZones;
+import org.zkoss.zk.ui.Component;
 import org.zkoss.zk.ui.UiException;
 import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zk.ui.event.MouseEvent;
 import org.zkoss.zul.Area;
 import org.zkoss.zul.CategoryModel;
 import org.zkoss.zul.Chart;
 import org.zkoss.zul.ChartModel;
+import org.zkoss.zul.GanttModel;
 import org.zkoss.zul.PieModel;
 import org.zkoss.zul.XYModel;
 import org.zkoss.zul.impl.ChartEngine;
@@ -83,10 +97,6 @@ import org.zkoss.zul.impl.ChartEngine;
  */
 public class JFreeChartEngine implements ChartEngine {
 
-    private final String _LEGEND_SEQ_ATTR = "LEGEND_SEQ";
-
-    private final String _TICK_SEQ_ATTR = "TICK_SEQ";
-
     private final String _SERIES_ATTR = "series";
 
     private final String _CATEGORY_ATTR = "category";
@@ -97,54 +107,768 @@ public class JFreeChartEngine implements ChartEngine {
 
     private final String _TITLE_ATTR = "TITLE";
 
-    private String _type;
+    private final String _RENDER_CACHE_ATTR = "render-cache";
 
-    private ChartImpl _chartImpl;
+    private final String _INCREMENTAL_DATASET_ATTR = "incremental-dataset";
 
-    private transient boolean _threeD;
+    private final String _RETAINED_CHART_ATTR = "retained-chart";
 
-    private static final SimpleDateFormat _dateFormat = new SimpleDateFormat();
+    private final String _PERIOD_AGGREGATION_ATTR = "period-aggregation";
 
-    private static Map _periodMap = new HashMap(10);
+    private final String _DOWNSAMPLING_ATTR = "downsampling";
 
-    static {
-        _periodMap.put(Chart.MILLISECOND, org.jfree.data.time.Millisecond.class);
-        _periodMap.put(Chart.SECOND, org.jfree.data.time.Second.class);
-        _periodMap.put(Chart.MINUTE, org.jfree.data.time.Minute.class);
-        _periodMap.put(Chart.HOUR, org.jfree.data.time.Hour.class);
-        _periodMap.put(Chart.DAY, org.jfree.data.time.Day.class);
-        _periodMap.put(Chart.WEEK, org.jfree.data.time.Week.class);
-        _periodMap.put(Chart.MONTH, org.jfree.data.time.Month.class);
-        _periodMap.put(Chart.QUARTER, org.jfree.data.time.Quarter.class);
-        _periodMap.put(Chart.YEAR, org.jfree.data.time.Year.class);
-    }
+    private final String _DOWNSAMPLING_POINTS_ATTR = "downsampling-points";
 
-    private ChartImpl getChartImpl(Chart chart){
-        if (Objects.equals(chart.getType(), _type) && _threeD == chart.isThreeD()) {
-            return _chartImpl;
-        }
+    private final String _RESOLUTION_PYRAMID_ATTR = "resolution-pyramid";
+
+    private final String _DOMAIN_LOWER_BOUND_ATTR = "domain-axis-lower-bound";
+
+    private final String _DOMAIN_UPPER_BOUND_ATTR = "domain-axis-upper-bound";
+
+    private final String _CLIENT_AREAS_ATTR = "client-areas";
+
+    private final String _DEFERRED_AREAS_ATTR = "deferred-areas";
+
+    private final String _AREA_KEYS_ATTR = "jfreechart-area-keys";
+
+    private final String _ASYNC_RENDER_ATTR = "async-render";
+
+    private final String _PREPARED_ATTR = "jfreechart-prepared";
+
+    private final String _PNG_COMPRESSION_ATTR = "png-compression";
+
+    private final String _PNG_PALETTE_ATTR = "png-palette";
+
+    private final String _IMAGE_FORMAT_ATTR = "image-format";
+
+    private final String _MAX_FRAME_RATE_ATTR = "max-frame-rate";
+
+    private final String _PIE_TOP_SECTIONS_ATTR = "pie-top-sections";
+
+    private final String _PIE_MIN_PERCENT_ATTR = "pie-min-percent";
+
+    private final String _PIE_OTHER_LABEL_ATTR = "pie-other-label";
+
+    private final String _PIE_AGGREGATED_ATTR = "jfreechart-pie-aggregated";
+
+    private final String _DATA_AREAS_ATTR = "data-areas";
+
+    private final String _GANTT_FIRST_TASK_ATTR = "gantt-first-task";
+
+    private final String _GANTT_VISIBLE_TASKS_ATTR = "gantt-visible-tasks";
+
+    /**
+     * The height of a task row, in pixels of the chart, when the tasks in view are not given.
+     */
+    private static final int GANTT_ROW_HEIGHT = 20;
+
+    /*
+     * The chart implementations hold no state: all the state of a draw is in the call
+     * and in the chart, so an engine can draw several charts at the same time.
+     */
+    private final ChartImpl _timeSeriesChart = new TimeSeriesChart();
 
+    private final ChartImpl _barChart = new BarChart();
+
+    private final ChartImpl _bar3dChart = new Bar3dChart();
+
+    private final ChartImpl _pieChart = new PieChart();
+
+    private final ChartImpl _pie3dChart = new Pie3dChart();
+
+    private final ChartImpl _ganttChart = new GanttChart();
+
+    private final ChartImpl _lineChart = new LineChart();
+
+    private final ChartImpl _line3dChart = new Line3dChart();
+
+    private final ChartImpl _areaChart = new AreaChart();
+
+    private final ChartImpl _stackedAreaChart = new StackedAreaChart();
+
+    ChartImpl getChartImpl(Chart chart){
         if ( Chart.TIME_SERIES.equals(chart.getType()) ) {
-            _chartImpl = new TimeSeriesChart();
-        }else if ( Chart.BAR.equals(chart.getType())) {
-            _chartImpl = chart.isThreeD() ? new Bar3dChart() : new BarChart();
+            return _timeSeriesChart;
+        } else if ( Chart.BAR.equals(chart.getType())) {
+            return chart.isThreeD() ? _bar3dChart : _barChart;
         } else if (Chart.PIE.equals(chart.getType())) {
-            _chartImpl = chart.isThreeD() ? new Pie3dChart() : new PieChart();
+            return chart.isThreeD() ? _pie3dChart : _pieChart;
+        } else if (Chart.GANTT.equals(chart.getType())) {
+            return _ganttChart;
+        } else if (Chart.LINE.equals(chart.getType())) {
+            return chart.isThreeD() ? _line3dChart : _lineChart;
+        } else if (Chart.AREA.equals(chart.getType())) {
+            return _areaChart;
+        } else if (Chart.STACKED_AREA.equals(chart.getType())) {
+            return _stackedAreaChart;
         } else {
             throw new RuntimeException("Unsupported chart type: " + chart.getType());
         }
-
-        _threeD = chart.isThreeD();
-        _type = chart.getType();
-
-        return _chartImpl;
     }
 
     public byte[] drawChart(Object data) {
         Chart chart = (Chart) data;
+
+        final double rate = FrameThrottle.toRate(chart.getAttribute(_MAX_FRAME_RATE_ATTR), chart);
+        if (rate > 0 && AsyncRender.isAvailable(chart)) {
+            return FrameThrottle.draw(chart, rate, () -> drawFrame(chart));
+        }
+        return drawFrame(chart);
+    }
+
+    private byte[] drawFrame(Chart chart) {
+        final boolean withAreas = isWithAreas(chart);
+
+        final Prepared prepared = (Prepared) chart.getAttribute(_PREPARED_ATTR);
+        if (prepared != null) {
+            chart.removeAttribute(_PREPARED_ATTR);
+            if (prepared._key.equals(ChartFingerprint.of(chart, withAreas))) {
+                return prepared._image; // Drawn by drawCharts, with its areas
+            }
+        }
+
+        // A render of the chart still running in the background is stale now
+        AsyncRender.cancel(chart);
+
+        final long start = System.nanoTime();
+        final RenderCache cache = getCache(chart);
+        final String key = cache != null ? ChartFingerprint.of(chart, withAreas) : null;
+        if (key != null) {
+            RenderResult cached = cache.get(key);
+            if (cached != null) {
+                final Drawing drawing = new Drawing(cached, isClientAreas(chart), isSvg(chart), newMetrics(chart, true));
+                drawing._metrics.end(RenderMetrics.Phase.CACHE, start);
+                applyAreas(chart, drawing);
+                return drawing.getImage();
+            }
+        }
+        final long cacheNanos = System.nanoTime() - start;
+
+        if (isAsync(chart) && AsyncRender.isAvailable(chart)) {
+            RetainedChart.release(chart);
+            // The render reads nothing the event thread changes in the meantime
+            final ChartSnapshot snapshot = new ChartSnapshot(chart, getChartImpl(chart).getDataset(chart));
+            final RenderGovernor.Request request = RenderGovernor.isEnabled()
+                    ? newRequest(chart, withAreas, false) : null;
+            return AsyncRender.submit(chart, new AsyncRender.Job() {
+
+                private Drawing _drawing;
+
+                @Override
+                public byte[] draw() {
+                    _drawing = snapshot.render(() -> render(snapshot, request, withAreas));
+                    _drawing._metrics.add(RenderMetrics.Phase.CACHE, cacheNanos);
+                    if (key != null && isFull(_drawing)) {
+                        cache.put(key, _drawing._result);
+                    }
+                    return _drawing.getImage();
+                }
+
+                @Override
+                public void apply() {
+                    applyAreas(chart, _drawing);
+                }
+            });
+        }
+
+        Drawing drawing = render(chart, withAreas, chart.getContent() != null);
+        if (drawing == null) {
+            return chart.getContent().getByteData(); // Shed under load, with its areas
+        }
+        drawing._metrics.add(RenderMetrics.Phase.CACHE, cacheNanos);
+        if (key != null && isFull(drawing)) {
+            cache.put(key, drawing._result);
+        }
+        applyAreas(chart, drawing);
+        return drawing.getImage();
+    }
+
+    /**
+     * Draws several charts at once, such as the charts of a dashboard.
+     * The charts are rendered in parallel, those with the same model one after the other,
+     * and then their images and areas are set in the calling thread, in order.
+     * A draw of one of the charts already requested in the same execution,
+     * for the same chart properties and data, then takes the image drawn here.
+     */
+    public void drawCharts(Collection<? extends Chart> charts) {
+        final Map<Chart, Drawing> drawings = new IdentityHashMap<>();
+        final Map<Object, List<Chart>> groups = new IdentityHashMap<>();
+        final Map<Chart, Long> cacheNanos = new IdentityHashMap<>();
+
+        for (Chart chart : charts) {
+            chart.removeAttribute(_PREPARED_ATTR);
+            AsyncRender.cancel(chart);
+
+            final long start = System.nanoTime();
+            final RenderCache cache = getCache(chart);
+            final String key = cache != null ? ChartFingerprint.of(chart, isWithAreas(chart)) : null;
+            final RenderResult cached = key != null ? cache.get(key) : null;
+            if (cached != null) {
+                final Drawing drawing = new Drawing(cached, isClientAreas(chart), isSvg(chart), newMetrics(chart, true));
+                drawing._metrics.end(RenderMetrics.Phase.CACHE, start);
+                drawing._key = key;
+                drawings.put(chart, drawing);
+            } else {
+                cacheNanos.put(chart, System.nanoTime() - start);
+                // The charts of a model are rendered by the same task, as they all register on the model
+                final Object model = chart.getModel() != null ? chart.getModel() : chart;
+                groups.computeIfAbsent(model, k -> new ArrayList<>()).add(chart);
+            }
+        }
+
+        final List<Callable<List<Drawing>>> tasks = new ArrayList<>(groups.size());
+        for (List<Chart> group : groups.values()) {
+            tasks.add(() -> {
+                final List<Drawing> result = new ArrayList<>(group.size());
+                for (Chart chart : group) {
+                    final boolean withAreas = isWithAreas(chart);
+                    final RenderCache cache = getCache(chart);
+                    final Drawing drawing = render(chart, withAreas, chart.getContent() != null);
+                    if (drawing != null) {
+                        final long start = System.nanoTime();
+                        drawing._key = ChartFingerprint.of(chart, withAreas);
+                        drawing._metrics.end(RenderMetrics.Phase.CACHE, start);
+                        if (cache != null && isFull(drawing)) {
+                            cache.put(drawing._key, drawing._result);
+                        }
+                    }
+                    result.add(drawing); // Null for a chart that keeps its image
+                }
+                return result;
+            });
+        }
+
+        RuntimeException failure = null;
+        final Iterator<List<Chart>> group = groups.values().iterator();
+        for (Future<List<Drawing>> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            final List<Chart> groupCharts = group.next();
+            try {
+                final List<Drawing> result = future.get();
+                for (int i = 0; i < groupCharts.size(); i++) {
+                    if (result.get(i) != null) {
+                        result.get(i)._metrics.add(RenderMetrics.Phase.CACHE, cacheNanos.get(groupCharts.get(i)));
+                        drawings.put(groupCharts.get(i), result.get(i));
+                    }
+                }
+            } catch (ExecutionException ex) {
+                if (failure == null) {
+                    failure = UiException.Aide.wrap(ex.getCause());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw UiException.Aide.wrap(ex);
+            }
+        }
+
+        for (Chart chart : charts) {
+            final Drawing drawing = drawings.get(chart);
+            if (drawing != null) {
+                chart.setContent(AsyncRender.newImage(drawing.getImage()));
+                applyAreas(chart, drawing);
+                // Without a fingerprint, a later draw cannot tell whether the chart changed since
+                if (drawing._key != null) {
+                    chart.setAttribute(_PREPARED_ATTR, new Prepared(drawing._key, drawing.getImage()));
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private boolean isWithAreas(Chart chart) {
+        return Events.isListened(chart, Events.ON_CLICK, false) || chart.isShowTooltiptext();
+    }
+
+    /**
+     * Whether a render was not degraded by the render governor, so it can be cached.
+     */
+    private static boolean isFull(Drawing drawing) {
+        return drawing._metrics.getDegradation() == RenderMetrics.Degradation.NONE;
+    }
+
+    /**
+     * Returns the render cache for a chart, or null if it is not cached.
+     * The area listener and the deferred areas need the JFreeChart entities,
+     * which are not kept in the cache, so such charts are always rendered.
+     * A streaming model changes before nearly every draw, it is not worth its fingerprint.
+     */
+    private RenderCache getCache(Chart chart) {
+        return Boolean.FALSE.equals(chart.getAttribute(_RENDER_CACHE_ATTR)) || chart.getAreaListener() != null ||
+                isDeferredAreas(chart) || chart.getModel() instanceof StreamingXYModel ? null : RenderCache.getShared();
+    }
+
+    /**
+     * Image set by {@link #drawCharts(Collection)}, for the pending draw of the chart.
+     */
+    private static final class Prepared {
+
+        private final String _key;
+
+        private final byte[] _image;
+
+        Prepared(String key, byte[] image) {
+            _key = key;
+            _image = image;
+        }
+    }
+
+    /**
+     * Renders a chart once the {@link RenderGovernor} admits it, degraded as it decides.
+     *
+     * @param hasLastImage whether the chart can keep its image instead of being rendered
+     * @return the render, or null if the chart keeps its image
+     */
+    private Drawing render(Chart chart, boolean withAreas, boolean hasLastImage) {
+        return render(chart, RenderGovernor.isEnabled() ? newRequest(chart, withAreas, hasLastImage) : null,
+                withAreas);
+    }
+
+    /**
+     * @param request what the render is about to draw, null when the governor is disabled
+     */
+    private Drawing render(Chart chart, RenderGovernor.Request request, boolean withAreas) {
+        final RenderGovernor.Permit admitted = request != null
+                ? RenderGovernor.admit(request)
+                : RenderGovernor.ungoverned(withAreas);
+
+        try (RenderGovernor.Permit permit = admitted) {
+            if (permit.isLastImage()) {
+                final RenderMetrics metrics = newMetrics(chart, false);
+                metrics.add(RenderMetrics.Phase.QUEUE, permit.getQueueNanos());
+                metrics.setDegradation(permit.getDegradation());
+                metrics.setChartId(chart.getId().isEmpty() ? chart.getUuid() : chart.getId());
+                RenderMonitor.report(metrics);
+                return null;
+            }
+
+            final Drawing drawing = render(chart, permit);
+            permit.learn(drawing._metrics);
+            return drawing;
+        }
+    }
+
+    /**
+     * Returns what a render of the chart is about to draw, counted on its model
+     * since the dataset is only built once the render is admitted.
+     */
+    private RenderGovernor.Request newRequest(Chart chart, boolean withAreas, boolean hasLastImage) {
+        final ChartModel model = chart.getModel();
+        final int points = getChartImpl(chart).countPoints(chart);
+
+        int downsampledPoints = points;
+        if (model instanceof XYModel && !(model instanceof StreamingXYModel) &&
+                !Chart.STACKED_AREA.equals(chart.getType())) {
+            final XYModel xyModel = (XYModel) model;
+            final int columnPoints = Downsampling.MINMAX.getDefaultPoints(chart.getIntWidth());
+            downsampledPoints = 0;
+            for (Comparable<?> series : xyModel.getSeries()) {
+                downsampledPoints += Math.min(xyModel.getDataCount(series), columnPoints);
+            }
+        }
+        return new RenderGovernor.Request(newMetrics(chart, false).getType(), chart.getIntWidth(),
+                chart.getIntHeight(), points, downsampledPoints, withAreas, hasLastImage);
+    }
+
+    /**
+     * Renders a chart without changing its components, see {@link #applyAreas(Chart, Drawing)}.
+     * In async mode it runs off the event thread on a {@link ChartSnapshot}, with the dataset
+     * built in the event thread, and neither a retained chart nor an incremental dataset is used.
+     */
+    private Drawing render(Chart chart, RenderGovernor.Permit permit) {
+        final boolean withAreas = permit.isWithAreas();
         ChartImpl impl = getChartImpl(chart);
-        JFreeChart jfchart = impl.createChart(chart);
+        final boolean retained = !isAsync(chart) && Boolean.TRUE.equals(chart.getAttribute(_RETAINED_CHART_ATTR));
+        final RenderMetrics metrics = newMetrics(chart, false);
+        metrics.add(RenderMetrics.Phase.QUEUE, permit.getQueueNanos());
+        metrics.setDegradation(permit.getDegradation());
+
+        long start = System.nanoTime();
+        Dataset dataset = chart instanceof ChartSnapshot
+                ? ((ChartSnapshot) chart).getDataset() : impl.getDataset(chart);
+        if (permit.isDownsampled() && dataset instanceof XYModelDataset) {
+            dataset = ((XYModelDataset) dataset).downsample(Downsampling.MINMAX,
+                    Downsampling.MINMAX.getDefaultPoints(chart.getIntWidth()));
+        }
+        metrics.setPoints(countPoints(dataset));
+        start = metrics.end(RenderMetrics.Phase.DATASET, start);
+
+        JFreeChart jfchart;
+        if (retained) {
+            jfchart = getRetainedChart(chart, impl, dataset);
+        } else {
+            if (!isAsync(chart)) {
+                RetainedChart.release(chart);
+            }
+            jfchart = impl.createChart(chart, dataset);
+            setupChart(chart, jfchart);
+        }
+        start = metrics.end(RenderMetrics.Phase.CREATE, start);
+
+        Plot plot = jfchart.getPlot();
+
+        // Callbacks for each area
+        ChartRenderingInfo jfinfo = new ChartRenderingInfo();
+
+        final boolean svg = isSvg(chart);
+        final SvgGraphics2D svgGraphics;
+        final BufferedImage bi;
+        if (svg) {
+            svgGraphics = new SvgGraphics2D(chart.getIntWidth(), chart.getIntHeight());
+            jfchart.draw(svgGraphics, new Rectangle2D.Double(0, 0, chart.getIntWidth(), chart.getIntHeight()),
+                    null, jfinfo);
+            bi = null;
+        } else {
+            svgGraphics = null;
+            bi = RasterPool.draw(jfchart, chart.getIntWidth(), chart.getIntHeight(), jfinfo);
+        }
+        start = metrics.end(RenderMetrics.Phase.RASTERIZE, start);
+        metrics.setEntities(jfinfo.getEntityCollection().getEntityCount());
+
+        List<AreaInfo> areas = new ArrayList<>();
+        final boolean deferredAreas = !svg && isDeferredAreas(chart); // The regions of an SVG are in it
+        final boolean clientAreas = !deferredAreas && isClientAreas(chart);
+
+        final List<ChartEntity> entities = new ArrayList<>();
+        final int[] seqs = new int[jfinfo.getEntityCollection().getEntityCount()];
+        if (withAreas) {
+            collectAreas(chart, impl, jfinfo, !deferredAreas, entities, seqs, areas);
+        }
+        start = metrics.end(RenderMetrics.Phase.AREAS, start);
+
+        if (!retained) {
+            releaseDataset(plot);
+        }
+
+        if (svg) {
+            final byte[] image = svgGraphics.toSvg();
+            metrics.end(RenderMetrics.Phase.ENCODE, start);
+            metrics.setBytes(image.length);
+            return new Drawing(new RenderResult(image, areas), clientAreas, false, true,
+                    impl, entities, seqs, metrics);
+        }
+
+        // Encode into png image format byte array
+        final byte[] image;
+        try {
+            image = PngEncoder.encode(bi, PngEncoder.toLevel(chart.getAttribute(_PNG_COMPRESSION_ATTR)),
+                    !Boolean.FALSE.equals(chart.getAttribute(_PNG_PALETTE_ATTR)));
+        } finally {
+            RasterPool.release(bi);
+        }
+        metrics.end(RenderMetrics.Phase.ENCODE, start);
+        metrics.setBytes(image.length);
+
+        return new Drawing(new RenderResult(image, areas), clientAreas, deferredAreas, false,
+                impl, entities, seqs, metrics);
+    }
+
+    private RenderMetrics newMetrics(Chart chart, boolean cacheHit) {
+        return new RenderMetrics(chart.isThreeD() ? chart.getType() + "_3d" : chart.getType(),
+                chart.getIntWidth(), chart.getIntHeight(), cacheHit);
+    }
+
+    /**
+     * Returns the number of data items of a dataset, the values of a category dataset.
+     */
+    private static int countPoints(Dataset dataset) {
+        if (dataset instanceof XYDataset) {
+            final XYDataset xyDataset = (XYDataset) dataset;
+            int points = 0;
+            for (int series = 0; series < xyDataset.getSeriesCount(); series++) {
+                points += xyDataset.getItemCount(series);
+            }
+            return points;
+        } else if (dataset instanceof CategoryDataset) {
+            return ((CategoryDataset) dataset).getRowCount() * ((CategoryDataset) dataset).getColumnCount();
+        } else if (dataset instanceof PieDataset) {
+            return ((PieDataset) dataset).getItemCount();
+        }
+        return 0;
+    }
+
+    /**
+     * Collects the entities of a draw that have an area, in drawing order, and decodes them
+     * into regions unless they are decoded on click only, see {@link #decodeEntity}.
+     * Package-private for the benchmarks, as the other stages of a draw.
+     *
+     * @param seqs receives the position of each entity among the entities of its kind
+     */
+    void collectAreas(Chart chart, ChartImpl impl, ChartRenderingInfo jfinfo, boolean decode,
+            List<ChartEntity> entities, int[] seqs, List<AreaInfo> areas) {
+        int legendSeq = 0;
+        int tickSeq = 0;
+        String preUrl = null;
+
+        for ( Iterator<?> it = jfinfo.getEntityCollection().iterator(); it.hasNext(); ) {
+            ChartEntity ce = ( ChartEntity ) it.next();
+            final String url = ce.getURLText();
+
+            // Workaround JFreeChart's bug (skip replicate areas)
+            if ( url != null ) {
+                if ( preUrl == null ) {
+                    preUrl = url;
+                } else if (url.equals(preUrl)) { // Start replicate, skip
+                    break;
+                }
+            }
+
+            /*
+             * 1. JFreeChartEntity area cover the whole chart, will "mask" other areas.
+             * 2. LegendTitle area cover the whole legend, will "mask" each legend.
+             * 3. PlotEntity cover the whole chart plotting araa, will "mask" each bar/line/area.
+             */
+
+            if ( !(ce instanceof JFreeChartEntity) &&
+                    !(ce instanceof TitleEntity && ((TitleEntity)ce).getTitle() instanceof LegendTitle) &&
+                    !(ce instanceof PlotEntity) ) {
+
+                final int seq;
+                if (ce instanceof LegendItemEntity) {
+                    seq = legendSeq++;
+                } else if (ce instanceof TickLabelEntity) {
+                    seq = tickSeq++;
+                } else {
+                    seq = 0;
+                }
+                seqs[entities.size()] = seq;
+                entities.add(ce);
+
+                if (decode) {
+                    AreaInfo info = newAreaInfo(chart, ce);
+                    impl.render(chart, info, ce, seq);
+                    areas.add(info);
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts the areas of a render on the chart, see {@link #putAreas(Chart, Drawing)},
+     * and reports the metrics of the draw.
+     */
+    private void applyAreas(Chart chart, Drawing drawing) {
+        final long start = System.nanoTime();
+        drawing._metrics.setAreas(putAreas(chart, drawing));
+        drawing._metrics.end(RenderMetrics.Phase.AREAS, start);
+        drawing._metrics.setChartId(chart.getId().isEmpty() ? chart.getUuid() : chart.getId());
+        RenderMonitor.report(drawing._metrics);
+    }
+
+    /**
+     * Puts the areas of a render on the chart, as Area children, as a client image map,
+     * as a spatial index or in its SVG, and calls the area listener.
+     *
+     * @return the number of Area components created
+     */
+    private int putAreas(Chart chart, Drawing drawing) {
+        final List<AreaInfo> areas = drawing._result.getAreas();
+
+        if (!drawing._svg) {
+            SvgChart.release(chart);
+        }
+        if (drawing._deferredAreas) {
+            resetAreas(chart);
+            ClientAreaMap.release(chart);
+            EntityIndex.publish(chart, drawing._entities, drawing._seqs,
+                    (ce, index, seq) -> decodeEntity(chart, drawing._impl, ce, index, seq));
+            return 0;
+        }
+
+        EntityIndex.release(chart);
+        if (drawing._svg || drawing._clientAreas) {
+            resetAreas(chart);
+            int created = 0;
+            if (drawing._entities != null && chart.getAreaListener() != null) {
+                created = areas.size();
+                // The listener gets a detached area, what it changes is kept for the client
+                for (int i = 0; i < areas.size(); i++) {
+                    Area area = areas.get(i).newArea(areaIdPrefix(chart) + i);
+                    fireAreaRendered(chart, area, drawing._entities.get(i));
+                    areas.get(i).update(area);
+                }
+            }
+            if (drawing._svg) {
+                ClientAreaMap.release(chart);
+                SvgChart.publish(chart, drawing._result.getImage(), areaIdPrefix(chart), areas);
+            } else {
+                ClientAreaMap.publish(chart, areaIdPrefix(chart), areas);
+            }
+            return created;
+        } else {
+            ClientAreaMap.release(chart);
+            return reconcileAreas(chart, areas, drawing._entities);
+        }
+    }
+
+    /**
+     * A rendered chart, with what is needed to put its areas on the chart.
+     */
+    private static final class Drawing {
+
+        private final RenderResult _result;
+
+        private final boolean _clientAreas;
+
+        private final boolean _deferredAreas;
+
+        /**
+         * Whether the image is an SVG, which is shown in place of the image of the chart.
+         */
+        private final boolean _svg;
+
+        private final ChartImpl _impl;
+
+        /**
+         * The entity of each area, or of each region in deferred mode; null for a cached render.
+         */
+        private final List<ChartEntity> _entities;
+
+        private final int[] _seqs;
+
+        /**
+         * The fingerprint of the chart when it was rendered, set by drawCharts.
+         */
+        private String _key;
+
+        private final RenderMetrics _metrics;
+
+        Drawing(RenderResult cached, boolean clientAreas, boolean svg, RenderMetrics metrics) {
+            this(cached, clientAreas, false, svg, null, null, null, metrics);
+            metrics.setBytes(cached.getImage().length);
+        }
+
+        Drawing(RenderResult result, boolean clientAreas, boolean deferredAreas, boolean svg,
+                ChartImpl impl, List<ChartEntity> entities, int[] seqs, RenderMetrics metrics) {
+            _result = result;
+            _clientAreas = clientAreas;
+            _deferredAreas = deferredAreas;
+            _svg = svg;
+            _impl = impl;
+            _entities = entities;
+            _seqs = seqs;
+            _metrics = metrics;
+        }
+
+        /**
+         * Returns the image to set on the chart.
+         */
+        byte[] getImage() {
+            return _svg ? AsyncRender.getPlaceholder() : _result.getImage();
+        }
+    }
+
+    /**
+     * Applies the chart properties to a newly created JFreeChart.
+     */
+    void setupChart(Chart chart, JFreeChart jfchart) {
+        Plot plot = jfchart.getPlot();
+
+        applyColors(chart, jfchart);
+        applyFonts(chart, jfchart);
+        applyDataAreas(chart, plot);
+
+        if (plot instanceof CategoryPlot) {
+            final CategoryPlot cplot = (CategoryPlot) plot;
+            cplot.setRangeGridlinePaint(new Color(0xc0, 0xc0, 0xc0));
+
+            applySeriesColors(chart, cplot);
+            applyRangeBounds(chart, cplot);
+
+        } else if (plot instanceof XYPlot) {
+            final XYPlot xyplot = (XYPlot) plot;
+            xyplot.setRangeGridlinePaint(Color.LIGHT_GRAY);
+            xyplot.setDomainGridlinePaint(Color.LIGHT_GRAY);
+
+            applyDomainBounds(chart, xyplot);
+
+        } else if (plot instanceof PiePlot) {
+            plot.setOutlineStroke(null);
+        }
+    }
+
+    /**
+     * Returns the JFreeChart kept from the previous draw of the chart, updating only
+     * the parts whose properties changed. A new one is created the first time,
+     * whenever the type, threeD flag, model class, legend, tooltips or orientation change,
+     * and whenever a series or pie section is added or removed.
+     */
+    private JFreeChart getRetainedChart(Chart chart, ChartImpl impl, Dataset dataset) {
+        final RetainedChart.State state = new RetainedChart.State(chart);
+        final RetainedChart retained = RetainedChart.lookup(chart);
+
+        if (retained == null || !state.canUpdate(retained.getState()) || !retained.hasKeys(dataset)) {
+            JFreeChart jfchart = impl.createChart(chart, dataset);
+            setupChart(chart, jfchart);
+            RetainedChart.attach(chart, new RetainedChart(jfchart, state, dataset));
+            return jfchart;
+        }
+
+        final JFreeChart jfchart = retained.getChart();
+        final RetainedChart.State old = retained.getState();
+        final Plot plot = jfchart.getPlot();
+
+        if (state.isChanged(old, RetainedChart.State.TITLE)) {
+            jfchart.setTitle(chart.getTitle());
+        }
+
+        if (state.isChanged(old, RetainedChart.State.AXIS_LABELS)) {
+            if (plot instanceof CategoryPlot) {
+                ((CategoryPlot) plot).getDomainAxis().setLabel(chart.getXAxis());
+                ((CategoryPlot) plot).getRangeAxis().setLabel(chart.getYAxis());
+            } else if (plot instanceof XYPlot) {
+                ((XYPlot) plot).getDomainAxis().setLabel(chart.getXAxis());
+                ((XYPlot) plot).getRangeAxis().setLabel(chart.getYAxis());
+            }
+        }
+
+        if (state.isChanged(old, RetainedChart.State.COLORS)) {
+            applyColors(chart, jfchart);
+            if (plot instanceof CategoryPlot) {
+                applySeriesColors(chart, (CategoryPlot) plot);
+            }
+        }
+
+        if (state.isChanged(old, RetainedChart.State.TITLE) || state.isChanged(old, RetainedChart.State.FONTS)) {
+            applyFonts(chart, jfchart);
+        }
+
+        applyDataAreas(chart, plot);
 
+        if (state.isChanged(old, RetainedChart.State.RANGE_BOUNDS) && plot instanceof CategoryPlot) {
+            applyRangeBounds(chart, (CategoryPlot) plot);
+        }
+
+        if (state.isChanged(old, RetainedChart.State.DOMAIN_BOUNDS) && plot instanceof XYPlot) {
+            applyDomainBounds(chart, (XYPlot) plot);
+        }
+
+        if (state.isChanged(old, RetainedChart.State.DATE_AXIS) && impl instanceof TimeSeriesChart) {
+            ((TimeSeriesChart) impl).setupDateAxis(jfchart, chart);
+        } else if (state.isChanged(old, RetainedChart.State.DATE_AXIS) && impl instanceof GanttChart) {
+            applyDateFormat(chart, (DateAxis) ((CategoryPlot) plot).getRangeAxis());
+        }
+
+        // Each draw has a window of its own, over its own dates
+        if (impl instanceof GanttChart) {
+            ((GanttChart) impl).setupWindow(jfchart, (GanttModelDataset) dataset);
+        }
+
+        // The dataset is updated in place, unless it was replaced (new model, period or time zone)
+        if (plot instanceof CategoryPlot && ((CategoryPlot) plot).getDataset() != dataset) {
+            ((CategoryPlot) plot).setDataset((CategoryDataset) dataset);
+        } else if (plot instanceof XYPlot && ((XYPlot) plot).getDataset() != dataset) {
+            ((XYPlot) plot).setDataset((XYDataset) dataset);
+        } else if (plot instanceof PiePlot && ((PiePlot) plot).getDataset() != dataset) {
+            ((PiePlot) plot).setDataset((PieDataset) dataset);
+        }
+
+        retained.setState(state);
+        return jfchart;
+    }
+
+    private void applyColors(Chart chart, JFreeChart jfchart) {
         Plot plot = jfchart.getPlot();
         float alpha = ((float) chart.getFgAlpha()) / 255;
         plot.setForegroundAlpha(alpha);
@@ -161,11 +885,14 @@ public class JFreeChartEngine implements ChartEngine {
         if (paneRGB != null) {
             jfchart.setBackgroundPaint(new Color(paneRGB[0], paneRGB[1], paneRGB[2], chart.getPaneAlpha()));
         }
+    }
 
-        /*
-         * Since 3.6.3,
-         * JFreeChart 1.0.13 change default fonts which does not support Chinese, allow developer to set font.
-         */
+    /*
+     * Since 3.6.3,
+     * JFreeChart 1.0.13 change default fonts which does not support Chinese, allow developer to set font.
+     */
+    private void applyFonts(Chart chart, JFreeChart jfchart) {
+        Plot plot = jfchart.getPlot();
 
         // Title font
         final Font tfont = chart.getTitleFont();
@@ -179,183 +906,399 @@ public class JFreeChartEngine implements ChartEngine {
             jfchart.getLegend().setItemFont(lfont);
         }
 
-        if (plot instanceof CategoryPlot) {
-            final CategoryPlot cplot = (CategoryPlot) plot;
-            cplot.setRangeGridlinePaint(new Color(0xc0, 0xc0, 0xc0));
-
-            // Domain axis ( x axis )
-            final Font xlbfont = chart.getXAxisFont();
-            final Font xtkfont = chart.getXAxisTickFont();
+        final Axis domainAxis;
+        final Axis rangeAxis;
 
-            if (xlbfont != null) {
-                cplot.getDomainAxis().setLabelFont(xlbfont);
-            }
+        if (plot instanceof CategoryPlot) {
+            domainAxis = ((CategoryPlot) plot).getDomainAxis();
+            rangeAxis = ((CategoryPlot) plot).getRangeAxis();
+        } else if (plot instanceof XYPlot) {
+            domainAxis = ((XYPlot) plot).getDomainAxis();
+            rangeAxis = ((XYPlot) plot).getRangeAxis();
+        } else {
+            return;
+        }
 
-            if (xtkfont != null) {
-                cplot.getDomainAxis().setTickLabelFont(xtkfont);
-            }
+        // Domain axis ( x axis )
+        final Font xlbfont = chart.getXAxisFont();
+        final Font xtkfont = chart.getXAxisTickFont();
 
-            Color[] colorMappings = (Color[])chart.getAttribute("series-color-mappings");
-            if (colorMappings != null) {
-                for (int ii=0; ii < colorMappings.length; ii++) {
-                    cplot.getRenderer().setSeriesPaint(ii, colorMappings[ii]);
-                }
-            }
+        if (xlbfont != null) {
+            domainAxis.setLabelFont(xlbfont);
+        }
 
-            Double lowerBound = (Double)chart.getAttribute("range-axis-lower-bound");
-            if (lowerBound != null) {
-                cplot.getRangeAxis().setAutoRange(false);
-                cplot.getRangeAxis().setLowerBound(lowerBound);
-            }
+        if (xtkfont != null) {
+            domainAxis.setTickLabelFont(xtkfont);
+        }
 
-            Double upperBound = (Double)chart.getAttribute("range-axis-upper-bound");
-            if (upperBound != null) {
-                cplot.getRangeAxis().setAutoRange(false);
-                cplot.getRangeAxis().setUpperBound(upperBound);
-            }
+        // Range axis ( y axis )
+        final Font ylbfont = chart.getYAxisFont();
+        final Font ytkfont = chart.getYAxisTickFont();
 
-            // Range axis ( y axis )
-            final Font ylbfont = chart.getYAxisFont();
-            final Font ytkfont = chart.getYAxisTickFont();
+        if (ylbfont != null) {
+            rangeAxis.setLabelFont(ylbfont);
+        }
 
-            if (ylbfont != null) {
-                cplot.getRangeAxis().setLabelFont(ylbfont);
-            }
+        if (ytkfont != null) {
+            rangeAxis.setTickLabelFont(ytkfont);
+        }
+    }
 
-            if (ytkfont != null) {
-                cplot.getRangeAxis().setTickLabelFont(ytkfont);
+    private void applySeriesColors(Chart chart, CategoryPlot cplot) {
+        Color[] colorMappings = (Color[])chart.getAttribute("series-color-mappings");
+        if (colorMappings != null) {
+            for (int ii=0; ii < colorMappings.length; ii++) {
+                cplot.getRenderer().setSeriesPaint(ii, colorMappings[ii]);
             }
+        }
+    }
 
-        } else if (plot instanceof XYPlot) {
-            final XYPlot xyplot = (XYPlot) plot;
-            xyplot.setRangeGridlinePaint(Color.LIGHT_GRAY);
-            xyplot.setDomainGridlinePaint(Color.LIGHT_GRAY);
-
-            // Domain axis ( x axis )
-            final Font xlbfont = chart.getXAxisFont();
-            final Font xtkfont = chart.getXAxisTickFont();
+    /**
+     * The "domain-axis-lower-bound" and "domain-axis-upper-bound" attributes, a Number or a Date.
+     */
+    private void applyDomainBounds(Chart chart, XYPlot xyplot) {
+        Double lowerBound = toDomainValue(chart.getAttribute(_DOMAIN_LOWER_BOUND_ATTR));
+        if (lowerBound != null) {
+            xyplot.getDomainAxis().setAutoRange(false);
+            xyplot.getDomainAxis().setLowerBound(lowerBound);
+        }
 
-            if (xlbfont != null) {
-                xyplot.getDomainAxis().setLabelFont(xlbfont);
-            }
+        Double upperBound = toDomainValue(chart.getAttribute(_DOMAIN_UPPER_BOUND_ATTR));
+        if (upperBound != null) {
+            xyplot.getDomainAxis().setAutoRange(false);
+            xyplot.getDomainAxis().setUpperBound(upperBound);
+        }
+    }
 
-            if (xtkfont != null) {
-                xyplot.getDomainAxis().setTickLabelFont(xtkfont);
-            }
+    /**
+     * The "data-areas" attribute: when false, the renderer creates no entity for the data items,
+     * so a chart of many points costs no area; the title, legend and labels keep theirs.
+     */
+    private void applyDataAreas(Chart chart, Plot plot) {
+        final Object renderer = plot instanceof CategoryPlot ? ((CategoryPlot) plot).getRenderer()
+                : plot instanceof XYPlot ? ((XYPlot) plot).getRenderer() : null;
+        if (renderer instanceof AbstractRenderer) {
+            ((AbstractRenderer) renderer).setBaseCreateEntities(
+                    !Boolean.FALSE.equals(chart.getAttribute(_DATA_AREAS_ATTR)), false);
+        }
+    }
 
-            // Range axis ( y axis )
-            final Font ylbfont = chart.getYAxisFont();
-            final Font ytkfont = chart.getYAxisTickFont();
+    /**
+     * The time zone and date format of the chart.
+     */
+    private void applyDateFormat(Chart chart, DateAxis axis) {
+        final TimeZone zone = chart.getTimeZone();
 
-            if (ylbfont != null) {
-                xyplot.getRangeAxis().setLabelFont(ylbfont);
-            }
+        if (zone != null) {
+            axis.setTimeZone(zone);
+        }
 
-            if (ytkfont != null) {
-                xyplot.getRangeAxis().setTickLabelFont(ytkfont);
+        // A format per chart, as SimpleDateFormat cannot be shared between threads
+        final String pattern = chart.getDateFormat();
+        if (pattern != null) {
+            final SimpleDateFormat format;
+            try {
+                format = new SimpleDateFormat(pattern, Locales.getCurrent());
+            } catch (IllegalArgumentException ex) {
+                throw new UiException("Unsupported date format: " + pattern);
             }
+            format.setTimeZone(axis.getTimeZone());
+            axis.setDateFormatOverride(format);
+        } else {
+            axis.setDateFormatOverride(null);
+        }
+    }
 
-        } else if (plot instanceof PiePlot) {
-            plot.setOutlineStroke(null);
+    private static Double toDomainValue(Object value) {
+        if (value instanceof Date) {
+            return (double) ((Date) value).getTime();
         }
+        return value != null ? ((Number) value).doubleValue() : null;
+    }
 
-        // Callbacks for each area
-        ChartRenderingInfo jfinfo = new ChartRenderingInfo();
+    private void applyRangeBounds(Chart chart, CategoryPlot cplot) {
+        Double lowerBound = (Double)chart.getAttribute("range-axis-lower-bound");
+        if (lowerBound != null) {
+            cplot.getRangeAxis().setAutoRange(false);
+            cplot.getRangeAxis().setLowerBound(lowerBound);
+        }
 
-        BufferedImage bi = jfchart.createBufferedImage(
-                chart.getIntWidth(), chart.getIntHeight(), Transparency.TRANSLUCENT, jfinfo);
+        Double upperBound = (Double)chart.getAttribute("range-axis-upper-bound");
+        if (upperBound != null) {
+            cplot.getRangeAxis().setAutoRange(false);
+            cplot.getRangeAxis().setUpperBound(upperBound);
+        }
+    }
 
-        // Remove old areas
+    /**
+     * Removes the areas of the previous draw.
+     */
+    private void resetAreas(Chart chart) {
         if (chart.getChildren().size() > 20)
             chart.invalidate(); // Improve performance if too many chart
 
         chart.getChildren().clear();
+        chart.removeAttribute(_AREA_KEYS_ATTR);
+    }
 
-        if (Events.isListened(chart, Events.ON_CLICK, false) || chart.isShowTooltiptext()) {
-            int j = 0;
-            String preUrl = null;
+    /**
+     * Turns the area children of the previous draw into the given regions.
+     * Areas are matched by the key of their region: a matched area is kept, with only
+     * what changed updated, so the client only receives the areas added, removed or changed.
+     *
+     * @param entities the entity of each region, for the area listener, or null
+     * @return the number of areas created, the others being kept
+     */
+    private int reconcileAreas(Chart chart, List<AreaInfo> areas, List<ChartEntity> entities) {
+        @SuppressWarnings("unchecked")
+        Map<String, Area> previous = (Map<String, Area>) chart.getAttribute(_AREA_KEYS_ATTR);
+        if (previous == null) {
+            previous = Collections.emptyMap();
+        }
 
-            for ( Iterator it = jfinfo.getEntityCollection().iterator(); it.hasNext(); ) {
-                ChartEntity ce = ( ChartEntity ) it.next();
-                final String url = ce.getURLText();
+        final List<String> keys = new ArrayList<>(areas.size());
+        final Map<String, Integer> occurrences = new HashMap<>();
+        final Area[] matched = new Area[areas.size()];
+        final Map<Area, Integer> kept = new IdentityHashMap<>();
+        for (int i = 0; i < areas.size(); i++) {
+            String key = areaKey(areas.get(i));
+            final Integer occurrence = occurrences.merge(key, 1, Integer::sum);
+            if (occurrence > 1) {
+                key += '#' + occurrence.toString(); // Regions with the same data, told apart by their order
+            }
+            keys.add(key);
 
-                // Workaround JFreeChart's bug (skip replicate areas)
-                if ( url != null ) {
-                    if ( preUrl == null ) {
-                        preUrl = url;
-                    } else if (url.equals(preUrl)) { // Start replicate, skip
-                        break;
-                    }
-                }
+            final Area area = previous.get(key);
+            if (area != null && area.getParent() == chart) {
+                matched[i] = area;
+                kept.put(area, i);
+            }
+        }
 
-                /*
-                 * 1. JFreeChartEntity area cover the whole chart, will "mask" other areas.
-                 * 2. LegendTitle area cover the whole legend, will "mask" each legend.
-                 * 3. PlotEntity cover the whole chart plotting araa, will "mask" each bar/line/area.
-                 */
+        if (kept.isEmpty()) {
+            resetAreas(chart);
+        } else {
+            // The kept areas already in the new order stay in place, the others are taken
+            // out and added back where they belong
+            final List<Component> order = new ArrayList<>(kept.size());
+            for (Component child : chart.getChildren()) {
+                if (kept.containsKey(child)) {
+                    order.add(child);
+                }
+            }
+            final int[] indexes = new int[order.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = kept.get(order.get(i));
+            }
+            final Set<Component> staying = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i : longestIncreasing(indexes)) {
+                staying.add(order.get(i));
+            }
+            for (Iterator<Component> it = chart.getChildren().iterator(); it.hasNext(); ) {
+                if (!staying.contains(it.next())) {
+                    it.remove();
+                }
+            }
+        }
 
-                if ( !(ce instanceof JFreeChartEntity) &&
-                        !(ce instanceof TitleEntity && ((TitleEntity)ce).getTitle() instanceof LegendTitle) &&
-                        !(ce instanceof PlotEntity) ) {
+        final String prefix = areaIdPrefix(chart);
+        final Set<String> ids = new HashSet<>();
+        for (Area area : kept.keySet()) {
+            ids.add(area.getId());
+        }
+        int nextId = areas.size();
+        int created = 0;
+
+        final Map<String, Area> current = new HashMap<>(areas.size() * 2);
+        final ListIterator<Component> cursor = chart.getChildren().listIterator();
+        for (int i = 0; i < areas.size(); i++) {
+            final AreaInfo info = areas.get(i);
+            Area area = matched[i];
+
+            if (area == null) {
+                String id = prefix + i;
+                while (ids.contains(id)) {
+                    id = prefix + nextId++;
+                }
+                ids.add(id);
+                area = info.newArea(id);
+                created++;
+            } else {
+                area.setShape(info.getShape());
+                area.setCoords(info.getCoords());
+                area.setTooltiptext(info.getTooltiptext());
+                area.getAttributes().keySet().retainAll(info.getAttributes().keySet());
+                area.getAttributes().putAll(info.getAttributes());
+            }
 
-                    Area area = new Area();
-                    area.setParent(chart);
-                    area.setCoords(ce.getShapeCoords());
-                    area.setShape(ce.getShapeType());
-                    area.setId("area_"+chart.getId()+'_'+(j++));
+            // The order of the areas decides which one gets a click on overlapping regions
+            if (!cursor.hasNext()) {
+                cursor.add(area);
+            } else if (cursor.next() != area) {
+                cursor.previous();
+                cursor.add(area);
+            }
 
-                    if (chart.isShowTooltiptext() && ce.getToolTipText() != null) {
-                        area.setTooltiptext(ce.getToolTipText());
-                    }
+            if (entities != null) {
+                fireAreaRendered(chart, area, entities.get(i));
+            }
+            current.put(keys.get(i), area);
+        }
 
-                    area.setAttribute("url", ce.getURLText());
-                    impl.render(chart, area, ce);
+        chart.setAttribute(_AREA_KEYS_ATTR, current);
+        return created;
+    }
 
-                    if (chart.getAreaListener() != null) {
-                        try {
-                            chart.getAreaListener().onRender(area, ce);
-                        } catch (Exception ex) {
-                            throw UiException.Aide.wrap(ex);
-                        }
-                    }
+    /**
+     * Returns the positions of a longest increasing run of the given values, not
+     * necessarily contiguous, in increasing order.
+     */
+    static int[] longestIncreasing(int[] values) {
+        final int[] tails = new int[values.length];
+        final int[] previous = new int[values.length];
+        int length = 0;
+        for (int i = 0; i < values.length; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < values[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
                 }
             }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
         }
 
-        /*
-         * Clean up the "LEGEND_SEQ".
-         * Used for workaround LegendItemEntity.getSeries() always return 0.
-         * Used for workaround TickLabelEntity no information.
-         */
-        chart.removeAttribute(_LEGEND_SEQ_ATTR);
-        chart.removeAttribute(_TICK_SEQ_ATTR);
+        final int[] run = new int[length];
+        for (int i = length - 1, k = length > 0 ? tails[length - 1] : -1; i >= 0; i--, k = previous[k]) {
+            run[i] = k;
+        }
+        return run;
+    }
 
-        try {
-            // Encode into png image format byte array
-            return EncoderUtil.encode(bi, ImageFormat.PNG, true);
+    /**
+     * Returns the key of a region from what it shows: the kind of entity, the series,
+     * the category and the x value, so the same region is matched from one draw to the next.
+     */
+    private String areaKey(AreaInfo info) {
+        return String.valueOf(info.getAttribute(_ENTITY_ATTR)) + '\u0000' +
+                info.getAttribute(_SERIES_ATTR) + '\u0000' +
+                info.getAttribute(_CATEGORY_ATTR) + '\u0000' +
+                info.getAttribute("x");
+    }
 
-        } catch(java.io.IOException ex) {
-            throw UiException.Aide.wrap(ex);
+    private AreaInfo newAreaInfo(Chart chart, ChartEntity ce) {
+        AreaInfo info = new AreaInfo(ce.getShapeType(), ce.getShapeCoords());
+
+        if (chart.isShowTooltiptext() && ce.getToolTipText() != null) {
+            info.setTooltiptext(ce.getToolTipText());
         }
+
+        info.setAttribute("url", ce.getURLText());
+        return info;
     }
 
-    private void decodeLegendInfo(Area area, LegendItemEntity info, Chart chart) {
-        if (info == null)
-            return;
+    /**
+     * Decodes one entity of a draw with deferred areas into the area it would have been drawn as.
+     */
+    private Area decodeEntity(Chart chart, ChartImpl impl, ChartEntity ce, int index, int seq) {
+        final AreaInfo info = newAreaInfo(chart, ce);
 
-        final ChartModel model = chart.getModel();
-        final int seq = (Integer) chart.getAttribute(_LEGEND_SEQ_ATTR);
+        impl.render(chart, info, ce, seq);
 
-        if (model instanceof CategoryModel) {
-            Comparable series = ((CategoryModel)model).getSeries(seq);
-            area.setAttribute(_SERIES_ATTR, series);
+        final Area area = info.newArea(areaIdPrefix(chart) + index);
+        fireAreaRendered(chart, area, ce);
+        return area;
+    }
 
-            if (chart.isShowTooltiptext() && info.getToolTipText() == null) {
-                area.setTooltiptext(series.toString());
+    private static String areaIdPrefix(Chart chart) {
+        return "area_" + chart.getId() + '_';
+    }
+
+    private void fireAreaRendered(Chart chart, Area area, ChartEntity ce) {
+        if (chart.getAreaListener() != null) {
+            try {
+                chart.getAreaListener().onRender(area, ce);
+            } catch (Exception ex) {
+                throw UiException.Aide.wrap(ex);
             }
+        }
+    }
+
+    /**
+     * Whether the chart sends its image map to the client as a single payload
+     * instead of {@link Area} children, see {@link #getArea(MouseEvent)}.
+     */
+    private boolean isClientAreas(Chart chart) {
+        return Boolean.TRUE.equals(chart.getAttribute(_CLIENT_AREAS_ATTR));
+    }
+
+    /**
+     * Whether the chart is drawn as SVG instead of PNG, see {@link SvgChart}.
+     */
+    private boolean isSvg(Chart chart) {
+        final Object format = chart.getAttribute(_IMAGE_FORMAT_ATTR);
+        if (format == null || "png".equals(format)) {
+            return false;
+        } else if ("svg".equals(format)) {
+            return true;
+        }
+        throw new UiException("Unsupported image format: " + format);
+    }
 
-        } else if (model instanceof XYModel) {
-            Comparable series = ((XYModel)model).getSeries(seq);
+    /**
+     * Whether the chart is rendered off the event thread, see {@link AsyncRender}.
+     */
+    private boolean isAsync(Chart chart) {
+        return Boolean.TRUE.equals(chart.getAttribute(_ASYNC_RENDER_ATTR));
+    }
+
+    /**
+     * Whether the chart keeps its entities in a spatial index and decodes only the one
+     * under a click, instead of creating an area for each of them, see {@link #getArea(MouseEvent)}.
+     */
+    private boolean isDeferredAreas(Chart chart) {
+        return Boolean.TRUE.equals(chart.getAttribute(_DEFERRED_AREAS_ATTR));
+    }
+
+    /**
+     * Returns the area of a click on a chart, or null if the click was not on an area.
+     * With the "client-areas" attribute the areas are not children of the chart:
+     * the area is then created for the click, with the attributes and tooltip it would have had,
+     * but it is not attached to the chart.
+     * With the "deferred-areas" attribute the area is found from the coordinates of the click.
+     */
+    public static Area getArea(MouseEvent event) {
+        final Component component = event.getAreaComponent();
+        if (component instanceof Area) {
+            return (Area) component;
+        }
+
+        if (!(event.getTarget() instanceof Chart)) {
+            return null;
+        }
+
+        final Chart chart = (Chart) event.getTarget();
+        if (event.getArea() == null) {
+            return EntityIndex.lookup(chart, event.getX(), event.getY());
+        }
+
+        final AreaInfo info = ClientAreaMap.lookup(chart, event.getArea());
+        return info != null ? info.newArea(event.getArea()) : null;
+    }
+
+    private void decodeLegendInfo(AreaInfo area, LegendItemEntity info, Chart chart, int seq) {
+        if (info == null)
+            return;
+
+        final Comparable<?> series = ChartSnapshot.getSeries(chart, seq);
+        if (series != null) {
             area.setAttribute(_SERIES_ATTR, series);
 
             if (chart.isShowTooltiptext() && info.getToolTipText() == null) {
@@ -367,7 +1310,7 @@ public class JFreeChartEngine implements ChartEngine {
     /**
      * Decode XYItemEntity into key-value pair of Area's componentScope.
      */
-    private void decodeXYInfo(Area area, XYItemEntity info) {
+    private void decodeXYInfo(AreaInfo area, XYItemEntity info) {
         if (info == null) {
             return;
         }
@@ -391,34 +1334,90 @@ public class JFreeChartEngine implements ChartEngine {
     }
 
     /**
-     * Transfer a CategoryModel into JFreeChart CategoryDataset.
+     * Returns the dataset of the chart, kept in sync with its model between draws
+     * unless the "incremental-dataset" attribute is false or the chart is rendered asynchronously.
+     */
+    private <D extends Dataset> D syncDataset(Chart chart, String key, Supplier<? extends DatasetSync<D>> factory) {
+        if (!isIncremental(chart)) {
+            return factory.get().build();
+        }
+
+        @SuppressWarnings("unchecked") // A key is always synchronized into the same type of dataset
+        DatasetSync<D> sync = (DatasetSync<D>) DatasetSync.lookup(chart, key);
+        if (sync == null) {
+            sync = DatasetSync.attach(chart, factory.get());
+        }
+        return sync.getDataset();
+    }
+
+    /**
+     * Whether the datasets of the chart are kept between draws.
+     * An async render draws the dataset off the event thread, a synchronized one would change under it.
+     */
+    private boolean isIncremental(Chart chart) {
+        return !Boolean.FALSE.equals(chart.getAttribute(_INCREMENTAL_DATASET_ATTR)) && !isAsync(chart);
+    }
+
+    /**
+     * Applies the "downsampling" attribute of the chart: "lttb" or "minmax".
+     * The number of points kept comes from the chart width, or from the "downsampling-points" attribute.
+     */
+    private XYDataset downsample(Chart chart, XYModelDataset dataset) {
+        final Downsampling downsampling = Downsampling.of(chart.getAttribute(_DOWNSAMPLING_ATTR));
+        if (downsampling == null) {
+            return dataset;
+        }
+
+        final Number points = (Number) chart.getAttribute(_DOWNSAMPLING_POINTS_ATTR);
+        return dataset.downsample(downsampling,
+                points != null ? points.intValue() : downsampling.getDefaultPoints(chart.getIntWidth()));
+    }
+
+    /**
+     * Applies the "resolution-pyramid" attribute of the chart, "avg" (or true) or "minmax":
+     * only the points between the domain axis bounds are drawn, about one per pixel
+     * (two with minmax), read from pre-aggregated levels of each series.
      */
-    private CategoryDataset categoryModelToCategoryDataset(CategoryModel model) {
-        final DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+    private XYDataset window(Chart chart, XYModelDataset dataset) {
+        final Object pyramid = chart.getAttribute(_RESOLUTION_PYRAMID_ATTR);
+        final boolean minmax = "minmax".equals(pyramid);
+        if (!minmax && !"avg".equals(pyramid) && !Boolean.TRUE.equals(pyramid) && !"true".equals(pyramid)) {
+            throw new UiException("Unsupported resolution pyramid: " + pyramid);
+        }
+
+        final Double lowerBound = toDomainValue(chart.getAttribute(_DOMAIN_LOWER_BOUND_ATTR));
+        final Double upperBound = toDomainValue(chart.getAttribute(_DOMAIN_UPPER_BOUND_ATTR));
+        final double lower = lowerBound != null ? lowerBound : dataset.getDomainLowerBound(false);
+        final double upper = upperBound != null ? upperBound : dataset.getDomainUpperBound(false);
+        if (Double.isNaN(lower) || Double.isNaN(upper) || lower >= upper) {
+            return dataset;
+        }
+
+        return dataset.window(lower, upper, chart.getIntWidth(), minmax);
+    }
 
-        for (final Iterator it = model.getKeys().iterator(); it.hasNext();) {
-            final List key = (List) it.next();
-            Comparable series = (Comparable) key.get(0);
-            Comparable category = (Comparable) key.get(1);
-            Number value = model.getValue(series, category);
-            dataset.setValue(value, series, category);
-        }
-        return dataset;
+    private CategoryDataset categoryModelToCategoryDataset(Chart chart) {
+        final CategoryModel model = (CategoryModel) chart.getModel();
+        return syncDataset(chart, "category", () -> new DatasetSync.CategorySync(model, "category"));
+    }
+
+    private PieDataset pieModelToPieDataset(Chart chart) {
+        final PieModel model = (PieModel) chart.getModel();
+        return syncDataset(chart, "pie", () -> new DatasetSync.PieSync(model, "pie"));
     }
 
     /**
-     * Transfer a PieModel into JFreeChart PieDataset.
+     * The engine keeps the datasets between draws,
+     * so the plot that was just drawn must stop listening to them.
      */
-    private PieDataset pieModelToPieDataset(PieModel model) {
-        final DefaultPieDataset dataset = new DefaultPieDataset();
-
-        for (final Iterator it = model.getCategories().iterator(); it.hasNext();) {
-            final Comparable category = (Comparable)it.next();
-            Number value = model.getValue(category);
-            dataset.setValue(category, value);
+    private void releaseDataset(Plot plot) {
+        if (plot instanceof CategoryPlot) {
+            ((CategoryPlot) plot).setDataset(null);
+        } else if (plot instanceof XYPlot) {
+            ((XYPlot) plot).setDataset(null);
+        } else if (plot instanceof PiePlot) {
+            ((PiePlot) plot).setDataset(null);
         }
-
-        return dataset;
     }
 
     private PlotOrientation getOrientation(String orient) {
@@ -429,20 +1428,56 @@ public class JFreeChartEngine implements ChartEngine {
      * base chart
      * Chart specific implementation.
      */
-    private abstract class ChartImpl {
+    abstract class ChartImpl {
 
-        abstract void render(Chart chart, Area area, ChartEntity info);
+        /**
+         * Decodes an entity into its area.
+         *
+         * @param seq the position of the entity among the entities of its kind in the draw,
+         *            as LegendItemEntity.getSeries() always returns 0 and TickLabelEntity has no information
+         */
+        abstract void render(Chart chart, AreaInfo area, ChartEntity info, int seq);
+
+        /**
+         * Creates the chart drawing the given dataset, returned by {@link #getDataset(Chart)}.
+         */
+        abstract JFreeChart createChart(Chart chart, Dataset dataset);
+
+        /**
+         * Returns the dataset of the chart model.
+         */
+        abstract Dataset getDataset(Chart chart);
 
-        abstract JFreeChart createChart(Chart chart);
+        /**
+         * Returns the number of data items of the chart model, without building its dataset.
+         */
+        int countPoints(Chart chart) {
+            final ChartModel model = chart.getModel();
+            int points = 0;
+            if (model instanceof XYModel) {
+                for (Comparable<?> series : ((XYModel) model).getSeries()) {
+                    points += ((XYModel) model).getDataCount(series);
+                }
+            } else if (model instanceof CategoryModel) {
+                points = ((CategoryModel) model).getKeys().size();
+            } else if (model instanceof PieModel) {
+                points = ((PieModel) model).getCategories().size();
+            } else if (model instanceof GanttModel) {
+                for (Comparable<?> series : ((GanttModel) model).getAllSeries()) {
+                    points += ((GanttModel) model).getTasks(series).length;
+                }
+            }
+            return points;
+        }
     }
 
 
     private class TimeSeriesChart extends ChartImpl {
 
         @Override
-        public void render(Chart chart, Area area, ChartEntity info) {
+        public void render(Chart chart, AreaInfo area, ChartEntity info, int seq) {
             if (info instanceof LegendItemEntity) {
-                renderLegendItemEntity(area, chart, info);
+                renderLegendItemEntity(area, chart, info, seq);
 
             } else if (info instanceof XYItemEntity) {
                 area.setAttribute(_ENTITY_ATTR, "DATA");
@@ -457,18 +1492,12 @@ public class JFreeChartEngine implements ChartEngine {
         }
 
         @Override
-        public JFreeChart createChart(Chart chart) {
-            ChartModel model = chart.getModel();
-
-            if (!(model instanceof XYModel)) {
-                throw new UiException("model must be a org.zkoss.zul.XYModel");
-            }
-
+        public JFreeChart createChart(Chart chart, Dataset dataset) {
             final JFreeChart jchart = ChartFactory.createTimeSeriesChart(
                     chart.getTitle(),
                     chart.getXAxis(),
                     chart.getYAxis(),
-                    xyModelToTimeDataset((XYModel) model, chart),
+                    (XYDataset) dataset,
                     chart.isShowLegend(),
                     chart.isShowTooltiptext(),
                     true);
@@ -478,10 +1507,27 @@ public class JFreeChartEngine implements ChartEngine {
             return jchart;
         }
 
-        /**
-         * Transfer a XYModel into JFreeChart TimeSeriesCollection.
-         */
-        private XYDataset xyModelToTimeDataset(XYModel model, Chart chart) {
+        @Override
+        Dataset getDataset(Chart chart) {
+            ChartModel model = chart.getModel();
+
+            if (!(model instanceof XYModel)) {
+                throw new UiException("model must be a org.zkoss.zul.XYModel");
+            }
+
+            if (model instanceof StreamingXYModel && isStreamed(chart)) {
+                // An async render draws the dataset off the event thread, where the view would follow the model
+                return isAsync(chart) ? ((StreamingXYModel) model).snapshot() : ((StreamingXYModel) model).view();
+            }
+
+            final XYModelDataset dataset = xyModelToTimeDataset((XYModel) model, chart);
+            if (!isOff(chart.getAttribute(_RESOLUTION_PYRAMID_ATTR))) {
+                return window(chart, dataset);
+            }
+            return downsample(chart, dataset);
+        }
+
+        private XYModelDataset xyModelToTimeDataset(XYModel model, Chart chart) {
             TimeZone tz = chart.getTimeZone();
             if (tz == null)
                 tz = TimeZones.getCurrent();
@@ -490,51 +1536,43 @@ public class JFreeChartEngine implements ChartEngine {
             if (p == null)
                 p = Chart.MILLISECOND;
 
-            Class pclass = (Class) _periodMap.get(p);
-            if (pclass == null) {
-                throw new UiException("Unsupported period for Time Series chart: "+p);
-            }
-
-            final TimeSeriesCollection dataset = new TimeSeriesCollection(tz);
-
-            for (Comparable<?> series : model.getSeries()) {
-                final TimeSeries tser = new TimeSeries(series);
-                final int size = model.getDataCount(series);
+            final PeriodBuckets.Aggregation aggregation =
+                    PeriodBuckets.Aggregation.of(chart.getAttribute(_PERIOD_AGGREGATION_ATTR));
 
-                for (int j = 0; j < size; ++j) {
-
-                    final RegularTimePeriod period =
-                            RegularTimePeriod.createInstance(pclass, new Date(model.getX(series, j).longValue()), tz);
+            final String period = p;
+            final TimeZone zone = tz;
+            final String key = "time:" + p + ':' + tz.getID() + ':' + aggregation;
+            return syncDataset(chart, key,
+                    () -> new DatasetSync.TimeSeriesSync(model, key, period, zone, aggregation));
+        }
 
-                    tser.addOrUpdate(period, model.getY(series, j));
-                }
+        /**
+         * Whether the buffers of a streaming model are drawn as they are: the points are not
+         * grouped by period, downsampled or read from a resolution pyramid.
+         * Otherwise the model is copied into a dataset, as any XYModel.
+         */
+        private boolean isStreamed(Chart chart) {
+            return (chart.getPeriod() == null || Chart.MILLISECOND.equals(chart.getPeriod())) &&
+                    chart.getAttribute(_PERIOD_AGGREGATION_ATTR) == null &&
+                    Downsampling.of(chart.getAttribute(_DOWNSAMPLING_ATTR)) == null &&
+                    isOff(chart.getAttribute(_RESOLUTION_PYRAMID_ATTR));
+        }
 
-                dataset.addSeries(tser);
-            }
-            return dataset;
+        private boolean isOff(Object pyramid) {
+            return pyramid == null || Boolean.FALSE.equals(pyramid) || "false".equals(pyramid);
         }
 
         private void setupDateAxis(JFreeChart jchart, Chart chart) {
-            final Plot plot = jchart.getPlot();
-            final DateAxis axisX = (DateAxis) ((XYPlot) plot).getDomainAxis();
-            final TimeZone zone = chart.getTimeZone();
-
-            if (zone != null) {
-                axisX.setTimeZone(zone);
-            }
-
-            if (chart.getDateFormat() != null) {
-                axisX.setDateFormatOverride(_dateFormat);
-            }
+            applyDateFormat(chart, (DateAxis) ((XYPlot) jchart.getPlot()).getDomainAxis());
         }
     }
 
     private class BarChart extends ChartImpl {
 
         @Override
-        public void render(Chart chart, Area area, ChartEntity info) {
+        public void render(Chart chart, AreaInfo area, ChartEntity info, int seq) {
             if (info instanceof LegendItemEntity) {
-                renderLegendItemEntity(area, chart, info);
+                renderLegendItemEntity(area, chart, info, seq);
 
             } else if (info instanceof CategoryItemEntity) {
                 area.setAttribute(_ENTITY_ATTR, "DATA");
@@ -546,10 +1584,7 @@ public class JFreeChartEngine implements ChartEngine {
 
             } else if (info instanceof TickLabelEntity) {
                 area.setAttribute(_ENTITY_ATTR, "CATEGORY");
-                Integer seq = (Integer)chart.getAttribute(_TICK_SEQ_ATTR);
-                seq = seq == null ? new Integer(0) : new Integer(seq + 1);
-                chart.setAttribute(_TICK_SEQ_ATTR, seq);
-                decodeTickLabelInfo(area, (TickLabelEntity) info, chart);
+                decodeTickLabelInfo(area, (TickLabelEntity) info, chart, seq);
 
             } else {
                 area.setAttribute(_ENTITY_ATTR, _TITLE_ATTR);
@@ -562,14 +1597,14 @@ public class JFreeChartEngine implements ChartEngine {
         /**
          * Decode CategoryItemEntity into key-value pair of Area's componentScope.
          */
-        private void decodeCategoryInfo(Area area, CategoryItemEntity info) {
+        private void decodeCategoryInfo(AreaInfo area, CategoryItemEntity info) {
             if (info == null) {
                 return;
             }
 
             CategoryDataset dataset = info.getDataset();
-            Comparable category = info.getColumnKey();
-            Comparable series = info.getRowKey();
+            Comparable<?> category = info.getColumnKey();
+            Comparable<?> series = info.getRowKey();
 
             area.setAttribute(_SERIES_ATTR, series);
             area.setAttribute(_CATEGORY_ATTR, category);
@@ -587,16 +1622,13 @@ public class JFreeChartEngine implements ChartEngine {
         /**
          * Decode TickLabelEntity into key-value pair of Area's componentScope.
          */
-        private void decodeTickLabelInfo(Area area, TickLabelEntity info, Chart chart) {
+        private void decodeTickLabelInfo(AreaInfo area, TickLabelEntity info, Chart chart, int seq) {
             if (info == null) {
                 return;
             }
 
-            final ChartModel model = chart.getModel();
-            final int seq = (Integer) chart.getAttribute(_TICK_SEQ_ATTR);
-
-            if (model instanceof CategoryModel) {
-                Comparable category = ((CategoryModel)model).getCategory(seq);
+            final Comparable<?> category = ChartSnapshot.getCategory(chart, seq);
+            if (category != null) {
                 area.setAttribute(_CATEGORY_ATTR, category);
 
                 if (chart.isShowTooltiptext() && info.getToolTipText() == null) {
@@ -606,83 +1638,84 @@ public class JFreeChartEngine implements ChartEngine {
         }
 
         @Override
-        public JFreeChart createChart(Chart chart) {
-            ChartModel model = chart.getModel();
-
-            if (model instanceof CategoryModel) {
+        public JFreeChart createChart(Chart chart, Dataset dataset) {
+            if (dataset instanceof CategoryDataset) {
 
                 return ChartFactory.createBarChart(
                         chart.getTitle(),
                         chart.getXAxis(),
                         chart.getYAxis(),
-                        categoryModelToCategoryDataset((CategoryModel) model),
+                        (CategoryDataset) dataset,
                         getOrientation(chart.getOrient()),
                         chart.isShowLegend(),
                         chart.isShowTooltiptext(),
                         true);
 
-            } else if (model instanceof XYModel) {
+            } else {
 
                 return ChartFactory.createXYBarChart(
                         chart.getTitle(),
                         chart.getXAxis(),
                         false,
                         chart.getYAxis(),
-                        (IntervalXYDataset) xyModelToXYDataset((XYModel) model),
+                        (IntervalXYDataset) dataset,
                         getOrientation(chart.getOrient()),
                         chart.isShowLegend(),
                         chart.isShowTooltiptext(),
                         true);
+            }
+        }
+
+        @Override
+        Dataset getDataset(Chart chart) {
+            ChartModel model = chart.getModel();
+
+            if (model instanceof CategoryModel) {
+                return categoryModelToCategoryDataset(chart);
+            } else if (model instanceof XYModel) {
+                return downsample(chart, xyModelToXYDataset((XYModel) model, chart));
             } else {
                 throw new UiException("The only supported model is org.zkoss.zul.CategoryModel");
             }
         }
 
-        /**
-         * Transfer a XYModel into JFreeChart XYSeriesCollection.
-         */
-        private XYDataset xyModelToXYDataset(XYModel model) {
-            final XYSeriesCollection dataset = new XYSeriesCollection();
-            for (Comparable<?> series : model.getSeries()) {
-                XYSeries xyser = new XYSeries(series, model.isAutoSort());
-                final int size = model.getDataCount(series);
-
-                for (int j = 0; j < size; ++j) {
-                    xyser.add(model.getX(series, j), model.getY(series, j), false);
-                }
-                dataset.addSeries(xyser);
-            }
-            return dataset;
+        XYModelDataset xyModelToXYDataset(XYModel model, Chart chart) {
+            return syncDataset(chart, "xy", () -> new DatasetSync.XYSeriesSync(model, "xy"));
         }
     }
 
     private class Bar3dChart extends BarChart {
 
         @Override
-        public JFreeChart createChart(Chart chart) {
-            ChartModel model = chart.getModel();
-            if (!(model instanceof CategoryModel)) {
-                throw new UiException("model must be a org.zkoss.zul.CategoryModel");
-            }
-
+        public JFreeChart createChart(Chart chart, Dataset dataset) {
             return ChartFactory.createBarChart3D(
                     chart.getTitle(),
                     chart.getXAxis(),
                     chart.getYAxis(),
-                    categoryModelToCategoryDataset((CategoryModel) model),
+                    (CategoryDataset) dataset,
                     getOrientation(chart.getOrient()),
                     chart.isShowLegend(),
                     chart.isShowTooltiptext(),
                     true);
         }
+
+        @Override
+        Dataset getDataset(Chart chart) {
+            ChartModel model = chart.getModel();
+            if (!(model instanceof CategoryModel)) {
+                throw new UiException("model must be a org.zkoss.zul.CategoryModel");
+            }
+
+            return categoryModelToCategoryDataset(chart);
+        }
     }
 
     private class PieChart extends ChartImpl {
 
         @Override
-        void render(Chart chart, Area area, ChartEntity info) {
+        void render(Chart chart, AreaInfo area, ChartEntity info, int seq) {
             if (info instanceof LegendItemEntity) {
-                renderLegendItemEntity(area, chart, info);
+                renderLegendItemEntity(area, chart, info, seq);
 
             } else if (info instanceof PieSectionEntity) {
                 area.setAttribute(_ENTITY_ATTR, "DATA");
@@ -698,55 +1731,319 @@ public class JFreeChartEngine implements ChartEngine {
 
         /**
          * Decode PieSectionEntity into key-value pair of Area's componentScope.
+         * The section of the folded categories has their values in a "members" attribute.
          */
-        private void decodePieSectionInfo(Area area, PieSectionEntity info) {
+        private void decodePieSectionInfo(AreaInfo area, PieSectionEntity info) {
             PieDataset dataset = info.getDataset();
-            Comparable category = info.getSectionKey();
+            Comparable<?> category = info.getSectionKey();
             area.setAttribute("value", dataset.getValue(category));
-            area.setAttribute(_CATEGORY_ATTR, category);
+
+            if (category instanceof PieAggregation.Other) {
+                area.setAttribute(_CATEGORY_ATTR, category.toString());
+                area.setAttribute("members", ((PieAggregation.Other) category).getMembers());
+            } else {
+                area.setAttribute(_CATEGORY_ATTR, category);
+            }
+        }
+
+        @Override
+        public JFreeChart createChart(Chart chart, Dataset dataset) {
+            return ChartFactory.createPieChart(
+                    chart.getTitle(),
+                    (PieDataset) dataset,
+                    chart.isShowLegend(),
+                    chart.isShowTooltiptext(),
+                    false);
         }
 
         @Override
-        public JFreeChart createChart(Chart chart) {
-            PieModel model = (PieModel) chart.getModel();
-            if (!(model instanceof PieModel)) {
+        Dataset getDataset(Chart chart) {
+            if (!(chart.getModel() instanceof PieModel)) {
                 throw new UiException("model must be a org.zkoss.zul.PieModel");
             }
 
-            return ChartFactory.createPieChart(
+            final PieAggregation aggregation = PieAggregation.of(chart.getAttribute(_PIE_TOP_SECTIONS_ATTR),
+                    chart.getAttribute(_PIE_MIN_PERCENT_ATTR), chart.getAttribute(_PIE_OTHER_LABEL_ATTR));
+            final PieDataset dataset = pieModelToPieDataset(chart);
+            if (aggregation == null) {
+                chart.removeAttribute(_PIE_AGGREGATED_ATTR);
+                return dataset;
+            }
+
+            // Kept as the synchronized dataset it folds, for a retained chart to keep its plot dataset
+            DefaultPieDataset aggregated = isIncremental(chart)
+                    ? (DefaultPieDataset) chart.getAttribute(_PIE_AGGREGATED_ATTR) : null;
+            if (aggregated == null) {
+                aggregated = new DefaultPieDataset();
+                if (isIncremental(chart)) {
+                    chart.setAttribute(_PIE_AGGREGATED_ATTR, aggregated);
+                }
+            }
+            aggregation.aggregate(dataset, aggregated);
+            return aggregated;
+        }
+
+    }
+
+    private class Pie3dChart extends PieChart {
+
+        @Override
+        public JFreeChart createChart(Chart chart, Dataset dataset) {
+            return ChartFactory.createPieChart3D(
                     chart.getTitle(),
-                    pieModelToPieDataset(model),
+                    (PieDataset) dataset,
                     chart.isShowLegend(),
                     chart.isShowTooltiptext(),
                     false);
         }
+    }
+
+    /**
+     * Gantt chart of a GanttModel, drawn through a window of its tasks: only the task rows from
+     * the "gantt-first-task" attribute, as many as the "gantt-visible-tasks" attribute (by default
+     * as many as fit the chart height), between the "domain-axis-lower-bound" and
+     * "domain-axis-upper-bound" dates (by default the dates of the whole plan).
+     * The tasks are laid out once per model change, so a scroll or a zoom only moves the window.
+     */
+    private class GanttChart extends BarChart {
+
+        @Override
+        public void render(Chart chart, AreaInfo area, ChartEntity info, int seq) {
+            if (info instanceof CategoryLabelEntity) {
+                final Comparable<?> category = ((CategoryLabelEntity) info).getKey();
+                area.setAttribute(_ENTITY_ATTR, "CATEGORY");
+                area.setAttribute(_CATEGORY_ATTR, category);
+
+                if (chart.isShowTooltiptext() && info.getToolTipText() == null) {
+                    area.setTooltiptext(category.toString());
+                }
+            } else {
+                super.render(chart, area, info, seq);
+            }
+        }
+
+        @Override
+        public JFreeChart createChart(Chart chart, Dataset dataset) {
+            final JFreeChart jchart = ChartFactory.createGanttChart(
+                    chart.getTitle(),
+                    chart.getXAxis(),
+                    chart.getYAxis(),
+                    (IntervalCategoryDataset) dataset,
+                    chart.isShowLegend(),
+                    chart.isShowTooltiptext(),
+                    true);
+
+            applyDateFormat(chart, (DateAxis) ((CategoryPlot) jchart.getPlot()).getRangeAxis());
+            setupWindow(jchart, (GanttModelDataset) dataset);
+
+            return jchart;
+        }
+
+        /**
+         * Sets the date axis to the date range of the window, the same whatever tasks are in it.
+         */
+        private void setupWindow(JFreeChart jchart, GanttModelDataset window) {
+            final DateAxis axis = (DateAxis) ((CategoryPlot) jchart.getPlot()).getRangeAxis();
+            if (window.getLowerBound() < window.getUpperBound()) {
+                axis.setRange(window.getLowerBound(), window.getUpperBound());
+            } else {
+                axis.setAutoRange(true);
+            }
+        }
+
+        @Override
+        Dataset getDataset(Chart chart) {
+            ChartModel model = chart.getModel();
+            if (!(model instanceof GanttModel)) {
+                throw new UiException("model must be a org.zkoss.zul.GanttModel");
+            }
+
+            final GanttModelDataset dataset = syncDataset(chart, "gantt",
+                    () -> new DatasetSync.GanttSync((GanttModel) model, "gantt"));
+
+            final int tasks = dataset.getTaskCount();
+            final int visible = Math.min(tasks, Math.max(toInt(chart.getAttribute(_GANTT_VISIBLE_TASKS_ATTR),
+                    chart.getIntHeight() / GANTT_ROW_HEIGHT), 1));
+            final int first = Math.min(Math.max(toInt(chart.getAttribute(_GANTT_FIRST_TASK_ATTR), 0), 0),
+                    tasks - visible);
+
+            final Double lowerBound = toDomainValue(chart.getAttribute(_DOMAIN_LOWER_BOUND_ATTR));
+            final Double upperBound = toDomainValue(chart.getAttribute(_DOMAIN_UPPER_BOUND_ATTR));
+            return dataset.window(first, visible,
+                    lowerBound != null ? lowerBound.longValue() : dataset.getStart(),
+                    upperBound != null ? upperBound.longValue() : dataset.getEnd());
+        }
+
+        @Override
+        int countPoints(Chart chart) {
+            if (!(chart.getModel() instanceof GanttModel)) {
+                return super.countPoints(chart);
+            }
+            // Only the tasks of the window are drawn, a row of each series
+            final int visible = Math.max(toInt(chart.getAttribute(_GANTT_VISIBLE_TASKS_ATTR),
+                    chart.getIntHeight() / GANTT_ROW_HEIGHT), 1);
+            return Math.min(super.countPoints(chart), visible * ((GanttModel) chart.getModel()).getAllSeries().length);
+        }
 
+        private int toInt(Object value, int defaultValue) {
+            if (value == null) {
+                return defaultValue;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).intValue();
+            }
+            try {
+                return Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException ex) {
+                throw new UiException("Unsupported number of gantt tasks: " + value);
+            }
+        }
     }
 
-    private class Pie3dChart extends PieChart {
+    /**
+     * Line chart of a CategoryModel, or of a XYModel drawn by a {@link SamplingXYRenderer}.
+     */
+    private class LineChart extends BarChart {
 
         @Override
-        public JFreeChart createChart(Chart chart) {
-            PieModel model = (PieModel) chart.getModel();
-            if (!(model instanceof PieModel)) {
-                throw new UiException("model must be a org.zkoss.zul.PieModel");
+        public JFreeChart createChart(Chart chart, Dataset dataset) {
+            if (dataset instanceof CategoryDataset) {
+                return createCategoryChart(chart, (CategoryDataset) dataset);
             }
 
-            return ChartFactory.createPieChart3D(
+            final JFreeChart jchart = ChartFactory.createXYLineChart(
                     chart.getTitle(),
-                    pieModelToPieDataset(model),
+                    chart.getXAxis(),
+                    chart.getYAxis(),
+                    (XYDataset) dataset,
+                    getOrientation(chart.getOrient()),
                     chart.isShowLegend(),
                     chart.isShowTooltiptext(),
-                    false);
+                    true);
+            setSamplingRenderer(jchart, SamplingXYRenderer.Shape.LINE);
+            return jchart;
+        }
+
+        JFreeChart createCategoryChart(Chart chart, CategoryDataset dataset) {
+            return ChartFactory.createLineChart(
+                    chart.getTitle(),
+                    chart.getXAxis(),
+                    chart.getYAxis(),
+                    dataset,
+                    getOrientation(chart.getOrient()),
+                    chart.isShowLegend(),
+                    chart.isShowTooltiptext(),
+                    true);
+        }
+    }
+
+    private class Line3dChart extends LineChart {
+
+        @Override
+        JFreeChart createCategoryChart(Chart chart, CategoryDataset dataset) {
+            return ChartFactory.createLineChart3D(
+                    chart.getTitle(),
+                    chart.getXAxis(),
+                    chart.getYAxis(),
+                    dataset,
+                    getOrientation(chart.getOrient()),
+                    chart.isShowLegend(),
+                    chart.isShowTooltiptext(),
+                    true);
+        }
+    }
+
+    /**
+     * Area chart of a CategoryModel, or of a XYModel drawn by a {@link SamplingXYRenderer}.
+     */
+    private class AreaChart extends BarChart {
+
+        @Override
+        public JFreeChart createChart(Chart chart, Dataset dataset) {
+            if (dataset instanceof CategoryDataset) {
+                return ChartFactory.createAreaChart(
+                        chart.getTitle(),
+                        chart.getXAxis(),
+                        chart.getYAxis(),
+                        (CategoryDataset) dataset,
+                        getOrientation(chart.getOrient()),
+                        chart.isShowLegend(),
+                        chart.isShowTooltiptext(),
+                        true);
+            }
+
+            final JFreeChart jchart = ChartFactory.createXYAreaChart(
+                    chart.getTitle(),
+                    chart.getXAxis(),
+                    chart.getYAxis(),
+                    (XYDataset) dataset,
+                    getOrientation(chart.getOrient()),
+                    chart.isShowLegend(),
+                    chart.isShowTooltiptext(),
+                    true);
+            setSamplingRenderer(jchart, SamplingXYRenderer.Shape.AREA);
+            return jchart;
+        }
+    }
+
+    /**
+     * Stacked area chart of a CategoryModel, or of a XYModel laid out on the union of its x values
+     * and drawn by a {@link SamplingXYRenderer}.
+     */
+    private class StackedAreaChart extends BarChart {
+
+        @Override
+        public JFreeChart createChart(Chart chart, Dataset dataset) {
+            if (dataset instanceof CategoryDataset) {
+                return ChartFactory.createStackedAreaChart(
+                        chart.getTitle(),
+                        chart.getXAxis(),
+                        chart.getYAxis(),
+                        (CategoryDataset) dataset,
+                        getOrientation(chart.getOrient()),
+                        chart.isShowLegend(),
+                        chart.isShowTooltiptext(),
+                        true);
+            }
+
+            final JFreeChart jchart = ChartFactory.createStackedXYAreaChart(
+                    chart.getTitle(),
+                    chart.getXAxis(),
+                    chart.getYAxis(),
+                    (TableXYDataset) dataset,
+                    getOrientation(chart.getOrient()),
+                    chart.isShowLegend(),
+                    chart.isShowTooltiptext(),
+                    true);
+            setSamplingRenderer(jchart, SamplingXYRenderer.Shape.STACKED_AREA);
+            return jchart;
+        }
+
+        @Override
+        Dataset getDataset(Chart chart) {
+            final ChartModel model = chart.getModel();
+            if (model instanceof XYModel) {
+                return StackedXYDataset.of(xyModelToXYDataset((XYModel) model, chart));
+            }
+            return super.getDataset(chart);
         }
     }
 
-    private void renderLegendItemEntity(Area area, Chart chart, ChartEntity info) {
+    /**
+     * Replaces the renderer of a XY chart made by ChartFactory, keeping its tooltips and URLs.
+     */
+    private void setSamplingRenderer(JFreeChart jchart, SamplingXYRenderer.Shape shape) {
+        final XYPlot plot = (XYPlot) jchart.getPlot();
+        final XYItemRenderer old = plot.getRenderer();
+        final SamplingXYRenderer renderer = new SamplingXYRenderer(shape);
+        renderer.setBaseToolTipGenerator(old.getBaseToolTipGenerator());
+        renderer.setURLGenerator(old.getURLGenerator());
+        plot.setRenderer(renderer);
+    }
+
+    private void renderLegendItemEntity(AreaInfo area, Chart chart, ChartEntity info, int seq) {
         area.setAttribute(_ENTITY_ATTR, _LEGEND_ATTR);
-        Integer seq = (Integer) chart.getAttribute(_LEGEND_SEQ_ATTR);
-        seq = seq == null ? new Integer(0) : new Integer(seq + 1);
-        chart.setAttribute(_LEGEND_SEQ_ATTR, seq);
-        decodeLegendInfo(area, (LegendItemEntity) info, chart);
+        decodeLegendInfo(area, (LegendItemEntity) info, chart, seq);
     }
 
 }
\ No newline at end of file
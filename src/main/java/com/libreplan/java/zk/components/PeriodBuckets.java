@@ -0,0 +1,537 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.zkoss.zk.ui.UiException;
+import org.zkoss.zul.Chart;
+
+/**
+ * Maps instants to the time periods of a time series chart.
+ * The periods are the ones of JFreeChart's RegularTimePeriod subclasses (Millisecond ... Year),
+ * with the same bounds, but no object is created per point.
+ *
+ * Between 1900 and 2100 the bounds are computed with plain arithmetic on the local time,
+ * using a table of the UTC offset transitions of the zone that is built once per zone.
+ * Local times that fall in a DST gap or overlap are resolved like java.util.Calendar does.
+ * Other instants, and zones that are not in the time zone database, go through a Calendar.
+ * In both cases the last period found is remembered, so consecutive points of the same period
+ * cost a range check.
+ *
+ * Not thread safe.
+ */
+final class PeriodBuckets {
+
+    private static final long SECOND_MILLIS = 1000L;
+
+    private static final long MINUTE_MILLIS = 60 * SECOND_MILLIS;
+
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private static final int MILLISECOND = 0;
+
+    private static final int SECOND = 1;
+
+    private static final int MINUTE = 2;
+
+    private static final int HOUR = 3;
+
+    private static final int DAY = 4;
+
+    private static final int WEEK = 5;
+
+    private static final int MONTH = 6;
+
+    private static final int QUARTER = 7;
+
+    private static final int YEAR = 8;
+
+    private static final ConcurrentMap<String, ZoneTable> ZONE_TABLES = new ConcurrentHashMap<>();
+
+    private final int _unit;
+
+    private final ZoneTable _table;
+
+    private final Calendar _calendar;
+
+    private final int _firstDayOfWeek;
+
+    private long _first = Long.MAX_VALUE;
+
+    private long _last = Long.MIN_VALUE;
+
+    PeriodBuckets(String period, TimeZone zone) {
+        _unit = toUnit(period);
+        _table = ZoneTable.of(zone);
+        _calendar = Calendar.getInstance(zone);
+        _firstDayOfWeek = _calendar.getFirstDayOfWeek();
+    }
+
+    private static int toUnit(String period) {
+        if (Chart.MILLISECOND.equals(period)) {
+            return MILLISECOND;
+        } else if (Chart.SECOND.equals(period)) {
+            return SECOND;
+        } else if (Chart.MINUTE.equals(period)) {
+            return MINUTE;
+        } else if (Chart.HOUR.equals(period)) {
+            return HOUR;
+        } else if (Chart.DAY.equals(period)) {
+            return DAY;
+        } else if (Chart.WEEK.equals(period)) {
+            return WEEK;
+        } else if (Chart.MONTH.equals(period)) {
+            return MONTH;
+        } else if (Chart.QUARTER.equals(period)) {
+            return QUARTER;
+        } else if (Chart.YEAR.equals(period)) {
+            return YEAR;
+        }
+        throw new UiException("Unsupported period for Time Series chart: " + period);
+    }
+
+    /**
+     * Returns the first millisecond of the period containing the instant.
+     */
+    long start(long millis) {
+        locate(millis);
+        return _first;
+    }
+
+    /**
+     * Returns the last millisecond of the period containing the instant.
+     */
+    long end(long millis) {
+        locate(millis);
+        return _last;
+    }
+
+    private void locate(long millis) {
+        if (millis >= _first && millis <= _last) {
+            return;
+        }
+
+        if (_table != null && millis >= ZoneTable.LOWER && millis <= _table._upper) {
+            locateByTable(millis);
+        } else {
+            locateByCalendar(millis);
+        }
+    }
+
+    private void locateByTable(long millis) {
+        final ZoneTable table = _table;
+        final long local = millis + table.offsetAt(millis);
+        final long day = Math.floorDiv(local, DAY_MILLIS);
+
+        long start;
+        switch (_unit) {
+            case MILLISECOND:
+                _first = table.toUtc(local);
+                _last = _first;
+                break;
+
+            case SECOND:
+                _first = table.toUtc(local - Math.floorMod(local, SECOND_MILLIS));
+                _last = _first + 999L;
+                break;
+
+            case MINUTE:
+                start = local - Math.floorMod(local, MINUTE_MILLIS);
+                _first = table.toUtc(start);
+                _last = table.toUtc(start + MINUTE_MILLIS - 1);
+                break;
+
+            case HOUR:
+                start = local - Math.floorMod(local, HOUR_MILLIS);
+                _first = table.toUtc(start);
+                _last = table.toUtc(start + HOUR_MILLIS - 1);
+                break;
+
+            case DAY:
+                start = day * DAY_MILLIS;
+                _first = table.toUtc(start);
+                _last = table.toUtc(start + DAY_MILLIS - 1);
+                break;
+
+            case WEEK:
+                // Day 0 of the epoch is a Thursday, Calendar.THURSDAY == 5
+                final int dayOfWeek = (int) Math.floorMod(day + 4, 7L) + 1;
+                start = (day - Math.floorMod(dayOfWeek - _firstDayOfWeek, 7)) * DAY_MILLIS;
+                _first = table.toUtc(start);
+                _last = table.toUtc(start + 7 * DAY_MILLIS) - 1;
+                break;
+
+            default:
+                final int month = monthOf(day);
+                final int year = Math.floorDiv(month, 12);
+                final int firstMonth;
+                final int lastMonth;
+                if (_unit == MONTH) {
+                    firstMonth = month;
+                    lastMonth = month;
+                } else if (_unit == QUARTER) {
+                    firstMonth = month - Math.floorMod(month, 3);
+                    lastMonth = firstMonth + 2;
+                } else {
+                    firstMonth = year * 12;
+                    lastMonth = firstMonth + 11;
+                }
+                _first = table.toUtc(firstDayOf(firstMonth) * DAY_MILLIS);
+                _last = table.toUtc(firstDayOf(lastMonth + 1) * DAY_MILLIS - 1);
+        }
+    }
+
+    /**
+     * Returns the month containing a day, counted as year * 12 + month (0 based),
+     * for a day counted from 1970-01-01 in the proleptic Gregorian calendar.
+     */
+    private static int monthOf(long day) {
+        final long shifted = day + 719468; // from 0000-03-01
+        final long era = Math.floorDiv(shifted, 146097);
+        final long dayOfEra = shifted - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long marchMonth = (5 * dayOfYear + 2) / 153;
+
+        long year = yearOfEra + era * 400;
+        final long month = marchMonth < 10 ? marchMonth + 2 : marchMonth - 10;
+        if (month <= 1) {
+            year++;
+        }
+        return (int) (year * 12 + month);
+    }
+
+    /**
+     * Returns the first day of a month given as year * 12 + month (0 based), counted from 1970-01-01.
+     */
+    private static long firstDayOf(int month) {
+        long year = Math.floorDiv(month, 12);
+        final int monthOfYear = Math.floorMod(month, 12) + 1;
+        if (monthOfYear <= 2) {
+            year--;
+        }
+
+        final long era = Math.floorDiv(year, 400);
+        final long yearOfEra = year - era * 400;
+        final long dayOfYear = (153 * (monthOfYear + (monthOfYear > 2 ? -3 : 9)) + 2) / 5;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private void locateByCalendar(long millis) {
+        final Calendar cal = _calendar;
+        cal.setTimeInMillis(millis);
+
+        final int year = cal.get(Calendar.YEAR);
+        final int month = cal.get(Calendar.MONTH);
+        final int day = cal.get(Calendar.DAY_OF_MONTH);
+        final int hour = cal.get(Calendar.HOUR_OF_DAY);
+        final int minute = cal.get(Calendar.MINUTE);
+        final int second = cal.get(Calendar.SECOND);
+
+        switch (_unit) {
+            case MILLISECOND:
+                _first = wall(year, month, day, hour, minute, second, cal.get(Calendar.MILLISECOND));
+                _last = _first;
+                break;
+
+            case SECOND:
+                _first = wall(year, month, day, hour, minute, second, 0);
+                _last = _first + 999L;
+                break;
+
+            case MINUTE:
+                _first = wall(year, month, day, hour, minute, 0, 0);
+                _last = wall(year, month, day, hour, minute, 59, 999);
+                break;
+
+            case HOUR:
+                _first = wall(year, month, day, hour, 0, 0, 0);
+                _last = wall(year, month, day, hour, 59, 59, 999);
+                break;
+
+            case DAY:
+                _first = wall(year, month, day, 0, 0, 0, 0);
+                _last = wall(year, month, day, 23, 59, 59, 999);
+                break;
+
+            case WEEK:
+                locateWeek(year, month, cal.get(Calendar.WEEK_OF_YEAR));
+                break;
+
+            case MONTH:
+                _first = wall(year, month, 1, 0, 0, 0, 0);
+                _last = wall(year, month, lastDayOfMonth(year, month), 23, 59, 59, 999);
+                break;
+
+            case QUARTER:
+                final int firstMonth = month - month % 3;
+                _first = wall(year, firstMonth, 1, 0, 0, 0, 0);
+                _last = wall(year, firstMonth + 2, lastDayOfMonth(year, firstMonth + 2), 23, 59, 59, 999);
+                break;
+
+            default:
+                _first = wall(year, Calendar.JANUARY, 1, 0, 0, 0, 0);
+                _last = wall(year, Calendar.DECEMBER, 31, 23, 59, 59, 999);
+        }
+    }
+
+    /**
+     * Same week numbering as org.jfree.data.time.Week: the last days of December may be
+     * in the first week of the next year, the first days of January in the last week of the previous one.
+     */
+    private void locateWeek(int year, int month, int weekOfYear) {
+        int week;
+        int weekYear;
+
+        if (weekOfYear == 1 && month == Calendar.DECEMBER) {
+            week = 1;
+            weekYear = year + 1;
+        } else {
+            week = Math.min(weekOfYear, 53);
+            weekYear = month == Calendar.JANUARY && week >= 52 ? year - 1 : year;
+        }
+
+        _first = weekStart(weekYear, week);
+        _last = weekStart(weekYear, week + 1) - 1;
+    }
+
+    private long weekStart(int year, int week) {
+        final Calendar cal = _calendar;
+        cal.clear();
+        cal.set(Calendar.YEAR, year);
+        cal.set(Calendar.WEEK_OF_YEAR, week);
+        cal.set(Calendar.DAY_OF_WEEK, cal.getFirstDayOfWeek());
+        cal.set(Calendar.HOUR, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * Resolves a wall clock time of the zone, the way the JFreeChart periods do.
+     */
+    private long wall(int year, int month, int day, int hour, int minute, int second, int millis) {
+        final Calendar cal = _calendar;
+        cal.clear();
+        cal.set(year, month, day, hour, minute, second);
+        cal.set(Calendar.MILLISECOND, millis);
+        return cal.getTimeInMillis();
+    }
+
+    private static int lastDayOfMonth(int year, int month) {
+        switch (month) {
+            case Calendar.FEBRUARY:
+                return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+            case Calendar.APRIL:
+            case Calendar.JUNE:
+            case Calendar.SEPTEMBER:
+            case Calendar.NOVEMBER:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * How the values of the points of a period are combined into the value of the period.
+     */
+    enum Aggregation {
+
+        SUM, AVG, MIN, MAX,
+
+        /** The value of the last point of the period, as TimeSeries.addOrUpdate does. */
+        LAST;
+
+        /**
+         * Returns the aggregation named by the "period-aggregation" attribute of a chart,
+         * LAST if there is none.
+         */
+        static Aggregation of(Object name) {
+            if (name == null) {
+                return LAST;
+            }
+
+            try {
+                return valueOf(name.toString().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException ex) {
+                throw new UiException("Unsupported period aggregation: " + name);
+            }
+        }
+
+        /**
+         * Combines the value of a period, aggregated from count non null values,
+         * with the value of a further point. Null values are NaN.
+         * Except for LAST, a null value is ignored.
+         */
+        double merge(double value, int count, double y) {
+            if (this == LAST) {
+                return y;
+            }
+            if (Double.isNaN(y)) {
+                return value;
+            }
+            if (count == 0) {
+                return y;
+            }
+
+            switch (this) {
+                case SUM:
+                    return value + y;
+                case AVG:
+                    return value + (y - value) / (count + 1);
+                case MIN:
+                    return Math.min(value, y);
+                default:
+                    return Math.max(value, y);
+            }
+        }
+    }
+
+    /**
+     * UTC offset transitions of a zone between 1900 and 2100.
+     * Shared between all the buckets of the zone, immutable.
+     */
+    private static final class ZoneTable {
+
+        /** 1900-01-02T00:00Z, the first instant mapped with the table. */
+        static final long LOWER = -2208902400000L;
+
+        /** 2099-01-01T00:00Z, the last instant mapped with a table: its year still ends in the table. */
+        static final long UPPER = 4070908800000L;
+
+        private static final long MARGIN = 400 * DAY_MILLIS;
+
+        /** The last instant mapped with this table, at most UPPER. */
+        private final long _upper;
+
+        /** The instants of the transitions. */
+        private final long[] _transitions;
+
+        /** The wall times at which the transitions take effect, as Calendar resolves them. */
+        private final long[] _wallTransitions;
+
+        /** The offset before the first transition, then the offset after each of them. */
+        private final int[] _offsets;
+
+        private ZoneTable(TimeZone zone, ZoneRules rules) {
+            long[] transitions = new long[64];
+            int[] offsets = new int[65];
+            int count = 0;
+
+            Instant instant = Instant.ofEpochMilli(LOWER - MARGIN);
+            offsets[0] = rules.getOffset(instant).getTotalSeconds() * 1000;
+            long upper = zone.getOffset(LOWER - MARGIN) == offsets[0] ? UPPER : Long.MIN_VALUE;
+
+            for (ZoneOffsetTransition t = rules.nextTransition(instant);
+                    t != null && t.toEpochSecond() * 1000 <= UPPER + MARGIN;
+                    t = rules.nextTransition(t.getInstant())) {
+                final long millis = t.toEpochSecond() * 1000;
+                final int offset = t.getOffsetAfter().getTotalSeconds() * 1000;
+
+                /*
+                 * The zone follows its own copy of the rules, which may differ from
+                 * java.time far in the future: the table stops where they disagree.
+                 */
+                if (zone.getOffset(millis - 1) != offsets[count] || zone.getOffset(millis) != offset) {
+                    upper = Math.min(upper, millis - MARGIN);
+                    break;
+                }
+
+                if (count == transitions.length) {
+                    transitions = Arrays.copyOf(transitions, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2 + 1);
+                }
+                transitions[count] = millis;
+                offsets[count + 1] = offset;
+                count++;
+            }
+
+            _upper = upper;
+            _transitions = Arrays.copyOf(transitions, count);
+            _offsets = Arrays.copyOf(offsets, count + 1);
+            _wallTransitions = new long[count];
+            for (int i = 0; i < count; i++) {
+                _wallTransitions[i] = _transitions[i] + _offsets[i + 1];
+            }
+        }
+
+        /**
+         * Returns the table of a zone, or null if the zone is not one of the time zone database.
+         */
+        static ZoneTable of(TimeZone zone) {
+            final String id = zone.getID();
+            final TimeZone known = TimeZone.getTimeZone(id);
+            if (!known.getID().equals(id) || !known.hasSameRules(zone)) {
+                return null;
+            }
+
+            ZoneTable table = ZONE_TABLES.get(id);
+            if (table == null) {
+                try {
+                    table = new ZoneTable(known, zone.toZoneId().getRules());
+                } catch (DateTimeException ex) {
+                    return null;
+                }
+                ZONE_TABLES.putIfAbsent(id, table);
+            }
+            return table;
+        }
+
+        int offsetAt(long millis) {
+            return _offsets[upperBound(_transitions, millis)];
+        }
+
+        /**
+         * Returns the instant of a wall time, given as the milliseconds of the same time in UTC.
+         * A wall time in a gap or an overlap takes the offset after the transition when it is
+         * at or after the transition's wall time, the one before otherwise, as Calendar does.
+         */
+        long toUtc(long wall) {
+            return wall - _offsets[upperBound(_wallTransitions, wall)];
+        }
+
+        /**
+         * Returns the number of values less than or equal to the key.
+         */
+        private static int upperBound(long[] values, long key) {
+            int low = 0;
+            int high = values.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (values[mid] <= key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jfree.data.general.DefaultPieDataset;
+import org.jfree.data.general.PieDataset;
+import org.zkoss.zk.ui.UiException;
+
+/**
+ * Folds the small sections of a pie into a single "Other" section.
+ *
+ * A pie keeps its largest sections, at most a given number of them, and those of at least
+ * a given percentage of the total; the others are summed into a section appended at the end.
+ * As with JFreeChart's consolidated pie dataset, a single small section is kept as it is.
+ * The sections kept stay in model order. The label of the folded section gets a number
+ * when a category of the model has the same name, as "Other (2)".
+ */
+final class PieAggregation {
+
+    private static final String DEFAULT_LABEL = "Other";
+
+    private final int _top;
+
+    private final double _minPercent;
+
+    private final String _label;
+
+    private PieAggregation(int top, double minPercent, String label) {
+        _top = top;
+        _minPercent = minPercent;
+        _label = label;
+    }
+
+    /**
+     * Returns the aggregation set by the attributes of a chart, or null if there is none.
+     *
+     * @param top the number of sections kept, a number or a string
+     * @param minPercent the percentage of the total below which a section is folded,
+     *                   a number or a string, with or without a % sign
+     * @param label the label of the folded section
+     */
+    static PieAggregation of(Object top, Object minPercent, Object label) {
+        final int topValue = top != null ? (int) toNumber(top, "top sections") : 0;
+        final double percent = minPercent != null ? toNumber(minPercent, "minimum percent") : 0;
+        if (topValue < 0 || !(percent >= 0 && percent <= 100)) {
+            throw new UiException("Unsupported pie aggregation: " + top + ", " + minPercent);
+        }
+        if (topValue == 0 && percent == 0) {
+            return null;
+        }
+        return new PieAggregation(topValue, percent, label != null ? label.toString() : DEFAULT_LABEL);
+    }
+
+    private static double toNumber(Object value, String name) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+
+        String text = value.toString().trim();
+        if (text.endsWith("%")) {
+            text = text.substring(0, text.length() - 1).trim();
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException ex) {
+            throw new UiException("Unsupported pie " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Folds the small sections of a dataset into the given result, updated in place so a plot
+     * drawing it keeps its dataset; the result is a copy of the dataset if fewer than two of its
+     * sections are small.
+     */
+    void aggregate(PieDataset dataset, DefaultPieDataset result) {
+        final int count = dataset.getItemCount();
+        final double[] values = new double[count];
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            final Number value = dataset.getValue(i);
+            values[i] = value != null ? value.doubleValue() : 0;
+            if (values[i] > 0) {
+                total += values[i];
+            }
+        }
+
+        final boolean[] folded = new boolean[count];
+        int kept = count;
+        if (_minPercent > 0 && total > 0) {
+            for (int i = 0; i < count; i++) {
+                if (values[i] * 100 / total < _minPercent) {
+                    folded[i] = true;
+                    kept--;
+                }
+            }
+        }
+
+        if (_top > 0 && kept > _top) {
+            // The largest sections first, in model order for equal values
+            final Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingDouble((Integer i) -> values[i]).reversed());
+
+            int ranked = 0;
+            for (Integer i : order) {
+                if (!folded[i] && ++ranked > _top) {
+                    folded[i] = true;
+                    kept--;
+                }
+            }
+        }
+
+        if (count - kept < 2) {
+            Arrays.fill(folded, false);
+            kept = count;
+        }
+
+        result.setNotify(false);
+        try {
+            final Map<Comparable<?>, Number> members = new LinkedHashMap<>();
+            double other = 0;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                final Comparable<?> key = dataset.getKey(i);
+                final Number value = dataset.getValue(i);
+                if (folded[i]) {
+                    members.put(key, value);
+                    if (value != null) {
+                        other += value.doubleValue();
+                    }
+                } else {
+                    result.insertValue(position++, key, value); // In place when the key is there already
+                }
+            }
+            if (kept < count) {
+                result.insertValue(position++,
+                        new Other(label(dataset), Collections.unmodifiableMap(members)), other);
+            }
+            while (result.getItemCount() > position) {
+                result.remove(result.getKey(result.getItemCount() - 1));
+            }
+        } finally {
+            result.setNotify(true);
+        }
+    }
+
+    /**
+     * Returns the label of the folded section, numbered when a category has the same name.
+     */
+    private String label(PieDataset dataset) {
+        final Set<String> names = new HashSet<>();
+        for (int i = 0; i < dataset.getItemCount(); i++) {
+            names.add(String.valueOf(dataset.getKey(i)));
+        }
+
+        String label = _label;
+        for (int n = 2; names.contains(label); n++) {
+            label = _label + " (" + n + ')';
+        }
+        return label;
+    }
+
+    /**
+     * The key of the folded section, shown as its label.
+     * Two keys are equal when their labels are, so the area of the section is kept between draws.
+     */
+    static final class Other implements Comparable<Other>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String _label;
+
+        private final Map<Comparable<?>, Number> _members;
+
+        Other(String label, Map<Comparable<?>, Number> members) {
+            _label = label;
+            _members = members;
+        }
+
+        /**
+         * Returns the value of each folded category, in model order.
+         */
+        Map<Comparable<?>, Number> getMembers() {
+            return _members;
+        }
+
+        @Override
+        public int compareTo(Other other) {
+            return _label.compareTo(other._label);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Other && _label.equals(((Other) obj)._label);
+        }
+
+        @Override
+        public int hashCode() {
+            return _label.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return _label;
+        }
+    }
+}
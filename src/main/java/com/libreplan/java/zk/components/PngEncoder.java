@@ -0,0 +1,499 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.zkoss.lang.Library;
+import org.zkoss.zk.ui.UiException;
+
+/**
+ * PNG encoder for rendered charts.
+ *
+ * An image with at most 256 distinct colors is written with a palette, with 1, 2, 4 or 8 bits
+ * per pixel; otherwise as RGB when it is opaque, or RGBA. The deflate level can be chosen,
+ * from 0 (stored, the fastest) to 9 (the smallest).
+ *
+ * The encoders, with their deflater and buffers, are kept between encodings, so encoding allocates
+ * little more than the result. At most twice the number of processors are kept; the deflater of
+ * an encoder that is not kept is ended, as its native memory would otherwise wait for the collector.
+ */
+final class PngEncoder {
+
+    public static final String COMPRESSION_PROPERTY =
+            "com.libreplan.java.zk.components.JFreeChartEngine.png.compression";
+
+    private static final int DEFAULT_LEVEL = 6;
+
+    private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    private static final int MAX_PALETTE = 256;
+
+    /**
+     * The encoders not in use. Not one per thread, as renders run on virtual threads that do not last.
+     */
+    private static final AtomicReferenceArray<PngEncoder> IDLE =
+            new AtomicReferenceArray<>(2 * Runtime.getRuntime().availableProcessors());
+
+    private static volatile Integer _defaultLevel;
+
+    private final Deflater _deflater = new Deflater();
+
+    private final CRC32 _crc = new CRC32();
+
+    private final Buffer _idat = new Buffer();
+
+    private final Buffer _out = new Buffer();
+
+    private final byte[] _deflated = new byte[16384];
+
+    private int[] _pixels = new int[0];
+
+    private byte[] _row = new byte[0];
+
+    private byte[] _previous = new byte[0];
+
+    private byte[] _filtered = new byte[0];
+
+    /**
+     * Palette as an open addressing table of colors (ARGB, with the index + 1 in _indexes).
+     */
+    private final int[] _colors = new int[MAX_PALETTE * 2];
+
+    private final int[] _indexes = new int[MAX_PALETTE * 2];
+
+    private final int[] _palette = new int[MAX_PALETTE];
+
+    private int _paletteSize;
+
+    private boolean _opaque;
+
+    private PngEncoder() {
+    }
+
+    /**
+     * Encodes an image.
+     *
+     * @param level the deflate level, 0 to 9
+     * @param palette whether an image with few colors can be written with a palette
+     */
+    static byte[] encode(BufferedImage image, int level, boolean palette) {
+        final PngEncoder encoder = acquire();
+        try {
+            return encoder.write(image, level, palette);
+        } finally {
+            release(encoder);
+        }
+    }
+
+    private static PngEncoder acquire() {
+        for (int i = 0; i < IDLE.length(); i++) {
+            final PngEncoder encoder = IDLE.getAndSet(i, null);
+            if (encoder != null) {
+                return encoder;
+            }
+        }
+        return new PngEncoder();
+    }
+
+    private static void release(PngEncoder encoder) {
+        for (int i = 0; i < IDLE.length(); i++) {
+            if (IDLE.compareAndSet(i, null, encoder)) {
+                return;
+            }
+        }
+        encoder._deflater.end();
+    }
+
+    /**
+     * Parses a deflate level: a number from 0 to 9, "store" (0), "fast" (1), "best" (9)
+     * or "default"; null for the level of the {@link #COMPRESSION_PROPERTY} library property, 6 by default.
+     */
+    static int toLevel(Object value) {
+        if (value == null) {
+            return getDefaultLevel();
+        }
+
+        if (value instanceof Number) {
+            return checkLevel(((Number) value).intValue(), value);
+        }
+
+        final String name = value.toString().trim().toLowerCase(Locale.ENGLISH);
+        switch (name) {
+            case "store":
+                return Deflater.NO_COMPRESSION;
+            case "fast":
+                return Deflater.BEST_SPEED;
+            case "best":
+                return Deflater.BEST_COMPRESSION;
+            case "default":
+                return DEFAULT_LEVEL;
+            default:
+                try {
+                    return checkLevel(Integer.parseInt(name), value);
+                } catch (NumberFormatException ex) {
+                    throw new UiException("Unsupported PNG compression: " + value);
+                }
+        }
+    }
+
+    private static int checkLevel(int level, Object value) {
+        if (level < 0 || level > 9) {
+            throw new UiException("Unsupported PNG compression: " + value);
+        }
+        return level;
+    }
+
+    private static int getDefaultLevel() {
+        if (_defaultLevel == null) {
+            final String property = Library.getProperty(COMPRESSION_PROPERTY);
+            _defaultLevel = property != null ? toLevel(property) : DEFAULT_LEVEL;
+        }
+        return _defaultLevel;
+    }
+
+    private byte[] write(BufferedImage image, int level, boolean palette) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        if (_pixels.length < width) {
+            _pixels = new int[width];
+        }
+
+        final boolean indexed = scan(image, palette);
+        final boolean opaque = _opaque;
+
+        final int colorType;
+        final int bitDepth;
+        final int bytesPerPixel;
+        final int rowBytes;
+        if (indexed) {
+            colorType = 3;
+            bitDepth = _paletteSize <= 2 ? 1 : _paletteSize <= 4 ? 2 : _paletteSize <= 16 ? 4 : 8;
+            bytesPerPixel = 1;
+            rowBytes = (width * bitDepth + 7) / 8;
+        } else {
+            colorType = opaque ? 2 : 6;
+            bitDepth = 8;
+            bytesPerPixel = opaque ? 3 : 4;
+            rowBytes = width * bytesPerPixel;
+        }
+
+        if (_row.length < rowBytes) {
+            _row = new byte[rowBytes];
+            _previous = new byte[rowBytes];
+            _filtered = new byte[rowBytes + 1];
+        }
+        Arrays.fill(_previous, 0, rowBytes, (byte) 0);
+
+        _deflater.reset();
+        _deflater.setLevel(level);
+        _idat.reset();
+
+        for (int y = 0; y < height; y++) {
+            readRow(image, y);
+            if (indexed) {
+                packIndexes(width, bitDepth);
+                _filtered[0] = 0; // Filters do not help indexes
+                System.arraycopy(_row, 0, _filtered, 1, rowBytes);
+            } else {
+                packColors(width, opaque);
+                filter(rowBytes, bytesPerPixel, level);
+            }
+            deflate(_filtered, rowBytes + 1);
+
+            final byte[] swap = _previous;
+            _previous = _row;
+            _row = swap;
+        }
+
+        _deflater.finish();
+        while (!_deflater.finished()) {
+            final int count = _deflater.deflate(_deflated);
+            _idat.write(_deflated, 0, count);
+        }
+
+        _out.reset();
+        _out.write(SIGNATURE, 0, SIGNATURE.length);
+
+        final Buffer header = new Buffer();
+        header.writeInt(width);
+        header.writeInt(height);
+        header.writeByte(bitDepth);
+        header.writeByte(colorType);
+        header.writeByte(0); // Deflate
+        header.writeByte(0); // Adaptive filtering
+        header.writeByte(0); // No interlace
+        writeChunk("IHDR", header);
+
+        if (indexed) {
+            final Buffer plte = new Buffer();
+            int lastTranslucent = -1;
+            for (int i = 0; i < _paletteSize; i++) {
+                final int argb = _palette[i];
+                plte.writeByte(argb >> 16);
+                plte.writeByte(argb >> 8);
+                plte.writeByte(argb);
+                if ((argb >>> 24) != 0xff) {
+                    lastTranslucent = i;
+                }
+            }
+            writeChunk("PLTE", plte);
+
+            if (lastTranslucent >= 0) {
+                final Buffer trns = new Buffer();
+                for (int i = 0; i <= lastTranslucent; i++) {
+                    trns.writeByte(_palette[i] >>> 24);
+                }
+                writeChunk("tRNS", trns);
+            }
+        }
+
+        writeChunk("IDAT", _idat);
+        writeChunk("IEND", new Buffer());
+
+        return _out.toByteArray();
+    }
+
+    /**
+     * Finds whether the image is opaque and, if a palette is wanted, collects its distinct colors.
+     * Returns whether the image fits in a palette.
+     */
+    private boolean scan(BufferedImage image, boolean palette) {
+        Arrays.fill(_indexes, 0);
+        _paletteSize = 0;
+        _opaque = true;
+        final boolean hasAlpha = image.getColorModel().hasAlpha();
+        boolean indexed = palette;
+
+        final int width = image.getWidth();
+        for (int y = 0; y < image.getHeight() && (indexed || (hasAlpha && _opaque)); y++) {
+            readRow(image, y);
+            int last = 0;
+            boolean hasLast = false;
+            for (int x = 0; x < width; x++) {
+                final int argb = _pixels[x];
+                if (hasLast && argb == last) {
+                    continue;
+                }
+                last = argb;
+                hasLast = true;
+
+                if ((argb >>> 24) != 0xff) {
+                    _opaque = false;
+                }
+                if (indexed && indexOf(argb) < 0) {
+                    if (_paletteSize == MAX_PALETTE) {
+                        indexed = false; // Too many colors
+                    } else {
+                        add(argb);
+                    }
+                }
+            }
+        }
+        return indexed;
+    }
+
+    private int slot(int argb) {
+        int slot = (argb * 0x9e3779b9) >>> 23; // 9 bits, for the 512 slots
+        while (_indexes[slot] != 0 && _colors[slot] != argb) {
+            slot = (slot + 1) & (_colors.length - 1);
+        }
+        return slot;
+    }
+
+    private int indexOf(int argb) {
+        return _indexes[slot(argb)] - 1;
+    }
+
+    private void add(int argb) {
+        final int slot = slot(argb);
+        _colors[slot] = argb;
+        _indexes[slot] = _paletteSize + 1;
+        _palette[_paletteSize++] = argb;
+    }
+
+    /**
+     * Reads a row of the image into _pixels as non premultiplied ARGB.
+     */
+    private void readRow(BufferedImage image, int y) {
+        final int width = image.getWidth();
+        final int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB) {
+            final WritableRaster raster = image.getRaster();
+            raster.getDataElements(0, y, width, 1, _pixels);
+            if (type == BufferedImage.TYPE_INT_RGB) {
+                for (int x = 0; x < width; x++) {
+                    _pixels[x] |= 0xff000000;
+                }
+            }
+        } else {
+            image.getRGB(0, y, width, 1, _pixels, 0, width);
+        }
+    }
+
+    private void packIndexes(int width, int bitDepth) {
+        if (bitDepth == 8) {
+            for (int x = 0; x < width; x++) {
+                _row[x] = (byte) indexOf(_pixels[x]);
+            }
+            return;
+        }
+
+        final int perByte = 8 / bitDepth;
+        int last = 0;
+        int lastIndex = 0;
+        boolean hasLast = false;
+        for (int i = 0, x = 0; x < width; i++) {
+            int value = 0;
+            for (int k = 0; k < perByte; k++, x++) {
+                int index = 0;
+                if (x < width) {
+                    final int argb = _pixels[x];
+                    if (!hasLast || argb != last) {
+                        last = argb;
+                        lastIndex = indexOf(argb);
+                        hasLast = true;
+                    }
+                    index = lastIndex;
+                }
+                value = (value << bitDepth) | index;
+            }
+            _row[i] = (byte) value;
+        }
+    }
+
+    private void packColors(int width, boolean opaque) {
+        int i = 0;
+        for (int x = 0; x < width; x++) {
+            final int argb = _pixels[x];
+            _row[i++] = (byte) (argb >> 16);
+            _row[i++] = (byte) (argb >> 8);
+            _row[i++] = (byte) argb;
+            if (!opaque) {
+                _row[i++] = (byte) (argb >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Filters _row into _filtered with the filter of the smallest sum of absolute values,
+     * among none, sub and up. Stored data is not filtered.
+     */
+    private void filter(int rowBytes, int bytesPerPixel, int level) {
+        if (level == Deflater.NO_COMPRESSION) {
+            _filtered[0] = 0;
+            System.arraycopy(_row, 0, _filtered, 1, rowBytes);
+            return;
+        }
+
+        long none = 0;
+        long sub = 0;
+        long up = 0;
+        for (int i = 0; i < rowBytes; i++) {
+            final int value = _row[i];
+            final int left = i >= bytesPerPixel ? _row[i - bytesPerPixel] : 0;
+            none += Math.abs((byte) value);
+            sub += Math.abs((byte) (value - left));
+            up += Math.abs((byte) (value - _previous[i]));
+        }
+
+        if (none <= sub && none <= up) {
+            _filtered[0] = 0;
+            System.arraycopy(_row, 0, _filtered, 1, rowBytes);
+        } else if (sub <= up) {
+            _filtered[0] = 1;
+            for (int i = 0; i < rowBytes; i++) {
+                final int left = i >= bytesPerPixel ? _row[i - bytesPerPixel] : 0;
+                _filtered[i + 1] = (byte) (_row[i] - left);
+            }
+        } else {
+            _filtered[0] = 2;
+            for (int i = 0; i < rowBytes; i++) {
+                _filtered[i + 1] = (byte) (_row[i] - _previous[i]);
+            }
+        }
+    }
+
+    private void deflate(byte[] data, int length) {
+        _deflater.setInput(data, 0, length);
+        while (!_deflater.needsInput()) {
+            final int count = _deflater.deflate(_deflated);
+            _idat.write(_deflated, 0, count);
+        }
+    }
+
+    private void writeChunk(String type, Buffer data) {
+        final byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        _out.writeInt(data._size);
+        _out.write(name, 0, name.length);
+        _out.write(data._bytes, 0, data._size);
+
+        _crc.reset();
+        _crc.update(name);
+        _crc.update(data._bytes, 0, data._size);
+        _out.writeInt((int) _crc.getValue());
+    }
+
+    /**
+     * Growable byte array, kept between encodings.
+     */
+    private static final class Buffer {
+
+        private byte[] _bytes = new byte[64];
+
+        private int _size;
+
+        void reset() {
+            _size = 0;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, _bytes, _size, length);
+            _size += length;
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            _bytes[_size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            _bytes[_size++] = (byte) (value >>> 24);
+            _bytes[_size++] = (byte) (value >>> 16);
+            _bytes[_size++] = (byte) (value >>> 8);
+            _bytes[_size++] = (byte) value;
+        }
+
+        private void ensure(int length) {
+            if (_size + length > _bytes.length) {
+                _bytes = Arrays.copyOf(_bytes, Math.max(_bytes.length * 2, _size + length));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(_bytes, _size);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Transparency;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.JFreeChart;
+import org.zkoss.lang.Library;
+
+/**
+ * Images the charts are drawn into, kept between draws of the same size so a chart redrawn
+ * often does not allocate a new raster each time.
+ *
+ * A chart whose background is opaque is drawn into an RGB image, with no alpha channel to
+ * composite; other charts into a premultiplied ARGB image, as JFreeChart does.
+ *
+ * The pool holds at most {@link #SIZE_PROPERTY} images, twice the number of processors by
+ * default, through soft references so the collector can take them back under memory pressure.
+ * A size of 0 disables it.
+ */
+final class RasterPool {
+
+    public static final String SIZE_PROPERTY = "com.libreplan.java.zk.components.JFreeChartEngine.raster.poolSize";
+
+    private static volatile RasterPool _shared;
+
+    private final AtomicReferenceArray<SoftReference<BufferedImage>> _slots;
+
+    /**
+     * The slot where the next released image goes when none is free.
+     */
+    private final AtomicInteger _next = new AtomicInteger();
+
+    private RasterPool(int size) {
+        _slots = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Draws a chart into a pooled image, which must be given back with {@link #release(BufferedImage)}
+     * once it is no longer used.
+     */
+    static BufferedImage draw(JFreeChart jfchart, int width, int height, ChartRenderingInfo info) {
+        final Paint background = jfchart.getBackgroundPaint();
+        final int type = background != null && background.getTransparency() == Transparency.OPAQUE
+                ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE;
+
+        BufferedImage image = getShared().acquire(width, height, type);
+        final Graphics2D g2;
+        if (image == null) {
+            image = new BufferedImage(width, height, type);
+            g2 = image.createGraphics();
+        } else {
+            g2 = image.createGraphics();
+            if (type != BufferedImage.TYPE_INT_RGB) { // An opaque background covers the previous draw
+                g2.setComposite(AlphaComposite.Clear);
+                g2.fillRect(0, 0, width, height);
+                g2.setComposite(AlphaComposite.SrcOver);
+            }
+        }
+
+        try {
+            jfchart.draw(g2, new Rectangle2D.Double(0, 0, width, height), null, info);
+        } finally {
+            g2.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Gives back an image returned by {@link #draw(JFreeChart, int, int, ChartRenderingInfo)}.
+     */
+    static void release(BufferedImage image) {
+        getShared().offer(image);
+    }
+
+    private BufferedImage acquire(int width, int height, int type) {
+        for (int i = 0; i < _slots.length(); i++) {
+            final SoftReference<BufferedImage> ref = _slots.get(i);
+            final BufferedImage image = ref != null ? ref.get() : null;
+            if (image != null && image.getWidth() == width && image.getHeight() == height
+                    && image.getType() == type && _slots.compareAndSet(i, ref, null)) {
+                return image;
+            }
+        }
+        return null;
+    }
+
+    private void offer(BufferedImage image) {
+        final int length = _slots.length();
+        if (length == 0) {
+            return;
+        }
+
+        for (int i = 0; i < length; i++) {
+            final SoftReference<BufferedImage> ref = _slots.get(i);
+            if ((ref == null || ref.get() == null) && _slots.compareAndSet(i, ref, new SoftReference<>(image))) {
+                return;
+            }
+        }
+        // Full, replace the images in turn
+        _slots.set(Math.floorMod(_next.getAndIncrement(), length), new SoftReference<>(image));
+    }
+
+    private static RasterPool getShared() {
+        if (_shared == null) {
+            synchronized (RasterPool.class) {
+                if (_shared == null) {
+                    _shared = new RasterPool(Math.max(Library.getIntProperty(SIZE_PROPERTY,
+                            2 * Runtime.getRuntime().availableProcessors()), 0));
+                }
+            }
+        }
+        return _shared;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zkoss.lang.Library;
+
+/**
+ * Content-addressed cache of rendered charts, shared by all the engines of the JVM.
+ * Entries are keyed by {@link ChartFingerprint} and evicted in LRU order
+ * once the configured byte budget is exceeded.
+ *
+ * The shared cache is disabled unless the library property
+ * {@link #MAX_SIZE_PROPERTY} is set to a positive number of bytes:
+ * <pre>
+ * &lt;library-property&gt;
+ *     &lt;name&gt;com.libreplan.java.zk.components.JFreeChartEngine.cache.maxSize&lt;/name&gt;
+ *     &lt;value&gt;33554432&lt;/value&gt;
+ * &lt;/library-property&gt;
+ * </pre>
+ *
+ * The library property {@link #DIR_PROPERTY} adds a tier on disk, in that directory, see
+ * {@link DiskCache}: renders missed in memory are looked up there, and renders are written to
+ * both. Its size is {@link #DISK_SIZE_PROPERTY} bytes, 256 MB by default. The disk tier also
+ * works without {@link #MAX_SIZE_PROPERTY}, then nothing is kept in memory.
+ */
+public class RenderCache {
+
+    public static final String MAX_SIZE_PROPERTY = "com.libreplan.java.zk.components.JFreeChartEngine.cache.maxSize";
+
+    public static final String DIR_PROPERTY = "com.libreplan.java.zk.components.JFreeChartEngine.cache.dir";
+
+    public static final String DISK_SIZE_PROPERTY = "com.libreplan.java.zk.components.JFreeChartEngine.cache.diskSize";
+
+    private static final long DEFAULT_DISK_SIZE = 256L << 20;
+
+    private static final Logger log = LoggerFactory.getLogger(RenderCache.class);
+
+    private static volatile RenderCache _shared;
+
+    private static volatile boolean _sharedInitialized;
+
+    private final long _maxSize;
+
+    private long _size;
+
+    private long _hits;
+
+    private long _diskHits;
+
+    private long _misses;
+
+    private long _evictions;
+
+    private final LinkedHashMap<String, RenderResult> _entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * The tier on disk, or null.
+     */
+    private final DiskCache _disk;
+
+    public RenderCache(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        _maxSize = maxSize;
+        _disk = null;
+    }
+
+    RenderCache(long maxSize, DiskCache disk) {
+        _maxSize = Math.max(maxSize, 0);
+        _disk = disk;
+    }
+
+    /**
+     * Returns the cache shared by all the engines, or null if it is disabled.
+     */
+    public static RenderCache getShared() {
+        if (!_sharedInitialized) {
+            synchronized (RenderCache.class) {
+                if (!_sharedInitialized) {
+                    long maxSize = parseSize(Library.getProperty(MAX_SIZE_PROPERTY));
+                    DiskCache disk = newDiskCache();
+                    _shared = disk != null ? new RenderCache(maxSize, disk) : maxSize > 0 ? new RenderCache(maxSize) : null;
+                    _sharedInitialized = true;
+                }
+            }
+        }
+        return _shared;
+    }
+
+    private static DiskCache newDiskCache() {
+        final String dir = Library.getProperty(DIR_PROPERTY);
+        if (dir == null || dir.trim().isEmpty()) {
+            return null;
+        }
+
+        final long size = parseSize(Library.getProperty(DISK_SIZE_PROPERTY));
+        try {
+            return new DiskCache(Paths.get(dir.trim()), size > 0 ? size : DEFAULT_DISK_SIZE);
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Cannot use the render cache directory {}", dir, ex);
+            return null;
+        }
+    }
+
+    private static long parseSize(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    RenderResult get(String key) {
+        synchronized (this) {
+            RenderResult result = _entries.get(key);
+            if (result != null || _disk == null) {
+                if (result != null) {
+                    _hits++;
+                } else {
+                    _misses++;
+                }
+                return result;
+            }
+        }
+
+        // Off the lock, the disk is slower than memory
+        final RenderResult result = _disk.get(key);
+        synchronized (this) {
+            if (result != null) {
+                _hits++;
+                _diskHits++;
+                putInMemory(key, result);
+            } else {
+                _misses++;
+            }
+        }
+        return result;
+    }
+
+    void put(String key, RenderResult result) {
+        synchronized (this) {
+            putInMemory(key, result);
+        }
+        if (_disk != null) {
+            _disk.put(key, result);
+        }
+    }
+
+    private void putInMemory(String key, RenderResult result) {
+        long size = result.estimateSize();
+        if (size > _maxSize) {
+            return; // Would evict everything else and still not fit
+        }
+
+        RenderResult old = _entries.put(key, result);
+        if (old != null) {
+            _size -= old.estimateSize();
+        }
+        _size += size;
+
+        for (Iterator<Map.Entry<String, RenderResult>> it = _entries.entrySet().iterator();
+             _size > _maxSize && it.hasNext(); ) {
+
+            Map.Entry<String, RenderResult> eldest = it.next();
+            _size -= eldest.getValue().estimateSize();
+            it.remove();
+            _evictions++;
+        }
+    }
+
+    /**
+     * Clears the cache in memory, the disk tier is kept.
+     */
+    public synchronized void clear() {
+        _entries.clear();
+        _size = 0;
+    }
+
+    public long getMaxSize() {
+        return _maxSize;
+    }
+
+    public synchronized long getSize() {
+        return _size;
+    }
+
+    public synchronized int getEntryCount() {
+        return _entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return _hits;
+    }
+
+    /**
+     * Returns the number of hits served by the disk tier, counted in the hits as well.
+     */
+    public synchronized long getDiskHitCount() {
+        return _diskHits;
+    }
+
+    public synchronized long getMissCount() {
+        return _misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return _evictions;
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.zkoss.lang.Library;
+import org.zkoss.zk.ui.UiException;
+
+/**
+ * Admission control of the renders of all the engines, so that a peak of draws queues
+ * and degrades instead of exhausting the processors and the heap.
+ *
+ * At most {@link #MAX_RENDERS_PROPERTY} renders run at a time; the governor is off when it
+ * is 0, the default. Up to {@link #QUEUE_SIZE_PROPERTY} draws wait for their turn, four per
+ * render by default; a draw beyond that keeps the last image of its chart.
+ *
+ * Each render is estimated from the chart width, height and number of points, with the cost
+ * per point of the previous renders of the same chart type. When the estimate exceeds the time
+ * budget ({@link #TIME_BUDGET_PROPERTY} milliseconds, less the time waited in the queue) or the
+ * memory budget ({@link #MEMORY_BUDGET_PROPERTY} megabytes), the render degrades, one step after
+ * the other until it fits: its XY points are downsampled to the pixel columns, then it has no
+ * areas, and last, if it had to wait for its turn, the chart keeps its last image. A chart without
+ * an image yet is always drawn, after waiting its turn as long as needed. A budget of 0, the default,
+ * is no budget.
+ */
+final class RenderGovernor {
+
+    public static final String MAX_RENDERS_PROPERTY =
+            "com.libreplan.java.zk.components.JFreeChartEngine.governor.maxRenders";
+
+    public static final String QUEUE_SIZE_PROPERTY =
+            "com.libreplan.java.zk.components.JFreeChartEngine.governor.queueSize";
+
+    public static final String TIME_BUDGET_PROPERTY =
+            "com.libreplan.java.zk.components.JFreeChartEngine.governor.timeBudget";
+
+    public static final String MEMORY_BUDGET_PROPERTY =
+            "com.libreplan.java.zk.components.JFreeChartEngine.governor.memoryBudget";
+
+    /**
+     * The cost of a pixel: drawing the background, the axes and the encoding.
+     */
+    private static final long PIXEL_NANOS = 100;
+
+    /**
+     * The cost of a point before any render of its chart type was measured.
+     */
+    private static final long POINT_NANOS = 2000;
+
+    /**
+     * The cost of the areas of a point before any render of its chart type was measured,
+     * an Area component with its attributes for most charts.
+     */
+    private static final long AREA_NANOS = 150000;
+
+    /**
+     * The memory of an ARGB pixel, of a point in the dataset and of the area of a point.
+     */
+    private static final long PIXEL_BYTES = 4;
+
+    private static final long POINT_BYTES = 64;
+
+    private static final long AREA_BYTES = 2048;
+
+    /**
+     * The weight of a new render in the average cost of its chart type.
+     */
+    private static final double LEARNING_RATE = 0.2;
+
+    /**
+     * The fewest points of a render the costs are learned from, below them the fixed costs of a render prevail.
+     */
+    private static final int LEARNING_POINTS = 1000;
+
+    private static volatile RenderGovernor _shared;
+
+    private final Semaphore _slots;
+
+    private final int _queueSize;
+
+    private final long _timeBudget;
+
+    private final long _memoryBudget;
+
+    private final AtomicInteger _waiting = new AtomicInteger();
+
+    /**
+     * The average cost of a point of each chart type, then of its areas, in nanoseconds.
+     */
+    private final Map<String, double[]> _costs = new ConcurrentHashMap<>();
+
+    RenderGovernor(int maxRenders, int queueSize, long timeBudget, long memoryBudget) {
+        _slots = maxRenders > 0 ? new Semaphore(maxRenders, true) : null;
+        _queueSize = queueSize;
+        _timeBudget = timeBudget;
+        _memoryBudget = memoryBudget;
+    }
+
+    /**
+     * What a render is about to draw.
+     */
+    static final class Request {
+
+        final String _type;
+
+        final int _pixels;
+
+        final int _points;
+
+        /**
+         * The number of points once downsampled, as many as the points if they cannot be.
+         */
+        final int _downsampledPoints;
+
+        final boolean _withAreas;
+
+        final boolean _hasLastImage;
+
+        Request(String type, int width, int height, int points, int downsampledPoints, boolean withAreas,
+                boolean hasLastImage) {
+            _type = type;
+            _pixels = width * height;
+            _points = points;
+            _downsampledPoints = Math.min(points, downsampledPoints);
+            _withAreas = withAreas;
+            _hasLastImage = hasLastImage;
+        }
+    }
+
+    /**
+     * The right to render, and how. It must be closed once the render is done.
+     */
+    static final class Permit implements AutoCloseable {
+
+        private final RenderGovernor _governor;
+
+        private final RenderMetrics.Degradation _degradation;
+
+        private final long _queueNanos;
+
+        private final int _points;
+
+        private final boolean _withAreas;
+
+        private final String _type;
+
+        private final int _pixels;
+
+        private final int _downsampledPoints;
+
+        private boolean _closed;
+
+        Permit(RenderGovernor governor, RenderMetrics.Degradation degradation, long queueNanos, int points,
+                boolean withAreas, String type, int pixels, int downsampledPoints) {
+            _governor = governor;
+            _degradation = degradation;
+            _queueNanos = queueNanos;
+            _points = points;
+            _withAreas = withAreas;
+            _type = type;
+            _pixels = pixels;
+            _downsampledPoints = downsampledPoints;
+        }
+
+        RenderMetrics.Degradation getDegradation() {
+            return _degradation;
+        }
+
+        /**
+         * Whether the chart keeps its last image instead of being rendered.
+         */
+        boolean isLastImage() {
+            return _degradation == RenderMetrics.Degradation.LAST_IMAGE;
+        }
+
+        boolean isDownsampled() {
+            return _degradation == RenderMetrics.Degradation.DOWNSAMPLED ||
+                    (_degradation == RenderMetrics.Degradation.NO_AREAS && _downsampledPoints < _points);
+        }
+
+        /**
+         * Returns the number of points to downsample the XY series to, in all.
+         */
+        int getDownsampledPoints() {
+            return _downsampledPoints;
+        }
+
+        /**
+         * Whether the render has areas, false if it had none to begin with.
+         */
+        boolean isWithAreas() {
+            return _withAreas;
+        }
+
+        long getQueueNanos() {
+            return _queueNanos;
+        }
+
+        /**
+         * Learns the cost of the chart type from the metrics of a render that was not degraded.
+         */
+        void learn(RenderMetrics metrics) {
+            if (_governor != null && _degradation == RenderMetrics.Degradation.NONE && _points >= LEARNING_POINTS) {
+                _governor.learn(_type, _pixels, _points, _withAreas, metrics);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!_closed && _governor != null && !isLastImage()) {
+                _closed = true;
+                _governor._slots.release();
+            }
+        }
+    }
+
+    /**
+     * Whether the renders are governed, so their requests are worth estimating.
+     */
+    static boolean isEnabled() {
+        return getShared()._slots != null;
+    }
+
+    /**
+     * Returns the permit of a render when the governor is off.
+     */
+    static Permit ungoverned(boolean withAreas) {
+        return new Permit(null, RenderMetrics.Degradation.NONE, 0, 0, withAreas, null, 0, 0);
+    }
+
+    /**
+     * Waits for the turn of a render and decides how it degrades.
+     */
+    static Permit admit(Request request) {
+        final RenderGovernor governor = getShared();
+        return governor._slots != null ? governor.acquire(request) : ungoverned(request._withAreas);
+    }
+
+    /**
+     * Waits for the turn of a render with this governor, see {@link #admit(Request)}.
+     */
+    Permit acquire(Request request) {
+        long queueNanos = 0;
+        if (!_slots.tryAcquire()) {
+            final long start = System.nanoTime();
+            final boolean full = _waiting.incrementAndGet() > _queueSize;
+            try {
+                if (request._hasLastImage && full) {
+                    return lastImage(request, 0);
+                }
+                if (request._hasLastImage && _timeBudget > 0) {
+                    if (!_slots.tryAcquire(_timeBudget, TimeUnit.MILLISECONDS)) {
+                        return lastImage(request, System.nanoTime() - start);
+                    }
+                } else {
+                    _slots.acquire();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw UiException.Aide.wrap(ex);
+            } finally {
+                _waiting.decrementAndGet();
+            }
+            queueNanos = System.nanoTime() - start;
+        }
+
+        final long timeLeft = _timeBudget > 0 ? TimeUnit.MILLISECONDS.toNanos(_timeBudget) - queueNanos : Long.MAX_VALUE;
+        final double[] cost = getCost(request._type);
+
+        RenderMetrics.Degradation degradation = RenderMetrics.Degradation.NONE;
+        int points = request._points;
+        boolean withAreas = request._withAreas;
+        while (!fits(request, cost, points, withAreas, timeLeft)) {
+            if (degradation == RenderMetrics.Degradation.NONE && request._downsampledPoints < points) {
+                degradation = RenderMetrics.Degradation.DOWNSAMPLED;
+                points = request._downsampledPoints;
+            } else if (degradation != RenderMetrics.Degradation.NO_AREAS && withAreas) {
+                degradation = RenderMetrics.Degradation.NO_AREAS;
+                withAreas = false;
+            } else if (request._hasLastImage && queueNanos > 0) { // Under load
+                _slots.release();
+                return lastImage(request, queueNanos);
+            } else {
+                break; // Drawn anyway, as degraded as it can be
+            }
+        }
+        return new Permit(this, degradation, queueNanos, request._points, withAreas, request._type,
+                request._pixels, points);
+    }
+
+    private Permit lastImage(Request request, long queueNanos) {
+        return new Permit(this, RenderMetrics.Degradation.LAST_IMAGE, queueNanos, request._points,
+                request._withAreas, request._type, request._pixels, request._points);
+    }
+
+    private boolean fits(Request request, double[] cost, int points, boolean withAreas, long timeLeft) {
+        final double nanos = request._pixels * (double) PIXEL_NANOS + points * cost[0] + (withAreas ? points * cost[1] : 0);
+        final double bytes = request._pixels * (double) PIXEL_BYTES + points * (double) POINT_BYTES +
+                (withAreas ? points * (double) AREA_BYTES : 0);
+        return nanos <= timeLeft && (_memoryBudget <= 0 || bytes <= _memoryBudget * 1024.0 * 1024.0);
+    }
+
+    private double[] getCost(String type) {
+        final double[] cost = _costs.get(type);
+        return cost != null ? cost.clone() : new double[] {POINT_NANOS, AREA_NANOS};
+    }
+
+    private void learn(String type, int pixels, int points, boolean withAreas, RenderMetrics metrics) {
+        final double areas = metrics.getNanos(RenderMetrics.Phase.AREAS);
+        final double drawing = Math.max(metrics.getTotalNanos() - metrics.getNanos(RenderMetrics.Phase.QUEUE) -
+                metrics.getNanos(RenderMetrics.Phase.CACHE) - areas - pixels * (double) PIXEL_NANOS, 0);
+
+        _costs.compute(type, (key, old) -> {
+            final double[] cost = old != null ? old.clone() : new double[] {POINT_NANOS, AREA_NANOS};
+            cost[0] += LEARNING_RATE * (drawing / points - cost[0]);
+            if (withAreas) {
+                cost[1] += LEARNING_RATE * (areas / points - cost[1]);
+            }
+            return cost;
+        });
+    }
+
+    private static RenderGovernor getShared() {
+        if (_shared == null) {
+            synchronized (RenderGovernor.class) {
+                if (_shared == null) {
+                    final int maxRenders = Math.max(Library.getIntProperty(MAX_RENDERS_PROPERTY, 0), 0);
+                    _shared = new RenderGovernor(maxRenders,
+                            Math.max(Library.getIntProperty(QUEUE_SIZE_PROPERTY, 4 * maxRenders), 0),
+                            Math.max(Library.getIntProperty(TIME_BUDGET_PROPERTY, 0), 0),
+                            Math.max(Library.getIntProperty(MEMORY_BUDGET_PROPERTY, 0), 0));
+                }
+            }
+        }
+        return _shared;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+/**
+ * Listener of the draws of all the charts, for monitoring.
+ *
+ * Listeners are added with {@link RenderMonitor#addListener(RenderListener)}, or found with
+ * {@link java.util.ServiceLoader}: list the implementation in a
+ * META-INF/services/com.libreplan.java.zk.components.RenderListener file.
+ */
+public interface RenderListener {
+
+    /**
+     * Called once the image and the areas of a draw are on the chart, in the thread of the event
+     * that put them there. It must be fast and must not throw.
+     */
+    void onRender(RenderMetrics metrics);
+}
@@ -0,0 +1,235 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What one draw of a chart did and how long each phase took, given to the
+ * {@link RenderListener}s once the image and the areas are on the chart.
+ *
+ * A draw served by the render cache only has the cache and areas phases, a draw that kept
+ * the last image of its chart only the queue phase.
+ */
+public final class RenderMetrics {
+
+    /**
+     * The phases of a draw. JFreeChart lays the chart out as it draws it,
+     * so the layout is part of {@link #RASTERIZE}.
+     */
+    public enum Phase {
+        /** Wait for a render slot of the render governor. */
+        QUEUE,
+        /** Fingerprint of the chart and lookup of the render cache. */
+        CACHE,
+        /** Conversion of the model into a JFreeChart dataset. */
+        DATASET,
+        /** Creation and setup of the JFreeChart. */
+        CREATE,
+        /** Layout and drawing into the image, or into the SVG. */
+        RASTERIZE,
+        /** Decoding of the entities into regions, and the areas put on the chart. */
+        AREAS,
+        /** PNG encoding of the image. */
+        ENCODE
+    }
+
+    /**
+     * How the render governor degraded a draw to keep it within its budgets,
+     * the last step it took.
+     */
+    public enum Degradation {
+        /** Drawn as configured. */
+        NONE,
+        /** The XY series downsampled to the pixel columns. */
+        DOWNSAMPLED,
+        /** Drawn without areas, and downsampled if it could be. */
+        NO_AREAS,
+        /** Not drawn, the chart kept its last image. */
+        LAST_IMAGE
+    }
+
+    private String _chartId;
+
+    private final String _type;
+
+    private final int _width;
+
+    private final int _height;
+
+    private final boolean _cacheHit;
+
+    private final long[] _nanos = new long[Phase.values().length];
+
+    private int _points;
+
+    private int _entities;
+
+    private int _areas;
+
+    private int _bytes;
+
+    private Degradation _degradation = Degradation.NONE;
+
+    RenderMetrics(String type, int width, int height, boolean cacheHit) {
+        _type = type;
+        _width = width;
+        _height = height;
+        _cacheHit = cacheHit;
+    }
+
+    /**
+     * Adds the time since the given start to a phase.
+     *
+     * @return the current time, the start of the next phase
+     */
+    long end(Phase phase, long start) {
+        final long now = System.nanoTime();
+        _nanos[phase.ordinal()] += now - start;
+        return now;
+    }
+
+    void add(Phase phase, long nanos) {
+        _nanos[phase.ordinal()] += nanos;
+    }
+
+    void setChartId(String chartId) {
+        _chartId = chartId;
+    }
+
+    void setPoints(int points) {
+        _points = points;
+    }
+
+    void setEntities(int entities) {
+        _entities = entities;
+    }
+
+    void setAreas(int areas) {
+        _areas = areas;
+    }
+
+    void setBytes(int bytes) {
+        _bytes = bytes;
+    }
+
+    void setDegradation(Degradation degradation) {
+        _degradation = degradation;
+    }
+
+    /**
+     * Returns the id of the chart, or its uuid if it has none.
+     */
+    public String getChartId() {
+        return _chartId;
+    }
+
+    /**
+     * Returns the type of the chart, with a 3d suffix for the 3D charts, as bar_3d.
+     */
+    public String getType() {
+        return _type;
+    }
+
+    public int getWidth() {
+        return _width;
+    }
+
+    public int getHeight() {
+        return _height;
+    }
+
+    /**
+     * Whether the image came from the render cache.
+     */
+    public boolean isCacheHit() {
+        return _cacheHit;
+    }
+
+    public long getNanos(Phase phase) {
+        return _nanos[phase.ordinal()];
+    }
+
+    /**
+     * Returns the time of all the phases.
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long nanos : _nanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of data items drawn, after downsampling.
+     */
+    public int getPoints() {
+        return _points;
+    }
+
+    /**
+     * Returns the number of entities JFreeChart produced.
+     */
+    public int getEntities() {
+        return _entities;
+    }
+
+    /**
+     * Returns the number of {@link org.zkoss.zul.Area} components created,
+     * not counting the areas kept from the previous draw.
+     */
+    public int getAreas() {
+        return _areas;
+    }
+
+    /**
+     * Returns the size of the encoded image.
+     */
+    public int getBytes() {
+        return _bytes;
+    }
+
+    /**
+     * Returns how the draw was degraded under load.
+     */
+    public Degradation getDegradation() {
+        return _degradation;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder()
+                .append("chart ").append(_chartId)
+                .append(", ").append(_type)
+                .append(' ').append(_width).append('x').append(_height)
+                .append(", ").append(millis(getTotalNanos())).append(" ms");
+        for (Phase phase : Phase.values()) {
+            sb.append(phase == Phase.QUEUE ? " (" : ", ")
+                    .append(phase.name().toLowerCase()).append(' ').append(millis(getNanos(phase)));
+        }
+        return sb.append("), ").append(_points).append(" points, ")
+                .append(_entities).append(" entities, ")
+                .append(_areas).append(" areas, ")
+                .append(_bytes).append(" bytes")
+                .append(_cacheHit ? ", cached" : "")
+                .append(_degradation != Degradation.NONE ? ", " + _degradation.name().toLowerCase() : "").toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.valueOf(TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0);
+    }
+}
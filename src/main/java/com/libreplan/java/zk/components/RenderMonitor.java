@@ -0,0 +1,131 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zkoss.lang.Library;
+
+/**
+ * Gives the metrics of each draw to the {@link RenderListener}s.
+ *
+ * Two listeners are built in, both set up with library properties:
+ * <ul>
+ * <li>{@link #JMX_PROPERTY} set to true registers a {@link RenderStats} MBean, named
+ * {@value #JMX_NAME}, with the percentiles of the draw times of each chart type.</li>
+ * <li>{@link #SLOW_RENDER_PROPERTY} set to a number of milliseconds logs, as a warning,
+ * the draws that take at least as long, with the id, type and size of the chart.</li>
+ * </ul>
+ */
+public final class RenderMonitor {
+
+    public static final String JMX_PROPERTY = "com.libreplan.java.zk.components.JFreeChartEngine.metrics.jmx";
+
+    public static final String SLOW_RENDER_PROPERTY =
+            "com.libreplan.java.zk.components.JFreeChartEngine.metrics.slowRender";
+
+    public static final String JMX_NAME = "com.libreplan.java.zk.components:type=JFreeChartEngine,name=RenderStats";
+
+    private static final Logger log = LoggerFactory.getLogger(RenderMonitor.class);
+
+    private static final List<RenderListener> _listeners = new CopyOnWriteArrayList<>();
+
+    private static volatile boolean _initialized;
+
+    private static volatile RenderStats _stats;
+
+    private RenderMonitor() {
+    }
+
+    public static void addListener(RenderListener listener) {
+        init();
+        _listeners.add(listener);
+    }
+
+    public static void removeListener(RenderListener listener) {
+        _listeners.remove(listener);
+    }
+
+    /**
+     * Returns the statistics kept for the MBean, or null if it is disabled.
+     */
+    public static RenderStats getStats() {
+        init();
+        return _stats;
+    }
+
+    /**
+     * Gives the metrics of a draw to the listeners.
+     */
+    static void report(RenderMetrics metrics) {
+        init();
+        for (RenderListener listener : _listeners) {
+            try {
+                listener.onRender(metrics);
+            } catch (RuntimeException ex) {
+                log.warn("Render listener failed: " + listener, ex);
+            }
+        }
+    }
+
+    private static void init() {
+        if (_initialized) {
+            return;
+        }
+
+        synchronized (RenderMonitor.class) {
+            if (_initialized) {
+                return;
+            }
+
+            for (RenderListener listener : ServiceLoader.load(RenderListener.class)) {
+                _listeners.add(listener);
+            }
+
+            if ("true".equals(Library.getProperty(JMX_PROPERTY))) {
+                final RenderStats stats = new RenderStats();
+                try {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName(JMX_NAME));
+                    _stats = stats;
+                    _listeners.add(stats);
+                } catch (JMException ex) {
+                    // Another application of the JVM registered it first
+                    log.warn("Cannot register the render statistics MBean " + JMX_NAME, ex);
+                }
+            }
+
+            final long slowRender = TimeUnit.MILLISECONDS.toNanos(Library.getIntProperty(SLOW_RENDER_PROPERTY, 0));
+            if (slowRender > 0) {
+                _listeners.add(metrics -> {
+                    if (metrics.getTotalNanos() >= slowRender) {
+                        log.warn("Slow chart render: " + metrics);
+                    }
+                });
+            }
+
+            _initialized = true;
+        }
+    }
+}
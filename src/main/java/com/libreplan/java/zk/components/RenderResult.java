@@ -0,0 +1,56 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Output of one chart render: the encoded image and the hot regions of it.
+ */
+final class RenderResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] _image;
+
+    private final List<AreaInfo> _areas;
+
+    RenderResult(byte[] image, List<AreaInfo> areas) {
+        _image = image;
+        _areas = Collections.unmodifiableList(areas);
+    }
+
+    byte[] getImage() {
+        return _image;
+    }
+
+    List<AreaInfo> getAreas() {
+        return _areas;
+    }
+
+    /**
+     * Rough number of bytes retained by this result.
+     */
+    long estimateSize() {
+        long size = 64 + _image.length;
+        for (AreaInfo area : _areas) {
+            size += area.estimateSize();
+        }
+        return size;
+    }
+}
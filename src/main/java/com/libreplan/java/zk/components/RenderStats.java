@@ -0,0 +1,288 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Statistics of the draws of each chart type, with a histogram of their times.
+ *
+ * The histogram has 8 buckets per power of two of microseconds, so the percentiles
+ * are within 12.5% of the exact ones.
+ */
+public class RenderStats implements RenderListener, RenderStatsMXBean {
+
+    private static final int SUB_BUCKETS = 8;
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * Exact buckets for the first microseconds, then 8 buckets per power of two.
+     */
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+
+    private static final int BUCKETS = LINEAR_BUCKETS + (64 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final Map<String, TypeStats> _types = new ConcurrentHashMap<>();
+
+    @Override
+    public void onRender(RenderMetrics metrics) {
+        _types.computeIfAbsent(metrics.getType(), type -> new TypeStats()).add(metrics);
+    }
+
+    @Override
+    public Map<String, Summary> getStatistics() {
+        final Map<String, Summary> statistics = new TreeMap<>();
+        for (Map.Entry<String, TypeStats> entry : _types.entrySet()) {
+            statistics.put(entry.getKey(), entry.getValue().summarize());
+        }
+        return statistics;
+    }
+
+    @Override
+    public void reset() {
+        _types.clear();
+    }
+
+    static int bucket(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the highest number of microseconds of a bucket.
+     */
+    static long bucketLimit(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        final long sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * The draws of one chart type.
+     */
+    private static final class TypeStats {
+
+        private final long[] _histogram = new long[BUCKETS];
+
+        private final long[] _phaseNanos = new long[RenderMetrics.Phase.values().length];
+
+        private long _count;
+
+        private long _cacheHits;
+
+        private long _degraded;
+
+        private long _totalNanos;
+
+        private long _maxNanos;
+
+        private long _points;
+
+        private long _entities;
+
+        private long _areas;
+
+        private long _bytes;
+
+        synchronized void add(RenderMetrics metrics) {
+            final long nanos = metrics.getTotalNanos();
+            _histogram[bucket(nanos / 1000)]++;
+            for (RenderMetrics.Phase phase : RenderMetrics.Phase.values()) {
+                _phaseNanos[phase.ordinal()] += metrics.getNanos(phase);
+            }
+            _count++;
+            if (metrics.isCacheHit()) {
+                _cacheHits++;
+            }
+            if (metrics.getDegradation() != RenderMetrics.Degradation.NONE) {
+                _degraded++;
+            }
+            _totalNanos += nanos;
+            _maxNanos = Math.max(_maxNanos, nanos);
+            _points += metrics.getPoints();
+            _entities += metrics.getEntities();
+            _areas += metrics.getAreas();
+            _bytes += metrics.getBytes();
+        }
+
+        synchronized Summary summarize() {
+            final double[] phases = new double[_phaseNanos.length];
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = _phaseNanos[i] / 1e6 / _count;
+            }
+            return new Summary(_count, _cacheHits, _degraded, _totalNanos / 1e6 / _count,
+                    percentile(0.5), percentile(0.9), percentile(0.99), _maxNanos / 1e6, phases,
+                    (double) _points / _count, (double) _entities / _count,
+                    (double) _areas / _count, (double) _bytes / _count);
+        }
+
+        private double percentile(double fraction) {
+            final long rank = (long) Math.ceil(fraction * _count);
+            long seen = 0;
+            for (int i = 0; i < _histogram.length; i++) {
+                seen += _histogram[i];
+                if (seen >= rank) {
+                    return Math.min(bucketLimit(i) / 1e3, _maxNanos / 1e6);
+                }
+            }
+            return _maxNanos / 1e6;
+        }
+    }
+
+    /**
+     * Statistics of the draws of one chart type, times in milliseconds.
+     */
+    public static final class Summary {
+
+        private final long _count;
+
+        private final long _cacheHits;
+
+        private final long _degraded;
+
+        private final double _mean;
+
+        private final double _p50;
+
+        private final double _p90;
+
+        private final double _p99;
+
+        private final double _max;
+
+        private final double[] _phases;
+
+        private final double _points;
+
+        private final double _entities;
+
+        private final double _areas;
+
+        private final double _bytes;
+
+        Summary(long count, long cacheHits, long degraded, double mean, double p50, double p90, double p99, double max,
+                double[] phases, double points, double entities, double areas, double bytes) {
+            _count = count;
+            _cacheHits = cacheHits;
+            _degraded = degraded;
+            _mean = mean;
+            _p50 = p50;
+            _p90 = p90;
+            _p99 = p99;
+            _max = max;
+            _phases = phases;
+            _points = points;
+            _entities = entities;
+            _areas = areas;
+            _bytes = bytes;
+        }
+
+        public long getCount() {
+            return _count;
+        }
+
+        public long getCacheHits() {
+            return _cacheHits;
+        }
+
+        /**
+         * Returns the number of draws degraded by the render governor.
+         */
+        public long getDegraded() {
+            return _degraded;
+        }
+
+        public double getMeanMillis() {
+            return _mean;
+        }
+
+        public double getP50Millis() {
+            return _p50;
+        }
+
+        public double getP90Millis() {
+            return _p90;
+        }
+
+        public double getP99Millis() {
+            return _p99;
+        }
+
+        public double getMaxMillis() {
+            return _max;
+        }
+
+        public double getMeanQueueMillis() {
+            return _phases[RenderMetrics.Phase.QUEUE.ordinal()];
+        }
+
+        public double getMeanCacheMillis() {
+            return _phases[RenderMetrics.Phase.CACHE.ordinal()];
+        }
+
+        public double getMeanDatasetMillis() {
+            return _phases[RenderMetrics.Phase.DATASET.ordinal()];
+        }
+
+        public double getMeanCreateMillis() {
+            return _phases[RenderMetrics.Phase.CREATE.ordinal()];
+        }
+
+        public double getMeanRasterizeMillis() {
+            return _phases[RenderMetrics.Phase.RASTERIZE.ordinal()];
+        }
+
+        public double getMeanAreasMillis() {
+            return _phases[RenderMetrics.Phase.AREAS.ordinal()];
+        }
+
+        public double getMeanEncodeMillis() {
+            return _phases[RenderMetrics.Phase.ENCODE.ordinal()];
+        }
+
+        public double getMeanPoints() {
+            return _points;
+        }
+
+        public double getMeanEntities() {
+            return _entities;
+        }
+
+        public double getMeanAreas() {
+            return _areas;
+        }
+
+        public double getMeanBytes() {
+            return _bytes;
+        }
+
+        @Override
+        public String toString() {
+            return _count + " draws, " + _cacheHits + " cached, " + _degraded + " degraded, mean " + _mean + " ms, p50 " + _p50 +
+                    " ms, p90 " + _p90 + " ms, p99 " + _p99 + " ms, max " + _max + " ms";
+        }
+    }
+}
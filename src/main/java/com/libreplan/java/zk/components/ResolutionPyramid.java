@@ -0,0 +1,232 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.Arrays;
+
+/**
+ * Pre-aggregated levels of a series sorted by x, so a window of the series can be read
+ * at the resolution of the chart instead of point by point.
+ *
+ * Level 0 splits the x range of the series in about as many buckets as points;
+ * each further level doubles the bucket width. Each bucket keeps the minimum, the maximum,
+ * the sum and the count of the non null values whose x falls in it.
+ * Reading a window costs the number of buckets shown, at most twice the number of pixels.
+ *
+ * Immutable once built.
+ */
+final class ResolutionPyramid {
+
+    private final double _origin;
+
+    private final double[] _x;
+
+    private final double[] _y;
+
+    private final int _size;
+
+    private final Level[] _levels;
+
+    /**
+     * Builds the pyramid of a series. The arrays are kept, not copied.
+     */
+    ResolutionPyramid(double[] x, double[] y, int size) {
+        _x = x;
+        _y = y;
+        _size = size;
+        _origin = size > 0 ? x[0] : 0;
+
+        final double span = size > 1 ? x[size - 1] - x[0] : 0;
+        if (!(span > 0)) {
+            _levels = new Level[0];
+            return;
+        }
+
+        // The last point is at the start of the extra bucket
+        Level level = new Level(span / size, size + 1);
+        for (int i = 0; i < size; i++) {
+            if (!Double.isNaN(y[i])) {
+                level.add(level.indexOf(x[i] - _origin), y[i]);
+            }
+        }
+
+        Level[] levels = new Level[32];
+        int count = 0;
+        levels[count++] = level;
+        while (level._count.length > 1) {
+            level = level.coarser();
+            if (count == levels.length) {
+                levels = Arrays.copyOf(levels, count * 2);
+            }
+            levels[count++] = level;
+        }
+        _levels = Arrays.copyOf(levels, count);
+    }
+
+    /**
+     * Receives the points of a window.
+     */
+    interface Output {
+
+        /**
+         * A raw point of the series.
+         */
+        void item(int index);
+
+        /**
+         * An aggregated point, in the middle of its bucket.
+         */
+        void bucket(double x, double end, double y);
+    }
+
+    /**
+     * Reads the points between lower and upper for a plot of the given number of pixels, from
+     * the coarsest level that still has one bucket per pixel. When the window has no more
+     * raw points than pixels, or even the finest level is too coarse, the raw points are read,
+     * with one more point at each side so lines reach the edges.
+     *
+     * @param minmax whether each bucket gives its minimum and maximum, instead of its average
+     */
+    void read(double lower, double upper, int pixels, boolean minmax, Output output) {
+        pixels = Math.max(pixels, 1);
+        if (lowerBound(Math.nextUp(upper)) - lowerBound(lower) <= pixels) {
+            readRaw(lower, upper, output);
+            return;
+        }
+
+        final double pixelWidth = (upper - lower) / pixels;
+
+        int l = _levels.length - 1;
+        while (l >= 0 && _levels[l]._width > pixelWidth) {
+            l--;
+        }
+
+        if (l < 0) {
+            readRaw(lower, upper, output);
+            return;
+        }
+
+        final Level level = _levels[l];
+        final int first = Math.max(level.indexOf(lower - _origin), 0);
+        final int last = Math.min(level.indexOf(upper - _origin), level._count.length - 1);
+
+        for (int i = first; i <= last; i++) {
+            final int count = level._count[i];
+            if (count == 0) {
+                continue;
+            }
+
+            final double start = _origin + i * level._width;
+            final double middle = start + level._width / 2;
+            final double end = start + level._width;
+            if (minmax) {
+                output.bucket(middle, end, level._min[i]);
+                if (level._max[i] != level._min[i]) {
+                    output.bucket(middle, end, level._max[i]);
+                }
+            } else {
+                output.bucket(middle, end, level._sum[i] / count);
+            }
+        }
+    }
+
+    private void readRaw(double lower, double upper, Output output) {
+        int from = lowerBound(lower);
+        int to = lowerBound(Math.nextUp(upper));
+        from = Math.max(from - 1, 0);
+        to = Math.min(to + 1, _size);
+
+        for (int i = from; i < to; i++) {
+            output.item(i);
+        }
+    }
+
+    /**
+     * Returns the index of the first point whose x is not less than the key.
+     */
+    private int lowerBound(double key) {
+        int low = 0;
+        int high = _size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (_x[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class Level {
+
+        private final double _width;
+
+        private final double[] _min;
+
+        private final double[] _max;
+
+        private final double[] _sum;
+
+        private final int[] _count;
+
+        Level(double width, int buckets) {
+            _width = width;
+            _min = new double[buckets];
+            _max = new double[buckets];
+            _sum = new double[buckets];
+            _count = new int[buckets];
+        }
+
+        int indexOf(double offset) {
+            return (int) Math.min(Math.floor(offset / _width), Integer.MAX_VALUE - 1);
+        }
+
+        void add(int bucket, double y) {
+            final int index = Math.min(bucket, _count.length - 1);
+            if (_count[index] == 0) {
+                _min[index] = y;
+                _max[index] = y;
+            } else {
+                _min[index] = Math.min(_min[index], y);
+                _max[index] = Math.max(_max[index], y);
+            }
+            _sum[index] += y;
+            _count[index]++;
+        }
+
+        Level coarser() {
+            final Level level = new Level(_width * 2, (_count.length + 1) / 2);
+            for (int i = 0; i < _count.length; i++) {
+                if (_count[i] == 0) {
+                    continue;
+                }
+
+                final int index = i / 2;
+                if (level._count[index] == 0) {
+                    level._min[index] = _min[i];
+                    level._max[index] = _max[i];
+                } else {
+                    level._min[index] = Math.min(level._min[index], _min[i]);
+                    level._max[index] = Math.max(level._max[index], _max[i]);
+                }
+                level._sum[index] += _sum[i];
+                level._count[index] += _count[i];
+            }
+            return level;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.jfree.chart.JFreeChart;
+import org.jfree.data.category.CategoryDataset;
+import org.jfree.data.general.Dataset;
+import org.jfree.data.general.PieDataset;
+import org.jfree.data.xy.XYDataset;
+import org.zkoss.util.Locales;
+import org.zkoss.zul.Chart;
+
+/**
+ * JFreeChart kept between draws of a {@link Chart} in retained mode,
+ * together with the chart properties it was last drawn with.
+ */
+final class RetainedChart {
+
+    private static final String RETAINED_ATTR = "jfreechart-retained";
+
+    private final JFreeChart _jfchart;
+
+    private State _state;
+
+    private final List<Comparable<?>> _keys;
+
+    RetainedChart(JFreeChart jfchart, State state, Dataset dataset) {
+        _jfchart = jfchart;
+        _state = state;
+        _keys = keysOf(dataset);
+    }
+
+    static RetainedChart lookup(Chart chart) {
+        return (RetainedChart) chart.getAttribute(RETAINED_ATTR);
+    }
+
+    static void attach(Chart chart, RetainedChart retained) {
+        chart.setAttribute(RETAINED_ATTR, retained);
+    }
+
+    static void release(Chart chart) {
+        chart.removeAttribute(RETAINED_ATTR);
+    }
+
+    JFreeChart getChart() {
+        return _jfchart;
+    }
+
+    State getState() {
+        return _state;
+    }
+
+    void setState(State state) {
+        _state = state;
+    }
+
+    /**
+     * Whether the dataset has the series, or pie sections, the chart was created with.
+     * The plot assigns a paint to each of them on its first draw, in order, so a chart
+     * drawn with other keys would not have the colors of a new one.
+     */
+    boolean hasKeys(Dataset dataset) {
+        return _keys.equals(keysOf(dataset));
+    }
+
+    private static List<Comparable<?>> keysOf(Dataset dataset) {
+        final List<Comparable<?>> keys = new ArrayList<Comparable<?>>();
+        if (dataset instanceof PieDataset) {
+            for (Object key : ((PieDataset) dataset).getKeys()) {
+                keys.add((Comparable<?>) key);
+            }
+        } else if (dataset instanceof CategoryDataset) {
+            for (Object key : ((CategoryDataset) dataset).getRowKeys()) {
+                keys.add((Comparable<?>) key);
+            }
+        } else if (dataset instanceof XYDataset) {
+            final XYDataset xy = (XYDataset) dataset;
+            for (int series = 0; series < xy.getSeriesCount(); series++) {
+                keys.add(xy.getSeriesKey(series));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Snapshot of the chart properties the engine applies to a JFreeChart,
+     * split in groups that can be updated independently.
+     */
+    static final class State {
+
+        /** Type, threeD, model class, legend, tooltips and orientation: a change rebuilds the chart. */
+        static final int STRUCTURE = 0;
+
+        static final int TITLE = 1;
+
+        static final int AXIS_LABELS = 2;
+
+        static final int COLORS = 3;
+
+        static final int FONTS = 4;
+
+        static final int RANGE_BOUNDS = 5;
+
+        static final int DATE_AXIS = 6;
+
+        static final int DOMAIN_BOUNDS = 7;
+
+        private final Object[][] _groups;
+
+        State(Chart chart) {
+            final TimeZone zone = chart.getTimeZone();
+            final Color[] colorMappings = (Color[]) chart.getAttribute("series-color-mappings");
+
+            _groups = new Object[][] {
+                    {
+                            chart.getType(), chart.isThreeD(),
+                            chart.getModel() != null ? chart.getModel().getClass() : null,
+                            chart.isShowLegend(), chart.isShowTooltiptext(), chart.getOrient()
+                    },
+                    { chart.getTitle(), chart.getTitleFont() },
+                    { chart.getXAxis(), chart.getYAxis() },
+                    {
+                            chart.getFgAlpha(), chart.getBgAlpha(), chart.getPaneAlpha(),
+                            copy(chart.getBgRGB()), copy(chart.getPaneRGB()),
+                            colorMappings != null ? colorMappings.clone() : null
+                    },
+                    {
+                            chart.getLegendFont(), chart.getXAxisFont(), chart.getXAxisTickFont(),
+                            chart.getYAxisFont(), chart.getYAxisTickFont()
+                    },
+                    { chart.getAttribute("range-axis-lower-bound"), chart.getAttribute("range-axis-upper-bound") },
+                    { zone != null ? zone.getID() : null, chart.getDateFormat(), Locales.getCurrent() },
+                    { chart.getAttribute("domain-axis-lower-bound"), chart.getAttribute("domain-axis-upper-bound") }
+            };
+        }
+
+        private static int[] copy(int[] rgb) {
+            return rgb != null ? rgb.clone() : null;
+        }
+
+        boolean isChanged(State old, int group) {
+            return !Arrays.deepEquals(_groups[group], old._groups[group]);
+        }
+
+        /**
+         * Whether a chart drawn with the old state can be updated to this one.
+         * It cannot when the structure changed or when a property was unset,
+         * because the JFreeChart defaults it should go back to are not tracked.
+         */
+        boolean canUpdate(State old) {
+            if (isChanged(old, STRUCTURE)) {
+                return false;
+            }
+
+            for (int group = 0; group < _groups.length; group++) {
+                for (int i = 0; i < _groups[group].length; i++) {
+                    if (_groups[group][i] == null && old._groups[group][i] != null) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
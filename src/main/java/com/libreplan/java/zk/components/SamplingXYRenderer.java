@@ -0,0 +1,366 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.awt.Graphics2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.entity.EntityCollection;
+import org.jfree.chart.plot.CrosshairState;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.PlotRenderingInfo;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.AbstractXYItemRenderer;
+import org.jfree.chart.renderer.xy.XYItemRendererState;
+import org.jfree.data.Range;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.ui.RectangleEdge;
+
+/**
+ * Renderer of lines and areas drawing at most four points per pixel column of each series,
+ * as SamplingXYLineRenderer does: the first, lowest, highest and last point of the column,
+ * in the order they come. The shape drawn covers the same pixels as one with every point,
+ * but its cost no longer grows with the points once there are more than pixels.
+ *
+ * It also gives a series one entity per pixel column, for the last item of the column, spanning
+ * what the column draws, instead of one per item; none if the renderer creates no entities.
+ * A null value breaks a line, and counts as 0 in an area, as in XYAreaRenderer.
+ * A stacked area needs a {@link StackedXYDataset}: each series is drawn above the previous ones.
+ */
+final class SamplingXYRenderer extends AbstractXYItemRenderer {
+
+    private static final long serialVersionUID = 1L;
+
+    enum Shape {
+        LINE, AREA, STACKED_AREA
+    }
+
+    private final Shape _shape;
+
+    SamplingXYRenderer(Shape shape) {
+        _shape = shape;
+    }
+
+    @Override
+    public XYItemRendererState initialise(Graphics2D g2, Rectangle2D dataArea, XYPlot plot, XYDataset dataset,
+            PlotRenderingInfo info) {
+        return new State(info);
+    }
+
+    @Override
+    public Range findRangeBounds(XYDataset dataset) {
+        if (_shape == Shape.STACKED_AREA && dataset instanceof StackedXYDataset) {
+            return ((StackedXYDataset) dataset).getStackedRangeBounds();
+        }
+        return super.findRangeBounds(dataset);
+    }
+
+    @Override
+    public void drawItem(Graphics2D g2, XYItemRendererState state, Rectangle2D dataArea, PlotRenderingInfo info,
+            XYPlot plot, ValueAxis domainAxis, ValueAxis rangeAxis, XYDataset dataset, int series, int item,
+            CrosshairState crosshairState, int pass) {
+        if (!getItemVisible(series, item)) {
+            return;
+        }
+
+        final State s = (State) state;
+        final RectangleEdge rangeEdge = plot.getRangeAxisEdge();
+        final double x = domainAxis.valueToJava2D(dataset.getXValue(series, item), dataArea, plot.getDomainAxisEdge());
+
+        final double y = dataset.getYValue(series, item);
+        final double top;
+        final double base;
+        if (_shape == Shape.STACKED_AREA && dataset instanceof StackedXYDataset) {
+            final StackedXYDataset stacked = (StackedXYDataset) dataset;
+            top = stacked.getStackedYValue(series, item);
+            base = series > 0 ? stacked.getStackedYValue(series - 1, item) : 0;
+        } else {
+            top = _shape != Shape.LINE && Double.isNaN(y) ? 0 : y;
+            base = 0;
+        }
+
+        if (Double.isNaN(x) || Double.isNaN(top)) {
+            s.gap();
+        } else {
+            // An item without value is drawn as 0 in an area, but has no entity
+            s.add(x, rangeAxis.valueToJava2D(top, dataArea, rangeEdge),
+                    _shape != Shape.LINE ? rangeAxis.valueToJava2D(base, dataArea, rangeEdge) : Double.NaN,
+                    Double.isNaN(y) ? -1 : item);
+        }
+
+        if (item == s.getLastItemIndex()) {
+            s.close();
+            draw(g2, s, plot.getOrientation() == PlotOrientation.HORIZONTAL, series, item);
+
+            final EntityCollection entities = s.getEntityCollection();
+            if (entities != null) {
+                addEntities(entities, s, plot.getOrientation() == PlotOrientation.HORIZONTAL, dataset, series);
+            }
+        }
+    }
+
+    private void draw(Graphics2D g2, State s, boolean horizontal, int series, int item) {
+        final GeneralPath path = new GeneralPath();
+        final Edge top = s._top;
+        boolean move = true;
+        for (int i = 0; i < top._size; i += 2) {
+            if (Double.isNaN(top._points[i])) {
+                move = true;
+            } else {
+                point(path, top._points[i], top._points[i + 1], horizontal, move);
+                move = false;
+            }
+        }
+
+        g2.setPaint(getItemPaint(series, item));
+        if (_shape == Shape.LINE) {
+            g2.setStroke(getItemStroke(series, item));
+            g2.draw(path);
+        } else if (top._size > 0) {
+            final Edge base = s._base;
+            for (int i = base._size - 2; i >= 0; i -= 2) {
+                point(path, base._points[i], base._points[i + 1], horizontal, false);
+            }
+            path.closePath();
+            g2.fill(path);
+        }
+    }
+
+    /**
+     * Adds the entity of each column: one pixel wide, spanning what the column draws,
+     * widened by the entity radius for a line.
+     */
+    private void addEntities(EntityCollection entities, State s, boolean horizontal, XYDataset dataset, int series) {
+        final double radius = _shape == Shape.LINE ? getDefaultEntityRadius() : 0;
+        final double[] columns = s._columns;
+        for (int i = 0; i < s._columnCount * 4; i += 4) {
+            if (columns[i + 3] < 0) {
+                continue;
+            }
+            final double x = Math.floor(columns[i]);
+            final double low = columns[i + 1] - radius;
+            final double height = columns[i + 2] - columns[i + 1] + 2 * radius;
+            addEntity(entities, horizontal ? new Rectangle2D.Double(low, x, height, 1) : new Rectangle2D.Double(x, low, 1, height),
+                    dataset, series, (int) columns[i + 3], 0, 0);
+        }
+    }
+
+    private static void point(GeneralPath path, double x, double y, boolean horizontal, boolean move) {
+        final float px = (float) (horizontal ? y : x);
+        final float py = (float) (horizontal ? x : y);
+        if (move) {
+            path.moveTo(px, py);
+        } else {
+            path.lineTo(px, py);
+        }
+    }
+
+    /**
+     * The points kept of one series, and the extent of each of its pixel columns.
+     */
+    private static final class State extends XYItemRendererState {
+
+        private final Edge _top = new Edge();
+
+        private final Edge _base = new Edge();
+
+        /**
+         * The x, lowest y, highest y and last item with a value of each closed column.
+         */
+        private double[] _columns = new double[64];
+
+        private int _columnCount;
+
+        private boolean _open;
+
+        private int _column;
+
+        State(PlotRenderingInfo info) {
+            super(info);
+        }
+
+        @Override
+        public void startSeriesPass(XYDataset dataset, int series, int firstItem, int lastItem, int pass,
+                int passCount) {
+            super.startSeriesPass(dataset, series, firstItem, lastItem, pass, passCount);
+            _top.clear();
+            _base.clear();
+            _columnCount = 0;
+            _open = false;
+        }
+
+        /**
+         * Adds a point, in Java2D coordinates: its top and, for an area, its base.
+         * The item is -1 for a point that must not be the one of the entity of its column.
+         */
+        void add(double x, double top, double base, int item) {
+            final int column = (int) Math.floor(x);
+            if (_open && column != _column) {
+                close();
+            }
+
+            final int at = _columnCount * 4;
+            if (!_open) {
+                _open = true;
+                _column = column;
+                if (at == _columns.length) {
+                    _columns = Arrays.copyOf(_columns, at * 2);
+                }
+                _columns[at] = x;
+                _columns[at + 1] = Double.POSITIVE_INFINITY;
+                _columns[at + 2] = Double.NEGATIVE_INFINITY;
+                _columns[at + 3] = -1;
+            }
+
+            _top.add(x, top);
+            double low = top;
+            double high = top;
+            if (!Double.isNaN(base)) {
+                _base.add(x, base);
+                low = Math.min(low, base);
+                high = Math.max(high, base);
+            }
+            _columns[at + 1] = Math.min(_columns[at + 1], low);
+            _columns[at + 2] = Math.max(_columns[at + 2], high);
+            if (item >= 0) {
+                _columns[at + 3] = item;
+            }
+        }
+
+        /**
+         * Breaks the line at a missing point.
+         */
+        void gap() {
+            close();
+            _top.gap();
+        }
+
+        /**
+         * Closes the column being sampled, if any.
+         */
+        void close() {
+            if (_open) {
+                _top.flush();
+                _base.flush();
+                _columnCount++;
+                _open = false;
+            }
+        }
+    }
+
+    /**
+     * The points of a line, with the pixel column being sampled: its first, lowest,
+     * highest and last point. A break in the line is a NaN point.
+     */
+    private static final class Edge {
+
+        private double[] _points = new double[256];
+
+        private int _size;
+
+        private int _count;
+
+        private double _firstX;
+
+        private double _firstY;
+
+        private double _lowX;
+
+        private double _lowY;
+
+        private int _lowAt;
+
+        private double _highX;
+
+        private double _highY;
+
+        private int _highAt;
+
+        private double _lastX;
+
+        private double _lastY;
+
+        void clear() {
+            _size = 0;
+            _count = 0;
+        }
+
+        void add(double x, double y) {
+            if (_count == 0) {
+                _firstX = x;
+                _firstY = y;
+                _lowY = Double.POSITIVE_INFINITY;
+                _highY = Double.NEGATIVE_INFINITY;
+            }
+            if (y < _lowY) {
+                _lowX = x;
+                _lowY = y;
+                _lowAt = _count;
+            }
+            if (y > _highY) {
+                _highX = x;
+                _highY = y;
+                _highAt = _count;
+            }
+            _lastX = x;
+            _lastY = y;
+            _count++;
+        }
+
+        void gap() {
+            append(Double.NaN, Double.NaN);
+        }
+
+        void flush() {
+            if (_count == 0) {
+                return;
+            }
+
+            append(_firstX, _firstY);
+            if (_lowAt < _highAt) {
+                appendInner(_lowX, _lowY, _lowAt);
+                appendInner(_highX, _highY, _highAt);
+            } else {
+                appendInner(_highX, _highY, _highAt);
+                appendInner(_lowX, _lowY, _lowAt);
+            }
+            if (_count > 1) {
+                append(_lastX, _lastY);
+            }
+            _count = 0;
+        }
+
+        /**
+         * Appends the lowest or highest point, unless it is the first or the last one.
+         */
+        private void appendInner(double x, double y, int at) {
+            if (at > 0 && at < _count - 1) {
+                append(x, y);
+            }
+        }
+
+        private void append(double x, double y) {
+            if (_size + 2 > _points.length) {
+                _points = Arrays.copyOf(_points, _points.length * 2);
+            }
+            _points[_size++] = x;
+            _points[_size++] = y;
+        }
+    }
+}
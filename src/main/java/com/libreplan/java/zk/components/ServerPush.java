@@ -0,0 +1,111 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.Desktop;
+import org.zkoss.zk.ui.Page;
+import org.zkoss.zk.ui.ShadowElement;
+import org.zkoss.zk.ui.util.UiLifeCycle;
+import org.zkoss.zul.Chart;
+
+/**
+ * Server push of a desktop, for the charts drawn again later by {@link AsyncRender} and
+ * {@link FrameThrottle}. It is enabled for the first of them and disabled once none of them
+ * is attached, unless the application had enabled it itself.
+ */
+final class ServerPush implements UiLifeCycle {
+
+    private static final String SERVER_PUSH_ATTR = "jfreechart-server-push";
+
+    private final Desktop _desktop;
+
+    private final Set<Chart> _charts = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private ServerPush(Desktop desktop) {
+        _desktop = desktop;
+    }
+
+    /**
+     * Makes sure the desktop of a chart has server push until the chart is detached.
+     */
+    static void enable(Chart chart) {
+        final Desktop desktop = chart.getDesktop();
+        ServerPush push = (ServerPush) desktop.getAttribute(SERVER_PUSH_ATTR);
+        if (push == null) {
+            if (desktop.isServerPushEnabled()) {
+                return; // Not ours to disable
+            }
+            desktop.enableServerPush(true);
+            push = new ServerPush(desktop);
+            desktop.setAttribute(SERVER_PUSH_ATTR, push);
+            desktop.addListener(push);
+        }
+        push._charts.add(chart);
+    }
+
+    private void detached() {
+        for (Iterator<Chart> it = _charts.iterator(); it.hasNext();) {
+            final Chart chart = it.next();
+            if (chart.getPage() == null) {
+                it.remove();
+                AsyncRender.cancel(chart);
+                FrameThrottle.cancel(chart);
+            }
+        }
+
+        if (_charts.isEmpty()) {
+            _desktop.removeListener(this);
+            _desktop.removeAttribute(SERVER_PUSH_ATTR);
+            _desktop.enableServerPush(false);
+        }
+    }
+
+    @Override
+    public void afterComponentDetached(Component comp, Page prevpage) {
+        detached();
+    }
+
+    @Override
+    public void afterPageDetached(Page page, Desktop prevdesktop) {
+        detached();
+    }
+
+    @Override
+    public void afterComponentAttached(Component comp, Page page) {
+    }
+
+    @Override
+    public void afterComponentMoved(Component parent, Component child, Component prevparent) {
+    }
+
+    @Override
+    public void afterPageAttached(Page page, Desktop desktop) {
+    }
+
+    @Override
+    public void afterShadowAttached(ShadowElement shadow, Component host) {
+    }
+
+    @Override
+    public void afterShadowDetached(ShadowElement shadow, Component prevhost) {
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jfree.data.DomainOrder;
+import org.jfree.data.Range;
+import org.jfree.data.xy.AbstractXYDataset;
+import org.jfree.data.xy.TableXYDataset;
+import org.jfree.data.xy.XYDataset;
+
+/**
+ * TableXYDataset of the series of a XYDataset on the union of their x values, as
+ * DefaultTableXYDataset lays them out for a stacked area: a series has no value (null) at the
+ * x values it does not have, and keeps the last of the values it has at the same x.
+ * The stacked values, where a missing value counts as 0, are computed once with the table.
+ */
+final class StackedXYDataset extends AbstractXYDataset implements TableXYDataset {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Comparable<?>> _keys = new ArrayList<>();
+
+    private final double[] _x;
+
+    /**
+     * The values of each series at each x, NaN where it has none.
+     */
+    private final double[][] _y;
+
+    /**
+     * The sum of the values of the series up to each one, at each x.
+     */
+    private final double[][] _stacked;
+
+    /**
+     * Whether the x values are returned as Longs, as the model gave them.
+     */
+    private boolean _integralX = true;
+
+    private StackedXYDataset(double[] x, int series) {
+        _x = x;
+        _y = new double[series][];
+        _stacked = new double[series][];
+    }
+
+    /**
+     * Lays out the series of a dataset on the union of their x values.
+     */
+    static StackedXYDataset of(XYDataset dataset) {
+        final int seriesCount = dataset.getSeriesCount();
+        int total = 0;
+        for (int s = 0; s < seriesCount; s++) {
+            total += dataset.getItemCount(s);
+        }
+
+        // The series sorted by x are runs that the sort merges
+        double[] x = new double[total];
+        int size = 0;
+        for (int s = 0; s < seriesCount; s++) {
+            for (int i = 0; i < dataset.getItemCount(s); i++) {
+                final double value = dataset.getXValue(s, i);
+                if (!Double.isNaN(value)) {
+                    x[size++] = value;
+                }
+            }
+        }
+        Arrays.sort(x, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || x[i] != x[distinct - 1]) {
+                x[distinct++] = x[i];
+            }
+        }
+        x = Arrays.copyOf(x, distinct);
+
+        final StackedXYDataset result = new StackedXYDataset(x, seriesCount);
+        final boolean sorted = dataset.getDomainOrder() == DomainOrder.ASCENDING;
+        for (int s = 0; s < seriesCount; s++) {
+            result._keys.add(dataset.getSeriesKey(s));
+            if (dataset.getItemCount(s) > 0 && !XYModelDataset.isIntegral(dataset.getX(s, 0))) {
+                result._integralX = false;
+            }
+
+            final double[] y = new double[distinct];
+            Arrays.fill(y, Double.NaN);
+            int at = 0;
+            for (int i = 0; i < dataset.getItemCount(s); i++) {
+                final double value = dataset.getXValue(s, i);
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                if (sorted) {
+                    while (x[at] < value) {
+                        at++;
+                    }
+                } else {
+                    at = Arrays.binarySearch(x, value);
+                }
+                y[at] = dataset.getYValue(s, i);
+            }
+            result._y[s] = y;
+
+            final double[] stacked = new double[distinct];
+            for (int i = 0; i < distinct; i++) {
+                stacked[i] = (s > 0 ? result._stacked[s - 1][i] : 0) + (Double.isNaN(y[i]) ? 0 : y[i]);
+            }
+            result._stacked[s] = stacked;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sum of the values of the series up to the given one, at an item.
+     */
+    double getStackedYValue(int series, int item) {
+        return _stacked[series][item];
+    }
+
+    /**
+     * Returns the range of the stacked values and 0, or null if there is no value.
+     */
+    Range getStackedRangeBounds() {
+        if (_x.length == 0 || _stacked.length == 0) {
+            return null;
+        }
+
+        double lower = 0;
+        double upper = 0;
+        for (double[] stacked : _stacked) {
+            for (double value : stacked) {
+                lower = Math.min(lower, value);
+                upper = Math.max(upper, value);
+            }
+        }
+        return new Range(lower, upper);
+    }
+
+    @Override
+    public int getItemCount() {
+        return _x.length;
+    }
+
+    @Override
+    public int getSeriesCount() {
+        return _keys.size();
+    }
+
+    @Override
+    public Comparable<?> getSeriesKey(int series) {
+        return _keys.get(series);
+    }
+
+    @Override
+    public int getItemCount(int series) {
+        return _x.length;
+    }
+
+    @Override
+    public DomainOrder getDomainOrder() {
+        return DomainOrder.ASCENDING;
+    }
+
+    @Override
+    public Number getX(int series, int item) {
+        return _integralX ? (Number) (long) _x[item] : (Number) _x[item];
+    }
+
+    @Override
+    public double getXValue(int series, int item) {
+        return _x[item];
+    }
+
+    @Override
+    public Number getY(int series, int item) {
+        final double y = _y[series][item];
+        return Double.isNaN(y) ? null : (Number) y;
+    }
+
+    @Override
+    public double getYValue(int series, int item) {
+        return _y[series][item];
+    }
+}
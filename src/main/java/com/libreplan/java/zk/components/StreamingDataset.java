@@ -0,0 +1,142 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.List;
+
+import org.jfree.data.DomainInfo;
+import org.jfree.data.DomainOrder;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.AbstractXYDataset;
+
+/**
+ * XYDataset reading the ring buffers of a {@link StreamingXYModel} in place.
+ * The points are sorted by time, x being the time in milliseconds as in a TimeSeriesCollection
+ * of milliseconds. A NaN value is returned as null.
+ */
+final class StreamingDataset extends AbstractXYDataset implements DomainInfo, RangeInfo {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Comparable<?>> _keys;
+
+    private final List<StreamingXYModel.Buffer> _buffers;
+
+    StreamingDataset(List<Comparable<?>> keys, List<StreamingXYModel.Buffer> buffers) {
+        _keys = keys;
+        _buffers = buffers;
+    }
+
+    @Override
+    public int getSeriesCount() {
+        return _buffers.size();
+    }
+
+    @Override
+    public Comparable<?> getSeriesKey(int series) {
+        return _keys.get(series);
+    }
+
+    @Override
+    public int getItemCount(int series) {
+        return _buffers.get(series).size();
+    }
+
+    @Override
+    public DomainOrder getDomainOrder() {
+        return DomainOrder.ASCENDING;
+    }
+
+    @Override
+    public Number getX(int series, int item) {
+        return _buffers.get(series).getX(item);
+    }
+
+    @Override
+    public double getXValue(int series, int item) {
+        return _buffers.get(series).getX(item);
+    }
+
+    @Override
+    public Number getY(int series, int item) {
+        final double y = _buffers.get(series).getY(item);
+        return Double.isNaN(y) ? null : (Number) y;
+    }
+
+    @Override
+    public double getYValue(int series, int item) {
+        return _buffers.get(series).getY(item);
+    }
+
+    @Override
+    public double getDomainLowerBound(boolean includeInterval) {
+        final Range range = getDomainBounds(includeInterval);
+        return range != null ? range.getLowerBound() : Double.NaN;
+    }
+
+    @Override
+    public double getDomainUpperBound(boolean includeInterval) {
+        final Range range = getDomainBounds(includeInterval);
+        return range != null ? range.getUpperBound() : Double.NaN;
+    }
+
+    /**
+     * The first and last times of the series, the points being sorted.
+     */
+    @Override
+    public Range getDomainBounds(boolean includeInterval) {
+        double lower = Double.POSITIVE_INFINITY;
+        double upper = Double.NEGATIVE_INFINITY;
+
+        for (StreamingXYModel.Buffer buffer : _buffers) {
+            if (buffer.size() > 0) {
+                lower = Math.min(lower, buffer.getX(0));
+                upper = Math.max(upper, buffer.getX(buffer.size() - 1));
+            }
+        }
+        return lower <= upper ? new Range(lower, upper) : null;
+    }
+
+    @Override
+    public double getRangeLowerBound(boolean includeInterval) {
+        final Range range = getRangeBounds(includeInterval);
+        return range != null ? range.getLowerBound() : Double.NaN;
+    }
+
+    @Override
+    public double getRangeUpperBound(boolean includeInterval) {
+        final Range range = getRangeBounds(includeInterval);
+        return range != null ? range.getUpperBound() : Double.NaN;
+    }
+
+    @Override
+    public Range getRangeBounds(boolean includeInterval) {
+        double lower = Double.POSITIVE_INFINITY;
+        double upper = Double.NEGATIVE_INFINITY;
+
+        for (StreamingXYModel.Buffer buffer : _buffers) {
+            for (int i = 0; i < buffer.size(); i++) {
+                final double y = buffer.getY(i);
+                if (!Double.isNaN(y)) {
+                    lower = Math.min(lower, y);
+                    upper = Math.max(upper, y);
+                }
+            }
+        }
+        return lower <= upper ? new Range(lower, upper) : null;
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.zkoss.zul.AbstractChartModel;
+import org.zkoss.zul.XYModel;
+import org.zkoss.zul.event.ChartDataEvent;
+
+/**
+ * XYModel of a live time series, keeping only the latest points of each series.
+ *
+ * Each series is a ring buffer of primitive times and values: a point is appended in constant
+ * time, and the oldest points are dropped when the buffer is full or when they are older than
+ * the max age, measured from the latest time appended to the model. A time series chart draws
+ * the buffers as they are, without copying them into a dataset, see {@link StreamingDataset}.
+ *
+ * The times of a series must not decrease. The model is changed in the event thread,
+ * as the other chart models; its methods are synchronized for the renders that run
+ * off the event thread, which draw a copy of the buffers.
+ */
+public class StreamingXYModel extends AbstractChartModel implements XYModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int _capacity;
+
+    private long _maxAge;
+
+    private final List<Comparable<?>> _keys = new ArrayList<>();
+
+    private final Map<Comparable<?>, Buffer> _buffers = new HashMap<>();
+
+    private long _latest = Long.MIN_VALUE;
+
+    /**
+     * @param capacity the number of points kept by series
+     */
+    public StreamingXYModel(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * @param capacity the number of points kept by series
+     * @param maxAge the age in milliseconds after which a point is dropped, 0 for none
+     */
+    public StreamingXYModel(int capacity, long maxAge) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        _capacity = capacity;
+        setMaxAge(maxAge);
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    public synchronized long getMaxAge() {
+        return _maxAge;
+    }
+
+    /**
+     * Sets the age in milliseconds after which a point is dropped, 0 for none.
+     * The points already too old are dropped by the next append.
+     */
+    public synchronized void setMaxAge(long maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Max age must not be negative: " + maxAge);
+        }
+        _maxAge = maxAge;
+    }
+
+    /**
+     * Appends a point at the end of a series, created if needed.
+     *
+     * @param x the time of the point in milliseconds, not before the last one of the series
+     * @param y the value, or null for a gap
+     */
+    public void append(Comparable<?> series, long x, Number y) {
+        final int index;
+        final List<Comparable<?>> evicted;
+        synchronized (this) {
+            Buffer buffer = _buffers.get(series);
+            if (buffer == null) {
+                buffer = new Buffer(_capacity);
+                _buffers.put(series, buffer);
+                _keys.add(series);
+            } else if (buffer._size > 0 && x < buffer.getX(buffer._size - 1)) {
+                throw new IllegalArgumentException("Point of " + series + " before the last one: " + x);
+            }
+
+            _latest = Math.max(_latest, x);
+            evicted = evict(buffer.append(x, y != null ? y.doubleValue() : Double.NaN) ? series : null);
+            index = buffer._size - 1;
+        }
+
+        for (Comparable<?> s : evicted) {
+            fireEvent(ChartDataEvent.REMOVED, s, null, indexOf(s), -1, null);
+        }
+        fireEvent(ChartDataEvent.ADDED, series, null, indexOf(series), index, null);
+    }
+
+    /**
+     * Drops the points older than the max age, and returns the series that lost points.
+     *
+     * @param full the series whose oldest point was overwritten by an append, or null
+     */
+    private List<Comparable<?>> evict(Comparable<?> full) {
+        final List<Comparable<?>> evicted = new ArrayList<>(0);
+        if (full != null) {
+            evicted.add(full);
+        }
+        if (_maxAge <= 0) {
+            return evicted;
+        }
+
+        final long oldest = _latest - _maxAge;
+        for (Comparable<?> series : _keys) {
+            final Buffer buffer = _buffers.get(series);
+            if (buffer._size > 0 && buffer.getX(0) < oldest) {
+                do {
+                    buffer.removeFirst();
+                } while (buffer._size > 0 && buffer.getX(0) < oldest);
+
+                if (!evicted.contains(series)) {
+                    evicted.add(series);
+                }
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns a copy of the buffers, for a render off the event thread.
+     */
+    synchronized StreamingDataset snapshot() {
+        final List<Buffer> buffers = new ArrayList<>(_keys.size());
+        for (Comparable<?> series : _keys) {
+            buffers.add(_buffers.get(series).copy());
+        }
+        return new StreamingDataset(new ArrayList<>(_keys), buffers);
+    }
+
+    /**
+     * Returns a view of the buffers, read in place by a render in the event thread.
+     */
+    synchronized StreamingDataset view() {
+        final List<Buffer> buffers = new ArrayList<>(_keys.size());
+        for (Comparable<?> series : _keys) {
+            buffers.add(_buffers.get(series));
+        }
+        return new StreamingDataset(new ArrayList<>(_keys), buffers);
+    }
+
+    private synchronized int indexOf(Comparable<?> series) {
+        return _keys.indexOf(series);
+    }
+
+    private synchronized Buffer getBuffer(Comparable<?> series) {
+        final Buffer buffer = _buffers.get(series);
+        if (buffer == null) {
+            throw new IllegalArgumentException("Unknown series: " + series);
+        }
+        return buffer;
+    }
+
+    @Override
+    public synchronized Comparable<?> getSeries(int index) {
+        return _keys.get(index);
+    }
+
+    @Override
+    public synchronized Collection<Comparable<?>> getSeries() {
+        return new ArrayList<>(_keys);
+    }
+
+    @Override
+    public synchronized int getDataCount(Comparable<?> series) {
+        final Buffer buffer = _buffers.get(series);
+        return buffer != null ? buffer._size : 0;
+    }
+
+    @Override
+    public synchronized Number getX(Comparable<?> series, int index) {
+        return getBuffer(series).getX(index);
+    }
+
+    @Override
+    public synchronized Number getY(Comparable<?> series, int index) {
+        final double y = getBuffer(series).getY(index);
+        return Double.isNaN(y) ? null : (Number) y;
+    }
+
+    /**
+     * Replaces a point, which must stay between its neighbours.
+     */
+    @Override
+    public void setValue(Comparable<?> series, Number x, Number y, int index) {
+        synchronized (this) {
+            getBuffer(series).set(index, x.longValue(), y != null ? y.doubleValue() : Double.NaN);
+        }
+        fireEvent(ChartDataEvent.CHANGED, series, null, indexOf(series), index, null);
+    }
+
+    /**
+     * Same as {@link #append(Comparable, long, Number)}.
+     */
+    @Override
+    public void addValue(Comparable<?> series, Number x, Number y) {
+        append(series, x.longValue(), y);
+    }
+
+    /**
+     * Same as {@link #append(Comparable, long, Number)}: a point can only be added at the end.
+     */
+    @Override
+    public void addValue(Comparable<?> series, Number x, Number y, int index) {
+        if (index != getDataCount(series)) {
+            throw new UnsupportedOperationException("Points can only be appended");
+        }
+        append(series, x.longValue(), y);
+    }
+
+    /**
+     * The points are always sorted by time.
+     */
+    @Override
+    public void setAutoSort(boolean autoSort) {
+        if (!autoSort) {
+            throw new UnsupportedOperationException("The points are always sorted");
+        }
+    }
+
+    @Override
+    public boolean isAutoSort() {
+        return true;
+    }
+
+    @Override
+    public void removeSeries(Comparable<?> series) {
+        final int index;
+        synchronized (this) {
+            index = _keys.indexOf(series);
+            if (index < 0) {
+                return;
+            }
+            _keys.remove(index);
+            _buffers.remove(series);
+        }
+        fireEvent(ChartDataEvent.REMOVED, series, null, index, -1, null);
+    }
+
+    /**
+     * Removes a point, in constant time for the first one.
+     */
+    @Override
+    public void removeValue(Comparable<?> series, int index) {
+        synchronized (this) {
+            getBuffer(series).remove(index);
+        }
+        fireEvent(ChartDataEvent.REMOVED, series, null, indexOf(series), index, null);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            _keys.clear();
+            _buffers.clear();
+            _latest = Long.MIN_VALUE;
+        }
+        fireEvent(ChartDataEvent.REMOVED, null, null, -1, -1, null);
+    }
+
+    /**
+     * The points of one series: a ring buffer of times and values, the oldest at the head.
+     * A null value is stored as NaN.
+     */
+    static final class Buffer implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long[] _x;
+
+        private final double[] _y;
+
+        private int _head;
+
+        private int _size;
+
+        Buffer(int capacity) {
+            _x = new long[capacity];
+            _y = new double[capacity];
+        }
+
+        int size() {
+            return _size;
+        }
+
+        long getX(int index) {
+            return _x[slot(index)];
+        }
+
+        double getY(int index) {
+            return _y[slot(index)];
+        }
+
+        private int slot(int index) {
+            if (index < 0 || index >= _size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + _size);
+            }
+            final int slot = _head + index;
+            return slot < _x.length ? slot : slot - _x.length;
+        }
+
+        /**
+         * Appends a point, overwriting the oldest one when full.
+         *
+         * @return whether a point was overwritten
+         */
+        boolean append(long x, double y) {
+            final boolean full = _size == _x.length;
+            int slot = _head + _size;
+            if (slot >= _x.length) {
+                slot -= _x.length;
+            }
+            _x[slot] = x;
+            _y[slot] = y;
+
+            if (full) {
+                _head = _head + 1 < _x.length ? _head + 1 : 0;
+            } else {
+                _size++;
+            }
+            return full;
+        }
+
+        void removeFirst() {
+            _head = _head + 1 < _x.length ? _head + 1 : 0;
+            _size--;
+        }
+
+        void set(int index, long x, double y) {
+            if ((index > 0 && x < getX(index - 1)) || (index + 1 < _size && x > getX(index + 1))) {
+                throw new IllegalArgumentException("Point out of time order: " + x);
+            }
+            final int slot = slot(index);
+            _x[slot] = x;
+            _y[slot] = y;
+        }
+
+        void remove(int index) {
+            slot(index); // Checks the index
+            for (int i = index; i > 0; i--) {
+                final int to = slot(i);
+                final int from = slot(i - 1);
+                _x[to] = _x[from];
+                _y[to] = _y[from];
+            }
+            removeFirst();
+        }
+
+        Buffer copy() {
+            final Buffer copy = new Buffer(Math.max(_size, 1));
+            for (int i = 0; i < _size; i++) {
+                copy._x[i] = getX(i);
+                copy._y[i] = getY(i);
+            }
+            copy._size = _size;
+            return copy;
+        }
+    }
+}
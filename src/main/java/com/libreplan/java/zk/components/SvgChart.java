@@ -0,0 +1,173 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.zkoss.json.JSONValue;
+import org.zkoss.zk.au.out.AuInvoke;
+import org.zkoss.zk.ui.Executions;
+import org.zkoss.zk.ui.util.Clients;
+import org.zkoss.zul.Chart;
+
+/**
+ * Chart drawn as SVG, shown inline in the page in place of its image.
+ *
+ * The image of the chart is a transparent placeholder, and the SVG is sent to the client as
+ * a widget override, as {@link ClientAreaMap} sends its image map. The hot regions are
+ * transparent elements at the end of the SVG, with the index of the region in a data-jfc
+ * attribute and the tooltip as title. A click on a region is sent as the usual onClick event
+ * of the chart, with the id the area component would have had, and resolved as a click
+ * on a client image map.
+ */
+final class SvgChart {
+
+    private static final String DATA_OVERRIDE = "_jfcSvg";
+
+    private static final String BUILD_OVERRIDE = "jfcSvg";
+
+    private static final String BUILD_SCRIPT =
+            "function () {\n" +
+            "  var d = this._jfcSvg, n = this.$n(), img = this.getImageNode(), box = this.$n('svg');\n" +
+            "  if (box) jq(box).remove();\n" +
+            "  if (!n || !img) return;\n" +
+            "  img.style.display = d ? 'none' : '';\n" +
+            "  if (!d) return;\n" +
+            "  var at = img;\n" +
+            "  while (at.parentNode && at.parentNode != n) at = at.parentNode;\n" +
+            "  box = document.createElement('span');\n" +
+            "  box.id = this.uuid + '-svg';\n" +
+            "  box.style.display = 'inline-block';\n" +
+            "  box.innerHTML = d.m;\n" +
+            "  n.insertBefore(box, at.nextSibling);\n" +
+            "  var wgt = this;\n" +
+            "  jq(box).on('click', '[data-jfc]', function (evt) {\n" +
+            "    wgt.fire('onClick', {area: wgt._jfcSvg.p + this.getAttribute('data-jfc')}, {ctl: true});\n" +
+            "    evt.preventDefault();\n" +
+            "    evt.stopPropagation();\n" +
+            "  });\n" +
+            "}";
+
+    private SvgChart() {
+    }
+
+    /**
+     * Shows the SVG of the last draw of the chart, with its regions.
+     *
+     * @param svg the SVG drawn by {@link SvgGraphics2D}, without the regions
+     * @param idPrefix the prefix of the area ids, followed by the index of the region
+     */
+    static void publish(Chart chart, byte[] svg, String idPrefix, List<AreaInfo> areas) {
+        ClientAreaMap.keep(chart, idPrefix, areas);
+
+        if (chart.getWidgetOverride(BUILD_OVERRIDE) == null) {
+            chart.setWidgetOverride(BUILD_OVERRIDE, BUILD_SCRIPT);
+            chart.setWidgetListener("onBind", ClientAreaMap.BIND_LISTENER);
+        }
+        chart.setWidgetOverride(DATA_OVERRIDE, "{p:" + JSONValue.toJSONString(idPrefix) +
+                ",m:" + JSONValue.toJSONString(withRegions(svg, areas)) + "}");
+        invokeBuild(chart);
+    }
+
+    /**
+     * Shows the image of the chart again, if it was replaced by an SVG.
+     */
+    static void release(Chart chart) {
+        if (chart.getWidgetOverride(BUILD_OVERRIDE) != null && chart.getWidgetOverride(DATA_OVERRIDE) != null) {
+            chart.setWidgetOverride(DATA_OVERRIDE, "null"); // A null override cannot be sent
+            invokeBuild(chart);
+        }
+    }
+
+    private static void invokeBuild(Chart chart) {
+        if (Executions.getCurrent() != null && chart.getDesktop() != null) {
+            Clients.response(new AuInvoke(chart, BUILD_OVERRIDE));
+        }
+    }
+
+    /**
+     * Appends the regions to the SVG, so they are above what is drawn.
+     */
+    private static String withRegions(byte[] svg, List<AreaInfo> areas) {
+        final String drawing = new String(svg, StandardCharsets.UTF_8);
+        if (areas.isEmpty()) {
+            return drawing;
+        }
+
+        final StringBuilder b = new StringBuilder(drawing.length() + areas.size() * 64);
+        b.append(drawing, 0, drawing.lastIndexOf("</svg>"));
+        b.append("<g fill=\"#000\" fill-opacity=\"0\">");
+        for (int i = 0; i < areas.size(); i++) {
+            final AreaInfo area = areas.get(i);
+            final String[] coords = area.getCoords() != null ? area.getCoords().split(",") : new String[0];
+            final String element;
+
+            if ("rect".equals(area.getShape()) && coords.length == 4) {
+                final double x1 = toDouble(coords[0]);
+                final double y1 = toDouble(coords[1]);
+                final double x2 = toDouble(coords[2]);
+                final double y2 = toDouble(coords[3]);
+                element = "rect";
+                b.append("<rect x=\"");
+                SvgGraphics2D.number(b, Math.min(x1, x2));
+                b.append("\" y=\"");
+                SvgGraphics2D.number(b, Math.min(y1, y2));
+                b.append("\" width=\"");
+                SvgGraphics2D.number(b, Math.abs(x2 - x1));
+                b.append("\" height=\"");
+                SvgGraphics2D.number(b, Math.abs(y2 - y1));
+            } else if ("circle".equals(area.getShape()) && coords.length == 3) {
+                element = "circle";
+                b.append("<circle cx=\"");
+                SvgGraphics2D.number(b, toDouble(coords[0]));
+                b.append("\" cy=\"");
+                SvgGraphics2D.number(b, toDouble(coords[1]));
+                b.append("\" r=\"");
+                SvgGraphics2D.number(b, toDouble(coords[2]));
+            } else {
+                element = "polygon";
+                b.append("<polygon points=\"");
+                for (int k = 0; k + 1 < coords.length; k += 2) {
+                    if (k > 0) {
+                        b.append(' ');
+                    }
+                    SvgGraphics2D.number(b, toDouble(coords[k]));
+                    b.append(',');
+                    SvgGraphics2D.number(b, toDouble(coords[k + 1]));
+                }
+            }
+            b.append("\" data-jfc=\"").append(i).append('"');
+
+            if (area.getTooltiptext() != null) {
+                b.append("><title>");
+                SvgGraphics2D.escape(b, area.getTooltiptext());
+                b.append("</title></").append(element).append('>');
+            } else {
+                b.append("/>");
+            }
+        }
+        return b.append("</g></svg>").toString();
+    }
+
+    private static double toDouble(String coord) {
+        try {
+            return Double.parseDouble(coord.trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+}
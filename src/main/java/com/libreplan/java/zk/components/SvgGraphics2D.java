@@ -0,0 +1,1155 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.GradientPaint;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.LinearGradientPaint;
+import java.awt.MultipleGradientPaint;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.RadialGradientPaint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.nio.charset.StandardCharsets;
+import java.text.AttributedCharacterIterator;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Graphics that writes what is drawn on it as an SVG document, for the charts drawn as vectors.
+ *
+ * It covers what JFreeChart draws: shapes, colours and gradients, basic strokes, text,
+ * images, clips and transforms. Text is written as SVG text, laid out with the Java font
+ * metrics, so the browser fonts may make it slightly wider or narrower.
+ * A graphics and those created from it write into the same document; it is not thread safe.
+ */
+final class SvgGraphics2D extends Graphics2D {
+
+    private final Document _doc;
+
+    private AffineTransform _transform;
+
+    /**
+     * The clip in device space, null for none.
+     */
+    private Shape _clip;
+
+    /**
+     * The id of the clip path of _clip, computed on the first element drawn with it.
+     */
+    private String _clipId;
+
+    private Paint _paint;
+
+    private Color _color;
+
+    private Stroke _stroke;
+
+    private Font _font;
+
+    private Composite _composite;
+
+    private Color _background;
+
+    private RenderingHints _hints;
+
+    SvgGraphics2D(int width, int height) {
+        _doc = new Document(width, height);
+        _transform = new AffineTransform();
+        _paint = _color = Color.BLACK;
+        _stroke = new BasicStroke();
+        _font = new Font(Font.DIALOG, Font.PLAIN, 12);
+        _composite = AlphaComposite.SrcOver;
+        _background = Color.BLACK;
+        _hints = new RenderingHints(null);
+    }
+
+    private SvgGraphics2D(SvgGraphics2D parent) {
+        _doc = parent._doc;
+        _transform = new AffineTransform(parent._transform);
+        _clip = parent._clip;
+        _clipId = parent._clipId;
+        _paint = parent._paint;
+        _color = parent._color;
+        _stroke = parent._stroke;
+        _font = parent._font;
+        _composite = parent._composite;
+        _background = parent._background;
+        _hints = (RenderingHints) parent._hints.clone();
+    }
+
+    /**
+     * Returns the document drawn so far, as UTF-8.
+     */
+    byte[] toSvg() {
+        return _doc.finish().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Graphics create() {
+        return new SvgGraphics2D(this);
+    }
+
+    @Override
+    public void dispose() {
+        // Nothing to release, the document belongs to the first graphics
+    }
+
+    // Drawing
+
+    @Override
+    public void draw(Shape s) {
+        if (!(_stroke instanceof BasicStroke)) {
+            fill(_stroke.createStrokedShape(s));
+            return;
+        }
+
+        final StringBuilder b = begin();
+        if (b == null || !appendShape(b, s)) {
+            return;
+        }
+        b.append(" fill=\"none\"");
+        if (!appendPaint(b, "stroke")) {
+            _doc.discard();
+            return;
+        }
+
+        final BasicStroke stroke = (BasicStroke) _stroke;
+        if (stroke.getLineWidth() != 1) {
+            b.append(" stroke-width=\"");
+            number(b, stroke.getLineWidth() > 0 ? stroke.getLineWidth() : 1); // 0 is the thinnest line in Java2D
+            b.append('"');
+        }
+        if (stroke.getEndCap() == BasicStroke.CAP_ROUND) {
+            b.append(" stroke-linecap=\"round\"");
+        } else if (stroke.getEndCap() == BasicStroke.CAP_SQUARE) {
+            b.append(" stroke-linecap=\"square\"");
+        }
+        if (stroke.getLineJoin() == BasicStroke.JOIN_ROUND) {
+            b.append(" stroke-linejoin=\"round\"");
+        } else if (stroke.getLineJoin() == BasicStroke.JOIN_BEVEL) {
+            b.append(" stroke-linejoin=\"bevel\"");
+        } else if (stroke.getMiterLimit() != 4) {
+            b.append(" stroke-miterlimit=\"");
+            number(b, stroke.getMiterLimit());
+            b.append('"');
+        }
+        if (stroke.getDashArray() != null && stroke.getDashArray().length > 0) {
+            b.append(" stroke-dasharray=\"");
+            for (int i = 0; i < stroke.getDashArray().length; i++) {
+                if (i > 0) {
+                    b.append(',');
+                }
+                number(b, stroke.getDashArray()[i]);
+            }
+            b.append('"');
+            if (stroke.getDashPhase() != 0) {
+                b.append(" stroke-dashoffset=\"");
+                number(b, stroke.getDashPhase());
+                b.append('"');
+            }
+        }
+        end(b);
+    }
+
+    @Override
+    public void fill(Shape s) {
+        if (s instanceof Line2D) {
+            return; // No inside
+        }
+
+        final StringBuilder b = begin();
+        if (b == null || !appendShape(b, s)) {
+            return;
+        }
+        if (!appendPaint(b, "fill")) {
+            _doc.discard();
+            return;
+        }
+        end(b);
+    }
+
+    @Override
+    public void drawString(String str, float x, float y) {
+        if (str == null || str.isEmpty()) {
+            return;
+        }
+        if (_font.isTransformed()) {
+            fill(_font.createGlyphVector(getFontRenderContext(), str).getOutline(x, y));
+            return;
+        }
+
+        final StringBuilder b = begin();
+        if (b == null) {
+            return;
+        }
+        b.append("<text x=\"");
+        number(b, x);
+        b.append("\" y=\"");
+        number(b, y);
+        b.append("\" font-family=\"");
+        appendFontFamily(b, _font.getFamily());
+        b.append("\" font-size=\"");
+        number(b, _font.getSize2D());
+        b.append('"');
+        if (_font.isBold()) {
+            b.append(" font-weight=\"bold\"");
+        }
+        if (_font.isItalic()) {
+            b.append(" font-style=\"italic\"");
+        }
+        if (str.startsWith(" ") || str.endsWith(" ") || str.contains("  ")) {
+            b.append(" xml:space=\"preserve\"");
+        }
+        if (!appendPaint(b, "fill")) {
+            _doc.discard();
+            return;
+        }
+        appendTransform(b, _transform);
+        b.append('>');
+        escape(b, str);
+        b.append("</text>");
+    }
+
+    @Override
+    public void drawString(String str, int x, int y) {
+        drawString(str, (float) x, (float) y);
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        final StringBuilder text = new StringBuilder();
+        for (char c = iterator.first(); c != AttributedCharacterIterator.DONE; c = iterator.next()) {
+            text.append(c);
+        }
+        drawString(text.toString(), x, y);
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        drawString(iterator, (float) x, (float) y);
+    }
+
+    @Override
+    public void drawGlyphVector(GlyphVector g, float x, float y) {
+        fill(g.getOutline(x, y));
+    }
+
+    @Override
+    public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+        final BufferedImage image = toBufferedImage(img);
+        if (image == null) {
+            return true;
+        }
+
+        final StringBuilder b = begin();
+        if (b == null) {
+            return true;
+        }
+        final AffineTransform transform = new AffineTransform(_transform);
+        if (xform != null) {
+            transform.concatenate(xform);
+        }
+
+        b.append("<image width=\"").append(image.getWidth())
+                .append("\" height=\"").append(image.getHeight())
+                .append("\" preserveAspectRatio=\"none\" xlink:href=\"data:image/png;base64,")
+                .append(Base64.getEncoder().encodeToString(
+                        PngEncoder.encode(image, PngEncoder.toLevel(null), true)))
+                .append('"');
+        final float alpha = getAlpha();
+        if (alpha < 1) {
+            b.append(" opacity=\"");
+            number(b, alpha);
+            b.append('"');
+        }
+        appendTransform(b, transform);
+        b.append("/>");
+        return true;
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        return drawImage(img, AffineTransform.getTranslateInstance(x, y), observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+        final int w = img.getWidth(null);
+        final int h = img.getHeight(null);
+        if (w <= 0 || h <= 0) {
+            return true;
+        }
+        final AffineTransform xform = AffineTransform.getTranslateInstance(x, y);
+        xform.scale((double) width / w, (double) height / h);
+        return drawImage(img, xform, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+        return drawImage(img, x, y, img.getWidth(null), img.getHeight(null), bgcolor, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor,
+            ImageObserver observer) {
+        if (bgcolor != null) {
+            final Paint paint = _paint;
+            setPaint(bgcolor);
+            fillRect(x, y, width, height);
+            setPaint(paint);
+        }
+        return drawImage(img, x, y, width, height, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+            int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+        final BufferedImage image = toBufferedImage(img);
+        if (image == null || sx1 == sx2 || sy1 == sy2) {
+            return true;
+        }
+        final BufferedImage part = image.getSubimage(Math.min(sx1, sx2), Math.min(sy1, sy2),
+                Math.abs(sx2 - sx1), Math.abs(sy2 - sy1));
+        return drawImage(part, Math.min(dx1, dx2), Math.min(dy1, dy2),
+                Math.abs(dx2 - dx1), Math.abs(dy2 - dy1), observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+            int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+        if (bgcolor != null) {
+            final Paint paint = _paint;
+            setPaint(bgcolor);
+            fillRect(Math.min(dx1, dx2), Math.min(dy1, dy2), Math.abs(dx2 - dx1), Math.abs(dy2 - dy1));
+            setPaint(paint);
+        }
+        return drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, observer);
+    }
+
+    @Override
+    public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+        drawImage(op != null ? op.filter(img, null) : img, x, y, null);
+    }
+
+    @Override
+    public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+        final BufferedImage image;
+        if (img instanceof BufferedImage) {
+            image = (BufferedImage) img;
+        } else {
+            image = new BufferedImage(img.getColorModel(), img.copyData(null),
+                    img.getColorModel().isAlphaPremultiplied(), null);
+        }
+        drawImage(image, xform, null);
+    }
+
+    @Override
+    public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+        drawRenderedImage(img.createDefaultRendering(), xform);
+    }
+
+    @Override
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        draw(new Line2D.Double(x1, y1, x2, y2));
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height) {
+        fill(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void clearRect(int x, int y, int width, int height) {
+        final Paint paint = _paint;
+        final Composite composite = _composite;
+        setPaint(_background);
+        _composite = AlphaComposite.Src;
+        fillRect(x, y, width, height);
+        _composite = composite;
+        setPaint(paint);
+    }
+
+    @Override
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        draw(new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    @Override
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        fill(new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    @Override
+    public void drawOval(int x, int y, int width, int height) {
+        draw(new Ellipse2D.Double(x, y, width, height));
+    }
+
+    @Override
+    public void fillOval(int x, int y, int width, int height) {
+        fill(new Ellipse2D.Double(x, y, width, height));
+    }
+
+    @Override
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        draw(new Arc2D.Double(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+    }
+
+    @Override
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        fill(new Arc2D.Double(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+    }
+
+    @Override
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        if (nPoints > 0) {
+            final Path2D path = new Path2D.Double();
+            path.moveTo(xPoints[0], yPoints[0]);
+            for (int i = 1; i < nPoints; i++) {
+                path.lineTo(xPoints[i], yPoints[i]);
+            }
+            draw(path);
+        }
+    }
+
+    @Override
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        draw(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    @Override
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        fill(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    @Override
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        // There are no pixels to copy in a vector document
+    }
+
+    @Override
+    public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+        final Shape shape = onStroke ? _stroke.createStrokedShape(s) : s;
+        return _transform.createTransformedShape(shape).intersects(rect);
+    }
+
+    // State
+
+    @Override
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return _doc._metrics.getDeviceConfiguration();
+    }
+
+    @Override
+    public void setComposite(Composite comp) {
+        if (comp != null) {
+            _composite = comp;
+        }
+    }
+
+    @Override
+    public Composite getComposite() {
+        return _composite;
+    }
+
+    @Override
+    public void setPaint(Paint paint) {
+        if (paint != null) {
+            _paint = paint;
+            if (paint instanceof Color) {
+                _color = (Color) paint;
+            }
+        }
+    }
+
+    @Override
+    public Paint getPaint() {
+        return _paint;
+    }
+
+    @Override
+    public void setColor(Color c) {
+        setPaint(c);
+    }
+
+    @Override
+    public Color getColor() {
+        return _color;
+    }
+
+    @Override
+    public void setPaintMode() {
+        _composite = AlphaComposite.SrcOver;
+    }
+
+    @Override
+    public void setXORMode(Color c) {
+        // Not supported, drawn in paint mode
+    }
+
+    @Override
+    public void setStroke(Stroke s) {
+        if (s != null) {
+            _stroke = s;
+        }
+    }
+
+    @Override
+    public Stroke getStroke() {
+        return _stroke;
+    }
+
+    @Override
+    public void setBackground(Color color) {
+        _background = color;
+    }
+
+    @Override
+    public Color getBackground() {
+        return _background;
+    }
+
+    @Override
+    public void setFont(Font font) {
+        if (font != null) {
+            _font = font;
+        }
+    }
+
+    @Override
+    public Font getFont() {
+        return _font;
+    }
+
+    @Override
+    public FontMetrics getFontMetrics(Font f) {
+        _doc._metrics.setRenderingHints(_hints);
+        return _doc._metrics.getFontMetrics(f);
+    }
+
+    @Override
+    public FontRenderContext getFontRenderContext() {
+        _doc._metrics.setRenderingHints(_hints);
+        return _doc._metrics.getFontRenderContext();
+    }
+
+    @Override
+    public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+        _hints.put(hintKey, hintValue);
+    }
+
+    @Override
+    public Object getRenderingHint(RenderingHints.Key hintKey) {
+        return _hints.get(hintKey);
+    }
+
+    @Override
+    public void setRenderingHints(Map<?, ?> hints) {
+        _hints.clear();
+        _hints.putAll(hints);
+    }
+
+    @Override
+    public void addRenderingHints(Map<?, ?> hints) {
+        _hints.putAll(hints);
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return (RenderingHints) _hints.clone();
+    }
+
+    @Override
+    public void translate(int x, int y) {
+        _transform.translate(x, y);
+    }
+
+    @Override
+    public void translate(double tx, double ty) {
+        _transform.translate(tx, ty);
+    }
+
+    @Override
+    public void rotate(double theta) {
+        _transform.rotate(theta);
+    }
+
+    @Override
+    public void rotate(double theta, double x, double y) {
+        _transform.rotate(theta, x, y);
+    }
+
+    @Override
+    public void scale(double sx, double sy) {
+        _transform.scale(sx, sy);
+    }
+
+    @Override
+    public void shear(double shx, double shy) {
+        _transform.shear(shx, shy);
+    }
+
+    @Override
+    public void transform(AffineTransform tx) {
+        _transform.concatenate(tx);
+    }
+
+    @Override
+    public void setTransform(AffineTransform tx) {
+        _transform = new AffineTransform(tx);
+    }
+
+    @Override
+    public AffineTransform getTransform() {
+        return new AffineTransform(_transform);
+    }
+
+    // Clip
+
+    @Override
+    public Shape getClip() {
+        if (_clip == null) {
+            return null;
+        }
+        try {
+            return _transform.createInverse().createTransformedShape(_clip);
+        } catch (NoninvertibleTransformException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public Rectangle getClipBounds() {
+        final Shape clip = getClip();
+        return clip != null ? clip.getBounds() : null;
+    }
+
+    @Override
+    public void setClip(Shape clip) {
+        _clip = clip != null ? toDevice(clip) : null;
+        _clipId = null;
+    }
+
+    @Override
+    public void setClip(int x, int y, int width, int height) {
+        setClip(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void clip(Shape s) {
+        if (s == null) {
+            return;
+        }
+        if (_clip == null) {
+            setClip(s);
+            return;
+        }
+
+        final Shape clip = toDevice(s);
+        if (_clip instanceof Rectangle2D && clip instanceof Rectangle2D) {
+            final Rectangle2D intersection = new Rectangle2D.Double();
+            Rectangle2D.intersect((Rectangle2D) _clip, (Rectangle2D) clip, intersection);
+            _clip = intersection;
+        } else {
+            final Area area = new Area(_clip);
+            area.intersect(new Area(clip));
+            _clip = area;
+        }
+        _clipId = null;
+    }
+
+    @Override
+    public void clipRect(int x, int y, int width, int height) {
+        clip(new Rectangle(x, y, width, height));
+    }
+
+    private Shape toDevice(Shape s) {
+        if (s instanceof Rectangle2D && _transform.getType() <= AffineTransform.TYPE_TRANSLATION) {
+            final Rectangle2D r = (Rectangle2D) s;
+            return new Rectangle2D.Double(r.getX() + _transform.getTranslateX(),
+                    r.getY() + _transform.getTranslateY(), r.getWidth(), r.getHeight());
+        }
+        return _transform.createTransformedShape(s);
+    }
+
+    // Output
+
+    /**
+     * Starts an element, in the group of the current clip.
+     *
+     * @return the buffer to write the element to, or null if nothing is visible
+     */
+    private StringBuilder begin() {
+        if (getAlpha() <= 0) {
+            return null;
+        }
+        if (_clip != null && _clipId == null) {
+            final Rectangle2D bounds = _clip.getBounds2D();
+            if (bounds.isEmpty()) {
+                return null;
+            }
+            _clipId = _doc.clipPath(_clip);
+        }
+        return _doc.begin(_clip != null ? _clipId : null);
+    }
+
+    private void end(StringBuilder b) {
+        if (_hints.get(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_OFF) {
+            b.append(" shape-rendering=\"crispEdges\"");
+        }
+        appendTransform(b, _transform);
+        b.append("/>");
+    }
+
+    private float getAlpha() {
+        if (_composite instanceof AlphaComposite) {
+            final AlphaComposite composite = (AlphaComposite) _composite;
+            return composite.getRule() == AlphaComposite.CLEAR ? 0 : composite.getAlpha();
+        }
+        return 1;
+    }
+
+    /**
+     * Writes the start of the element of a shape, with its geometry.
+     *
+     * @return false if the shape has nothing to draw
+     */
+    private boolean appendShape(StringBuilder b, Shape s) {
+        if (s instanceof Rectangle2D) {
+            final Rectangle2D r = (Rectangle2D) s;
+            if (r.getWidth() < 0 || r.getHeight() < 0) {
+                _doc.discard();
+                return false;
+            }
+            b.append("<rect x=\"");
+            number(b, r.getX());
+            b.append("\" y=\"");
+            number(b, r.getY());
+            b.append("\" width=\"");
+            number(b, r.getWidth());
+            b.append("\" height=\"");
+            number(b, r.getHeight());
+            b.append('"');
+        } else if (s instanceof Line2D) {
+            final Line2D l = (Line2D) s;
+            b.append("<line x1=\"");
+            number(b, l.getX1());
+            b.append("\" y1=\"");
+            number(b, l.getY1());
+            b.append("\" x2=\"");
+            number(b, l.getX2());
+            b.append("\" y2=\"");
+            number(b, l.getY2());
+            b.append('"');
+        } else {
+            final int start = b.length();
+            b.append("<path d=\"");
+            final int data = b.length();
+            final PathIterator it = s.getPathIterator(null);
+            final double[] c = new double[6];
+            for (; !it.isDone(); it.next()) {
+                switch (it.currentSegment(c)) {
+                    case PathIterator.SEG_MOVETO:
+                        b.append('M');
+                        points(b, c, 1);
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        b.append('L');
+                        points(b, c, 1);
+                        break;
+                    case PathIterator.SEG_QUADTO:
+                        b.append('Q');
+                        points(b, c, 2);
+                        break;
+                    case PathIterator.SEG_CUBICTO:
+                        b.append('C');
+                        points(b, c, 3);
+                        break;
+                    default:
+                        b.append('Z');
+                }
+            }
+            if (b.length() == data) {
+                b.setLength(start);
+                _doc.discard();
+                return false;
+            }
+            b.append('"');
+            if (it.getWindingRule() == PathIterator.WIND_EVEN_ODD) {
+                b.append(" fill-rule=\"evenodd\"");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the current paint as the given attribute, fill or stroke.
+     *
+     * @return false if the paint is fully transparent
+     */
+    private boolean appendPaint(StringBuilder b, String attribute) {
+        float opacity = getAlpha();
+        b.append(' ').append(attribute).append("=\"");
+        if (_paint instanceof Color) {
+            final Color color = (Color) _paint;
+            opacity *= color.getAlpha() / 255f;
+            color(b, color);
+        } else if (_paint instanceof GradientPaint || _paint instanceof MultipleGradientPaint) {
+            b.append("url(#").append(_doc.gradient(_paint)).append(')');
+        } else {
+            color(b, _color);
+        }
+        b.append('"');
+
+        if (opacity <= 0) {
+            return false;
+        }
+        if (opacity < 1) {
+            b.append(' ').append(attribute).append("-opacity=\"");
+            number(b, opacity);
+            b.append('"');
+        }
+        return true;
+    }
+
+    private static void appendTransform(StringBuilder b, AffineTransform t) {
+        if (t.isIdentity()) {
+            return;
+        }
+        if (t.getType() == AffineTransform.TYPE_TRANSLATION) {
+            b.append(" transform=\"translate(");
+            number(b, t.getTranslateX());
+            b.append(',');
+            number(b, t.getTranslateY());
+        } else {
+            b.append(" transform=\"matrix(");
+            final double[] m = new double[6];
+            t.getMatrix(m);
+            for (int i = 0; i < 6; i++) {
+                if (i > 0) {
+                    b.append(',');
+                }
+                // The linear part needs more precision than coordinates
+                b.append((float) m[i]);
+            }
+        }
+        b.append(")\"");
+    }
+
+    private static void appendFontFamily(StringBuilder b, String family) {
+        switch (family.toLowerCase()) {
+            case "dialog":
+            case "sansserif":
+                b.append("sans-serif");
+                break;
+            case "serif":
+                b.append("serif");
+                break;
+            case "monospaced":
+            case "dialoginput":
+                b.append("monospace");
+                break;
+            default:
+                b.append('\'');
+                escape(b, family.replace("'", ""));
+                b.append("',sans-serif");
+        }
+    }
+
+    private static void points(StringBuilder b, double[] c, int count) {
+        for (int i = 0; i < count * 2; i++) {
+            if (i > 0) {
+                b.append(i % 2 == 0 ? ' ' : ',');
+            }
+            number(b, c[i]);
+        }
+    }
+
+    /**
+     * Writes a number with at most two decimals.
+     */
+    static void number(StringBuilder b, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            b.append('0');
+            return;
+        }
+        long hundredths = Math.round(value * 100);
+        if (hundredths < 0) {
+            b.append('-');
+            hundredths = -hundredths;
+        }
+        b.append(hundredths / 100);
+        final int decimals = (int) (hundredths % 100);
+        if (decimals != 0) {
+            b.append('.');
+            if (decimals < 10) {
+                b.append('0').append(decimals);
+            } else {
+                b.append(decimals % 10 == 0 ? decimals / 10 : decimals);
+            }
+        }
+    }
+
+    private static void color(StringBuilder b, Color color) {
+        final String hex = Integer.toHexString(color.getRGB() & 0xffffff | 0x1000000);
+        b.append('#').append(hex, 1, 7);
+    }
+
+    /**
+     * Writes text escaped for XML content and attributes, without the characters XML forbids.
+     */
+    static void escape(StringBuilder b, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    b.append("&amp;");
+                    break;
+                case '<':
+                    b.append("&lt;");
+                    break;
+                case '>':
+                    b.append("&gt;");
+                    break;
+                case '"':
+                    b.append("&quot;");
+                    break;
+                default:
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                        b.append(c);
+                    }
+            }
+        }
+    }
+
+    private static BufferedImage toBufferedImage(Image img) {
+        if (img instanceof BufferedImage) {
+            return (BufferedImage) img;
+        }
+        if (img == null || img.getWidth(null) <= 0 || img.getHeight(null) <= 0) {
+            return null;
+        }
+
+        final BufferedImage image = new BufferedImage(img.getWidth(null), img.getHeight(null),
+                BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g2 = image.createGraphics();
+        g2.drawImage(img, 0, 0, null);
+        g2.dispose();
+        return image;
+    }
+
+    /**
+     * The document written by a graphics and the graphics created from it.
+     */
+    private static final class Document {
+
+        private final int _width;
+
+        private final int _height;
+
+        private final StringBuilder _defs = new StringBuilder();
+
+        private final StringBuilder _body = new StringBuilder(4096);
+
+        private final Map<String, String> _ids = new HashMap<>();
+
+        /**
+         * The clip path of the open group, null if none is open.
+         */
+        private String _group;
+
+        /**
+         * The length of the body before the last element began, to discard it.
+         */
+        private int _mark;
+
+        /**
+         * Measures the text, as JFreeChart lays it out before drawing it.
+         */
+        private final Graphics2D _metrics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+
+        Document(int width, int height) {
+            _width = width;
+            _height = height;
+        }
+
+        StringBuilder begin(String clipId) {
+            if (clipId == null ? _group != null : !clipId.equals(_group)) {
+                if (_group != null) {
+                    _body.append("</g>");
+                }
+                if (clipId != null) {
+                    _body.append("<g clip-path=\"url(#").append(clipId).append(")\">");
+                }
+                _group = clipId;
+            }
+            _mark = _body.length();
+            return _body;
+        }
+
+        void discard() {
+            _body.setLength(_mark);
+        }
+
+        String clipPath(Shape clip) {
+            final StringBuilder d = new StringBuilder();
+            final PathIterator it = clip.getPathIterator(null);
+            final double[] c = new double[6];
+            for (; !it.isDone(); it.next()) {
+                final int type = it.currentSegment(c);
+                d.append(type == PathIterator.SEG_MOVETO ? 'M' : type == PathIterator.SEG_LINETO ? 'L'
+                        : type == PathIterator.SEG_QUADTO ? 'Q' : type == PathIterator.SEG_CUBICTO ? 'C' : 'Z');
+                points(d, c, type == PathIterator.SEG_QUADTO ? 2 : type == PathIterator.SEG_CUBICTO ? 3
+                        : type == PathIterator.SEG_CLOSE ? 0 : 1);
+            }
+
+            final String key = "clip " + d;
+            String id = _ids.get(key);
+            if (id == null) {
+                id = "c" + _ids.size();
+                _ids.put(key, id);
+                _defs.append("<clipPath id=\"").append(id).append("\"><path d=\"").append(d).append("\"/></clipPath>");
+            }
+            return id;
+        }
+
+        String gradient(Paint paint) {
+            final StringBuilder g = new StringBuilder();
+            if (paint instanceof GradientPaint) {
+                final GradientPaint gp = (GradientPaint) paint;
+                gradient(g, "linearGradient", new double[] {
+                        gp.getPoint1().getX(), gp.getPoint1().getY(), gp.getPoint2().getX(), gp.getPoint2().getY()},
+                        gp.isCyclic() ? "reflect" : null, null);
+                stop(g, 0, gp.getColor1());
+                stop(g, 1, gp.getColor2());
+                g.append("</linearGradient>");
+            } else {
+                final MultipleGradientPaint mgp = (MultipleGradientPaint) paint;
+                final String spread = mgp.getCycleMethod() == MultipleGradientPaint.CycleMethod.REFLECT ? "reflect"
+                        : mgp.getCycleMethod() == MultipleGradientPaint.CycleMethod.REPEAT ? "repeat" : null;
+                final String element;
+                if (mgp instanceof LinearGradientPaint) {
+                    final LinearGradientPaint lgp = (LinearGradientPaint) mgp;
+                    element = "linearGradient";
+                    gradient(g, element, new double[] {lgp.getStartPoint().getX(), lgp.getStartPoint().getY(),
+                            lgp.getEndPoint().getX(), lgp.getEndPoint().getY()}, spread, mgp.getTransform());
+                } else {
+                    final RadialGradientPaint rgp = (RadialGradientPaint) mgp;
+                    final Point2D center = rgp.getCenterPoint();
+                    final Point2D focus = rgp.getFocusPoint();
+                    element = "radialGradient";
+                    gradient(g, element, new double[] {center.getX(), center.getY(), rgp.getRadius(),
+                            focus.getX(), focus.getY()}, spread, mgp.getTransform());
+                }
+                for (int i = 0; i < mgp.getFractions().length; i++) {
+                    stop(g, mgp.getFractions()[i], mgp.getColors()[i]);
+                }
+                g.append("</").append(element).append('>');
+            }
+
+            final String key = g.toString();
+            String id = _ids.get(key);
+            if (id == null) {
+                id = "g" + _ids.size();
+                _ids.put(key, id);
+                _defs.append(key, 0, key.indexOf(' ')).append(" id=\"").append(id).append('"')
+                        .append(key, key.indexOf(' '), key.length());
+            }
+            return id;
+        }
+
+        private static void gradient(StringBuilder g, String element, double[] geometry, String spread,
+                AffineTransform transform) {
+            final String[] names = geometry.length == 4
+                    ? new String[] {"x1", "y1", "x2", "y2"} : new String[] {"cx", "cy", "r", "fx", "fy"};
+            g.append('<').append(element).append(" gradientUnits=\"userSpaceOnUse\"");
+            for (int i = 0; i < names.length; i++) {
+                g.append(' ').append(names[i]).append("=\"");
+                number(g, geometry[i]);
+                g.append('"');
+            }
+            if (spread != null) {
+                g.append(" spreadMethod=\"").append(spread).append('"');
+            }
+            if (transform != null && !transform.isIdentity()) {
+                final StringBuilder t = new StringBuilder();
+                appendTransform(t, transform);
+                g.append(" gradientTransform").append(t, t.indexOf("="), t.length());
+            }
+            g.append('>');
+        }
+
+        private static void stop(StringBuilder g, double offset, Color color) {
+            g.append("<stop offset=\"");
+            number(g, offset);
+            g.append("\" stop-color=\"");
+            color(g, color);
+            g.append('"');
+            if (color.getAlpha() < 255) {
+                g.append(" stop-opacity=\"");
+                number(g, color.getAlpha() / 255.0);
+                g.append('"');
+            }
+            g.append("/>");
+        }
+
+        String finish() {
+            final StringBuilder svg = new StringBuilder(_defs.length() + _body.length() + 256);
+            svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"")
+                    .append(" width=\"").append(_width).append("\" height=\"").append(_height)
+                    .append("\" viewBox=\"0 0 ").append(_width).append(' ').append(_height).append("\">");
+            if (_defs.length() > 0) {
+                svg.append("<defs>").append(_defs).append("</defs>");
+            }
+            svg.append(_body);
+            if (_group != null) {
+                svg.append("</g>");
+            }
+            return svg.append("</svg>").toString();
+        }
+    }
+}
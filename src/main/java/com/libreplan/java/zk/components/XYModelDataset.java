@@ -0,0 +1,696 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jfree.data.DomainInfo;
+import org.jfree.data.DomainOrder;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.AbstractIntervalXYDataset;
+import org.jfree.data.xy.IntervalXYDelegate;
+import org.zkoss.zul.XYModel;
+
+/**
+ * IntervalXYDataset over primitive columns, copied once from a {@link XYModel}.
+ * It replaces one boxed JFreeChart item per point (XYDataItem, TimeSeriesDataItem).
+ *
+ * It works in two flavours, matching the collections it replaces:
+ * <ul>
+ * <li>plain XY, like XYSeriesCollection: items keep the model order, or are sorted by x
+ * (stable) when the model is auto sorted, and the bar interval comes from an IntervalXYDelegate;</li>
+ * <li>time periods, like TimeSeriesCollection: x is the first millisecond of the period
+ * of the point, items are sorted by period and the values of a period are aggregated,
+ * by default keeping the last one as TimeSeries.addOrUpdate does.</li>
+ * </ul>
+ * A null y value is stored as NaN and returned as null.
+ * The x and y values that are not Doubles are kept as the numbers of the model.
+ */
+final class XYModelDataset extends AbstractIntervalXYDataset implements DomainInfo, RangeInfo {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean _periods;
+
+    private final List<Comparable<?>> _keys = new ArrayList<>();
+
+    private final List<Series> _series = new ArrayList<>();
+
+    private final IntervalXYDelegate _intervalDelegate;
+
+    private XYModelDataset(boolean periods) {
+        _periods = periods;
+        if (periods) {
+            _intervalDelegate = null;
+        } else {
+            _intervalDelegate = new IntervalXYDelegate(this, false);
+            addChangeListener(_intervalDelegate);
+        }
+    }
+
+    /**
+     * Transfer a XYModel into a dataset with the XYSeriesCollection semantics.
+     */
+    static XYModelDataset ofValues(XYModel model) {
+        final XYModelDataset dataset = new XYModelDataset(false);
+        for (Comparable<?> series : model.getSeries()) {
+            dataset._keys.add(series);
+            dataset._series.add(Series.ofValues(model, series));
+        }
+        return dataset;
+    }
+
+    /**
+     * Transfer a XYModel into a dataset with the TimeSeriesCollection semantics.
+     */
+    static XYModelDataset ofPeriods(XYModel model, PeriodBuckets buckets, PeriodBuckets.Aggregation aggregation) {
+        final XYModelDataset dataset = new XYModelDataset(true);
+        for (Comparable<?> series : model.getSeries()) {
+            dataset._keys.add(series);
+            dataset._series.add(Series.ofPeriods(model, series, buckets, aggregation));
+        }
+        return dataset;
+    }
+
+    boolean isPeriods() {
+        return _periods;
+    }
+
+    /**
+     * Returns a dataset with the points of each series between lower and upper, aggregated
+     * to about one point per pixel (two with minmax) by the resolution pyramid of the series.
+     * The pyramid is built on the first window and kept until the series changes.
+     */
+    XYModelDataset window(double lower, double upper, int pixels, boolean minmax) {
+        if (getDomainOrder() != DomainOrder.ASCENDING) {
+            return this;
+        }
+
+        final XYModelDataset result = new XYModelDataset(_periods);
+        result._keys.addAll(_keys);
+        for (Series s : _series) {
+            result._series.add(s.window(lower, upper, pixels, minmax));
+        }
+        return result;
+    }
+
+    /**
+     * Returns a dataset with the points of each series reduced to about the given number,
+     * or this dataset if no series has more points or the series are not sorted by x.
+     */
+    XYModelDataset downsample(Downsampling downsampling, int points) {
+        if (getDomainOrder() != DomainOrder.ASCENDING) {
+            return this;
+        }
+
+        XYModelDataset result = null;
+        for (int i = 0; i < _series.size(); i++) {
+            final Series s = _series.get(i);
+            final int[] selected = downsampling.select(s._x, s._y, s._size, points);
+            if (selected == null) {
+                continue;
+            }
+
+            if (result == null) {
+                result = new XYModelDataset(_periods);
+                result._keys.addAll(_keys);
+                result._series.addAll(_series);
+            }
+            result._series.set(i, s.select(selected));
+        }
+        return result != null ? result : this;
+    }
+
+    void addSeries(Comparable<?> key, Series series) {
+        _keys.add(key);
+        _series.add(series);
+        fireDatasetChanged();
+    }
+
+    void setSeries(int index, Series series) {
+        _series.set(index, series);
+        fireDatasetChanged();
+    }
+
+    void removeSeries(int index) {
+        _keys.remove(index);
+        _series.remove(index);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Adds a value the way XYSeries.add does: at the end, or after the items with
+     * the same x when the series is sorted.
+     */
+    void addValue(int index, Number x, Number y) {
+        _series.get(index).add(x, y);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Adds a period, or aggregates the value into the period if it is already there.
+     */
+    void addOrUpdate(int index, long start, long end, Number y) {
+        _series.get(index).addOrUpdate(start, end, y);
+        fireDatasetChanged();
+    }
+
+    static boolean isIntegral(Number x) {
+        return x instanceof Long || x instanceof Integer || x instanceof Short || x instanceof Byte;
+    }
+
+    Series getSeries(int index) {
+        return _series.get(index);
+    }
+
+    @Override
+    public int getSeriesCount() {
+        return _series.size();
+    }
+
+    @Override
+    public Comparable<?> getSeriesKey(int series) {
+        return _keys.get(series);
+    }
+
+    @Override
+    public int getItemCount(int series) {
+        return _series.get(series)._size;
+    }
+
+    @Override
+    public DomainOrder getDomainOrder() {
+        if (_periods) {
+            return DomainOrder.ASCENDING;
+        }
+
+        for (Series s : _series) {
+            if (!s._sorted) {
+                return DomainOrder.NONE;
+            }
+        }
+        return DomainOrder.ASCENDING;
+    }
+
+    @Override
+    public Number getX(int series, int item) {
+        final Series s = _series.get(series);
+        if (_periods) {
+            return (long) s._x[item];
+        }
+        final Number x = s.getXNumber(item);
+        return x != null ? x : (Number) s._x[item];
+    }
+
+    @Override
+    public double getXValue(int series, int item) {
+        return _series.get(series)._x[item];
+    }
+
+    @Override
+    public Number getY(int series, int item) {
+        final Series s = _series.get(series);
+        if (s._numbers != null && s._numbers[item] != null) {
+            return s._numbers[item];
+        }
+        final double y = s._y[item];
+        return Double.isNaN(y) ? null : (Number) y;
+    }
+
+    @Override
+    public double getYValue(int series, int item) {
+        return _series.get(series)._y[item];
+    }
+
+    @Override
+    public Number getStartX(int series, int item) {
+        return _periods ? getX(series, item) : _intervalDelegate.getStartX(series, item);
+    }
+
+    @Override
+    public double getStartXValue(int series, int item) {
+        return _periods ? getXValue(series, item) : _intervalDelegate.getStartXValue(series, item);
+    }
+
+    @Override
+    public Number getEndX(int series, int item) {
+        return _periods ? (Number) _series.get(series)._end[item] : _intervalDelegate.getEndX(series, item);
+    }
+
+    @Override
+    public double getEndXValue(int series, int item) {
+        return _periods ? _series.get(series)._end[item] : _intervalDelegate.getEndXValue(series, item);
+    }
+
+    @Override
+    public Number getStartY(int series, int item) {
+        return getY(series, item);
+    }
+
+    @Override
+    public Number getEndY(int series, int item) {
+        return getY(series, item);
+    }
+
+    @Override
+    public double getDomainLowerBound(boolean includeInterval) {
+        final Range range = getDomainBounds(includeInterval);
+        return range != null ? range.getLowerBound() : Double.NaN;
+    }
+
+    @Override
+    public double getDomainUpperBound(boolean includeInterval) {
+        final Range range = getDomainBounds(includeInterval);
+        return range != null ? range.getUpperBound() : Double.NaN;
+    }
+
+    @Override
+    public Range getDomainBounds(boolean includeInterval) {
+        if (includeInterval && !_periods) {
+            return _intervalDelegate.getDomainBounds(true);
+        }
+
+        double lower = Double.POSITIVE_INFINITY;
+        double upper = Double.NEGATIVE_INFINITY;
+
+        for (Series s : _series) {
+            if (s._size == 0) {
+                continue;
+            }
+
+            if (s._sorted) {
+                lower = Math.min(lower, s._x[0]);
+                upper = Math.max(upper, includeInterval ? s._end[s._size - 1] : s._x[s._size - 1]);
+            } else {
+                for (int i = 0; i < s._size; i++) {
+                    lower = Math.min(lower, s._x[i]);
+                    upper = Math.max(upper, s._x[i]);
+                }
+            }
+        }
+        return lower <= upper ? new Range(lower, upper) : null;
+    }
+
+    @Override
+    public double getRangeLowerBound(boolean includeInterval) {
+        final Range range = getRangeBounds(includeInterval);
+        return range != null ? range.getLowerBound() : Double.NaN;
+    }
+
+    @Override
+    public double getRangeUpperBound(boolean includeInterval) {
+        final Range range = getRangeBounds(includeInterval);
+        return range != null ? range.getUpperBound() : Double.NaN;
+    }
+
+    @Override
+    public Range getRangeBounds(boolean includeInterval) {
+        double lower = Double.POSITIVE_INFINITY;
+        double upper = Double.NEGATIVE_INFINITY;
+
+        for (Series s : _series) {
+            for (int i = 0; i < s._size; i++) {
+                final double y = s._y[i];
+                if (!Double.isNaN(y)) {
+                    lower = Math.min(lower, y);
+                    upper = Math.max(upper, y);
+                }
+            }
+        }
+        return lower <= upper ? new Range(lower, upper) : null;
+    }
+
+    /**
+     * The primitive columns of one series.
+     * For periods, x holds the first and end the last millisecond of each period.
+     */
+    static final class Series {
+
+        private double[] _x;
+
+        /** The x values that are not Doubles, as the model has them; null for a series with none. */
+        private Number[] _xNumbers;
+
+        private long[] _end;
+
+        private double[] _y;
+
+        /** The y values that are not Doubles, as the model has them; null for a series with none. */
+        private Number[] _numbers;
+
+        /** For periods, the number of non null values aggregated in each of them. */
+        private int[] _count;
+
+        private int _size;
+
+        private final PeriodBuckets.Aggregation _aggregation;
+
+        private final boolean _sorted;
+
+        private ResolutionPyramid _pyramid;
+
+        private Series(int capacity, boolean sorted, PeriodBuckets.Aggregation aggregation) {
+            _x = new double[Math.max(capacity, 4)];
+            _y = new double[_x.length];
+            _end = aggregation != null ? new long[_x.length] : null;
+            _count = aggregation != null ? new int[_x.length] : null;
+            _sorted = sorted;
+            _aggregation = aggregation;
+        }
+
+        static Series ofValues(XYModel model, Comparable<?> series) {
+            final int size = model.getDataCount(series);
+            final Series s = new Series(size, model.isAutoSort(), null);
+
+            for (int j = 0; j < size; ++j) {
+                final Number x = model.getX(series, j);
+                s.setX(j, x);
+                s.setY(j, model.getY(series, j));
+            }
+            s._size = size;
+
+            if (s._sorted) {
+                s.sortByX();
+            }
+            return s;
+        }
+
+        static Series ofPeriods(XYModel model, Comparable<?> series, PeriodBuckets buckets,
+                PeriodBuckets.Aggregation aggregation) {
+            final int size = model.getDataCount(series);
+            final Series s = new Series(size, true, aggregation);
+
+            for (int j = 0; j < size; ++j) {
+                final long millis = model.getX(series, j).longValue();
+                s._x[j] = buckets.start(millis);
+                s._end[j] = buckets.end(millis);
+                s.setY(j, model.getY(series, j));
+            }
+            s._size = size;
+
+            s.sortByX();
+            s.aggregatePeriods();
+            return s;
+        }
+
+        private static double toDouble(Number y) {
+            return y != null ? y.doubleValue() : Double.NaN;
+        }
+
+        int size() {
+            return _size;
+        }
+
+        /**
+         * Returns a series with the points of a window of this one, read from its pyramid.
+         */
+        private Series window(double lower, double upper, int pixels, boolean minmax) {
+            if (_pyramid == null) {
+                _pyramid = new ResolutionPyramid(_x, _y, _size);
+            }
+
+            final Series s = new Series(pixels * 2, _sorted, _aggregation);
+            _pyramid.read(lower, upper, pixels, minmax, new ResolutionPyramid.Output() {
+                @Override
+                public void item(int index) {
+                    s.insert(s._size, _x[index], getXNumber(index), _end != null ? _end[index] : 0,
+                            _y[index], getNumber(index));
+                }
+
+                @Override
+                public void bucket(double x, double end, double y) {
+                    s.insert(s._size, x, null, (long) end - 1, y, null);
+                }
+            });
+            return s;
+        }
+
+        /**
+         * Returns a series with the given items only.
+         */
+        private Series select(int[] items) {
+            final Series s = new Series(items.length, _sorted, _aggregation);
+            for (int i = 0; i < items.length; i++) {
+                final int item = items[i];
+                s._x[i] = _x[item];
+                s.setXNumber(i, getXNumber(item));
+                s._y[i] = _y[item];
+                s.setNumber(i, getNumber(item));
+                if (_end != null) {
+                    s._end[i] = _end[item];
+                    s._count[i] = _count[item];
+                }
+            }
+            s._size = items.length;
+            return s;
+        }
+
+        double getX(int item) {
+            return _x[item];
+        }
+
+        double getY(int item) {
+            return _y[item];
+        }
+
+        private void setX(int item, Number x) {
+            _x[item] = x.doubleValue();
+            setXNumber(item, x);
+        }
+
+        private void setXNumber(int item, Number x) {
+            if (x != null && !(x instanceof Double)) {
+                if (_xNumbers == null) {
+                    _xNumbers = new Number[_x.length];
+                }
+                _xNumbers[item] = x;
+            } else if (_xNumbers != null) {
+                _xNumbers[item] = null;
+            }
+        }
+
+        private Number getXNumber(int item) {
+            return _xNumbers != null ? _xNumbers[item] : null;
+        }
+
+        private void setY(int item, Number y) {
+            _y[item] = toDouble(y);
+            setNumber(item, y);
+        }
+
+        private void setNumber(int item, Number y) {
+            if (y != null && (!(y instanceof Double) || Double.isNaN(y.doubleValue()))) {
+                if (_numbers == null) {
+                    _numbers = new Number[_y.length];
+                }
+                _numbers[item] = y;
+            } else if (_numbers != null) {
+                _numbers[item] = null;
+            }
+        }
+
+        private Number getNumber(int item) {
+            return _numbers != null ? _numbers[item] : null;
+        }
+
+        private void add(Number x, Number y) {
+            _pyramid = null;
+            int index = _size;
+            if (_sorted) {
+                // After the items with the same x, like XYSeries
+                while (index > 0 && _x[index - 1] > x.doubleValue()) {
+                    index--;
+                }
+            }
+            insert(index, x.doubleValue(), x, 0, toDouble(y), y);
+        }
+
+        private void addOrUpdate(long start, long end, Number y) {
+            _pyramid = null;
+            int index = _size;
+            while (index > 0 && _x[index - 1] > start) {
+                index--;
+            }
+
+            if (index > 0 && _x[index - 1] == start) {
+                merge(index - 1, toDouble(y), y);
+            } else {
+                insert(index, start, null, end, toDouble(y), y);
+            }
+        }
+
+        private void insert(int index, double x, Number xNumber, long end, double y, Number number) {
+            if (_size == _x.length) {
+                final int capacity = _size + (_size >> 1) + 1;
+                _x = Arrays.copyOf(_x, capacity);
+                if (_xNumbers != null) {
+                    _xNumbers = Arrays.copyOf(_xNumbers, capacity);
+                }
+                _y = Arrays.copyOf(_y, capacity);
+                if (_numbers != null) {
+                    _numbers = Arrays.copyOf(_numbers, capacity);
+                }
+                if (_end != null) {
+                    _end = Arrays.copyOf(_end, capacity);
+                    _count = Arrays.copyOf(_count, capacity);
+                }
+            }
+
+            final int moved = _size - index;
+            if (moved > 0) {
+                System.arraycopy(_x, index, _x, index + 1, moved);
+                if (_xNumbers != null) {
+                    System.arraycopy(_xNumbers, index, _xNumbers, index + 1, moved);
+                }
+                System.arraycopy(_y, index, _y, index + 1, moved);
+                if (_numbers != null) {
+                    System.arraycopy(_numbers, index, _numbers, index + 1, moved);
+                }
+                if (_end != null) {
+                    System.arraycopy(_end, index, _end, index + 1, moved);
+                    System.arraycopy(_count, index, _count, index + 1, moved);
+                }
+            }
+
+            _x[index] = x;
+            setXNumber(index, xNumber);
+            _y[index] = y;
+            setNumber(index, number);
+            if (_end != null) {
+                _end[index] = end;
+                _count[index] = Double.isNaN(y) ? 0 : 1;
+            }
+            _size++;
+        }
+
+        /**
+         * Stable sort of the items by x; a single pass when they are already sorted.
+         */
+        private void sortByX() {
+            boolean sorted = true;
+            for (int i = 1; i < _size && sorted; i++) {
+                sorted = _x[i - 1] <= _x[i];
+            }
+            if (sorted) {
+                return;
+            }
+
+            int[] order = new int[_size];
+            for (int i = 0; i < _size; i++) {
+                order[i] = i;
+            }
+            mergeSort(order, new int[_size], 0, _size);
+
+            _x = permute(_x, order);
+            _y = permute(_y, order);
+            if (_xNumbers != null) {
+                _xNumbers = permute(_xNumbers, order);
+            }
+            if (_numbers != null) {
+                _numbers = permute(_numbers, order);
+            }
+            if (_end != null) {
+                final long[] end = new long[_end.length];
+                for (int i = 0; i < _size; i++) {
+                    end[i] = _end[order[i]];
+                }
+                _end = end;
+            }
+        }
+
+        private void mergeSort(int[] order, int[] tmp, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+
+            final int mid = (from + to) >>> 1;
+            mergeSort(order, tmp, from, mid);
+            mergeSort(order, tmp, mid, to);
+
+            if (_x[order[mid - 1]] <= _x[order[mid]]) {
+                return;
+            }
+
+            System.arraycopy(order, from, tmp, from, to - from);
+            int i = from;
+            int j = mid;
+            for (int k = from; k < to; k++) {
+                if (j >= to || (i < mid && _x[tmp[i]] <= _x[tmp[j]])) {
+                    order[k] = tmp[i++];
+                } else {
+                    order[k] = tmp[j++];
+                }
+            }
+        }
+
+        private double[] permute(double[] values, int[] order) {
+            final double[] result = new double[values.length];
+            for (int i = 0; i < _size; i++) {
+                result[i] = values[order[i]];
+            }
+            return result;
+        }
+
+        private Number[] permute(Number[] values, int[] order) {
+            final Number[] result = new Number[values.length];
+            for (int i = 0; i < _size; i++) {
+                result[i] = values[order[i]];
+            }
+            return result;
+        }
+
+        /**
+         * Adds a value to the aggregated value of the period of an item.
+         * The period keeps the number of the model while its value is that of a single point.
+         */
+        private void merge(int item, double y, Number number) {
+            if (_aggregation == PeriodBuckets.Aggregation.LAST || (_count[item] == 0 && !Double.isNaN(y))) {
+                setNumber(item, number);
+            } else if (!Double.isNaN(y)) {
+                setNumber(item, null);
+            }
+
+            _y[item] = _aggregation.merge(_y[item], _count[item], y);
+            if (!Double.isNaN(y)) {
+                _count[item]++;
+            }
+        }
+
+        /**
+         * Collapses the items of the same period into one with their aggregated value.
+         * The items must be sorted by x with a stable sort, so they are aggregated in model order.
+         */
+        private void aggregatePeriods() {
+            int n = 0;
+            for (int i = 0; i < _size; i++) {
+                if (n > 0 && _x[n - 1] == _x[i]) {
+                    merge(n - 1, _y[i], getNumber(i));
+                } else {
+                    _x[n] = _x[i];
+                    _end[n] = _end[i];
+                    _y[n] = _y[i];
+                    setNumber(n, getNumber(i));
+                    _count[n] = Double.isNaN(_y[i]) ? 0 : 1;
+                    n++;
+                }
+            }
+            _size = n;
+        }
+    }
+}
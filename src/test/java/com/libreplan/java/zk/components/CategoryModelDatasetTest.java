@@ -0,0 +1,100 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Random;
+
+import org.jfree.data.UnknownKeyException;
+import org.jfree.data.category.DefaultCategoryDataset;
+import org.jfree.data.general.DatasetUtilities;
+import org.junit.Test;
+import org.zkoss.zul.SimpleCategoryModel;
+
+/**
+ * The dataset of a category model has the keys, values and range of the DefaultCategoryDataset
+ * the engine used to fill from the model.
+ */
+public class CategoryModelDatasetTest {
+
+    @Test
+    public void datasetHasTheCellsOfADefaultCategoryDataset() {
+        final Random random = new Random(20);
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        final DefaultCategoryDataset expected = new DefaultCategoryDataset();
+        for (int i = 0; i < 2000; i++) {
+            final String series = "s" + random.nextInt(30);
+            final String category = "c" + random.nextInt(70);
+            final int kind = random.nextInt(5);
+            final Number value = kind == 0 ? null : kind == 1 ? Double.valueOf(Double.NaN)
+                    : kind == 2 ? (Number) random.nextInt(1000) : (Number) (random.nextDouble() * 1000 - 500);
+            model.setValue(series, category, value);
+        }
+        for (List<Comparable<?>> key : model.getKeys()) {
+            expected.setValue(model.getValue(key.get(0), key.get(1)), key.get(0), key.get(1));
+        }
+
+        final CategoryModelDataset dataset = CategoryModelDataset.of(model);
+        assertEquals(expected.getRowKeys(), dataset.getRowKeys());
+        assertEquals(expected.getColumnKeys(), dataset.getColumnKeys());
+        for (int row = 0; row < expected.getRowCount(); row++) {
+            assertEquals(row, dataset.getRowIndex(expected.getRowKey(row)));
+            for (int column = 0; column < expected.getColumnCount(); column++) {
+                final Number value = expected.getValue(row, column);
+                if (value instanceof Double && !Double.isNaN(value.doubleValue())) {
+                    assertEquals(value, dataset.getValue(row, column));
+                } else {
+                    assertSame(value, dataset.getValue(row, column)); // Null, NaN and Integers as they are
+                }
+            }
+        }
+        assertEquals(DatasetUtilities.findRangeBounds(expected), DatasetUtilities.findRangeBounds(dataset));
+    }
+
+    @Test
+    public void setValueAddsKeysAndNotifies() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        model.setValue("s0", "c0", 1);
+        final CategoryModelDataset dataset = CategoryModelDataset.of(model);
+        final int[] changes = {0};
+        dataset.addChangeListener(event -> changes[0]++);
+
+        for (int i = 1; i < 10; i++) {
+            dataset.setValue(i, "s" + i, "c" + i);
+        }
+        assertEquals(9, changes[0]);
+        assertEquals(10, dataset.getRowCount());
+        assertEquals(10, dataset.getColumnCount());
+        assertEquals(7, dataset.getValue("s7", "c7"));
+        assertNull(dataset.getValue("s7", "c3"));
+        assertEquals(1, dataset.getRangeLowerBound(false), 0);
+        assertEquals(9, dataset.getRangeUpperBound(false), 0);
+
+        dataset.setValue(null, "s9", "c9");
+        assertEquals(8, dataset.getRangeUpperBound(false), 0);
+    }
+
+    @Test(expected = UnknownKeyException.class)
+    public void unknownKeyIsRejected() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        model.setValue("s0", "c0", 1);
+        CategoryModelDataset.of(model).getValue("s0", "c1");
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.SimpleCategoryModel;
+
+/**
+ * The fingerprint of a chart follows the changes of its model, though the model is hashed once.
+ */
+public class ChartFingerprintTest {
+
+    @Test
+    public void fingerprintFollowsTheModel() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        model.setValue("s0", "c0", 1);
+        final Chart chart = newChart(model);
+
+        final String key = ChartFingerprint.of(chart, true);
+        assertEquals(key, ChartFingerprint.of(chart, true));
+        assertEquals(key, ChartFingerprint.of(newChart(model), true));
+
+        model.setValue("s0", "c0", 2);
+        final String changed = ChartFingerprint.of(chart, true);
+        assertNotEquals(key, changed);
+        assertEquals(changed, ChartFingerprint.of(newChart(copy(model)), true));
+
+        chart.setModel(copy(model));
+        assertEquals(changed, ChartFingerprint.of(chart, true));
+        model.setValue("s0", "c0", 3);
+        assertEquals(changed, ChartFingerprint.of(chart, true));
+    }
+
+    private static Chart newChart(SimpleCategoryModel model) {
+        final Chart chart = new TestChart();
+        chart.setType(Chart.BAR);
+        chart.setWidth("400px");
+        chart.setHeight("300px");
+        chart.setModel(model);
+        return chart;
+    }
+
+    private static SimpleCategoryModel copy(SimpleCategoryModel model) {
+        final SimpleCategoryModel copy = new SimpleCategoryModel();
+        for (Comparable<?> series : model.getSeries()) {
+            for (Comparable<?> category : model.getCategories()) {
+                copy.setValue(series, category, model.getValue(series, category));
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Test;
+import org.zkoss.zul.Area;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.SimpleCategoryModel;
+import org.zkoss.zul.SimpleXYModel;
+
+/**
+ * A snapshot of a chart draws as the chart did when it was taken, whatever happens to the chart since.
+ */
+public class ChartSnapshotTest {
+
+    @Test
+    public void snapshotDrawsAsItsChart() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        for (int i = 0; i < 6; i++) {
+            model.setValue("s0", "c" + i, i + 1);
+            model.setValue("s1", "c" + i, 10 - i);
+        }
+        final Chart chart = newChart(Chart.BAR);
+        chart.setModel(model);
+
+        final JFreeChartEngine engine = new JFreeChartEngine();
+        final ChartSnapshot snapshot = new ChartSnapshot(chart, dataset(engine, chart));
+        final byte[] image = engine.drawChart(chart);
+
+        model.setValue("s0", "c0", 42);
+        model.removeValue("s1", "c5");
+        chart.setTitle("Changed");
+
+        assertArrayEquals(image, engine.drawChart(snapshot));
+        assertEquals(describe(chart), describe(snapshot));
+    }
+
+    @Test
+    public void snapshotKeepsTheDateFormatOfItsChart() {
+        final SimpleXYModel model = new SimpleXYModel();
+        for (int i = 0; i < 100; i++) {
+            model.addValue("s0", 1000000000000L + i * 3600000L, Math.sin(i / 10.0));
+        }
+        final Chart chart = newChart(Chart.TIME_SERIES);
+        chart.setPeriod(Chart.HOUR);
+        chart.setTimeZone(TimeZone.getTimeZone("Asia/Tokyo"));
+        chart.setDateFormat("dd/MM HH:mm");
+        chart.setModel(model);
+
+        final JFreeChartEngine engine = new JFreeChartEngine();
+        final ChartSnapshot snapshot = new ChartSnapshot(chart, dataset(engine, chart));
+        final byte[] image = engine.drawChart(chart);
+
+        model.addValue("s0", 1000000000000L + 100 * 3600000L, 5);
+        chart.setDateFormat("yyyy");
+
+        assertArrayEquals(image, engine.drawChart(snapshot));
+        assertEquals(describe(chart), describe(snapshot));
+    }
+
+    private static Chart newChart(String type) {
+        final Chart chart = new TestChart();
+        chart.setId("chart");
+        chart.setType(type);
+        chart.setWidth("400px");
+        chart.setHeight("300px");
+        chart.setTitle(type);
+        chart.setShowTooltiptext(true);
+        chart.setAttribute("render-cache", false);
+        chart.setAttribute("async-render", true);
+        return chart;
+    }
+
+    private static org.jfree.data.general.Dataset dataset(JFreeChartEngine engine, Chart chart) {
+        return engine.getChartImpl(chart).getDataset(chart);
+    }
+
+    private static List<String> describe(Chart chart) {
+        final List<String> areas = new ArrayList<>();
+        for (Object child : chart.getChildren()) {
+            final Area area = (Area) child;
+            areas.add(area.getId() + ' ' + area.getShape() + ' ' + area.getCoords() + ' '
+                    + area.getTooltiptext() + ' ' + area.getAttributes());
+        }
+        return areas;
+    }
+}
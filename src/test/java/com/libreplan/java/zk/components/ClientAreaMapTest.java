@@ -0,0 +1,124 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.zkoss.json.parser.JSONParser;
+import org.zkoss.zk.ui.event.MouseEvent;
+import org.zkoss.zul.Area;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.SimpleCategoryModel;
+
+/**
+ * With client areas the payload sent to the client describes the areas the chart would have
+ * had as children, and a click with the id of one of them gives that area.
+ */
+public class ClientAreaMapTest {
+
+    @Test
+    public void payloadAndClicksGiveTheAreasOfTheChart() {
+        final Chart chart = newChart();
+        new JFreeChartEngine().drawChart(chart);
+        final List<Area> areas = new ArrayList<>();
+        for (Object child : chart.getChildren()) {
+            areas.add((Area) child);
+        }
+
+        chart.setAttribute("client-areas", true);
+        new JFreeChartEngine().drawChart(chart);
+        assertEquals(0, chart.getChildren().size());
+
+        final Map<?, ?> payload = parse(chart.getWidgetOverride("_jfcMap"));
+        final List<?> shapes = (List<?>) payload.get("s");
+        final List<?> coords = (List<?>) payload.get("c");
+        final List<?> ends = (List<?>) payload.get("o");
+        final List<?> tips = (List<?>) payload.get("i");
+        assertEquals(areas.size(), shapes.size());
+
+        int k = 0;
+        for (int i = 0; i < areas.size(); i++) {
+            final Area expected = areas.get(i);
+            final int end = ((Number) ends.get(i)).intValue();
+            final StringBuilder sb = new StringBuilder();
+            for (; k < end; k++) {
+                sb.append(sb.length() > 0 ? "," : "").append(coords.get(k));
+            }
+            final int tip = ((Number) tips.get(i)).intValue();
+
+            assertEquals(expected.getShape(), ((List<?>) payload.get("h")).get(((Number) shapes.get(i)).intValue()));
+            assertEquals(expected.getCoords().replace(" ", ""), sb.toString());
+            assertEquals(expected.getTooltiptext(), tip >= 0 ? ((List<?>) payload.get("t")).get(tip) : null);
+
+            final String id = payload.get("p").toString() + i;
+            assertEquals(expected.getId(), id);
+            final Area found = JFreeChartEngine.getArea(new MouseEvent("onClick", chart, id, 0));
+            assertNotNull(found);
+            assertEquals(expected.getId(), found.getId());
+            assertEquals(expected.getAttributes(), found.getAttributes());
+            assertEquals(expected.getTooltiptext(), found.getTooltiptext());
+        }
+
+        assertNull(JFreeChartEngine.getArea(new MouseEvent("onClick", chart, payload.get("p").toString() + areas.size(), 0)));
+    }
+
+    @Test
+    public void drawWithAreaChildrenDropsThePayload() {
+        final Chart chart = newChart();
+        chart.setAttribute("client-areas", true);
+        new JFreeChartEngine().drawChart(chart);
+        final String id = parse(chart.getWidgetOverride("_jfcMap")).get("p") + "0";
+        assertNotNull(JFreeChartEngine.getArea(new MouseEvent("onClick", chart, id, 0)));
+
+        chart.setAttribute("client-areas", false);
+        new JFreeChartEngine().drawChart(chart);
+        assertEquals("null", chart.getWidgetOverride("_jfcMap"));
+        assertEquals(id, chart.getChildren().get(0).getId());
+        assertNull(ClientAreaMap.lookup(chart, id));
+    }
+
+    /**
+     * Parses the payload, a JavaScript object whose keys are not quoted.
+     */
+    private static Map<?, ?> parse(String payload) {
+        return (Map<?, ?>) new JSONParser().parse(payload.replaceAll("([{,])([a-z]):", "$1\"$2\":"));
+    }
+
+    private static Chart newChart() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        for (int i = 0; i < 10; i++) {
+            model.setValue("s0", "c" + i, i + 1);
+            model.setValue("s1", "c" + i, 20 - i);
+        }
+
+        final Chart chart = new TestChart();
+        chart.setId("chart");
+        chart.setType(Chart.BAR);
+        chart.setWidth("400px");
+        chart.setHeight("300px");
+        chart.setShowTooltiptext(true);
+        chart.setModel(model);
+        chart.setAttribute("render-cache", false);
+        return chart;
+    }
+}
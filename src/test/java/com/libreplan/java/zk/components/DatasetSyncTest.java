@@ -0,0 +1,81 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+
+import org.jfree.data.category.CategoryDataset;
+import org.junit.Test;
+import org.zkoss.zul.SimpleCategoryModel;
+
+/**
+ * A dataset kept in sync with its model is the same as a full conversion of the model.
+ */
+public class DatasetSyncTest {
+
+    @Test
+    public void categoryDatasetAfterRemovalsIsAFreshConversion() {
+        final SimpleCategoryModel model = newCategoryModel();
+        final DatasetSync.CategorySync sync = DatasetSync.attach(new TestChart(),
+                new DatasetSync.CategorySync(model, "category"));
+        sync.getDataset();
+
+        model.removeValue("s0", "c0");
+        assertSame(CategoryModelDataset.of(model), sync.getDataset());
+
+        model.removeValue("s1", "c1");
+        model.removeValue("s0", "c2");
+        assertSame(CategoryModelDataset.of(model), sync.getDataset());
+    }
+
+    @Test
+    public void categoryDatasetAfterChangesIsAFreshConversion() {
+        final SimpleCategoryModel model = newCategoryModel();
+        final DatasetSync.CategorySync sync = DatasetSync.attach(new TestChart(),
+                new DatasetSync.CategorySync(model, "category"));
+        sync.getDataset();
+
+        model.setValue("s0", "c1", 42);
+        model.setValue("s0", "c3", 7); // A new column, from the first row
+        model.setValue("s2", "c0", 3); // A new row
+        model.setValue("s1", "c3", null);
+        assertSame(CategoryModelDataset.of(model), sync.getDataset());
+
+        model.removeValue("s0", "c0");
+        model.setValue("s0", "c0", 1); // Back at the end of the model
+        assertSame(CategoryModelDataset.of(model), sync.getDataset());
+    }
+
+    private static SimpleCategoryModel newCategoryModel() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        for (String series : new String[] {"s0", "s1"}) {
+            for (String category : new String[] {"c0", "c1", "c2"}) {
+                model.setValue(series, category, series.length() + category.hashCode() % 10);
+            }
+        }
+        return model;
+    }
+
+    private static void assertSame(CategoryDataset expected, CategoryDataset actual) {
+        assertEquals(expected.getRowKeys(), actual.getRowKeys());
+        assertEquals(expected.getColumnKeys(), actual.getColumnKeys());
+        for (int row = 0; row < expected.getRowCount(); row++) {
+            for (int column = 0; column < expected.getColumnCount(); column++) {
+                assertEquals(expected.getValue(row, column), actual.getValue(row, column));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Renders written to the disk cache are read back, by another cache on the same directory too,
+ * until their segment is evicted.
+ */
+public class DiskCacheTest {
+
+    private static final long SIZE = 2L << 20; // Two segments of 1 MiB
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void renderIsReadBack() throws IOException {
+        final DiskCache cache = new DiskCache(_folder.getRoot().toPath(), SIZE);
+        final AreaInfo area = new AreaInfo("rect", "0,0,10,10");
+        area.setTooltiptext("c0: 5");
+        area.setAttribute("series", "s0");
+        area.setAttribute("value", 5);
+        cache.put(key(0), new RenderResult(image(0, 1000), Collections.singletonList(area)));
+
+        for (DiskCache reader : Arrays.asList(cache, new DiskCache(_folder.getRoot().toPath(), SIZE))) {
+            final RenderResult result = reader.get(key(0));
+            assertNotNull(result);
+            assertArrayEquals(image(0, 1000), result.getImage());
+            assertEquals(1, result.getAreas().size());
+            assertEquals("0,0,10,10", result.getAreas().get(0).getCoords());
+            assertEquals("c0: 5", result.getAreas().get(0).getTooltiptext());
+            assertEquals(area.getAttributes(), result.getAreas().get(0).getAttributes());
+        }
+        assertNull(cache.get(key(1)));
+    }
+
+    @Test
+    public void oldestSegmentIsEvicted() throws IOException {
+        final DiskCache cache = new DiskCache(_folder.getRoot().toPath(), SIZE);
+        for (int i = 0; i < 10; i++) {
+            cache.put(key(i), new RenderResult(image(i, 300000), Collections.emptyList()));
+        }
+
+        assertNull(cache.get(key(0)));
+        assertArrayEquals(image(9, 300000), cache.get(key(9)).getImage());
+        final File[] segments = _folder.getRoot().listFiles((dir, name) -> name.endsWith(".seg"));
+        assertEquals(2, segments.length);
+    }
+
+    @Test
+    public void areaOfAnotherClassIsNotRead() throws IOException {
+        final DiskCache cache = new DiskCache(_folder.getRoot().toPath(), SIZE);
+        final AreaInfo area = new AreaInfo("rect", "0,0,10,10");
+        area.setAttribute("category", new Date(0));
+        cache.put(key(0), new RenderResult(image(0, 1000), Collections.singletonList(area)));
+
+        assertNull(cache.get(key(0)));
+    }
+
+    private static String key(int index) {
+        return String.format("%040x", index);
+    }
+
+    private static byte[] image(int index, int size) {
+        final byte[] image = new byte[size];
+        Arrays.fill(image, (byte) index);
+        return image;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The points kept by each downsampling.
+ */
+public class DownsamplingTest {
+
+    @Test
+    public void lttbKeepsTheLargestTriangles() {
+        final double[] y = {3, 7, 2, 9, 4, 4, 8, 1, 6, 5, 2, 10, 3, 7, 0, 5};
+        final int[] selected = Downsampling.LTTB.select(range(y.length), y, y.length, 6);
+        // As the published algorithm picks them, with buckets of 3.5 points
+        assertArrayEquals(new int[] {0, 3, 7, 8, 14, 15}, selected);
+    }
+
+    @Test
+    public void lttbKeepsThePointsOfTheReferenceAlgorithm() {
+        final Random random = new Random(6);
+        for (int run = 0; run < 50; run++) {
+            final int size = 100 + random.nextInt(5000);
+            final int points = 3 + random.nextInt(size / 2);
+            final double[] x = new double[size];
+            final double[] y = new double[size];
+            for (int i = 0; i < size; i++) {
+                x[i] = (i > 0 ? x[i - 1] : 0) + random.nextDouble();
+                y[i] = random.nextGaussian() * 100;
+            }
+            assertArrayEquals(referenceLttb(x, y, points), Downsampling.LTTB.select(x, y, size, points));
+        }
+    }
+
+    @Test
+    public void lttbKeepsTheGapsOfTheSeries() {
+        final int size = 1000;
+        final double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            y[i] = i >= 500 && i < 520 ? Double.NaN : Math.sin(i / 30.0);
+        }
+        final int[] selected = Downsampling.LTTB.select(range(size), y, size, 100);
+        assertTrue(Arrays.stream(selected).anyMatch(i -> Double.isNaN(y[i])));
+        assertAscending(selected);
+    }
+
+    @Test
+    public void minMaxKeepsTheExtremesOfEachColumn() {
+        final int size = 10000;
+        final int columns = 50;
+        final double[] x = range(size);
+        final double[] y = new double[size];
+        final Random random = new Random(7);
+        for (int i = 0; i < size; i++) {
+            y[i] = random.nextDouble();
+        }
+        y[4321] = 100;
+        y[8765] = -100;
+
+        final int[] selected = Downsampling.MINMAX.select(x, y, size, columns * 2);
+        assertAscending(selected);
+        assertTrue(selected.length <= columns * 2);
+        assertTrue(Arrays.binarySearch(selected, 4321) >= 0);
+        assertTrue(Arrays.binarySearch(selected, 8765) >= 0);
+
+        // Each column keeps its own minimum and maximum
+        final double width = x[size - 1] - x[0];
+        for (int c = 0; c < columns; c++) {
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            double keptMin = Double.MAX_VALUE;
+            double keptMax = -Double.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                if (Math.min((int) ((x[i] - x[0]) / width * columns), columns - 1) == c) {
+                    min = Math.min(min, y[i]);
+                    max = Math.max(max, y[i]);
+                    if (Arrays.binarySearch(selected, i) >= 0) {
+                        keptMin = Math.min(keptMin, y[i]);
+                        keptMax = Math.max(keptMax, y[i]);
+                    }
+                }
+            }
+            assertEquals(min, keptMin, 0);
+            assertEquals(max, keptMax, 0);
+        }
+    }
+
+    @Test
+    public void shortSeriesAreKept() {
+        final double[] y = {1, 2, 3};
+        assertNull(Downsampling.LTTB.select(range(3), y, 3, 10));
+        assertNull(Downsampling.MINMAX.select(range(3), y, 3, 10));
+    }
+
+    /**
+     * Largest triangle three buckets as published, for series without null values.
+     */
+    private static int[] referenceLttb(double[] x, double[] y, int threshold) {
+        final int length = x.length;
+        final int[] sampled = new int[threshold];
+        final double every = (double) (length - 2) / (threshold - 2);
+        int a = 0;
+        int count = 0;
+        sampled[count++] = a;
+
+        for (int i = 0; i < threshold - 2; i++) {
+            final int avgStart = (int) Math.floor((i + 1) * every) + 1;
+            final int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, length);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = avgStart; j < avgEnd; j++) {
+                avgX += x[j];
+                avgY += y[j];
+            }
+            avgX /= avgEnd - avgStart;
+            avgY /= avgEnd - avgStart;
+
+            final int rangeFrom = (int) Math.floor(i * every) + 1;
+            final int rangeTo = (int) Math.floor((i + 1) * every) + 1;
+            double maxArea = -1;
+            int next = rangeFrom;
+            for (int j = rangeFrom; j < rangeTo; j++) {
+                final double area = Math.abs((x[a] - avgX) * (y[j] - y[a]) - (x[a] - x[j]) * (avgY - y[a])) * 0.5;
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+            sampled[count++] = next;
+            a = next;
+        }
+
+        sampled[count] = length - 1;
+        return sampled;
+    }
+
+    private static double[] range(int size) {
+        final double[] x = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = i;
+        }
+        return x;
+    }
+
+    private static void assertAscending(int[] indexes) {
+        for (int i = 1; i < indexes.length; i++) {
+            assertTrue(indexes[i - 1] < indexes[i]);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.zkoss.zul.Area;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.ChartModel;
+import org.zkoss.zul.SimpleCategoryModel;
+import org.zkoss.zul.SimplePieModel;
+import org.zkoss.zul.SimpleXYModel;
+
+/**
+ * Charts drawn as a batch get the images and areas of separate draws, and their next draw
+ * takes the image of the batch unless the chart changed since.
+ */
+public class DrawChartsTest {
+
+    @Test
+    public void batchGivesTheImagesAndAreasOfSeparateDraws() {
+        final List<Chart> charts = newCharts();
+        new JFreeChartEngine().drawCharts(charts);
+
+        final List<Chart> twins = newCharts();
+        for (int i = 0; i < charts.size(); i++) {
+            final Chart chart = charts.get(i);
+            final Chart twin = twins.get(i);
+            final byte[] image = new JFreeChartEngine().drawChart(twin);
+
+            assertArrayEquals(chart.getId(), image, chart.getContent().getByteData());
+            assertEquals(chart.getId(), describe(twin), describe(chart));
+        }
+    }
+
+    @Test
+    public void nextDrawTakesTheImageOfTheBatch() {
+        final List<Chart> charts = newCharts();
+        final List<String> rendered = new ArrayList<>();
+        final RenderListener listener = metrics -> rendered.add(metrics.getChartId());
+        RenderMonitor.addListener(listener);
+        try {
+            final JFreeChartEngine engine = new JFreeChartEngine();
+            engine.drawCharts(charts);
+            assertEquals(charts.size(), rendered.size());
+
+            rendered.clear();
+            for (Chart chart : charts.subList(1, charts.size())) {
+                assertArrayEquals(chart.getContent().getByteData(), engine.drawChart(chart));
+            }
+            assertEquals(0, rendered.size());
+
+            // The first chart changed since the batch: it is drawn again
+            final SimpleCategoryModel model = (SimpleCategoryModel) charts.get(0).getModel();
+            model.setValue("s0", "c0", 42);
+            assertFalse(Arrays.equals(charts.get(0).getContent().getByteData(), engine.drawChart(charts.get(0))));
+            assertEquals(Arrays.asList("bar"), rendered);
+        } finally {
+            RenderMonitor.removeListener(listener);
+        }
+    }
+
+    /**
+     * Charts of each model type, two of them sharing a model.
+     */
+    private static List<Chart> newCharts() {
+        final SimpleCategoryModel categories = new SimpleCategoryModel();
+        final SimplePieModel pie = new SimplePieModel();
+        for (int i = 0; i < 12; i++) {
+            categories.setValue("s0", "c" + i, i + 1);
+            categories.setValue("s1", "c" + i, 30 - i);
+            pie.setValue("p" + i, i + 1);
+        }
+        final SimpleXYModel series = new SimpleXYModel();
+        for (int i = 0; i < 500; i++) {
+            series.addValue("s0", 1400000000000L + i * 3600000L, Math.sin(i / 20.0));
+        }
+
+        return Arrays.asList(
+                newChart("bar", Chart.BAR, categories),
+                newChart("line", Chart.LINE, categories),
+                newChart("pie", Chart.PIE, pie),
+                newChart("series", Chart.TIME_SERIES, series));
+    }
+
+    private static Chart newChart(String id, String type, ChartModel model) {
+        final Chart chart = new TestChart();
+        chart.setId(id);
+        chart.setType(type);
+        chart.setWidth("400px");
+        chart.setHeight("300px");
+        chart.setShowTooltiptext(true);
+        chart.setModel(model);
+        chart.setAttribute("render-cache", false);
+        return chart;
+    }
+
+    private static List<String> describe(Chart chart) {
+        final List<String> areas = new ArrayList<>();
+        for (Object child : chart.getChildren()) {
+            final Area area = (Area) child;
+            areas.add(area.getId() + " " + area.getShape() + " " + area.getCoords() + " " + area.getTooltiptext()
+                    + " " + area.getAttributes());
+        }
+        return areas;
+    }
+}
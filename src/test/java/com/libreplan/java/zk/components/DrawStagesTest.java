@@ -0,0 +1,121 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.entity.ChartEntity;
+import org.junit.Test;
+import org.zkoss.zul.Area;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.ChartModel;
+import org.zkoss.zul.SimpleCategoryModel;
+import org.zkoss.zul.SimplePieModel;
+import org.zkoss.zul.SimpleXYModel;
+
+/**
+ * The stages of a draw, run one after the other as the stage benchmarks run them,
+ * give the image and the areas of a whole draw.
+ */
+public class DrawStagesTest {
+
+    @Test
+    public void stagesOfATimeSeriesGiveItsDraw() {
+        final SimpleXYModel model = new SimpleXYModel();
+        for (int i = 0; i < 300; i++) {
+            model.addValue("s0", 1400000000000L + i * 3600000L, Math.cos(i / 15.0));
+        }
+        assertStagesGiveTheDraw(Chart.TIME_SERIES, model);
+    }
+
+    @Test
+    public void stagesOfABarChartGiveItsDraw() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        for (int i = 0; i < 20; i++) {
+            model.setValue("s0", "c" + i, i + 1);
+            model.setValue("s1", "c" + i, 40 - i);
+        }
+        assertStagesGiveTheDraw(Chart.BAR, model);
+    }
+
+    @Test
+    public void stagesOfAPieChartGiveItsDraw() {
+        final SimplePieModel model = new SimplePieModel();
+        for (int i = 0; i < 7; i++) {
+            model.setValue("p" + i, i + 2);
+        }
+        assertStagesGiveTheDraw(Chart.PIE, model);
+    }
+
+    private static void assertStagesGiveTheDraw(String type, ChartModel model) {
+        final JFreeChartEngine engine = new JFreeChartEngine();
+        final Chart chart = newChart(type, model);
+        final byte[] image = engine.drawChart(chart);
+        final List<String> expected = new ArrayList<>();
+        for (Object child : chart.getChildren()) {
+            final Area area = (Area) child;
+            expected.add(describe(area.getShape(), area.getCoords(), area.getTooltiptext(), area.getAttributes()));
+        }
+
+        final Chart staged = newChart(type, model);
+        final JFreeChartEngine.ChartImpl impl = engine.getChartImpl(staged);
+        final JFreeChart jfchart = impl.createChart(staged, impl.getDataset(staged));
+        engine.setupChart(staged, jfchart);
+
+        final ChartRenderingInfo info = new ChartRenderingInfo();
+        final BufferedImage raster = RasterPool.draw(jfchart, staged.getIntWidth(), staged.getIntHeight(), info);
+        final List<AreaInfo> areas = new ArrayList<>();
+        engine.collectAreas(staged, impl, info, true, new ArrayList<ChartEntity>(),
+                new int[info.getEntityCollection().getEntityCount()], areas);
+        final byte[] encoded;
+        try {
+            encoded = PngEncoder.encode(raster, PngEncoder.toLevel(null), true);
+        } finally {
+            RasterPool.release(raster);
+        }
+
+        assertArrayEquals(image, encoded);
+        final List<String> actual = new ArrayList<>();
+        for (int i = 0; i < areas.size(); i++) {
+            final Area area = areas.get(i).newArea("area_" + i);
+            actual.add(describe(area.getShape(), area.getCoords(), area.getTooltiptext(), area.getAttributes()));
+        }
+        assertEquals(expected, actual);
+    }
+
+    private static String describe(String shape, String coords, String tooltip, Object attributes) {
+        return shape + " " + coords + " " + tooltip + " " + attributes;
+    }
+
+    private static Chart newChart(String type, ChartModel model) {
+        final Chart chart = new TestChart();
+        chart.setType(type);
+        chart.setWidth("500px");
+        chart.setHeight("300px");
+        chart.setTitle("Stages");
+        chart.setShowTooltiptext(true);
+        chart.setModel(model);
+        chart.setAttribute("render-cache", false);
+        return chart;
+    }
+}
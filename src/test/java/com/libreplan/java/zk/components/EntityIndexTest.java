@@ -0,0 +1,158 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.event.MouseEvent;
+import org.zkoss.zul.Area;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.SimpleCategoryModel;
+import org.zkoss.zul.SimplePieModel;
+
+/**
+ * A click on a chart with deferred areas finds the area the chart would have had as a child.
+ */
+public class EntityIndexTest {
+
+    @Test
+    public void clickOnPieChartFindsItsArea() {
+        final SimplePieModel model = new SimplePieModel();
+        for (int i = 0; i < 8; i++) {
+            model.setValue("c" + i, i + 1);
+        }
+        assertClicksFindAreas(newChart(Chart.PIE, model));
+    }
+
+    @Test
+    public void clickOnBarChartFindsItsArea() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        for (int i = 0; i < 10; i++) {
+            model.setValue("s0", "c" + i, i + 1);
+            model.setValue("s1", "c" + i, 20 - i);
+        }
+        assertClicksFindAreas(newChart(Chart.BAR, model));
+    }
+
+    @Test
+    public void clickAfterModelChangeFindsNoArea() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        model.setValue("s0", "c0", 10);
+        final Chart chart = newChart(Chart.BAR, model);
+        chart.setAttribute("deferred-areas", true);
+        final JFreeChartEngine engine = new JFreeChartEngine();
+        engine.drawChart(chart);
+
+        final Rectangle plot = new Rectangle(0, 0, chart.getIntWidth(), chart.getIntHeight());
+        final Area bar = findDataArea(chart, plot);
+        assertNotNull(bar);
+        assertEquals(10, ((Number) bar.getAttribute("value")).intValue());
+
+        // The image still shows the value of the draw, the data set does not
+        model.setValue("s0", "c0", 20);
+        assertNull(findDataArea(chart, plot));
+
+        engine.drawChart(chart);
+        assertEquals(20, ((Number) findDataArea(chart, plot).getAttribute("value")).intValue());
+    }
+
+    private static Area findDataArea(Chart chart, Rectangle bounds) {
+        for (int y = bounds.y; y < bounds.y + bounds.height; y += 4) {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x += 4) {
+                final Area area = JFreeChartEngine.getArea(new MouseEvent("onClick", chart, x, y, 0, 0));
+                if (area != null && "DATA".equals(area.getAttribute("entity"))) {
+                    return area;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Chart newChart(String type, org.zkoss.zul.ChartModel model) {
+        final Chart chart = new TestChart();
+        chart.setId("chart");
+        chart.setType(type);
+        chart.setWidth("400px");
+        chart.setHeight("300px");
+        chart.setShowTooltiptext(true);
+        chart.setModel(model);
+        chart.setAttribute("render-cache", false);
+        return chart;
+    }
+
+    private static void assertClicksFindAreas(Chart chart) {
+        new JFreeChartEngine().drawChart(chart);
+        final List<Area> areas = new ArrayList<>();
+        for (Object child : chart.getChildren()) {
+            areas.add((Area) child);
+        }
+
+        chart.setAttribute("deferred-areas", true);
+        new JFreeChartEngine().drawChart(chart);
+        assertEquals(0, chart.getChildren().size());
+
+        for (Area area : areas) {
+            final Rectangle bounds = toShape(area).getBounds();
+            final int x = bounds.x + bounds.width / 2;
+            final int y = bounds.y + bounds.height / 2;
+            final Area expected = findArea(areas, x, y);
+            if (expected == null) {
+                continue;
+            }
+
+            final Area found = JFreeChartEngine.getArea(new MouseEvent("onClick", chart, x, y, 0, 0));
+            assertNotNull(found);
+            assertEquals(expected.getId(), found.getId());
+            assertEquals(expected.getAttributes(), found.getAttributes());
+            assertEquals(expected.getTooltiptext(), found.getTooltiptext());
+        }
+    }
+
+    private static Area findArea(List<Area> areas, int x, int y) {
+        for (Area area : areas) {
+            if (toShape(area).contains(x, y)) {
+                return area;
+            }
+        }
+        return null;
+    }
+
+    private static Shape toShape(Area area) {
+        final String[] coords = area.getCoords().split(",");
+        final int[] values = new int[coords.length];
+        for (int i = 0; i < coords.length; i++) {
+            values[i] = Integer.parseInt(coords[i].trim());
+        }
+
+        if ("rect".equals(area.getShape())) {
+            return new Rectangle(values[0], values[1], values[2] - values[0], values[3] - values[1]);
+        }
+        final Polygon polygon = new Polygon();
+        for (int i = 0; i + 1 < values.length; i += 2) {
+            polygon.addPoint(values[i], values[i + 1]);
+        }
+        return polygon;
+    }
+}
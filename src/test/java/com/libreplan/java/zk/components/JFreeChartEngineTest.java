@@ -0,0 +1,200 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zul.Area;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.ChartModel;
+import org.zkoss.zul.GanttModel;
+import org.zkoss.zul.SimpleCategoryModel;
+import org.zkoss.zul.SimplePieModel;
+import org.zkoss.zul.SimpleXYModel;
+
+/**
+ * One engine draws charts in parallel as it draws them one at a time.
+ */
+public class JFreeChartEngineTest {
+
+    private static final String[] TYPES = {
+            Chart.PIE, Chart.BAR, Chart.LINE, Chart.AREA, Chart.STACKED_AREA, Chart.TIME_SERIES
+    };
+
+    @Test
+    public void parallelDrawsAreSingleThreadedDraws() throws Exception {
+        final JFreeChartEngine engine = new JFreeChartEngine();
+
+        final List<byte[]> expected = new ArrayList<>();
+        for (int i = 0; i < TYPES.length * 2; i++) {
+            expected.add(engine.drawChart(newChart(i)));
+        }
+
+        final List<Callable<byte[]>> draws = new ArrayList<>();
+        for (int round = 0; round < 8; round++) {
+            for (int i = 0; i < expected.size(); i++) {
+                final int chart = i;
+                draws.add(() -> engine.drawChart(newChart(chart)));
+            }
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<byte[]>> images = executor.invokeAll(draws);
+            for (int i = 0; i < images.size(); i++) {
+                assertArrayEquals("Chart " + i % expected.size(), expected.get(i % expected.size()),
+                        images.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void ganttChartIsDrawnAgainAfterDrawCharts() {
+        final GanttModel model = new GanttModel();
+        model.addValue("s0", new GanttModel.GanttTask("t0", new Date(0), new Date(432000000L), 0.5));
+        model.addValue("s0", new GanttModel.GanttTask("t1", new Date(86400000L), new Date(691200000L), 0.2));
+
+        final Chart chart = new TestChart();
+        chart.setType(Chart.GANTT);
+        chart.setWidth("400px");
+        chart.setHeight("300px");
+        chart.setModel(model);
+
+        final JFreeChartEngine engine = new JFreeChartEngine();
+        engine.drawCharts(Collections.singletonList(chart));
+        assertNotNull(engine.drawChart(chart)); // A Gantt chart has no fingerprint
+    }
+
+    @Test
+    public void manyAreasAreReconciledInOrder() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        for (int i = 0; i < 3000; i++) {
+            model.setValue("s0", "c" + i, i % 17);
+            model.setValue("s1", "c" + i, i % 11);
+        }
+
+        final Chart chart = newBarChart(model);
+        final JFreeChartEngine engine = new JFreeChartEngine();
+        engine.drawChart(chart);
+        final Set<Component> previous = Collections.newSetFromMap(new IdentityHashMap<>());
+        previous.addAll(chart.getChildren());
+
+        // The first category goes last, the others keep their areas in between
+        model.removeValue("s0", "c0");
+        model.removeValue("s1", "c0");
+        model.setValue("s0", "c0", 5);
+        model.setValue("s1", "c0", 6);
+        model.setValue("s0", "c3000", 7);
+        engine.drawChart(chart);
+
+        final Chart fresh = newBarChart(model);
+        engine.drawChart(fresh);
+
+        final List<Component> areas = new ArrayList<>(chart.getChildren());
+        final List<Component> expected = new ArrayList<>(fresh.getChildren());
+        assertEquals(expected.size(), areas.size());
+        int kept = 0;
+        for (int i = 0; i < areas.size(); i++) {
+            final Area area = (Area) areas.get(i);
+            final Area other = (Area) expected.get(i);
+            assertEquals("Area " + i, other.getCoords(), area.getCoords());
+            assertEquals("Area " + i, other.getTooltiptext(), area.getTooltiptext());
+            if (previous.contains(area)) {
+                kept++;
+            }
+        }
+        assertTrue("Kept " + kept, kept > 5000);
+    }
+
+    private static Chart newBarChart(SimpleCategoryModel model) {
+        final Chart chart = new TestChart();
+        chart.setType(Chart.BAR);
+        chart.setWidth("4000px");
+        chart.setHeight("300px");
+        chart.setShowTooltiptext(true);
+        chart.setAttribute("render-cache", false);
+        chart.setModel(model);
+        return chart;
+    }
+
+    /**
+     * Returns a new chart of one of the types, with its own model, date format and options.
+     */
+    private static Chart newChart(int index) {
+        final String type = TYPES[index % TYPES.length];
+        final boolean variant = index >= TYPES.length;
+
+        final Chart chart = new TestChart();
+        chart.setId("chart" + index);
+        chart.setType(type);
+        chart.setThreeD(variant && (Chart.PIE.equals(type) || Chart.BAR.equals(type)));
+        chart.setWidth(variant ? "500px" : "400px");
+        chart.setHeight("300px");
+        chart.setTitle(type + index);
+        chart.setShowTooltiptext(true);
+        chart.setTimeZone(TimeZone.getTimeZone(variant ? "Asia/Tokyo" : "UTC"));
+        chart.setDateFormat(variant ? "dd/MM HH:mm" : "yyyy-MM-dd");
+        chart.setAttribute("render-cache", false);
+        chart.setModel(newModel(type, variant, index));
+        return chart;
+    }
+
+    private static ChartModel newModel(String type, boolean variant, int index) {
+        if (Chart.PIE.equals(type)) {
+            final SimplePieModel model = new SimplePieModel();
+            for (int i = 0; i < 6; i++) {
+                model.setValue("c" + i, i + index);
+            }
+            return model;
+        }
+
+        // Line and area charts draw a XY model as well
+        if (Chart.TIME_SERIES.equals(type) || (variant && !Chart.BAR.equals(type))) {
+            final SimpleXYModel model = new SimpleXYModel();
+            for (int i = 0; i < 200; i++) {
+                model.addValue("s0", 1000000000000L + i * 3600000L, Math.sin((i + index) / 10.0));
+                model.addValue("s1", 1000000000000L + i * 3600000L, Math.cos(i / 7.0));
+            }
+            return model;
+        }
+
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        for (int i = 0; i < 10; i++) {
+            model.setValue("s0", "c" + i, i + index);
+            model.setValue("s1", "c" + i, 20 - i);
+        }
+        return model;
+    }
+}
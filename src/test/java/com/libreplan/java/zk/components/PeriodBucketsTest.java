@@ -0,0 +1,131 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.jfree.data.time.Day;
+import org.jfree.data.time.Hour;
+import org.jfree.data.time.Millisecond;
+import org.jfree.data.time.Minute;
+import org.jfree.data.time.Month;
+import org.jfree.data.time.Quarter;
+import org.jfree.data.time.RegularTimePeriod;
+import org.jfree.data.time.Second;
+import org.jfree.data.time.Week;
+import org.jfree.data.time.Year;
+import org.junit.Test;
+import org.zkoss.zul.Chart;
+
+/**
+ * The periods of the buckets have the bounds of the JFreeChart periods, whether they are
+ * computed from the table of the zone or with a Calendar.
+ */
+public class PeriodBucketsTest {
+
+    private static final String[] PERIODS = {Chart.MILLISECOND, Chart.SECOND, Chart.MINUTE, Chart.HOUR,
+        Chart.DAY, Chart.WEEK, Chart.MONTH, Chart.QUARTER, Chart.YEAR};
+
+    private static final Class<?>[] CLASSES = {Millisecond.class, Second.class, Minute.class, Hour.class,
+        Day.class, Week.class, Month.class, Quarter.class, Year.class};
+
+    /**
+     * Zones with DST at midnight, with a DST shift of 30 minutes, and with no DST.
+     */
+    private static final String[] ZONES = {"UTC", "Europe/Madrid", "America/Sao_Paulo",
+        "Australia/Lord_Howe", "Asia/Kolkata"};
+
+    /** 1900, the first year of a JFreeChart Day, to 2150, past the end of the tables. */
+    private static final long FROM = -2208816000000L;
+
+    private static final long TO = 5680281600000L;
+
+    @Test
+    public void periodsHaveTheBoundsOfJFreeChart() {
+        final Random random = new Random(5);
+        for (String id : ZONES) {
+            final TimeZone zone = TimeZone.getTimeZone(id);
+            for (int p = 0; p < PERIODS.length; p++) {
+                final PeriodBuckets buckets = new PeriodBuckets(PERIODS[p], zone);
+                for (int i = 0; i < 2000; i++) {
+                    assertBounds(buckets, CLASSES[p], zone, FROM + (long) (random.nextDouble() * (TO - FROM)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void periodsAroundOffsetTransitionsHaveTheBoundsOfJFreeChart() {
+        for (String id : ZONES) {
+            final TimeZone zone = TimeZone.getTimeZone(id);
+            for (int p = 0; p < PERIODS.length; p++) {
+                final PeriodBuckets buckets = new PeriodBuckets(PERIODS[p], zone);
+                for (int year = 1990; year < 2030; year++) {
+                    // Each quarter hour of the days where the offset changes
+                    for (long day = toMillis(year, 0); day < toMillis(year + 1, 0); day += 86400000L) {
+                        if (zone.getOffset(day) == zone.getOffset(day + 86400000L)) {
+                            continue;
+                        }
+                        for (long millis = day - 86400000L; millis < day + 2 * 86400000L; millis += 900000L) {
+                            assertBounds(buckets, CLASSES[p], zone, millis);
+                            assertBounds(buckets, CLASSES[p], zone, millis - 1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void aggregationsIgnoreNullValuesButLast() {
+        final double[] values = {4, Double.NaN, 1, 7};
+        assertEquals(12, aggregate(PeriodBuckets.Aggregation.SUM, values), 0);
+        assertEquals(4, aggregate(PeriodBuckets.Aggregation.AVG, values), 0);
+        assertEquals(1, aggregate(PeriodBuckets.Aggregation.MIN, values), 0);
+        assertEquals(7, aggregate(PeriodBuckets.Aggregation.MAX, values), 0);
+        assertEquals(7, aggregate(PeriodBuckets.Aggregation.LAST, values), 0);
+        assertEquals(Double.NaN, aggregate(PeriodBuckets.Aggregation.LAST, new double[] {3, Double.NaN}), 0);
+        assertEquals(PeriodBuckets.Aggregation.LAST, PeriodBuckets.Aggregation.of(null));
+        assertEquals(PeriodBuckets.Aggregation.AVG, PeriodBuckets.Aggregation.of("avg"));
+    }
+
+    private static double aggregate(PeriodBuckets.Aggregation aggregation, double[] values) {
+        double value = Double.NaN;
+        int count = 0;
+        for (double y : values) {
+            value = aggregation.merge(value, count, y);
+            if (!Double.isNaN(y)) {
+                count++;
+            }
+        }
+        return value;
+    }
+
+    private static long toMillis(int year, int dayOfYear) {
+        return (long) ((year - 1970) * 365.2425 + dayOfYear) * 86400000L;
+    }
+
+    private static void assertBounds(PeriodBuckets buckets, Class<?> type, TimeZone zone, long millis) {
+        final RegularTimePeriod period = RegularTimePeriod.createInstance(type, new Date(millis), zone);
+        final String message = type.getSimpleName() + " of " + millis + " in " + zone.getID();
+        assertEquals(message, period.getFirstMillisecond(), buckets.start(millis));
+        assertEquals(message, period.getLastMillisecond(), buckets.end(millis));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.jfree.data.general.DefaultPieDataset;
+import org.junit.Test;
+
+/**
+ * The small sections of a pie are folded in place into the dataset of the previous draw.
+ */
+public class PieAggregationTest {
+
+    @Test
+    public void smallSectionsAreFoldedInPlace() {
+        final PieAggregation aggregation = PieAggregation.of(2, null, null);
+        final DefaultPieDataset dataset = new DefaultPieDataset();
+        dataset.setValue("a", 10);
+        dataset.setValue("b", 1);
+        dataset.setValue("c", 20);
+        dataset.setValue("d", 2);
+
+        final DefaultPieDataset result = new DefaultPieDataset();
+        aggregation.aggregate(dataset, result);
+        assertEquals(Arrays.asList("a", "c", "Other"), labels(result));
+        assertEquals(3.0, result.getValue(2).doubleValue(), 0);
+        assertEquals(Arrays.asList("b", "d"), Arrays.asList(members(result).keySet().toArray()));
+
+        dataset.setValue("b", 30);
+        aggregation.aggregate(dataset, result);
+        assertEquals(Arrays.asList("b", "c", "Other"), labels(result));
+        assertEquals(12.0, result.getValue(2).doubleValue(), 0);
+        assertEquals(Arrays.asList("a", "d"), Arrays.asList(members(result).keySet().toArray()));
+
+        // A single small section is not folded
+        dataset.remove("d");
+        aggregation.aggregate(dataset, result);
+        assertEquals(Arrays.asList("a", "b", "c"), labels(result));
+    }
+
+    @Test
+    public void labelOfACategoryIsNumbered() {
+        final DefaultPieDataset dataset = new DefaultPieDataset();
+        dataset.setValue("Other", 10);
+        dataset.setValue("Other (2)", 10);
+        dataset.setValue("b", 1);
+        dataset.setValue("c", 1);
+
+        final DefaultPieDataset result = new DefaultPieDataset();
+        PieAggregation.of(2, null, null).aggregate(dataset, result);
+        assertEquals(Arrays.asList("Other", "Other (2)", "Other (3)"), labels(result));
+    }
+
+    private static List<String> labels(DefaultPieDataset dataset) {
+        final List<String> labels = new ArrayList<>();
+        for (Object key : dataset.getKeys()) {
+            labels.add(key.toString());
+        }
+        return labels;
+    }
+
+    private static Map<Comparable<?>, Number> members(DefaultPieDataset dataset) {
+        return ((PieAggregation.Other) dataset.getKey(dataset.getItemCount() - 1)).getMembers();
+    }
+}
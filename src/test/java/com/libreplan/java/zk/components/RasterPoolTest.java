@@ -0,0 +1,87 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.category.DefaultCategoryDataset;
+import org.junit.Test;
+
+/**
+ * A chart is drawn into an image without alpha when its background is opaque, and a pooled
+ * image gives the same pixels as a new one.
+ */
+public class RasterPoolTest {
+
+    @Test
+    public void opaqueBackgroundIsDrawnWithoutAlpha() {
+        assertEquals(BufferedImage.TYPE_INT_RGB, drawAndRelease(Color.WHITE).getType());
+        assertEquals(BufferedImage.TYPE_INT_ARGB_PRE, drawAndRelease(new Color(255, 255, 255, 128)).getType());
+        assertEquals(BufferedImage.TYPE_INT_ARGB_PRE, drawAndRelease(null).getType());
+    }
+
+    @Test
+    public void releasedImageIsReusedWithTheSamePixelsAsANewOne() {
+        final BufferedImage first = RasterPool.draw(newChart(new Color(255, 160, 0, 200), 40), 123, 77, new ChartRenderingInfo());
+        RasterPool.release(first);
+
+        // A translucent chart over the pooled image, which must be cleared first
+        final JFreeChart chart = newChart(new Color(0, 0, 255, 40), 10);
+        final BufferedImage pooled = RasterPool.draw(chart, 123, 77, new ChartRenderingInfo());
+        try {
+            assertSame(first, pooled);
+            final BufferedImage fresh = new BufferedImage(123, 77, BufferedImage.TYPE_INT_ARGB_PRE);
+            final Graphics2D g2 = fresh.createGraphics();
+            chart.draw(g2, new Rectangle2D.Double(0, 0, 123, 77), null, new ChartRenderingInfo());
+            g2.dispose();
+            assertArrayEquals(pixels(fresh), pixels(pooled));
+        } finally {
+            RasterPool.release(pooled);
+        }
+    }
+
+    private static BufferedImage drawAndRelease(Color background) {
+        final BufferedImage image = RasterPool.draw(newChart(background, 1), 50, 40, new ChartRenderingInfo());
+        RasterPool.release(image);
+        return image;
+    }
+
+    private static JFreeChart newChart(Color background, int value) {
+        final DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+        dataset.addValue(value, "s0", "c0");
+        dataset.addValue(20, "s0", "c1");
+        final JFreeChart chart = ChartFactory.createBarChart("title", null, null, dataset,
+                PlotOrientation.VERTICAL, false, false, false);
+        chart.setBackgroundPaint(background);
+        chart.getPlot().setBackgroundPaint(null);
+        return chart;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
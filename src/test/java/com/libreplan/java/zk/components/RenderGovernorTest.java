@@ -0,0 +1,180 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * The governor degrades a render one step at a time until it fits its budgets,
+ * and a chart with an image keeps it when the queue is full or its turn comes too late.
+ */
+public class RenderGovernorTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void renderWithinBudgetsIsNotDegraded() {
+        final RenderGovernor governor = new RenderGovernor(2, 8, 1000, 64);
+        try (RenderGovernor.Permit permit = governor.acquire(newRequest(1000, true, true))) {
+            assertEquals(RenderMetrics.Degradation.NONE, permit.getDegradation());
+            assertFalse(permit.isDownsampled());
+            assertTrue(permit.isWithAreas());
+            assertEquals(1000, permit.getDownsampledPoints());
+            assertEquals(0, permit.getQueueNanos());
+        }
+    }
+
+    @Test
+    public void slowRenderIsDownsampledThenDrawnWithoutAreas() {
+        // 12 ms for the pixels, 200 ms for all the points, 2 ms for the downsampled ones and 120 ms for their areas
+        try (RenderGovernor.Permit permit = new RenderGovernor(1, 4, 200, 0).acquire(newRequest(100000, true, true))) {
+            assertEquals(RenderMetrics.Degradation.DOWNSAMPLED, permit.getDegradation());
+            assertTrue(permit.isDownsampled());
+            assertTrue(permit.isWithAreas());
+            assertEquals(800, permit.getDownsampledPoints());
+        }
+
+        try (RenderGovernor.Permit permit = new RenderGovernor(1, 4, 50, 0).acquire(newRequest(100000, true, true))) {
+            assertEquals(RenderMetrics.Degradation.NO_AREAS, permit.getDegradation());
+            assertTrue(permit.isDownsampled());
+            assertFalse(permit.isWithAreas());
+            assertEquals(800, permit.getDownsampledPoints());
+        }
+    }
+
+    @Test
+    public void largeRenderIsDrawnWithoutAreas() {
+        // 0.5 MB for the pixels, 2 KB for the area of each of the 800 downsampled points
+        try (RenderGovernor.Permit permit = new RenderGovernor(1, 4, 0, 1).acquire(newRequest(100000, true, true))) {
+            assertEquals(RenderMetrics.Degradation.NO_AREAS, permit.getDegradation());
+            assertEquals(800, permit.getDownsampledPoints());
+        }
+    }
+
+    @Test
+    public void renderThatDoesNotFitIsDrawnAnywayWithoutLoad() {
+        try (RenderGovernor.Permit permit = new RenderGovernor(1, 4, 1, 0).acquire(newRequest(100000, true, true))) {
+            assertEquals(RenderMetrics.Degradation.NO_AREAS, permit.getDegradation());
+            assertFalse(permit.isLastImage());
+        }
+    }
+
+    @Test
+    public void fullQueueKeepsTheLastImage() throws Exception {
+        final RenderGovernor governor = new RenderGovernor(1, 1, 0, 0);
+        final RenderGovernor.Permit running = governor.acquire(newRequest(100, false, true));
+        final FutureTask<RenderGovernor.Permit> queued = new FutureTask<>(() -> governor.acquire(newRequest(100, false, true)));
+        final Thread thread = new Thread(queued);
+        try {
+            thread.start();
+            waitForQueue(thread);
+
+            final RenderGovernor.Permit dropped = governor.acquire(newRequest(100, false, true));
+            assertTrue(dropped.isLastImage());
+            assertEquals(0, dropped.getQueueNanos());
+            dropped.close(); // Holds no slot
+
+            running.close();
+            try (RenderGovernor.Permit permit = queued.get(10, TimeUnit.SECONDS)) {
+                assertEquals(RenderMetrics.Degradation.NONE, permit.getDegradation());
+                assertTrue(permit.getQueueNanos() > 0);
+            }
+            try (RenderGovernor.Permit permit = governor.acquire(newRequest(100, false, true))) {
+                assertEquals(0, permit.getQueueNanos());
+            }
+        } finally {
+            thread.interrupt();
+        }
+    }
+
+    @Test
+    public void chartWithoutImageWaitsItsTurn() throws Exception {
+        final RenderGovernor governor = new RenderGovernor(1, 0, 10, 0);
+        final RenderGovernor.Permit running = governor.acquire(newRequest(100, false, true));
+        final FutureTask<RenderGovernor.Permit> queued = new FutureTask<>(() -> governor.acquire(newRequest(100, false, false)));
+        final Thread thread = new Thread(queued);
+        try {
+            thread.start();
+            waitForQueue(thread);
+            Thread.sleep(50); // Longer than the time budget
+            assertFalse(queued.isDone());
+
+            running.close();
+            try (RenderGovernor.Permit permit = queued.get(10, TimeUnit.SECONDS)) {
+                assertFalse(permit.isLastImage());
+            }
+        } finally {
+            thread.interrupt();
+        }
+    }
+
+    @Test
+    public void lateTurnKeepsTheLastImage() {
+        final RenderGovernor governor = new RenderGovernor(1, 4, 20, 0);
+        try (RenderGovernor.Permit running = governor.acquire(newRequest(100, false, true))) {
+            final RenderGovernor.Permit late = governor.acquire(newRequest(100, false, true));
+            assertTrue(late.isLastImage());
+            assertTrue(late.getQueueNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        }
+    }
+
+    @Test
+    public void measuredRendersReplaceTheEstimatedCost() {
+        final RenderGovernor governor = new RenderGovernor(1, 4, 200, 0);
+        final RenderGovernor.Request request = newRequest(100000, true, true);
+        try (RenderGovernor.Permit permit = governor.acquire(request)) {
+            assertEquals(RenderMetrics.Degradation.DOWNSAMPLED, permit.getDegradation());
+        }
+
+        // 100 ns per point and 100 ns for its area, 32 ms in all for the request once learned
+        for (int i = 0; i < 40; i++) {
+            try (RenderGovernor.Permit permit = governor.acquire(newRequest(1000, true, true))) {
+                assertEquals(RenderMetrics.Degradation.NONE, permit.getDegradation());
+                final RenderMetrics metrics = new RenderMetrics("xy", 400, 300, false);
+                metrics.add(RenderMetrics.Phase.RASTERIZE, 400 * 300 * 100 + 1000 * 100);
+                metrics.add(RenderMetrics.Phase.AREAS, 1000 * 100);
+                permit.learn(metrics);
+            }
+        }
+        try (RenderGovernor.Permit permit = governor.acquire(request)) {
+            assertEquals(RenderMetrics.Degradation.NONE, permit.getDegradation());
+        }
+    }
+
+    /**
+     * A 400x300 XY chart that can be downsampled to 800 points.
+     */
+    private static RenderGovernor.Request newRequest(int points, boolean withAreas, boolean hasLastImage) {
+        return new RenderGovernor.Request("xy", 400, 300, points, 800, withAreas, hasLastImage);
+    }
+
+    /**
+     * Waits until the thread of a queued render blocks on its turn.
+     */
+    private static void waitForQueue(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(thread.isAlive());
+            Thread.sleep(1);
+        }
+    }
+}
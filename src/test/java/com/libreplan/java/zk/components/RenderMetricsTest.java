@@ -0,0 +1,131 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.SimpleCategoryModel;
+
+/**
+ * The metrics of a draw describe what it did, and the statistics summarize them by chart type.
+ */
+public class RenderMetricsTest {
+
+    @Test
+    public void drawReportsItsMetrics() {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        for (int i = 0; i < 15; i++) {
+            model.setValue("s0", "c" + i, i + 1);
+            model.setValue("s1", "c" + i, 20 - i);
+        }
+        final Chart chart = new TestChart();
+        chart.setId("metrics");
+        chart.setType(Chart.BAR);
+        chart.setThreeD(true);
+        chart.setWidth("420px");
+        chart.setHeight("260px");
+        chart.setShowTooltiptext(true);
+        chart.setModel(model);
+
+        final List<RenderMetrics> reported = new ArrayList<>();
+        final RenderListener listener = reported::add;
+        RenderMonitor.addListener(listener);
+        try {
+            final byte[] image = new JFreeChartEngine().drawChart(chart);
+            assertEquals(1, reported.size());
+            final RenderMetrics metrics = reported.get(0);
+            assertEquals("metrics", metrics.getChartId());
+            assertEquals("bar_3d", metrics.getType());
+            assertEquals(420, metrics.getWidth());
+            assertEquals(260, metrics.getHeight());
+            assertFalse(metrics.isCacheHit());
+            assertEquals(30, metrics.getPoints());
+            assertEquals(chart.getChildren().size(), metrics.getAreas());
+            assertTrue(metrics.getEntities() >= metrics.getAreas());
+            assertEquals(image.length, metrics.getBytes());
+            assertEquals(RenderMetrics.Degradation.NONE, metrics.getDegradation());
+            for (RenderMetrics.Phase phase : new RenderMetrics.Phase[] {RenderMetrics.Phase.DATASET,
+                    RenderMetrics.Phase.CREATE, RenderMetrics.Phase.RASTERIZE, RenderMetrics.Phase.ENCODE}) {
+                assertTrue(phase.name(), metrics.getNanos(phase) > 0);
+            }
+
+            // A redraw updates the areas of the previous draw and creates none
+            model.setValue("s0", "c3", 9);
+            new JFreeChartEngine().drawChart(chart);
+            assertEquals(2, reported.size());
+            assertEquals(0, reported.get(1).getAreas());
+        } finally {
+            RenderMonitor.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void histogramBucketsAreWithinAnEighthOfTheirTimes() {
+        int previous = -1;
+        for (long micros = 0; micros < 1L << 40; micros = micros < 100 ? micros + 1 : micros + micros / 7) {
+            final int bucket = RenderStats.bucket(micros);
+            assertTrue(bucket >= previous);
+            assertTrue(RenderStats.bucketLimit(bucket) >= micros);
+            assertTrue(bucket == 0 || RenderStats.bucketLimit(bucket - 1) < micros);
+            assertTrue(RenderStats.bucketLimit(bucket) - micros <= micros / 8);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void statisticsSummarizeTheDrawsOfEachType() {
+        final RenderStats stats = new RenderStats();
+        for (int i = 1; i <= 1000; i++) {
+            final RenderMetrics metrics = new RenderMetrics("pie", 100, 100, i % 4 == 0);
+            metrics.add(RenderMetrics.Phase.RASTERIZE, TimeUnit.MILLISECONDS.toNanos(i));
+            metrics.setPoints(10);
+            if (i % 10 == 0) {
+                metrics.setDegradation(RenderMetrics.Degradation.NO_AREAS);
+            }
+            stats.onRender(metrics);
+        }
+        stats.onRender(new RenderMetrics("bar", 100, 100, false));
+
+        final RenderStats.Summary pie = stats.getStatistics().get("pie");
+        assertEquals(1000, pie.getCount());
+        assertEquals(250, pie.getCacheHits());
+        assertEquals(100, pie.getDegraded());
+        assertEquals(500.5, pie.getMeanMillis(), 1e-9);
+        assertEquals(500.5, pie.getMeanRasterizeMillis(), 1e-9);
+        assertEquals(0, pie.getMeanEncodeMillis(), 0);
+        assertEquals(10, pie.getMeanPoints(), 0);
+        assertEquals(1000, pie.getMaxMillis(), 0);
+        assertWithinAnEighth(500, pie.getP50Millis());
+        assertWithinAnEighth(900, pie.getP90Millis());
+        assertWithinAnEighth(990, pie.getP99Millis());
+        assertEquals(1, stats.getStatistics().get("bar").getCount());
+
+        stats.reset();
+        assertTrue(stats.getStatistics().isEmpty());
+    }
+
+    private static void assertWithinAnEighth(double expected, double actual) {
+        assertTrue(actual + " for " + expected, actual >= expected && actual <= expected * 1.125);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * A window of the pyramid gives the raw points when they fit in the pixels,
+ * otherwise the aggregates of the points of each bucket at about one bucket per pixel.
+ */
+public class ResolutionPyramidTest {
+
+    private static final int SIZE = 100000;
+
+    private final double[] _x = new double[SIZE];
+
+    private final double[] _y = new double[SIZE];
+
+    public ResolutionPyramidTest() {
+        final Random random = new Random(7);
+        for (int i = 0; i < SIZE; i++) {
+            _x[i] = (i > 0 ? _x[i - 1] : 0) + 0.1 + random.nextDouble();
+            _y[i] = i % 997 == 0 ? Double.NaN : (i > 0 && !Double.isNaN(_y[i - 1]) ? _y[i - 1] : 0) + random.nextGaussian();
+        }
+    }
+
+    @Test
+    public void narrowWindowGivesTheRawPointsAndOneMoreAtEachSide() {
+        final ResolutionPyramid pyramid = new ResolutionPyramid(_x, _y, SIZE);
+        final Window window = new Window();
+        pyramid.read(_x[5000], _x[5100], 400, false, window);
+
+        assertTrue(window._buckets.isEmpty());
+        final int[] expected = new int[103];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = 4999 + i;
+        }
+        assertArrayEquals(expected, window.items());
+    }
+
+    @Test
+    public void wideWindowGivesTheAverageOfEachBucket() {
+        assertBuckets(false);
+    }
+
+    @Test
+    public void wideWindowGivesTheMinimumAndMaximumOfEachBucket() {
+        assertBuckets(true);
+    }
+
+    private void assertBuckets(boolean minmax) {
+        final ResolutionPyramid pyramid = new ResolutionPyramid(_x, _y, SIZE);
+        final double lower = _x[20000];
+        final double upper = _x[70000];
+        final int pixels = 600;
+        final Window window = new Window();
+        pyramid.read(lower, upper, pixels, minmax, window);
+
+        assertEquals(0, window._items.size());
+        final double pixelWidth = (upper - lower) / pixels;
+        final double[] first = window._buckets.get(0);
+        final double width = (first[1] - first[0]) * 2;
+        assertTrue(width <= pixelWidth && width * 2 > pixelWidth);
+        assertTrue(first[1] - width <= lower);
+        assertTrue(window._buckets.get(window._buckets.size() - 1)[1] > upper);
+
+        for (int k = 0; k < window._buckets.size(); k++) {
+            final double[] bucket = window._buckets.get(k);
+            final int from = lowerBound(bucket[1] - width);
+            final int to = lowerBound(bucket[1]);
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (!Double.isNaN(_y[i])) {
+                    min = Math.min(min, _y[i]);
+                    max = Math.max(max, _y[i]);
+                    sum += _y[i];
+                    count++;
+                }
+            }
+            assertTrue(count > 0);
+
+            if (!minmax) {
+                assertEquals(sum / count, bucket[2], 1e-9);
+            } else if (min == max) {
+                assertEquals(min, bucket[2], 0);
+            } else {
+                assertEquals(min, bucket[2], 0);
+                assertEquals(max, window._buckets.get(++k)[2], 0);
+            }
+        }
+    }
+
+    private int lowerBound(double key) {
+        final int index = Arrays.binarySearch(_x, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static final class Window implements ResolutionPyramid.Output {
+
+        private final List<Integer> _items = new ArrayList<>();
+
+        /** The middle, end and value of each bucket. */
+        private final List<double[]> _buckets = new ArrayList<>();
+
+        @Override
+        public void item(int index) {
+            _items.add(index);
+        }
+
+        @Override
+        public void bucket(double x, double end, double y) {
+            _buckets.add(new double[] {x, end, y});
+        }
+
+        int[] items() {
+            return _items.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
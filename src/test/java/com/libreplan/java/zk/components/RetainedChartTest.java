@@ -0,0 +1,154 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PiePlot;
+import org.junit.Test;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.SimpleCategoryModel;
+import org.zkoss.zul.SimplePieModel;
+import org.zkoss.zul.SimpleXYModel;
+
+/**
+ * A chart drawn in retained mode is the same image as a chart drawn from scratch.
+ */
+public class RetainedChartTest {
+
+    @Test
+    public void pieChartAfterChangesIsAFreshDraw() throws IOException {
+        final SimplePieModel model = new SimplePieModel();
+        for (int i = 0; i < 5; i++) {
+            model.setValue("c" + i, 10 + i);
+        }
+        final Chart chart = newRetainedChart(Chart.PIE, model);
+        draw(chart);
+
+        model.removeValue("c1");
+        assertSameImage(Chart.PIE, model, draw(chart));
+
+        model.setValue("c5", 7);
+        model.setValue("c0", 30);
+        assertSameImage(Chart.PIE, model, draw(chart));
+    }
+
+    @Test
+    public void pieChartWithFoldedSectionsKeepsItsPlot() throws IOException {
+        final SimplePieModel model = new SimplePieModel();
+        for (int i = 0; i < 8; i++) {
+            model.setValue("c" + i, 10 + i);
+        }
+        final Chart chart = newRetainedChart(Chart.PIE, model);
+        chart.setAttribute("pie-top-sections", 4);
+        draw(chart);
+        final JFreeChart jfchart = RetainedChart.lookup(chart).getChart();
+        final Object dataset = ((PiePlot) jfchart.getPlot()).getDataset();
+
+        model.setValue("c0", 5); // The same sections, folded or not
+        model.setValue("c7", 30);
+        final byte[] image = draw(chart);
+        assertSame(jfchart, RetainedChart.lookup(chart).getChart());
+        assertSame(dataset, ((PiePlot) jfchart.getPlot()).getDataset());
+
+        final Chart fresh = newChart(Chart.PIE, model);
+        fresh.setAttribute("pie-top-sections", 4);
+        assertArrayEquals(pixels(decode(draw(fresh))), pixels(decode(image)));
+    }
+
+    @Test
+    public void barChartAfterChangesIsAFreshDraw() throws IOException {
+        final SimpleCategoryModel model = new SimpleCategoryModel();
+        for (String series : new String[] {"s0", "s1", "s2"}) {
+            for (int i = 0; i < 4; i++) {
+                model.setValue(series, "c" + i, series.hashCode() % 7 + i);
+            }
+        }
+        final Chart chart = newRetainedChart(Chart.BAR, model);
+        draw(chart);
+
+        for (int i = 0; i < 4; i++) {
+            model.removeValue("s0", "c" + i);
+        }
+        assertSameImage(Chart.BAR, model, draw(chart));
+
+        model.setValue("s3", "c1", 5);
+        model.removeValue("s1", "c2");
+        assertSameImage(Chart.BAR, model, draw(chart));
+    }
+
+    @Test
+    public void lineChartAfterChangesIsAFreshDraw() throws IOException {
+        final SimpleXYModel model = new SimpleXYModel();
+        for (String series : new String[] {"s0", "s1", "s2"}) {
+            for (int i = 0; i < 10; i++) {
+                model.addValue(series, i, series.hashCode() % 5 + i);
+            }
+        }
+        final Chart chart = newRetainedChart(Chart.LINE, model);
+        draw(chart);
+
+        model.removeSeries("s1");
+        assertSameImage(Chart.LINE, model, draw(chart));
+
+        model.addValue("s3", 2, 4);
+        model.addValue("s0", 10, 1);
+        assertSameImage(Chart.LINE, model, draw(chart));
+    }
+
+    private static Chart newChart(String type, org.zkoss.zul.ChartModel model) {
+        final Chart chart = new TestChart();
+        chart.setType(type);
+        chart.setWidth("400px");
+        chart.setHeight("300px");
+        chart.setModel(model);
+        chart.setAttribute("render-cache", false);
+        return chart;
+    }
+
+    private static Chart newRetainedChart(String type, org.zkoss.zul.ChartModel model) {
+        final Chart chart = newChart(type, model);
+        chart.setAttribute("retained-chart", true);
+        return chart;
+    }
+
+    private static byte[] draw(Chart chart) {
+        return new JFreeChartEngine().drawChart(chart);
+    }
+
+    private static void assertSameImage(String type, org.zkoss.zul.ChartModel model, byte[] actual)
+            throws IOException {
+        final BufferedImage expected = decode(draw(newChart(type, model)));
+        final BufferedImage image = decode(actual);
+        assertArrayEquals(pixels(expected), pixels(image));
+    }
+
+    private static BufferedImage decode(byte[] png) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.entity.ChartEntity;
+import org.jfree.chart.entity.XYItemEntity;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.XYAreaRenderer;
+import org.jfree.chart.renderer.xy.XYItemRenderer;
+import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
+import org.jfree.data.Range;
+import org.jfree.data.general.DatasetUtilities;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+import org.junit.Test;
+
+/**
+ * The sampling renderer covers the pixels of the JFreeChart renderers it replaces,
+ * with at most one entity per pixel column.
+ */
+public class SamplingXYRendererTest {
+
+    private static final int WIDTH = 400;
+
+    private static final int HEIGHT = 250;
+
+    private static final int POINTS_PER_X = 200;
+
+    @Test
+    public void lineCoversThePixelsOfEveryPoint() {
+        final XYSeriesCollection dataset = newDataset(20000, false, 1);
+        final XYLineAndShapeRenderer lines = new XYLineAndShapeRenderer(true, false);
+        assertSamePixels(draw(dataset, lines, null), draw(dataset, new SamplingXYRenderer(SamplingXYRenderer.Shape.LINE), null));
+    }
+
+    @Test
+    public void areaCoversThePixelsOfEveryPoint() {
+        final XYSeriesCollection dataset = newDataset(20000, true, 1);
+        final XYAreaRenderer areas = new XYAreaRenderer(XYAreaRenderer.AREA);
+        assertSamePixels(draw(dataset, areas, null), draw(dataset, new SamplingXYRenderer(SamplingXYRenderer.Shape.AREA), null));
+    }
+
+    @Test
+    public void seriesHaveAnEntityPerPixelColumn() {
+        final XYSeriesCollection dataset = newDataset(20000, false, 2);
+        final ChartRenderingInfo info = new ChartRenderingInfo();
+        draw(dataset, new SamplingXYRenderer(SamplingXYRenderer.Shape.LINE), info);
+
+        final Set<String> columns = new HashSet<>();
+        int count = 0;
+        for (Object entity : info.getEntityCollection().getEntities()) {
+            if (!(entity instanceof XYItemEntity)) {
+                continue;
+            }
+            final XYItemEntity item = (XYItemEntity) entity;
+            final Rectangle2D bounds = ((ChartEntity) item).getArea().getBounds2D();
+            assertTrue(columns.add(item.getSeriesIndex() + " " + (int) bounds.getX()));
+            assertEquals(1, bounds.getWidth(), 0);
+            assertTrue(!Double.isNaN(dataset.getYValue(item.getSeriesIndex(), item.getItem())));
+            count++;
+        }
+        assertTrue(count > 0 && count <= 2 * WIDTH);
+    }
+
+    @Test
+    public void stackedAreaSpansTheStackedValues() {
+        final XYSeriesCollection dataset = new XYSeriesCollection();
+        final XYSeries first = new XYSeries("s0");
+        final XYSeries second = new XYSeries("s1");
+        first.add(0, 1);
+        first.add(1, 3);
+        second.add(1, 4);
+        second.add(2, -2);
+        dataset.addSeries(first);
+        dataset.addSeries(second);
+
+        final StackedXYDataset stacked = StackedXYDataset.of(dataset);
+        assertEquals(new Range(-2, 7), new SamplingXYRenderer(SamplingXYRenderer.Shape.STACKED_AREA).findRangeBounds(stacked));
+        assertEquals(3, stacked.getItemCount());
+        assertEquals(7, stacked.getStackedYValue(1, 1), 0);
+        assertEquals(1, stacked.getStackedYValue(1, 0), 0); // s1 has no value at 0, it counts as 0
+    }
+
+    /**
+     * A random walk per series, with a gap in the middle of the last one.
+     * The points come in runs with the same x, a few pixels apart, so the points the renderers
+     * draw within a pixel column are on a vertical line, whatever the rasterizer does with
+     * the fractions of a pixel.
+     */
+    private static XYSeriesCollection newDataset(int points, boolean positive, int seriesCount) {
+        final Random random = new Random(23);
+        final XYSeriesCollection dataset = new XYSeriesCollection();
+        for (int s = 0; s < seriesCount; s++) {
+            final XYSeries series = new XYSeries("s" + s, false, true);
+            double y = 50;
+            for (int i = 0; i < points; i++) {
+                y = Math.max(y + random.nextGaussian(), positive ? 0 : -Double.MAX_VALUE);
+                series.add(i / POINTS_PER_X, s == seriesCount - 1 && i >= points / 2 && i < points / 2 + 300 ? null : (Number) y);
+            }
+            dataset.addSeries(series);
+        }
+        return dataset;
+    }
+
+    private static BufferedImage draw(XYDataset dataset, XYItemRenderer renderer, ChartRenderingInfo info) {
+        renderer.setSeriesPaint(0, Color.RED);
+        renderer.setSeriesPaint(1, Color.BLUE);
+        final NumberAxis domain = new NumberAxis();
+        domain.setRange(DatasetUtilities.findDomainBounds(dataset));
+        final NumberAxis range = new NumberAxis();
+        // The same range for both renderers, with no line clipped by the plot
+        final Range bounds = DatasetUtilities.findRangeBounds(dataset);
+        range.setRange(Math.min(bounds.getLowerBound(), 0) - 10, bounds.getUpperBound() + 10);
+        final XYPlot plot = new XYPlot(dataset, domain, range, renderer);
+        final JFreeChart chart = new JFreeChart(null, null, plot, false);
+        chart.setAntiAlias(false);
+        chart.setBackgroundPaint(Color.WHITE);
+
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g2 = image.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        chart.draw(g2, new Rectangle2D.Double(0, 0, WIDTH, HEIGHT), null, info);
+        g2.dispose();
+        return image;
+    }
+
+    /**
+     * Asserts that the series covers the same rows in each pixel column as in that column or
+     * a neighbour, give or take one pixel for the caps and joins of the lines: a line drawn as
+     * one path and one drawn a segment at a time do not round an x near a pixel boundary alike.
+     */
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        final int[][] expectedRows = new int[WIDTH][];
+        final int[][] actualRows = new int[WIDTH][];
+        for (int x = 0; x < WIDTH; x++) {
+            expectedRows[x] = rows(expected, x);
+            actualRows[x] = rows(actual, x);
+        }
+
+        for (int x = 0; x < WIDTH; x++) {
+            for (int end = 0; end < 2; end++) {
+                assertTrue("column " + x, isNear(actualRows[x][end], expectedRows, x, end));
+                assertTrue("column " + x, isNear(expectedRows[x][end], actualRows, x, end));
+            }
+        }
+    }
+
+    /**
+     * Returns whether the row is between the rows of the given end of the column and its
+     * neighbours, give or take one pixel.
+     */
+    private static boolean isNear(int row, int[][] rows, int x, int end) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int k = Math.max(x - 1, 0); k <= Math.min(x + 1, WIDTH - 1); k++) {
+            min = Math.min(min, rows[k][end]);
+            max = Math.max(max, rows[k][end]);
+        }
+        return row >= min - 1 && row <= max + 1;
+    }
+
+    /**
+     * Returns the first and the last row of a pixel column drawn by the series, -1 for none.
+     */
+    private static int[] rows(BufferedImage image, int x) {
+        final int[] rows = {-1, -1};
+        for (int y = 0; y < HEIGHT; y++) {
+            if (image.getRGB(x, y) == Color.RED.getRGB()) {
+                if (rows[0] < 0) {
+                    rows[0] = y;
+                }
+                rows[1] = y;
+            }
+        }
+        return rows;
+    }
+}
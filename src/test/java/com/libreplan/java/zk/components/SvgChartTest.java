@@ -0,0 +1,135 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.geom.Rectangle2D;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.zkoss.json.parser.JSONParser;
+import org.zkoss.zk.ui.event.MouseEvent;
+import org.zkoss.zul.Area;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.SimplePieModel;
+
+/**
+ * A chart drawn as SVG is a well formed document with the regions of the areas the chart
+ * would have had as children.
+ */
+public class SvgChartTest {
+
+    @Test
+    public void svgHasTheRegionsOfTheAreas() throws Exception {
+        final Chart chart = newChart();
+        new JFreeChartEngine().drawChart(chart);
+        final List<Area> areas = new ArrayList<>();
+        for (Object child : chart.getChildren()) {
+            areas.add((Area) child);
+        }
+
+        chart.setAttribute("image-format", "svg");
+        assertArrayEquals(AsyncRender.getPlaceholder(), new JFreeChartEngine().drawChart(chart));
+        assertEquals(0, chart.getChildren().size());
+
+        final Map<?, ?> payload = (Map<?, ?>) new JSONParser().parse(
+                chart.getWidgetOverride("_jfcSvg").replaceAll("([{,])([a-z]):", "$1\"$2\":"));
+        final Document svg = parse((String) payload.get("m"));
+        assertEquals("svg", svg.getDocumentElement().getTagName());
+        assertEquals("400", svg.getDocumentElement().getAttribute("width"));
+        assertEquals("300", svg.getDocumentElement().getAttribute("height"));
+        assertTrue(svg.getDocumentElement().getTextContent().contains("Sales <2025> & \"more\""));
+
+        final List<Element> regions = new ArrayList<>();
+        final NodeList all = svg.getElementsByTagName("*");
+        for (int i = 0; i < all.getLength(); i++) {
+            final Element element = (Element) all.item(i);
+            if (element.hasAttribute("data-jfc")) {
+                regions.add(element);
+            }
+        }
+
+        assertEquals(areas.size(), regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            final Element region = regions.get(i);
+            final Area expected = areas.get(i);
+            assertEquals(String.valueOf(i), region.getAttribute("data-jfc"));
+            final NodeList titles = region.getElementsByTagName("title");
+            assertEquals(expected.getTooltiptext(), titles.getLength() > 0 ? titles.item(0).getTextContent() : null);
+
+            final Area found = JFreeChartEngine.getArea(new MouseEvent("onClick", chart, payload.get("p").toString() + i, 0));
+            assertEquals(expected.getId(), found.getId());
+            assertEquals(expected.getAttributes(), found.getAttributes());
+        }
+    }
+
+    @Test
+    public void graphicsWritesShapesAndEscapedText() throws Exception {
+        final SvgGraphics2D g2 = new SvgGraphics2D(200, 100);
+        g2.setColor(new Color(255, 0, 0, 128));
+        g2.fill(new Rectangle2D.Double(10, 20, 30, 40));
+        g2.setFont(new Font("SansSerif", Font.BOLD, 12));
+        g2.drawString("a < b & c", 5f, 50f);
+        g2.dispose();
+
+        final Document svg = parse(new String(g2.toSvg(), StandardCharsets.UTF_8));
+        assertEquals("200", svg.getDocumentElement().getAttribute("width"));
+        assertEquals("a < b & c", svg.getElementsByTagName("text").item(0).getTextContent());
+        final Element rect = (Element) svg.getElementsByTagName("rect").item(0);
+        assertEquals("30", rect.getAttribute("width"));
+        assertEquals("#ff0000", rect.getAttribute("fill"));
+        assertEquals("0.5", rect.getAttribute("fill-opacity"));
+    }
+
+    private static Document parse(String svg) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(svg)));
+    }
+
+    private static Chart newChart() {
+        final SimplePieModel model = new SimplePieModel();
+        for (int i = 0; i < 6; i++) {
+            model.setValue("slice " + i, i + 1);
+        }
+
+        final Chart chart = new TestChart();
+        chart.setId("chart");
+        chart.setType(Chart.PIE);
+        chart.setTitle("Sales <2025> & \"more\"");
+        chart.setWidth("400px");
+        chart.setHeight("300px");
+        chart.setShowTooltiptext(true);
+        chart.setModel(model);
+        chart.setAttribute("render-cache", false);
+        return chart;
+    }
+}
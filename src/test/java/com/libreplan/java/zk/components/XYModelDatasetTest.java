@@ -0,0 +1,84 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.libreplan.java.zk.components;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.TimeZone;
+
+import org.junit.Test;
+import org.zkoss.zul.Chart;
+import org.zkoss.zul.SimpleXYModel;
+
+/**
+ * The x and y values of a dataset are the numbers of the model, as in a XYSeries or TimeSeries.
+ */
+public class XYModelDatasetTest {
+
+    @Test
+    public void valuesKeepTheNumbersOfTheModel() {
+        final SimpleXYModel model = new SimpleXYModel();
+        model.setAutoSort(true);
+        model.addValue("s0", 3, 72);
+        model.addValue("s0", 1, 2.5);
+        model.addValue("s0", 2, 7L);
+
+        final XYModelDataset dataset = XYModelDataset.ofValues(model);
+        assertEquals(2.5, dataset.getY(0, 0));
+        assertEquals(7L, dataset.getY(0, 1));
+        assertEquals(72, dataset.getY(0, 2));
+
+        dataset.addValue(0, 0, 5);
+        assertEquals(5, dataset.getY(0, 0));
+        assertEquals(72, dataset.getY(0, 3));
+    }
+
+    @Test
+    public void xValuesKeepTheNumbersOfTheModel() {
+        final SimpleXYModel model = new SimpleXYModel();
+        model.setAutoSort(true);
+        model.addValue("s0", 3, 1);
+        model.addValue("s0", 1, 2);
+        model.addValue("s0", 2.5, 3);
+        model.addValue("s1", 4L, 4);
+
+        final XYModelDataset dataset = XYModelDataset.ofValues(model);
+        assertEquals(1, dataset.getX(0, 0));
+        assertEquals(2.5, dataset.getX(0, 1));
+        assertEquals(3, dataset.getX(0, 2));
+        assertEquals(4L, dataset.getX(1, 0));
+
+        dataset.addValue(0, 2, 5);
+        assertEquals(2, dataset.getX(0, 1));
+        assertEquals(2.5, dataset.getX(0, 2));
+    }
+
+    @Test
+    public void periodsKeepTheNumberOfTheirLastPoint() {
+        final SimpleXYModel model = new SimpleXYModel();
+        model.addValue("s0", 1000L, 72);
+        model.addValue("s0", 0L, 3);
+        model.addValue("s0", 60000L, 1.5);
+
+        final PeriodBuckets buckets = new PeriodBuckets(Chart.MINUTE, TimeZone.getTimeZone("UTC"));
+        final XYModelDataset dataset = XYModelDataset.ofPeriods(model, buckets, PeriodBuckets.Aggregation.LAST);
+        assertEquals(3, dataset.getY(0, 0)); // The last in model order
+        assertEquals(1.5, dataset.getY(0, 1));
+
+        final XYModelDataset sums = XYModelDataset.ofPeriods(model, buckets, PeriodBuckets.Aggregation.SUM);
+        assertEquals(75.0, sums.getY(0, 0));
+    }
+}